@@ -0,0 +1,73 @@
+package serveur;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+//Banc d'essai des commandes internes (Builtins) face aux mêmes commandes lancées par le shell (nouveau processus).
+//ls et du portent sur un répertoire temporaire de 100 fichiers, les autres sur un de ces fichiers (5000 lignes, environ 24 Ko).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuiltinCommandBenchmark {
+    private static final CommandOutput DISCARD = new CommandOutput() {
+        @Override
+        public void write(boolean error, byte[] data, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    @Param({"ls", "cat", "wc -l", "tail -n 20", "stat -c %s:%Y", "du -sb"})
+    private String command;
+
+    private Path directory;
+    private String targetCommand;
+    private CommandExecutor builtins;
+    private CommandExecutor processes;//commandes internes désactivées: même commande lancée par le shell
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("banc-internes");
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= 5000; i++) {
+            lines.append(i).append('\n');
+        }
+        Files.write(directory.resolve("lignes"), lines.toString().getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < 99; i++) {
+            Files.write(directory.resolve("fichier" + i), new byte[i]);
+        }
+        Path target = command.equals("ls") || command.equals("du -sb") ? directory : directory.resolve("lignes");
+        targetCommand = command + " " + target;
+        builtins = new CommandExecutor(0, true);
+        processes = new CommandExecutor(0, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public int executeBuiltin() throws IOException {
+        return builtins.execute(targetCommand, DISCARD, 0);
+    }
+
+    @Benchmark
+    public int executeProcess() throws IOException {
+        return processes.execute(targetCommand, DISCARD, 0);
+    }
+}
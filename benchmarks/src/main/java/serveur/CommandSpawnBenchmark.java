@@ -0,0 +1,58 @@
+package serveur;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+//Banc d'essai du coût de lancement d'une commande par CommandExecutor: création du processus (shell),
+//lecture de ses deux sorties par les threads de lecture et attente de sa fin.
+//"true" ne produit aucune sortie; "echo" en produit une ligne; le mode texte regroupe la sortie en une String (execute(String)).
+//executePersistentShell écrit la même commande dans un shell déjà démarré (PersistentShell): ni fork ni exec du shell.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandSpawnBenchmark {
+    private static final CommandOutput DISCARD = new CommandOutput() {
+        @Override
+        public void write(boolean error, byte[] data, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    @Param({"true", "echo bonjour"})
+    private String command;
+
+    private CommandExecutor executor;
+    private PersistentShell shell;
+
+    @Setup
+    public void setup() throws IOException {
+        executor = new CommandExecutor(0);
+        shell = PersistentShell.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Benchmark
+    public int executeStreaming() throws IOException {
+        return executor.execute(command, DISCARD);
+    }
+
+    @Benchmark
+    public String executeToString() throws IOException {
+        return executor.execute(command);
+    }
+
+    @Benchmark
+    public int executePersistentShell() throws IOException {
+        return executor.execute("banc", command, DISCARD, shell);
+    }
+}
@@ -0,0 +1,54 @@
+package serveur;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+//Banc d'essai de la recherche du marqueur END_OF_FILE dans les blocs reçus pendant un upload du protocole texte:
+//  - ClientHandler.containsEndOfFile: décodage du bloc en String puis contains (mode threads)
+//  - NioSession.indexOf: recherche directe dans les octets du tampon (mode NIO)
+//Le marqueur est absent (cas de tous les blocs sauf le dernier) ou à la fin du bloc.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndOfFileScanBenchmark {
+    private static final byte[] MARKER = "END_OF_FILE".getBytes();
+
+    @Param({"8192", "65536"})
+    private int blockSize;
+
+    @Param({"false", "true"})
+    private boolean markerPresent;
+
+    private byte[] block;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        block = new byte[blockSize];
+        new Random(42).nextBytes(block);
+        for (int i = 0; i < block.length; i++) {
+            if (block[i] == 'E') {//pas de début de marqueur fortuit dans les données
+                block[i] = 'e';
+            }
+        }
+        if (markerPresent) {
+            System.arraycopy(MARKER, 0, block, block.length - MARKER.length - 1, MARKER.length);
+            block[block.length - 1] = '\n';
+        }
+        buffer = ByteBuffer.wrap(block);
+    }
+
+    @Benchmark
+    public boolean decodeAndContains() {
+        return ClientHandler.containsEndOfFile(block, block.length);
+    }
+
+    @Benchmark
+    public int byteIndexOf() {
+        return NioSession.indexOf(buffer, MARKER);
+    }
+}
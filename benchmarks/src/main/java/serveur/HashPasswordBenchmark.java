@@ -0,0 +1,21 @@
+package serveur;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+//Banc d'essai du hachage des mots de passe (Server.hashPassword), fait à chaque authentification même quand le cache
+//d'authentification évite la requête SQL.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashPasswordBenchmark {
+    @Param({"motdepasse", "une phrase de passe nettement plus longue que la moyenne"})
+    private String password;
+
+    @Benchmark
+    public String hashPassword() {
+        return Server.hashPassword(password);
+    }
+}
@@ -0,0 +1,108 @@
+package serveur;
+
+import client.Client;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+//Banc d'essai des transferts de fichiers de bout en bout sur la boucle locale: un serveur et un client dans la même JVM,
+//TLS, protocole binaire, en mode threads et en mode NIO. Le débit est la taille du fichier divisée par le temps moyen.
+//Les utilisateurs sont en mémoire (MemoryUserStore: aucune base de données n'est nécessaire) et le journal des clients n'écrit plus sur la console.
+//Les fichiers de clés keystore.jks et client-truststore.jks sont lus dans le répertoire courant (racine du dépôt),
+//comme pour Server.main et Client.main; -Dbancs.keystore et -Dbancs.truststore permettent d'en donner d'autres.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackTransferBenchmark {
+    @Param({"threads", "nio"})
+    private String mode;
+
+    @Param({"1048576", "16777216"})
+    private int size;
+
+    private Server server;
+    private Client client;
+    private File file;//fichier envoyé par upload et servi par download
+    private File downloads;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty("javax.net.ssl.keyStore", System.getProperty("bancs.keystore", "keystore.jks"));
+        System.setProperty("javax.net.ssl.keyStorePassword", "hamid123");
+        System.setProperty("javax.net.ssl.trustStore", System.getProperty("bancs.truststore", "client-truststore.jks"));
+        System.setProperty("javax.net.ssl.trustStorePassword", "hamid123");
+        for (Handler handler : Logger.getLogger(ClientCommandLogger.class.getName()).getHandlers()) {
+            if (handler instanceof ConsoleHandler) {
+                handler.setLevel(java.util.logging.Level.WARNING);
+            }
+        }
+
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        config.setMode(ServerConfig.parseMode(mode, config.getMode()));
+        config.setMetricsPort(0);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new Server(port, config, new MemoryUserStore().add("banc", "banc"));
+        Thread serverThread = new Thread(server::start, "serveur-banc");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        client = new Client("localhost", port, "banc", "banc");
+        client.setDeduplication(false);//chaque upload transfère le fichier (sinon seul le premier enverrait des données)
+        client.setDeltaTransfer(false);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!client.connect()) {//le serveur met un moment à démarrer
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Le serveur ne répond pas sur le port " + port);
+            }
+            Thread.sleep(100);
+        }
+        if (!client.isBinaryProtocol()) {
+            throw new IllegalStateException("Le protocole binaire n'a pas été négocié");
+        }
+
+        file = new File("banc-" + size + ".bin");//download lit le fichier dans le répertoire courant du serveur
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Files.write(file.toPath(), data);
+        downloads = Files.createTempDirectory("banc-downloads").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.stop();
+        Files.deleteIfExists(file.toPath());
+        server.deleteFile(file.getName());
+        Files.deleteIfExists(new File(downloads, file.getName()).toPath());
+        Files.deleteIfExists(downloads.toPath());
+    }
+
+    @Benchmark
+    public String upload() {
+        return check(client.uploadFile(file.getPath()));
+    }
+
+    @Benchmark
+    public String download() {
+        return check(client.downloadFile(file.getName(), downloads.getPath()));
+    }
+
+    private static String check(String response) {//un transfert en erreur fausserait la mesure
+        if (response.startsWith("Erreur") || response.startsWith(Server.ERROR_PREFIX)) {
+            throw new IllegalStateException(response);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,80 @@
+package serveur;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import protocole.Frame;
+import protocole.FrameReader;
+import protocole.FrameWriter;
+import protocole.Protocole;
+//Banc d'essai de l'analyse des messages du protocole:
+//  - protocole texte: message d'authentification, proposition de protocole binaire et lignes de commande,
+//    traités comme dans ClientHandler.run()
+//  - protocole binaire: lecture des en-têtes et des charges utiles d'une suite de trames CMD (FrameReader)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolParsingBenchmark {
+    private static final int FRAMES = 100;//trames lues par appel de readCommandFrames
+
+    private final String authMessage = Server.AUTH_PREFIX + " alice motdepasse";
+    private final String negotiation = Protocole.NEGOTIATION_PREFIX + "1,2";
+    private final String[] lines = {
+            Server.COMMAND_PREFIX + "ls -l /tmp",
+            Server.COMMAND_PREFIX + ClientHandler.UPLOAD_COMMAND + " rapport.pdf",
+            Server.COMMAND_PREFIX + ClientHandler.DOWNLOAD_COMMAND + " archive.zip",
+            Server.DISCONNECT_MESSAGE
+    };
+    private byte[] frames;
+
+    @Setup
+    public void setup() throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(data);
+        for (int i = 0; i < FRAMES; i++) {
+            writer.writeText(Frame.CMD, i, "ls -l /tmp/" + i);
+        }
+        writer.flush();
+        frames = data.toByteArray();
+    }
+
+    @Benchmark
+    public String[] parseAuthMessage() {
+        return ClientHandler.parseAuthMessage(authMessage);
+    }
+
+    @Benchmark
+    public int selectVersion() {
+        return Protocole.selectVersion(negotiation);
+    }
+
+    @Benchmark
+    public void classifyTextLines(Blackhole blackhole) {//même suite de tests que la boucle des commandes de ClientHandler.run()
+        for (String message : lines) {
+            if (message.equals(Server.DISCONNECT_MESSAGE)) {
+                blackhole.consume(0);
+            } else if (message.startsWith(Protocole.NEGOTIATION_PREFIX)) {
+                blackhole.consume(Protocole.selectVersion(message));
+            } else if (message.startsWith(Server.COMMAND_PREFIX)) {
+                String command = message.substring(Server.COMMAND_PREFIX.length());
+                blackhole.consume(command.startsWith(ClientHandler.UPLOAD_COMMAND) ? 1 : command.startsWith(ClientHandler.DOWNLOAD_COMMAND) ? 2 : 3);
+                blackhole.consume(command);
+            }
+        }
+    }
+
+    @Benchmark
+    public void readCommandFrames(Blackhole blackhole) throws IOException {
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(frames));
+        while (reader.nextHeader()) {
+            blackhole.consume(reader.getRequestId());
+            blackhole.consume(reader.readText());
+        }
+    }
+}
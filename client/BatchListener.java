@@ -0,0 +1,7 @@
+package client;
+
+//Cette interface reçoit les résultats d'un lot de commandes dès la fin de chaque commande (voir Client.executeBatchAsync()).
+//Elle est appelée sur le thread de lecture des réponses: une interface graphique doit repasser par son propre thread pour s'afficher.
+public interface BatchListener {
+    void onResult(BatchResult result);//résultat d'une commande, dans l'ordre de fin; getIndex() donne sa place dans le lot
+}
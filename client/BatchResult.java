@@ -0,0 +1,81 @@
+package client;
+
+//Cette classe représente le résultat d'une commande d'un lot (voir Client.executeBatch()).
+public final class BatchResult {
+    private final int index;
+    private final String command;
+    private final int exitCode;
+    private final String output;
+    private final String errorOutput;
+    private final boolean timedOut;
+    private final boolean failed;
+    private final boolean truncated;
+
+    BatchResult(int index, String command, int exitCode, String output, String errorOutput, boolean timedOut, boolean failed, boolean truncated) {
+        this.index = index;
+        this.command = command;
+        this.exitCode = exitCode;
+        this.output = output;
+        this.errorOutput = errorOutput;
+        this.timedOut = timedOut;
+        this.failed = failed;
+        this.truncated = truncated;
+    }
+
+    public int getIndex() {//place de la commande dans le lot (à partir de 0)
+        return index;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int getExitCode() {//code de sortie, -1 s'il est inconnu (protocole texte), si le délai a été dépassé ou si la commande a échoué
+        return exitCode;
+    }
+
+    public String getOutput() {//sortie standard
+        return output;
+    }
+
+    public String getErrorOutput() {//sortie d'erreur, suivie du message d'erreur si le délai a été dépassé ou si la commande a échoué
+        return errorOutput;
+    }
+
+    public boolean isTimedOut() {//commande arrêtée par le serveur après le délai du lot
+        return timedOut;
+    }
+
+    public boolean isFailed() {//commande non exécutée (erreur du serveur ou de communication)
+        return failed;
+    }
+
+    public boolean isTruncated() {//sortie trop longue, dont la fin a été ignorée par le serveur
+        return truncated;
+    }
+
+    @Override
+    public String toString() {//Même présentation que Client.executeCommand(String), précédée d'une ligne d'état
+        StringBuilder text = new StringBuilder("[").append(index).append("] ").append(command).append(" -> ");
+        if (timedOut) {
+            text.append("délai dépassé");
+        } else if (failed) {
+            text.append("échec");
+        } else {
+            text.append("code ").append(exitCode);
+        }
+        if (truncated) {
+            text.append(" (sortie tronquée)");
+        }
+        text.append('\n').append(output);
+        if (!output.isEmpty() && !output.endsWith("\n")) {
+            text.append('\n');
+        }
+        for (String line : errorOutput.split("\n")) {
+            if (!line.isEmpty()) {
+                text.append("ERROR: ").append(line).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -1,14 +1,57 @@
 package client;
 
 import java.io.*;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 import java.util.logging.*;
+import protocole.Compressor;
+import protocole.Frame;
+import protocole.FrameReader;
+import protocole.FrameWriter;
+import protocole.Protocole;
+import protocole.RollingChecksum;
+import protocole.TlsContext;
 //cette classe permet de créer un client qui se connecte à un serveur distant et exécute des commandes à distance.
 //Il peut également envoyer et recevoir des fichiers du serveur.
 //Le client utilise SSLSocket pour établir une connexion sécurisée avec le serveur.
 //Le client est capable de gérer les commandes de transfert de fichiers UPLOAD et DOWNLOAD.
+//Après l'authentification, le client propose le protocole binaire (voir protocole.Frame) et revient au protocole texte si le serveur le refuse.
+//En protocole binaire, plusieurs requêtes peuvent être en cours sur la même session (méthodes *Async): un thread de lecture
+//répartit les trames reçues entre les requêtes selon leur identifiant. En protocole texte, les requêtes sont exécutées une à une.
+//Toutes les méthodes publiques peuvent être appelées depuis plusieurs threads.
+//Toutes les instances partagent le même contexte SSL: une reconnexion au même serveur reprend la session TLS précédente.
+//En protocole binaire, les uploads sont envoyés par blocs vérifiés (trames RESUME/CHUNK): après une coupure, le client se reconnecte
+//et reprend l'envoi à la position confirmée par le serveur au lieu de renvoyer tout le fichier.
+//Les gros fichiers sont transférés en plusieurs plages d'octets sur des connexions parallèles (voir setTransferStreams()):
+//une seule connexion TCP est limitée par sa fenêtre sur un lien à forte latence.
 public class Client {  
+    private static TlsContext tlsContext;// Contexte SSL partagé, créé à la première connexion
     private String serverAddress;//Adresse IP du serveur
     private int serverPort;// Port du serveur
     private String login;// Login de l'utilisateur
@@ -17,6 +60,31 @@ public class Client {
     private Logger logger;// Utilisation de java.util.logging.Logger pour les messages de journalisation
     private BufferedReader in;// Flux d'entrée pour lire les données du serveur
     private PrintWriter out;// Flux de sortie pour envoyer des données au serveur
+    private boolean binaryRequested;// Indique si le protocole binaire doit être proposé au serveur
+    private boolean binary;// Indique si le protocole binaire a été négocié pour cette session
+    private FrameReader frameReader;// Lecture des trames (protocole binaire)
+    private FrameWriter frameWriter;// Écriture des trames (protocole binaire)
+    private final AtomicInteger nextRequestId;// Identifiant de la prochaine requête (protocole binaire)
+    private final Map<Integer, PendingRequest> pendingRequests;// Requêtes en attente de leur trame END, par identifiant
+    private volatile IOException readerFailure;// Erreur qui a arrêté le thread de lecture des réponses (null tant qu'il fonctionne)
+    private ExecutorService requestExecutor;// Requêtes du protocole texte (une à la fois) ou envoi des uploads (protocole binaire)
+    private Thread readerThread;// Thread de lecture des réponses (protocole binaire)
+    private int transferStreams;// Connexions par transfert de fichier (0: selon la taille du fichier)
+    private int connectTimeout;// Attente maximale de la connexion, de la poignée de main et de l'authentification en ms (0: illimitée)
+    private boolean compressionRequested;// Indique si la compression des trames doit être proposée au serveur
+    private boolean deduplication;// Indique si les blocs déjà présents sur le serveur sont omis des uploads (trame HAVE)
+    private boolean deltaTransfer;// Indique si une nouvelle version d'un fichier du serveur est envoyée par différence (trame SIGNATURE)
+    private Compressor compressor;// Compression négociée pour cette session (null si aucune)
+    private volatile List<String> capabilities = Collections.emptyList();// Types de trame facultatifs annoncés par le serveur (voir Protocole)
+
+    private static final int MAX_UPLOAD_ATTEMPTS = 5;// Envois d'un même upload par blocs (le premier et les reprises)
+    private static final int MAX_RECONNECT_ATTEMPTS = 5;// Tentatives de reconnexion après une coupure pendant un upload
+    private static final long RECONNECT_DELAY_MS = 500;// Attente avant la première tentative, doublée à chaque échec
+    private static final long PARALLEL_MIN_SIZE = 64L * 1024 * 1024;// Taille à partir de laquelle un fichier est transféré en plusieurs plages
+    private static final long BYTES_PER_STREAM = 32L * 1024 * 1024;// Octets par connexion lorsque leur nombre est choisi selon la taille
+    private static final int MAX_AUTO_STREAMS = 8;// Connexions au plus lorsque leur nombre est choisi selon la taille
+    private static final long DEDUPLICATION_MIN_SIZE = 1024L * 1024;// Taille à partir de laquelle les blocs connus du serveur sont recherchés
+    private static final long DELTA_MIN_SIZE = Frame.DATA_CHUNK_SIZE;// Taille à partir de laquelle un envoi différentiel est tenté
 
     // Constantes du protocole de communication
     public static final String COMMAND_PREFIX = "CMD:";
@@ -31,6 +99,7 @@ public class Client {
     // Constantes pour les commandes de transfert de fichiers
     public static final String UPLOAD_COMMAND = "UPLOAD";
     public static final String DOWNLOAD_COMMAND = "DOWNLOAD";
+    public static final String BATCH_COMMAND = "BATCH";// Lot de commandes lu dans un fichier (console)
 
     /**
      * Constructeur du client
@@ -45,16 +114,79 @@ public class Client {
         this.login = login;
         this.password = password;
         this.logger = Logger.getLogger(Client.class.getName());
+        this.binaryRequested = true;
+        this.nextRequestId = new AtomicInteger();
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.transferStreams = Integer.getInteger("client.flux", 0);
+        this.compressionRequested = Boolean.parseBoolean(System.getProperty("client.compression", "true"));
+        this.deduplication = Boolean.parseBoolean(System.getProperty("client.dedup", "true"));
+        this.deltaTransfer = Boolean.parseBoolean(System.getProperty("client.delta", "true"));
+    }
+
+    // Borne la durée de connect() (connexion TCP, poignée de main TLS, authentification); 0 pour attendre indéfiniment
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = Math.max(0, connectTimeout);
+    }
+
+    // Active ou désactive la proposition du protocole binaire (à appeler avant connect())
+    public void setBinaryProtocol(boolean binaryRequested) {
+        this.binaryRequested = binaryRequested;
+    }
+
+    // Nombre de connexions utilisées pour transférer un fichier en protocole binaire: 1 désactive les transferts parallèles,
+    // 0 (par défaut, ou propriété système client.flux) le choisit selon la taille du fichier. Les connexions supplémentaires
+    // sont ouvertes avec les mêmes identifiants le temps du transfert; si certaines échouent, le transfert en utilise moins.
+    public void setTransferStreams(int transferStreams) {
+        this.transferStreams = Math.max(0, transferStreams);
+    }
+
+    // Active ou désactive la proposition de compresser les trames (à appeler avant connect(); propriété système
+    // client.compression). La compression n'est utilisée que si le serveur l'accepte, et seulement pour les blocs qui y gagnent.
+    public void setCompression(boolean compressionRequested) {
+        this.compressionRequested = compressionRequested;
+    }
+
+    // Active ou désactive la recherche des blocs déjà présents sur le serveur avant un upload (propriété système client.dedup):
+    // le client calcule l'empreinte de chaque bloc du fichier et n'envoie que les blocs que le serveur n'a pas.
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    // Active ou désactive l'envoi différentiel (propriété système client.delta): si le serveur a déjà une version du fichier,
+    // seules les parties modifiées sont envoyées, les autres étant reprises de cette version par le serveur.
+    public void setDeltaTransfer(boolean deltaTransfer) {
+        this.deltaTransfer = deltaTransfer;
+    }
+
+    // Retourne le contexte SSL partagé par tous les clients (statistiques des poignées de main)
+    // Il est créé à la première connexion à partir du fichier de confiance javax.net.ssl.trustStore
+    public static synchronized TlsContext getTlsContext() throws IOException {
+        if (tlsContext == null) {
+            try {
+                tlsContext = TlsContext.forClient(TlsContext.DEFAULT_SESSION_CACHE_SIZE, TlsContext.DEFAULT_SESSION_TIMEOUT_SECONDS);
+            } catch (java.security.GeneralSecurityException e) {
+                throw new IOException("Contexte SSL invalide: " + e.getMessage(), e);
+            }
+        }
+        return tlsContext;
+    }
+
+    // Indique si la session utilise le protocole binaire
+    public boolean isBinaryProtocol() {
+        return binary;
     }
 
     // Établit une connexion avec le serveur et authentifie l'utilisateur
     // return true si la connexion et l'authentification réussissent, sinon false
      
     public boolean connect() {
+        binary = false;
         try {
-            // Création de la fabrique de sockets SSL
-            SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();// Créer une fabrique de sockets SSL
-            socket = (SSLSocket) sslSocketFactory.createSocket(serverAddress, serverPort);//  Créer un socket SSL pour se connecter au serveur distant 
+            // Création du socket SSL avec le contexte partagé (reprise de la session précédente si elle est encore valide)
+            TlsContext tls = getTlsContext();
+            socket = connectTimeout > 0 ? tls.createSocket(serverAddress, serverPort, connectTimeout) : tls.createSocket(serverAddress, serverPort);//  Créer un socket SSL pour se connecter au serveur distant 
+            socket.setSoTimeout(connectTimeout);// Un serveur qui ne répond pas n'arrête pas le client pendant la poignée de main et l'authentification
+            tls.handshake(socket);
 
             // Initialisation des flux d'entrée/sortie
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
@@ -71,6 +203,18 @@ public class Client {
 
             if (AUTH_SUCCESS.equals(response)) {
                 logger.info("Connecté au serveur " + serverAddress + ":" + serverPort);
+                if (binaryRequested) {
+                    negotiateBinaryProtocol();
+                }
+                socket.setSoTimeout(0);// Une commande peut rester longtemps sans produire de sortie
+                if (binary) {// Plusieurs requêtes simultanées: un thread lit les réponses, les uploads sont envoyés par des threads dédiés
+                    requestExecutor = Executors.newCachedThreadPool(Client::daemonThread);
+                    readerFailure = null;
+                    readerThread = daemonThread(this::readResponses);
+                    readerThread.start();
+                } else {// Protocole texte: une requête à la fois
+                    requestExecutor = Executors.newSingleThreadExecutor(Client::daemonThread);
+                }
                 return true;
             } else {
                 logger.warning("Échec de l'authentification: " + response);
@@ -79,24 +223,94 @@ public class Client {
             }
         } catch (IOException e) {
             logger.severe("Impossible de se connecter au serveur: " + e.getMessage());
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException closeError) {
+                    // La connexion n'a pas abouti: rien d'autre à libérer
+                }
+            }
             return false;
         }
     }
 
+    // Propose le protocole binaire au serveur; la session reste en protocole texte si le serveur le refuse ou ne répond pas
+    private void negotiateBinaryProtocol() throws IOException {
+        sendMessage(Protocole.NEGOTIATION_PREFIX + Protocole.VERSION + (compressionRequested ? "," + Compressor.DEFLATE : "")
+                + "," + String.join(",", Protocole.CAPABILITIES));
+        int previousTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(Protocole.NEGOTIATION_TIMEOUT_MS);// Un serveur trop ancien ignore la proposition: ne pas l'attendre indéfiniment
+        try {
+            String response = in.readLine();
+            // "PROTO_OK:1" suivi de la compression et des types de trame facultatifs acceptés par le serveur
+            List<String> accepted = response != null && response.startsWith(Protocole.NEGOTIATION_OK)
+                    ? Arrays.asList(response.substring(Protocole.NEGOTIATION_OK.length()).split(",")) : Collections.emptyList();
+            boolean compressed = accepted.contains(Compressor.DEFLATE);
+            if (!accepted.isEmpty() && accepted.get(0).equals(String.valueOf(Protocole.VERSION))) {
+                // Le serveur n'envoie rien d'autre avant notre première trame: "in" n'a rien lu au-delà de cette ligne
+                frameReader = new FrameReader(socket.getInputStream());
+                frameWriter = new FrameWriter(socket.getOutputStream());
+                compressor = compressed ? new Compressor() : null;
+                frameWriter.setCompressor(compressor);
+                capabilities = Protocole.selectCapabilities(response);
+                binary = true;
+                logger.info("Protocole binaire v" + Protocole.VERSION + " négocié" + (compressed ? " (compression " + Compressor.DEFLATE + ")" : "")
+                        + (capabilities.isEmpty() ? "" : ", " + String.join(", ", capabilities)));
+            } else {
+                logger.info("Protocole binaire refusé par le serveur, utilisation du protocole texte");
+            }
+        } catch (SocketTimeoutException e) {
+            logger.info("Aucune réponse à la négociation du protocole binaire, utilisation du protocole texte");
+        } finally {
+            socket.setSoTimeout(previousTimeout);
+        }
+    }
+
    //Ferme la connexion avec le serveur
     public void disconnect() {
         try {
             if (socket != null && !socket.isClosed()) {// Vérifier si le socket est ouvert avant de le fermer
-                sendMessage(DISCONNECT_MESSAGE);// Envoyer un message de déconnexion au serveur
+                if (binary) {
+                    frameWriter.write(Frame.DISCONNECT, 0);
+                    frameWriter.flush();
+                } else {
+                    sendMessage(DISCONNECT_MESSAGE);// Envoyer un message de déconnexion au serveur
+                }
                 socket.close();
                 in.close();
                 out.close();
             }
         } catch (IOException e) {
             logger.warning("Erreur lors de la déconnexion: " + e.getMessage());
+        } finally {
+            if (requestExecutor != null) {
+                requestExecutor.shutdown();
+            }
         }
     }
 
+    //Ferme la connexion sans prévenir le serveur: contrairement à disconnect(), qui le laisse terminer les requêtes en cours,
+    //le serveur voit la connexion rompue et arrête les commandes de la session (en protocole binaire)
+    public void abort() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Erreur lors de la déconnexion: " + e.getMessage());
+        } finally {
+            if (requestExecutor != null) {
+                requestExecutor.shutdown();
+            }
+        }
+    }
+
+    private static Thread daemonThread(Runnable task) {// Les threads du client n'empêchent pas l'application de se terminer
+        Thread thread = new Thread(task, "client-requetes");
+        thread.setDaemon(true);
+        return thread;
+    }
+
    //Envoie un message au serveur
     private void sendMessage(String message) {
         out.println(message);
@@ -113,7 +327,1251 @@ public class Client {
     }
 
    //Permet d'Exécuter une commande sur le serveur distant
-    public String executeCommand(String command) {// Méthode pour exécuter une commande sur le serveur distant et recevoir la réponse du serveur 
+    //Retourne sa sortie complète: la sortie standard, puis les lignes de la sortie d'erreur précédées de "ERROR: "
+    public String executeCommand(String command) {
+        if (!binary) {
+            return runText(() -> executeTextCommand(command)).join();
+        }
+        StringBuilder output = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        try {
+            BinaryResponse response = sendCommand(command, (text, error) -> (error ? errors : output).append(text)).join();
+            if (response.error != null) {
+                return response.toString();
+            }
+        } catch (CompletionException e) {
+            return communicationError(e);
+        }
+        for (String line : errors.toString().split("\n")) {
+            if (!line.isEmpty()) {
+                if (output.length() > 0 && output.charAt(output.length() - 1) != '\n') {
+                    output.append('\n');
+                }
+                output.append("ERROR: ").append(line).append('\n');
+            }
+        }
+        return output.toString().trim();
+    }
+
+    // Exécute une commande en transmettant sa sortie à listener au fur et à mesure de sa réception,
+    // au lieu d'attendre la fin de la commande
+    // Retourne le code de sortie de la commande, ou -1 s'il est inconnu (protocole texte) ou si la commande a échoué
+    public int executeCommand(String command, OutputListener listener) {
+        try {
+            return executeCommandAsync(command, listener).join();
+        } catch (CompletionException e) {
+            listener.onOutput(communicationError(e) + "\n", true);
+            return -1;
+        }
+    }
+
+    // Envoie une commande sans attendre sa réponse: d'autres requêtes peuvent être envoyées avant qu'elle ne se termine
+    // En protocole binaire, listener est appelé par le thread de lecture des réponses: il ne doit pas attendre une autre requête
+    // Le résultat est le code de sortie de la commande (voir executeCommand(String, OutputListener))
+    public CompletableFuture<Integer> executeCommandAsync(String command, OutputListener listener) {
+        if (!binary) {
+            return runText(() -> executeTextCommand(command, listener));
+        }
+        return sendCommand(command, listener).thenApply(response -> {
+            if (response.error != null) {
+                listener.onOutput("Erreur: " + response.error.trim() + "\n", true);
+            }
+            return response.exitCode;
+        });
+    }
+
+    // Exécute un lot de commandes indépendantes et retourne leurs résultats dans l'ordre du lot (voir executeBatchAsync())
+    public List<BatchResult> executeBatch(List<String> commands, int parallelism, long timeoutMillis) {
+        return executeBatchAsync(commands, parallelism, timeoutMillis, null).join();
+    }
+
+    // Envoie un lot de commandes indépendantes en une seule requête (trame BATCH): le serveur en exécute au plus parallelism à la
+    // fois (dans la limite de sa configuration) et arrête chacune après timeoutMillis (0: délai maximal du serveur).
+    // Chaque résultat est transmis à listener (s'il n'est pas null) dès la fin de sa commande; le résultat du futur est la liste
+    // complète, dans l'ordre du lot. Une commande qui n'a pas pu être exécutée, y compris après une erreur de communication,
+    // a un résultat en échec: le futur ne se termine pas en erreur.
+    // En protocole texte ou avec un serveur qui n'annonce pas les lots (voir Protocole), le client envoie les commandes une à une (au plus
+    // parallelism en cours) et le délai n'est pas appliqué.
+    public CompletableFuture<List<BatchResult>> executeBatchAsync(List<String> commands, int parallelism, long timeoutMillis, BatchListener listener) {
+        if (parallelism < 1 || timeoutMillis < 0) {
+            throw new IllegalArgumentException("Parallélisme ou délai du lot invalide: " + parallelism + ", " + timeoutMillis + " ms");
+        }
+        if (commands.size() > Frame.MAX_BATCH_COMMANDS) {
+            throw new IllegalArgumentException("Lot de commandes trop grand: " + commands.size() + " commandes (au plus " + Frame.MAX_BATCH_COMMANDS + ")");
+        }
+        if (commands.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        if (!binary || !capabilities.contains(Protocole.BATCH)) {
+            return executeBatchLocally(commands, parallelism, listener);
+        }
+        PendingBatch batch = new PendingBatch(commands, listener);
+        return sendBatch(batch, parallelism, timeoutMillis).handle((response, e) -> {
+            String error = e != null ? "Erreur de communication: " + cause(e).getMessage() : response.error;
+            return completeBatch(batch, error);
+        });
+    }
+
+    private CompletableFuture<BinaryResponse> sendBatch(PendingBatch batch, int parallelism, long timeoutMillis) {
+        List<byte[]> encoded = new ArrayList<>();
+        int length = 12;
+        for (String command : batch.commands) {
+            byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            length += 4 + bytes.length;
+        }
+        if (length > Frame.MAX_BATCH_LENGTH) {
+            throw new IllegalArgumentException("Lot de commandes trop grand: " + length + " octets (au plus " + Frame.MAX_BATCH_LENGTH + ")");
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.putInt(parallelism).putInt((int) Math.min(timeoutMillis, Integer.MAX_VALUE)).putInt(encoded.size());
+        for (byte[] bytes : encoded) {
+            payload.putInt(bytes.length).put(bytes);
+        }
+        PendingRequest request = new PendingRequest(null, null);
+        request.batch = batch;
+        int requestId = register(request);
+        try {
+            frameWriter.write(Frame.BATCH, requestId, payload.array(), 0, length);
+            frameWriter.flush();
+        } catch (IOException e) {
+            fail(requestId, e);
+        }
+        return request.response;
+    }
+
+    // Décode une trame BATCH de réponse (thread de lecture) et transmet le résultat; une trame invalide est ignorée
+    private void receiveBatchResult(PendingBatch batch, byte[] payload) {
+        if (payload.length < Frame.BATCH_RESULT_HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.wrap(payload);
+        int index = header.getInt();
+        byte status = header.get();
+        int exitCode = header.getInt();
+        int outputLength = header.getInt();
+        if (index < 0 || index >= batch.results.length || batch.results[index] != null
+                || outputLength < 0 || outputLength > payload.length - Frame.BATCH_RESULT_HEADER_SIZE) {
+            return;
+        }
+        String output = new String(payload, Frame.BATCH_RESULT_HEADER_SIZE, outputLength, StandardCharsets.UTF_8);
+        int errorOffset = Frame.BATCH_RESULT_HEADER_SIZE + outputLength;
+        String errorOutput = new String(payload, errorOffset, payload.length - errorOffset, StandardCharsets.UTF_8);
+        byte state = (byte) (status & ~Frame.BATCH_TRUNCATED);
+        boolean truncated = (status & Frame.BATCH_TRUNCATED) != 0;
+        deliverBatchResult(batch, new BatchResult(index, batch.commands.get(index), exitCode, output, errorOutput,
+                state == Frame.BATCH_TIMEOUT, state == Frame.BATCH_FAILED, truncated));
+    }
+
+    // Fin du lot: les commandes sans résultat (lot refusé, connexion rompue) sont en échec avec le message error
+    private List<BatchResult> completeBatch(PendingBatch batch, String error) {
+        String message = error != null ? error.trim() : "Aucun résultat reçu pour cette commande";
+        for (int i = 0; i < batch.results.length; i++) {
+            if (batch.results[i] == null) {
+                deliverBatchResult(batch, new BatchResult(i, batch.commands.get(i), -1, "", message, false, true, false));
+            }
+        }
+        return Arrays.asList(batch.results);
+    }
+
+    private void deliverBatchResult(PendingBatch batch, BatchResult result) {// Une erreur du destinataire n'arrête pas la lecture
+        batch.results[result.getIndex()] = result;
+        if (batch.listener == null) {
+            return;
+        }
+        try {
+            batch.listener.onResult(result);
+        } catch (RuntimeException e) {
+            logger.warning("Erreur dans le traitement du résultat d'une commande du lot: " + e.getMessage());
+        }
+    }
+
+    // Lot envoyé commande par commande (protocole texte ou serveur sans trame BATCH): parallelism suites de commandes,
+    // chacune envoyant la commande suivante du lot dès que la précédente est terminée
+    private CompletableFuture<List<BatchResult>> executeBatchLocally(List<String> commands, int parallelism, BatchListener listener) {
+        PendingBatch batch = new PendingBatch(commands, listener);
+        AtomicInteger next = new AtomicInteger();
+        CompletableFuture<?>[] sequences = new CompletableFuture<?>[Math.min(parallelism, commands.size())];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = executeNextLocally(batch, next);
+        }
+        return CompletableFuture.allOf(sequences).handle((ignored, e) -> completeBatch(batch, e != null ? "Erreur de communication: " + cause(e).getMessage() : null));
+    }
+
+    private CompletableFuture<Void> executeNextLocally(PendingBatch batch, AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= batch.results.length) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String command = batch.commands.get(index);
+        StringBuilder output = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        return executeCommandAsync(command, (text, error) -> (error ? errors : output).append(text)).handle((exitCode, e) -> {
+            if (e != null) {
+                deliverBatchResult(batch, new BatchResult(index, command, -1, output.toString(), "Erreur de communication: " + cause(e).getMessage(), false, true, false));
+            } else {
+                deliverBatchResult(batch, new BatchResult(index, command, exitCode, output.toString(), errors.toString(), false, false, false));
+            }
+            return null;
+        }).thenComposeAsync(ignored -> executeNextLocally(batch, next), requestExecutor);// Nouvelle tâche: pas de récursion si les commandes échouent aussitôt
+    }
+
+    //Permet d'Envoyer un fichier au serveur (upload)
+    public String uploadFile(String filePath) {
+        return uploadFileAsync(filePath).join();
+    }
+
+    // Envoie un fichier sans attendre la fin du transfert; le résultat est le message du serveur (ou "Erreur...")
+    // En protocole binaire, les données sont envoyées par un thread du client pendant que d'autres requêtes progressent
+    public CompletableFuture<String> uploadFileAsync(String filePath) {
+        if (!binary) {
+            return runText(() -> uploadTextFile(filePath));
+        }
+        File file = new File(filePath);
+        if (!file.exists() || !file.isFile()) {// Vérifier si le fichier existe et est un fichier pour pouvoir l'envoyer
+            return CompletableFuture.completedFuture("Erreur: Fichier introuvable ou invalide");
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            long size = file.length();
+            String result = deltaTransfer && capabilities.contains(Protocole.DELTA) ? sendDeltaUpload(file, size) : null;
+            if (result == null && deduplication && capabilities.containsAll(Arrays.asList(Protocole.HAVE, Protocole.RESUME))) {
+                result = sendDeduplicatedUpload(file, size);
+            }
+            if (result == null && capabilities.contains(Protocole.RESUME)) {
+                int streams = streamsFor(size);
+                result = streams > 1 ? sendParallelUpload(file, size, streams) : sendResumableUpload(file, size, 0, size, false);
+            }
+            return result != null ? result : sendUpload(file);
+        }, requestExecutor);
+    }
+
+    // Nombre de connexions pour transférer un fichier de size octets (au moins un bloc par connexion)
+    private int streamsFor(long size) {
+        long streams = transferStreams > 0 ? transferStreams
+                : size < PARALLEL_MIN_SIZE ? 1 : Math.min(MAX_AUTO_STREAMS, size / BYTES_PER_STREAM);
+        return (int) Math.max(1, Math.min(streams, size / Frame.DATA_CHUNK_SIZE));
+    }
+
+    // Découpe [0, size) en count plages contiguës alignées sur les blocs; la plage i est [bounds[i], bounds[i + 1])
+    private static long[] splitRanges(long size, int count) {
+        long[] bounds = new long[count + 1];
+        for (int i = 1; i < count; i++) {
+            bounds[i] = size / count * i / Frame.DATA_CHUNK_SIZE * Frame.DATA_CHUNK_SIZE;
+        }
+        bounds[count] = size;
+        return bounds;
+    }
+
+    // Ouvre jusqu'à streams - 1 connexions supplémentaires au même serveur, en parallèle; la liste commence par ce client
+    private List<Client> openTransferConnections(int streams) {
+        List<CompletableFuture<Client>> pending = new ArrayList<>();
+        for (int i = 1; i < streams; i++) {
+            Client connection = new Client(serverAddress, serverPort, login, password);
+            connection.setCompression(compressionRequested);
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                if (connection.connect()) {
+                    if (connection.binary) {
+                        return connection;
+                    }
+                    connection.disconnect();
+                }
+                return null;
+            }, requestExecutor));
+        }
+        List<Client> connections = new ArrayList<>();
+        connections.add(this);
+        for (CompletableFuture<Client> connection : pending) {
+            if (connection.join() != null) {
+                connections.add(connection.join());
+            }
+        }
+        if (connections.size() < streams) {
+            logger.warning("Transfert sur " + connections.size() + " connexion(s) au lieu de " + streams);
+        }
+        return connections;
+    }
+
+    private void closeTransferConnections(List<Client> connections) {
+        for (Client connection : connections) {
+            if (connection != this) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Envoie un gros fichier en plusieurs plages (FLAG_RANGE), chacune par un upload par blocs sur sa propre connexion:
+    // une plage interrompue est reprise comme un upload ordinaire. Le serveur écrit les plages dans le même fichier partiel
+    // et ne le renomme que lorsqu'elles sont toutes reçues: la plage terminée en dernier reçoit "Fichier reçu avec succès".
+    private String sendParallelUpload(File file, long size, int streams) {
+        List<Client> connections = openTransferConnections(streams);
+        try {
+            if (connections.size() == 1) {
+                return sendResumableUpload(file, size, 0, size, false);
+            }
+            long[] bounds = splitRanges(size, connections.size());
+            Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+            for (int i = 0; i < connections.size(); i++) {
+                ranges.add(new long[] {bounds[i], bounds[i + 1]});
+            }
+            return sendRanges(connections, file, size, ranges);
+        } finally {
+            closeTransferConnections(connections);
+        }
+    }
+
+    // Envoie les plages de la file sur les connexions: chacune prend la plage suivante dès qu'elle a terminé la précédente.
+    // Retourne le message de la plage qui a complété le fichier ou la première erreur.
+    private String sendRanges(List<Client> connections, File file, long size, Queue<long[]> ranges) {
+        List<CompletableFuture<List<String>>> parts = new ArrayList<>();
+        for (int i = 1; i < connections.size(); i++) {
+            Client connection = connections.get(i);
+            parts.add(CompletableFuture.supplyAsync(() -> connection.sendQueuedRanges(file, size, ranges), connection.requestExecutor));
+        }
+        List<String> results = new ArrayList<>(sendQueuedRanges(file, size, ranges));
+        for (CompletableFuture<List<String>> part : parts) {
+            results.addAll(part.join());
+        }
+        String success = null;
+        for (String result : results) {
+            if (result.startsWith("Erreur")) {
+                return result;
+            }
+            if (result.startsWith("Fichier reçu avec succès")) {
+                success = result;
+            }
+        }
+        return success != null ? success : "Erreur: le serveur n'a pas assemblé le fichier " + file.getName();
+    }
+
+    private List<String> sendQueuedRanges(File file, long size, Queue<long[]> ranges) {// Plages envoyées par cette connexion
+        List<String> results = new ArrayList<>();
+        long[] range;
+        while ((range = ranges.poll()) != null) {
+            String result = sendResumableUpload(file, size, range[0], range[1], true);
+            results.add(result);
+            if (result.startsWith("Erreur")) {// Les plages restantes sont laissées aux autres connexions
+                break;
+            }
+        }
+        return results;
+    }
+
+    // Envoie d'abord l'empreinte SHA-256 de chaque bloc du fichier (trame HAVE): si le serveur a tous les blocs (fichier déjà
+    // envoyé, ou copie d'un autre fichier), il enregistre le fichier sans transfert; sinon il indique les blocs connus et seules
+    // les plages des autres sont envoyées (uploads par blocs avec FLAG_RANGE, sur plusieurs connexions si elles sont grandes).
+    // Retourne null s'il faut envoyer tout le fichier: petit fichier, aucun bloc connu
+    // ou bloc disparu du serveur entre la recherche et la fin de l'envoi.
+    private String sendDeduplicatedUpload(File file, long size) {
+        long blocks = (size + Frame.BLOCK_SIZE - 1) / Frame.BLOCK_SIZE;
+        if (size < DEDUPLICATION_MIN_SIZE || blocks > Frame.MAX_BLOCKS) {
+            return null;
+        }
+        byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer query = ByteBuffer.allocate(Frame.RESUME_HEADER_SIZE + (int) blocks * Frame.HASH_SIZE + name.length);
+        query.putLong(size).putLong(file.lastModified());
+        PendingRequest request = new PendingRequest(null, null);
+        BinaryResponse response;
+        try {
+            hashBlocks(file, size, query);
+            query.put(name);
+            int requestId = register(request);
+            try {
+                frameWriter.write(Frame.HAVE, requestId, query.array(), 0, query.capacity());
+                frameWriter.flush();
+            } catch (IOException e) {
+                fail(requestId, e);
+            }
+            response = request.response.join();
+        } catch (IOException | CompletionException e) {
+            logger.warning("Recherche des blocs de " + file.getName() + " impossible: " + cause(e).getMessage());
+            return null;
+        }
+        if (response.error != null) {
+            logger.warning("Recherche des blocs de " + file.getName() + " refusée par le serveur: " + response.error.trim());
+            return null;
+        }
+        if (request.blocks == null) {// Tous les blocs étaient connus
+            logger.info("Fichier " + file.getName() + " enregistré par le serveur sans transfert (contenu déjà présent)");
+            return response.toString();
+        }
+        List<long[]> missing = new ArrayList<>();
+        long missingBytes = 0;
+        for (int block = 0; block < blocks; block++) {
+            if ((request.blocks[block / 8] & (0x80 >>> (block % 8))) != 0) {
+                continue;
+            }
+            long from = (long) block * Frame.BLOCK_SIZE;
+            long to = Math.min(from + Frame.BLOCK_SIZE, size);
+            if (!missing.isEmpty() && missing.get(missing.size() - 1)[1] == from) {
+                missing.get(missing.size() - 1)[1] = to;
+            } else {
+                missing.add(new long[] {from, to});
+            }
+            missingBytes += to - from;
+        }
+        if (missingBytes == size) {// Aucun bloc connu: envoi ordinaire
+            return null;
+        }
+        logger.info("Upload de " + file.getName() + ": " + (size - missingBytes) + " octets déjà présents sur le serveur, " + missingBytes + " à envoyer");
+        int streams = streamsFor(missingBytes);
+        long pieceSize = Math.max(Frame.DATA_CHUNK_SIZE, (missingBytes + streams - 1) / streams);
+        Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+        for (long[] run : missing) {// Les grandes plages sont découpées pour occuper toutes les connexions
+            for (long from = run[0]; from < run[1]; from += pieceSize) {
+                ranges.add(new long[] {from, Math.min(from + pieceSize, run[1])});
+            }
+        }
+        List<Client> connections = openTransferConnections(Math.min(streams, ranges.size()));
+        String result;
+        try {
+            result = sendRanges(connections, file, size, ranges);
+        } finally {
+            closeTransferConnections(connections);
+        }
+        if (result != null && result.startsWith("Fichier reçu avec succès")) {
+            return result;
+        }
+        logger.warning("Upload de " + file.getName() + " par blocs manquants interrompu (" + result + "): envoi complet");
+        return null;
+    }
+
+    // Ajoute à query l'empreinte SHA-256 de chaque bloc de Frame.BLOCK_SIZE octets du fichier
+    private static void hashBlocks(File file, long size, ByteBuffer query) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Frame.DATA_CHUNK_SIZE * 16);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (long block = 0; block * Frame.BLOCK_SIZE < size; block++) {
+                long position = block * Frame.BLOCK_SIZE;
+                long end = Math.min(position + Frame.BLOCK_SIZE, size);
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    int bytesRead = channel.read(buffer, position);
+                    if (bytesRead < 0) {
+                        throw new IOException("Le fichier a été raccourci pendant la lecture");
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    position += bytesRead;
+                }
+                query.put(digest.digest());
+            }
+        }
+    }
+
+    // Envoi différentiel d'une nouvelle version d'un fichier déjà présent sur le serveur (à la manière de rsync): le serveur
+    // envoie les signatures des blocs de sa version (trames SIGNATURE), le client cherche ces blocs à toutes les positions du
+    // nouveau fichier grâce à la somme glissante et n'envoie que les octets qui n'y correspondent pas (trames DATA), les blocs
+    // retrouvés étant désignés par leur indice (trames COPY). Un ajout ou une suppression au milieu du fichier ne décale rien:
+    // seuls les blocs touchés sont renvoyés. Le serveur reconstruit le fichier et vérifie son SHA-256 (trame EOF).
+    // Retourne null s'il faut envoyer le fichier autrement: petit fichier, fichier absent du serveur ou fichier
+    // reconstruit refusé.
+    private String sendDeltaUpload(File file, long size) {
+        if (size < DELTA_MIN_SIZE) {
+            return null;
+        }
+        PendingRequest query = new PendingRequest(null, null);
+        query.signatures = new ByteArrayOutputStream();
+        int queryId = register(query);
+        DeltaEncoder encoder;
+        try {
+            try {
+                frameWriter.writeText(Frame.SIGNATURE, queryId, file.getName());
+                frameWriter.flush();
+            } catch (IOException e) {
+                fail(queryId, e);
+            }
+            BinaryResponse response = query.response.join();
+            if (response.error != null) {
+                logger.warning("Signatures de " + file.getName() + " refusées par le serveur: " + response.error.trim());
+                return null;
+            }
+            if (query.signatures.size() == 0) {// Aucune version du fichier sur le serveur
+                return null;
+            }
+            encoder = new DeltaEncoder(query.signatures.toByteArray());
+        } catch (IOException | CompletionException e) {
+            logger.warning("Signatures de " + file.getName() + " indisponibles: " + cause(e).getMessage());
+            return null;
+        }
+        query.signatures = null;
+        PendingRequest request = new PendingRequest(null, null);
+        int requestId = register(request);
+        BinaryResponse response;
+        try {
+            byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(Frame.HASH_SIZE + Frame.RESUME_HEADER_SIZE + name.length);
+            header.put(encoder.version).putLong(size).putLong(file.lastModified()).put(name);
+            frameWriter.write(Frame.DELTA, requestId, header.array(), 0, header.capacity());
+            encoder.encode(file, size, frameWriter, requestId, request);
+        } catch (IOException e) {
+            fail(requestId, e);
+        }
+        try {
+            response = request.response.join();
+        } catch (CompletionException e) {
+            logger.warning("Envoi différentiel de " + file.getName() + " interrompu: " + cause(e).getMessage());
+            return null;
+        }
+        if (response.error != null) {
+            logger.warning("Envoi différentiel de " + file.getName() + " refusé par le serveur (" + response.error.trim() + "): envoi complet");
+            return null;
+        }
+        logger.info("Envoi différentiel de " + file.getName() + ": " + encoder.copied + " octets repris de la version du serveur, " + encoder.literal + " envoyés");
+        return response.toString();
+    }
+
+    // Envoie un fichier par blocs (trames RESUME, CHUNK puis EOF) en reprenant à la position confirmée par le serveur:
+    // après une coupure de connexion, le client se reconnecte avant de reprendre; un bloc refusé par le serveur
+    // (somme de contrôle, position) est renvoyé de la même façon. N'est utilisé que si le serveur annonce ces trames (voir Protocole).
+    // Avec ranged, seule la plage [from, to) du fichier est envoyée (upload parallèle).
+    private String sendResumableUpload(File file, long size, long from, long to, boolean ranged) {
+        byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer resume = ByteBuffer.allocate((ranged ? Frame.RANGE_SIZE : 0) + Frame.RESUME_HEADER_SIZE + name.length);
+        if (ranged) {
+            resume.putLong(from).putLong(to);
+        }
+        resume.putLong(size).putLong(file.lastModified()).put(name);
+        byte flags = ranged ? Frame.FLAG_RANGE : 0;
+        String error = null;
+        for (int attempt = 0; attempt < MAX_UPLOAD_ATTEMPTS; attempt++) {
+            FrameWriter writer = frameWriter;
+            PendingRequest request = new PendingRequest(null, null);
+            request.offset = new CompletableFuture<>();
+            int requestId = register(request);
+            try {
+                writer.write(Frame.RESUME, flags, requestId, resume.array(), 0, resume.capacity());
+                writer.flush();
+                long offset = request.offset.join();// -1 si le serveur a répondu par une erreur
+                if (offset >= 0) {
+                    if (offset > from) {
+                        logger.info("Reprise de l'upload de " + file.getName() + " à l'octet " + offset);
+                    }
+                    sendChunks(writer, request, requestId, file, offset, to);
+                }
+                BinaryResponse response = request.response.join();
+                if (response.error == null) {
+                    return response.toString();
+                }
+                error = response.toString();
+                logger.warning("Upload de " + file.getName() + " refusé par le serveur: " + response.error.trim());
+            } catch (IOException | CompletionException e) {
+                fail(requestId, e instanceof IOException ? (IOException) e : new IOException(cause(e).getMessage(), cause(e)));
+                error = "Erreur lors de l'envoi du fichier: " + cause(e).getMessage();
+                logger.warning(error);
+                if (!reconnect(writer)) {
+                    return error;
+                }
+            }
+        }
+        return error;
+    }
+
+    // Envoie les blocs du fichier de offset à end, chacun avec sa position et son CRC32C, puis la trame EOF
+    // L'envoi s'arrête si le serveur a déjà répondu (bloc refusé)
+    private void sendChunks(FrameWriter writer, PendingRequest request, int requestId, File file, long offset, long end) throws IOException {
+        byte[] buffer = new byte[Frame.DATA_CHUNK_SIZE];
+        byte[] compressed = compressor != null ? new byte[Frame.DATA_CHUNK_SIZE] : null;// Blocs compressés (null: envoyés tels quels)
+        ByteBuffer chunk = ByteBuffer.wrap(buffer);
+        CRC32C checksum = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            while (position < end && !request.response.isDone()) {
+                chunk.clear().limit((int) Math.min(buffer.length, end - position));
+                int bytesRead = channel.read(chunk, position);
+                if (bytesRead < 0) {
+                    throw new IOException("Le fichier a été raccourci pendant l'envoi");
+                }
+                checksum.reset();
+                checksum.update(buffer, 0, bytesRead);
+                writer.writeChunk(requestId, position, (int) checksum.getValue(), buffer, 0, bytesRead, compressed);
+                position += bytesRead;
+            }
+        }
+        writer.write(Frame.EOF, requestId);
+        writer.flush();
+    }
+
+    // Rétablit la connexion après une coupure constatée sur failedWriter; retourne false si le serveur reste injoignable
+    // Plusieurs uploads peuvent constater la même coupure: le premier reconnecte, les suivants utilisent la nouvelle connexion
+    private synchronized boolean reconnect(FrameWriter failedWriter) {
+        if (frameWriter != failedWriter && readerFailure == null && binary) {
+            return true;
+        }
+        try {
+            socket.close();// Le thread de lecture s'arrête et fait échouer les requêtes en cours
+            readerThread.join();
+        } catch (IOException e) {
+            // Connexion déjà fermée
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        requestExecutor.shutdown();// Les tâches en cours (dont cet upload) se terminent normalement
+        long delay = RECONNECT_DELAY_MS;
+        for (int attempt = 1; attempt <= MAX_RECONNECT_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            logger.info("Reconnexion au serveur " + serverAddress + ":" + serverPort + " (essai " + attempt + ")");
+            if (connect()) {
+                return binary;
+            }
+            delay *= 2;
+        }
+        return false;
+    }
+
+    // Envoie les trames UPLOAD, DATA puis EOF (serveur qui ne connaît pas les uploads par blocs)
+    private String sendUpload(File file) {
+        PendingRequest request = new PendingRequest(null, null);
+        int requestId = register(request);
+        sendUploadFrames(requestId, file);
+        try {
+            return request.response.join().toString();
+        } catch (CompletionException e) {
+            return "Erreur lors de l'envoi du fichier: " + cause(e).getMessage();
+        }
+    }
+
+    // Envoie les trames UPLOAD, DATA puis EOF, sans attendre le serveur entre les trames
+    private void sendUploadFrames(int requestId, File file) {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            frameWriter.writeText(Frame.UPLOAD, requestId, file.getName());
+            byte[] buffer = new byte[Frame.DATA_CHUNK_SIZE];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                frameWriter.write(Frame.DATA, requestId, buffer, 0, bytesRead);
+            }
+            frameWriter.write(Frame.EOF, requestId);
+            frameWriter.flush();
+        } catch (IOException e) {
+            logger.severe("Erreur lors de l'envoi du fichier: " + e.getMessage());
+            fail(requestId, e);
+        }
+    }
+
+    // permet de  Télécharger un fichier depuis le serveur (download)
+    public String downloadFile(String fileName, String destinationPath) {
+        return downloadFileAsync(fileName, destinationPath).join();
+    }
+
+    // Demande un fichier sans attendre la fin du transfert; le résultat est le message de fin (ou "Erreur...")
+    // En protocole binaire, les trames DATA sont écrites dans le fichier par le thread de lecture des réponses
+    public CompletableFuture<String> downloadFileAsync(String fileName, String destinationPath) {
+        if (!binary) {
+            return runText(() -> downloadTextFile(fileName, destinationPath));
+        }
+        if (transferStreams == 1) {
+            return sendDownload(fileName, destinationPath);
+        }
+        return CompletableFuture.supplyAsync(() -> sendParallelDownload(fileName, destinationPath), requestExecutor);
+    }
+
+    // Télécharge un fichier d'un seul flux (trame DOWNLOAD sans plage)
+    private CompletableFuture<String> sendDownload(String fileName, String destinationPath) {
+        File file = new File(destinationPath, fileName);
+        FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(file);
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture("Erreur lors du téléchargement du fichier: " + e.getMessage());
+        }
+        PendingRequest request = new PendingRequest(null, fos);
+        int requestId = register(request);
+        try {
+            frameWriter.writeText(Frame.DOWNLOAD, requestId, fileName);
+            frameWriter.flush();
+        } catch (IOException e) {
+            fail(requestId, e);
+        }
+        return request.response.handle((response, e) -> {
+            String error = e != null ? "Erreur lors du téléchargement du fichier: " + cause(e).getMessage()
+                    : response.error != null ? response.toString() : null;
+            try {
+                fos.close();
+            } catch (IOException closeError) {
+                if (error == null) {
+                    error = "Erreur lors du téléchargement du fichier: " + closeError.getMessage();
+                }
+            }
+            if (error != null) {
+                file.delete();
+                return error;
+            }
+            return "Fichier téléchargé avec succès: " + file.getAbsolutePath();
+        });
+    }
+
+    // Demande le début du fichier en plage (la réponse commence par la taille du fichier, trame OFFSET): un petit fichier est ainsi
+    // reçu en une seule requête. Dès que la taille est connue, la suite est demandée, si elle le justifie, en plusieurs plages sur
+    // des connexions parallèles. Chaque plage est écrite à sa position dans <nom>.partiel, renommé une fois toutes les plages
+    // reçues; chaque réponse rappelle la taille du fichier, ce qui détecte un fichier modifié pendant le transfert.
+    // Un serveur sans téléchargement par plages (la plage est lue comme une partie du nom) refuse la première plage: le fichier
+    // est alors téléchargé d'un seul flux.
+    private String sendParallelDownload(String fileName, String destinationPath) {
+        File file = new File(destinationPath, fileName);
+        File partial = new File(destinationPath, fileName + ".partiel");
+        List<Client> connections = Collections.singletonList(this);
+        String error = null;
+        boolean ranged = true;
+        try (FileChannel channel = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long first = transferStreams > 1 ? Frame.DATA_CHUNK_SIZE : BYTES_PER_STREAM;// Début demandé avant de connaître la taille
+            CompletableFuture<Long> size = new CompletableFuture<>();
+            List<CompletableFuture<String>> parts = new ArrayList<>();
+            parts.add(sendRangeDownload(fileName, size, 0, first, channel));
+            long total = size.join();// Trame OFFSET, reçue avant les données de la première plage
+            if (total < 0) {
+                ranged = false;
+            } else if (total > first) {
+                int streams = streamsFor(total);
+                connections = streams > 1 ? openTransferConnections(streams) : connections;
+                long[] bounds = splitRanges(total - first, connections.size());
+                for (int i = 0; i < connections.size(); i++) {
+                    parts.add(connections.get(i).sendRangeDownload(fileName, size, first + bounds[i], first + bounds[i + 1], channel));
+                }
+            }
+            for (CompletableFuture<String> part : parts) {
+                String result = part.join();
+                if (error == null) {
+                    error = result;
+                }
+            }
+        } catch (IOException e) {
+            error = "Erreur lors du téléchargement du fichier: " + e.getMessage();
+        } finally {
+            closeTransferConnections(connections);
+        }
+        if (!ranged) {
+            partial.delete();
+            return sendDownload(fileName, destinationPath).join();
+        }
+        try {
+            if (error == null) {
+                Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return "Fichier téléchargé avec succès: " + file.getAbsolutePath();
+            }
+        } catch (IOException e) {
+            error = "Erreur lors du téléchargement du fichier: " + e.getMessage();
+        }
+        partial.delete();
+        return error;
+    }
+
+    // Télécharge la plage [from, to) dans channel; le résultat est null si la plage est complète, sinon le message d'erreur.
+    // size est la taille du fichier: la première plage demandée la complète avec celle annoncée par le serveur (-1 en cas d'erreur)
+    private CompletableFuture<String> sendRangeDownload(String fileName, CompletableFuture<Long> size, long from, long to, FileChannel channel) {
+        RangeOutputStream sink = new RangeOutputStream(channel, from);
+        PendingRequest request = new PendingRequest(null, sink);
+        request.offset = new CompletableFuture<>();
+        request.offset.thenAccept(size::complete);
+        int requestId = register(request);
+        try {
+            writeRangeRequest(Frame.DOWNLOAD, requestId, from, to, fileName.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            fail(requestId, e);
+        }
+        return request.response.handle((response, e) -> {
+            if (e != null) {
+                return "Erreur lors du téléchargement du fichier: " + cause(e).getMessage();
+            }
+            if (response.error != null) {
+                return response.toString();
+            }
+            long expected = size.join();
+            if (request.offset.join() != expected) {
+                return "Erreur: le fichier " + fileName + " a été modifié pendant le téléchargement";
+            }
+            if (sink.position != Math.min(to, expected)) {
+                return "Erreur: plage incomplète (octets " + from + "-" + to + ", " + (sink.position - from) + " octets reçus)";
+            }
+            return null;
+        });
+    }
+
+    // Trame dont la charge utile commence par la plage [from, to) (drapeau FLAG_RANGE)
+    private void writeRangeRequest(byte type, int requestId, long from, long to, byte[] rest) throws IOException {
+        byte[] payload = ByteBuffer.allocate(Frame.RANGE_SIZE + rest.length).putLong(from).putLong(to).put(rest).array();
+        frameWriter.write(type, Frame.FLAG_RANGE, requestId, payload, 0, payload.length);
+        frameWriter.flush();
+    }
+
+    // Écrit les trames DATA d'une plage à leur position dans le fichier (écritures positionnelles, une plage par connexion)
+    private static class RangeOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        private RangeOutputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    // Côté client d'un envoi différentiel: signatures de la version du serveur, indexées par somme glissante, et recherche de
+    // ces blocs dans le nouveau fichier. Les blocs de même contenu ne sont indexés qu'une fois (un fichier de zéros reste rapide).
+    // Le dernier bloc de la version du serveur, s'il est plus court, n'est recherché qu'à la fin du nouveau fichier.
+    private static class DeltaEncoder {
+        private final byte[] version = new byte[Frame.HASH_SIZE];// Version de référence, rappelée dans la trame DELTA
+        private final int blockSize;
+        private final int count;// Nombre de blocs de la version du serveur
+        private final int tailLength;// Longueur du dernier bloc s'il est plus court que blockSize, 0 sinon
+        private final int[] weak;
+        private final byte[] strong;
+        private final int[] heads;// Premier bloc de chaque case de la table de hachage, -1 si la case est vide
+        private final int[] next;// Bloc suivant de la même case
+        private final int shift;
+        private final MessageDigest md5;
+        private final ByteBuffer runs = ByteBuffer.allocate(1024 * Frame.COPY_RUN_SIZE);// Suites de blocs de la prochaine trame COPY
+        private int runFirst = -1;// Suite de blocs en cours (pas encore dans runs)
+        private int runCount;
+        private long copied;// Octets repris de la version du serveur
+        private long literal;// Octets envoyés
+
+        private DeltaEncoder(byte[] data) throws IOException {
+            ByteBuffer signatures = ByteBuffer.wrap(data);
+            if (data.length < Frame.SIGNATURE_HEADER_SIZE) {
+                throw new IOException("Signatures incomplètes");
+            }
+            signatures.get(version);
+            long size = signatures.getLong();
+            blockSize = signatures.getInt();
+            long blocks = blockSize > 0 && size >= 0 ? (size + blockSize - 1) / blockSize : -1;
+            if (blocks < 0 || blocks > Frame.MAX_SIGNATURES || signatures.remaining() != blocks * Frame.SIGNATURE_SIZE) {
+                throw new IOException("Signatures incomplètes");
+            }
+            count = (int) blocks;
+            tailLength = (int) (size % blockSize);
+            weak = new int[count];
+            strong = new byte[count * Frame.STRONG_HASH_SIZE];
+            for (int i = 0; i < count; i++) {
+                weak[i] = signatures.getInt();
+                signatures.get(strong, i * Frame.STRONG_HASH_SIZE, Frame.STRONG_HASH_SIZE);
+            }
+            int bits = 1;
+            while (1 << bits < 2 * count) {
+                bits++;
+            }
+            shift = 32 - bits;
+            heads = new int[1 << bits];
+            next = new int[count];
+            Arrays.fill(heads, -1);
+            int indexed = tailLength == 0 ? count : count - 1;
+            for (int i = 0; i < indexed; i++) {
+                int slot = slot(weak[i]);
+                int other = heads[slot];
+                while (other >= 0 && !(weak[other] == weak[i] && sameStrong(other, strong, i * Frame.STRONG_HASH_SIZE))) {
+                    other = next[other];
+                }
+                if (other < 0) {// Premier bloc de ce contenu
+                    next[i] = heads[slot];
+                    heads[slot] = i;
+                }
+            }
+            try {
+                md5 = MessageDigest.getInstance(RollingChecksum.STRONG_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        private int slot(int value) {
+            return (value * 0x9E3779B9) >>> shift;
+        }
+
+        private boolean sameStrong(int block, byte[] digest, int offset) {
+            for (int i = 0; i < Frame.STRONG_HASH_SIZE; i++) {
+                if (strong[block * Frame.STRONG_HASH_SIZE + i] != digest[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Indice d'un bloc de même contenu que data[offset, offset + blockSize), de préférence preferred (qui prolonge la
+        // suite en cours), ou -1. L'empreinte MD5 n'est calculée que si la somme glissante correspond.
+        private int find(int value, byte[] data, int offset, int preferred) {
+            int found = -1;
+            byte[] digest = null;
+            for (int block = heads[slot(value)]; block >= 0; block = next[block]) {
+                if (weak[block] != value) {
+                    continue;
+                }
+                if (digest == null) {
+                    md5.update(data, offset, blockSize);
+                    digest = md5.digest();
+                }
+                if (sameStrong(block, digest, 0)) {
+                    if (block == preferred) {
+                        return block;
+                    }
+                    if (found < 0) {
+                        found = block;
+                    }
+                }
+            }
+            return found;
+        }
+
+        private boolean matchesTail(byte[] data, int offset, int length) {
+            if (tailLength == 0 || length != tailLength || weak[count - 1] != RollingChecksum.of(data, offset, length)) {
+                return false;
+            }
+            md5.update(data, offset, length);
+            return sameStrong(count - 1, md5.digest(), 0);
+        }
+
+        // Parcourt le fichier avec une fenêtre de blockSize octets: un bloc retrouvé devient une suite COPY et la fenêtre saute
+        // par-dessus, sinon la fenêtre avance d'un octet (somme glissante) et l'octet sorti est à envoyer. S'arrête si le serveur
+        // a déjà répondu (erreur); sinon termine par la trame EOF portant le SHA-256 du fichier.
+        private void encode(File file, long size, FrameWriter writer, int requestId, PendingRequest request) throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            byte[] buffer = new byte[16 * Frame.DATA_CHUNK_SIZE];
+            RollingChecksum checksum = new RollingChecksum();
+            boolean rolling = false;
+            int start = 0;// Début de la fenêtre
+            int end = 0;// Fin des données lues
+            int pending = 0;// Début des octets à envoyer (de pending à start)
+            long read = 0;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (!request.response.isDone()) {
+                    if (end - start <= blockSize && read < size) {// Une avance de la fenêtre lit l'octet qui suit: lire la suite du fichier
+                        System.arraycopy(buffer, pending, buffer, 0, end - pending);
+                        start -= pending;
+                        end -= pending;
+                        pending = 0;
+                        int bytesRead = channel.read(ByteBuffer.wrap(buffer, end, (int) Math.min(buffer.length - end, size - read)));
+                        if (bytesRead < 0) {
+                            throw new IOException("Le fichier a été raccourci pendant l'envoi");
+                        }
+                        digest.update(buffer, end, bytesRead);
+                        end += bytesRead;
+                        read += bytesRead;
+                        continue;
+                    }
+                    if (end - start < blockSize) {// Fin du fichier
+                        break;
+                    }
+                    if (!rolling) {
+                        checksum.reset(buffer, start, blockSize);
+                        rolling = true;
+                    }
+                    int block = find(checksum.value(), buffer, start, runFirst >= 0 ? runFirst + runCount : -1);
+                    if (block >= 0) {
+                        sendLiteral(writer, requestId, buffer, pending, start);
+                        addRun(writer, requestId, block, blockSize);
+                        start += blockSize;
+                        pending = start;
+                        rolling = false;
+                        continue;
+                    }
+                    if (start - pending >= Frame.DATA_CHUNK_SIZE) {
+                        sendLiteral(writer, requestId, buffer, pending, start);
+                        pending = start;
+                    }
+                    if (start + blockSize >= end) {// Fin du fichier: les derniers octets sont à envoyer
+                        break;
+                    }
+                    checksum.roll(buffer[start], buffer[start + blockSize]);
+                    start++;
+                }
+            }
+            if (request.response.isDone()) {
+                return;
+            }
+            if (end - start > 0 && matchesTail(buffer, start, end - start)) {
+                sendLiteral(writer, requestId, buffer, pending, start);
+                addRun(writer, requestId, count - 1, end - start);
+                pending = end;
+            }
+            sendLiteral(writer, requestId, buffer, pending, end);
+            sendRuns(writer, requestId);
+            byte[] sha256 = digest.digest();
+            writer.write(Frame.EOF, requestId, sha256, 0, sha256.length);
+            writer.flush();
+        }
+
+        private void addRun(FrameWriter writer, int requestId, int block, int length) throws IOException {
+            copied += length;
+            if (runFirst >= 0 && block == runFirst + runCount) {
+                runCount++;
+                return;
+            }
+            if (runFirst >= 0) {
+                putRun(writer, requestId);
+            }
+            runFirst = block;
+            runCount = 1;
+        }
+
+        private void putRun(FrameWriter writer, int requestId) throws IOException {// Ajoute la suite en cours à la prochaine trame COPY
+            if (!runs.hasRemaining()) {
+                writer.write(Frame.COPY, requestId, runs.array(), 0, runs.position());
+                runs.clear();
+            }
+            runs.putInt(runFirst).putInt(runCount);
+        }
+
+        private void sendRuns(FrameWriter writer, int requestId) throws IOException {// Les suites en attente, avant des octets nouveaux
+            if (runFirst >= 0) {
+                putRun(writer, requestId);
+                runFirst = -1;
+            }
+            if (runs.position() > 0) {
+                writer.write(Frame.COPY, requestId, runs.array(), 0, runs.position());
+                runs.clear();
+            }
+        }
+
+        private void sendLiteral(FrameWriter writer, int requestId, byte[] buffer, int from, int to) throws IOException {
+            if (from == to) {
+                return;
+            }
+            sendRuns(writer, requestId);
+            for (int offset = from; offset < to; offset += Frame.DATA_CHUNK_SIZE) {
+                int length = Math.min(Frame.DATA_CHUNK_SIZE, to - offset);
+                writer.write(Frame.DATA, requestId, buffer, offset, length);
+            }
+            literal += to - from;
+        }
+    }
+
+    private <T> CompletableFuture<T> runText(Supplier<T> request) {// Protocole texte: les requêtes passent une à une par le même thread
+        return CompletableFuture.supplyAsync(request, requestExecutor);
+    }
+
+    private static Throwable cause(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private String communicationError(Throwable e) {
+        logger.severe("Erreur de communication: " + cause(e).getMessage());
+        return "Erreur de communication: " + cause(e).getMessage();
+    }
+
+    // Réponse à une requête du protocole binaire
+    private static class BinaryResponse {
+        private final StringBuilder text = new StringBuilder();// Contenu des trames RESULT (hors commandes)
+        private String error;// Contenu des trames ERROR (null si aucune)
+        private int exitCode = -1;// Code de sortie porté par la trame END d'une commande
+
+        @Override
+        public String toString() {// Même présentation que les réponses du protocole texte
+            return error != null ? "Erreur: " + error.trim() : text.toString().trim();
+        }
+    }
+
+    // Requête du protocole binaire en attente de sa trame END
+    private static class PendingRequest {
+        private final OutputListener listener;// Destinataire de la sortie d'une commande (null pour les autres requêtes)
+        private final OutputStream dataSink;// Destination des trames DATA (null si aucune)
+        private final OutputDecoder stdout = new OutputDecoder();
+        private final OutputDecoder stderr = new OutputDecoder();
+        private final BinaryResponse result = new BinaryResponse();
+        private final CompletableFuture<BinaryResponse> response = new CompletableFuture<>();
+        private CompletableFuture<Long> offset;// Position de reprise d'un upload par blocs (trame OFFSET), -1 si la requête se termine avant
+        private byte[] blocks;// Blocs déjà présents sur le serveur (trame HAVE), un bit par bloc
+        private ByteArrayOutputStream signatures;// Signatures reçues pour un envoi différentiel (trames SIGNATURE)
+        private PendingBatch batch;// Lot de commandes dont les résultats arrivent dans des trames BATCH (null pour les autres requêtes)
+
+        private PendingRequest(OutputListener listener, OutputStream dataSink) {
+            this.listener = listener;
+            this.dataSink = dataSink;
+        }
+    }
+
+    // Résultats d'un lot de commandes, par indice dans le lot
+    private static class PendingBatch {
+        private final List<String> commands;
+        private final BatchListener listener;// null si les résultats ne sont attendus qu'à la fin du lot
+        private final BatchResult[] results;
+
+        private PendingBatch(List<String> commands, BatchListener listener) {
+            this.commands = new ArrayList<>(commands);
+            this.listener = listener;
+            this.results = new BatchResult[commands.size()];
+        }
+    }
+
+    private CompletableFuture<BinaryResponse> sendCommand(String command, OutputListener listener) {
+        PendingRequest request = new PendingRequest(listener, null);
+        int requestId = register(request);
+        try {
+            frameWriter.writeText(Frame.CMD, requestId, command);
+            frameWriter.flush();
+        } catch (IOException e) {
+            fail(requestId, e);
+        }
+        return request.response;
+    }
+
+    private int register(PendingRequest request) {// Attribue un identifiant à une requête avant l'envoi de sa première trame
+        int requestId = nextRequestId.getAndIncrement();
+        pendingRequests.put(requestId, request);
+        IOException failure = readerFailure;
+        if (failure != null) {// Le thread de lecture est arrêté: la réponse n'arrivera jamais
+            fail(requestId, failure);
+        }
+        return requestId;
+    }
+
+    private void fail(int requestId, IOException e) {
+        PendingRequest request = pendingRequests.remove(requestId);
+        if (request != null) {
+            if (request.offset != null) {
+                request.offset.complete(-1L);
+            }
+            request.response.completeExceptionally(e);
+        }
+    }
+
+    // Boucle du thread de lecture: répartit les trames reçues entre les requêtes en cours selon leur identifiant
+    // et termine chaque requête à sa trame END. Si la connexion se ferme, toutes les requêtes en cours échouent.
+    private void readResponses() {
+        FrameReader frameReader = this.frameReader;// Flux de cette connexion (une reconnexion en crée un autre)
+        byte[] buffer = new byte[Frame.DATA_CHUNK_SIZE];
+        IOException failure;
+        try {
+            while (frameReader.nextHeader()) {
+                int requestId = frameReader.getRequestId();
+                PendingRequest request = pendingRequests.get(requestId);
+                if (request == null) {// Requête inconnue ou abandonnée: trame ignorée
+                    frameReader.skipPayload();
+                    continue;
+                }
+                switch (frameReader.getType()) {
+                    case Frame.RESULT:
+                        if (request.listener != null) {
+                            deliver(request, request.stdout.decode(readPayload(frameReader), false), false);
+                        } else {
+                            request.result.text.append(new String(readPayload(frameReader), StandardCharsets.UTF_8));
+                        }
+                        break;
+                    case Frame.STDERR:
+                        deliver(request, request.stderr.decode(readPayload(frameReader), false), true);
+                        break;
+                    case Frame.ERROR:
+                        request.result.error = (request.result.error == null ? "" : request.result.error + "\n") + frameReader.readText();
+                        break;
+                    case Frame.DATA:
+                        if (request.dataSink != null && request.result.error == null && (frameReader.getFlags() & Frame.FLAG_COMPRESSED) != 0) {
+                            byte[] data = readPayload(frameReader);
+                            try {
+                                request.dataSink.write(data);
+                            } catch (IOException e) {
+                                request.result.error = "Erreur lors de l'écriture du fichier: " + e.getMessage();
+                            }
+                        } else if (request.dataSink != null && request.result.error == null) {
+                            try {
+                                frameReader.transferPayload(request.dataSink, buffer);
+                            } catch (IOException e) {// Erreur d'écriture du fichier: la suite du téléchargement est ignorée
+                                request.result.error = "Erreur lors de l'écriture du fichier: " + e.getMessage();
+                                frameReader.skipPayload();
+                            }
+                        } else {
+                            frameReader.skipPayload();
+                        }
+                        break;
+                    case Frame.OFFSET:
+                        byte[] position = frameReader.readPayload();
+                        if (request.offset != null && position.length == 8) {
+                            request.offset.complete(ByteBuffer.wrap(position).getLong());
+                        }
+                        break;
+                    case Frame.HAVE:
+                        request.blocks = frameReader.readPayload();
+                        break;
+                    case Frame.SIGNATURE:
+                        byte[] signatures = frameReader.readPayload();
+                        if (request.signatures != null) {
+                            request.signatures.write(signatures, 0, signatures.length);
+                        }
+                        break;
+                    case Frame.BATCH:
+                        byte[] batchResult = readPayload(frameReader);
+                        if (request.batch != null) {
+                            receiveBatchResult(request.batch, batchResult);
+                        }
+                        break;
+                    case Frame.END:
+                        if (request.offset != null) {
+                            request.offset.complete(-1L);
+                        }
+                        byte[] payload = frameReader.readPayload();
+                        if (payload.length == 4) {
+                            request.result.exitCode = ByteBuffer.wrap(payload).getInt();
+                        }
+                        deliver(request, request.stdout.decode(new byte[0], true), false);
+                        deliver(request, request.stderr.decode(new byte[0], true), true);
+                        pendingRequests.remove(requestId);
+                        request.response.complete(request.result);
+                        break;
+                    default:
+                        frameReader.skipPayload();
+                        break;
+                }
+            }
+            failure = new EOFException("Connexion fermée par le serveur");
+        } catch (IOException e) {
+            failure = e;
+        }
+        readerFailure = failure;
+        for (Integer requestId : pendingRequests.keySet()) {
+            fail(requestId, failure);
+        }
+    }
+
+    // Lit la charge utile de la trame courante, décompressée si elle porte le drapeau FLAG_COMPRESSED
+    private byte[] readPayload(FrameReader frameReader) throws IOException {
+        byte[] payload = frameReader.readPayload();
+        if ((frameReader.getFlags() & Frame.FLAG_COMPRESSED) == 0) {
+            return payload;
+        }
+        if (compressor == null) {
+            throw new IOException("Trame compressée reçue sans compression négociée");
+        }
+        byte[] data = new byte[Compressor.uncompressedLength(payload, 0, payload.length)];
+        compressor.decompress(payload, 0, payload.length, data, 0);
+        return data;
+    }
+
+    private void deliver(PendingRequest request, String text, boolean error) {// Transmet un fragment de sortie sans laisser une erreur du destinataire arrêter la lecture
+        if (request.listener == null || text.isEmpty()) {
+            return;
+        }
+        try {
+            request.listener.onOutput(text, error);
+        } catch (RuntimeException e) {
+            logger.warning("Erreur dans le traitement de la sortie d'une commande: " + e.getMessage());
+        }
+    }
+
+   //Exécute une commande en protocole texte et retourne sa réponse complète
+    private String executeTextCommand(String command) {
         try {
             sendMessage(COMMAND_PREFIX + command);
             String response = receiveMessage();// Recevoir la réponse du serveur
@@ -135,8 +1593,67 @@ public class Client {
         }
     }
 
-    //Permet d'Envoyer un fichier au serveur (upload)
-    public String uploadFile(String filePath) {
+    // Exécute une commande en protocole texte en transmettant chaque ligne de sa sortie à listener dès sa réception
+    private int executeTextCommand(String command, OutputListener listener) {
+        try {
+            sendMessage(COMMAND_PREFIX + command);
+            String line = in.readLine();// Première ligne: RESULT:... ou ERROR:...
+            if (line != null && line.startsWith(RESULT_PREFIX)) {
+                line = line.substring(RESULT_PREFIX.length());
+                if (!line.isEmpty()) {
+                    onTextLine(line, listener);
+                }
+            } else if (line != null && !line.equals(END_OF_RESPONSE)) {
+                onTextLine(line, listener);
+            }
+            while (line != null && !line.equals(END_OF_RESPONSE)) {// Lignes suivantes, transmises dès leur réception
+                line = in.readLine();
+                if (line != null && !line.equals(END_OF_RESPONSE)) {
+                    onTextLine(line, listener);
+                }
+            }
+            return -1;
+        } catch (IOException e) {
+            logger.severe("Erreur de communication: " + e.getMessage());
+            listener.onOutput("Erreur de communication: " + e.getMessage() + "\n", true);
+            return -1;
+        }
+    }
+
+    // Une ligne "ERROR: ..." vient de la sortie d'erreur de la commande, une ligne "ERROR:..." signale l'échec de son exécution
+    private static void onTextLine(String line, OutputListener listener) {
+        if (line.startsWith("ERROR: ")) {
+            listener.onOutput(line.substring("ERROR: ".length()) + "\n", true);
+        } else if (line.startsWith(ERROR_PREFIX)) {
+            listener.onOutput("Erreur: " + line.substring(ERROR_PREFIX.length()) + "\n", true);
+        } else {
+            listener.onOutput(line + "\n", false);
+        }
+    }
+
+    // Décode en UTF-8 une sortie reçue par blocs: un caractère coupé entre deux blocs est conservé jusqu'au bloc suivant
+    private static class OutputDecoder {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private byte[] pending = new byte[0];// Début d'un caractère incomplet du bloc précédent
+
+        private String decode(byte[] data, boolean endOfInput) {
+            ByteBuffer input = ByteBuffer.allocate(pending.length + data.length);
+            input.put(pending).put(data).flip();
+            CharBuffer output = CharBuffer.allocate(input.remaining() + 1);
+            decoder.decode(input, output, endOfInput);
+            if (endOfInput) {
+                decoder.flush(output);
+            }
+            pending = new byte[input.remaining()];
+            input.get(pending);
+            return output.flip().toString();
+        }
+    }
+
+    //Envoie un fichier au serveur en protocole texte
+    private String uploadTextFile(String filePath) {
         try (FileInputStream fis = new FileInputStream(filePath)) {
             File file = new File(filePath);
             if (!file.exists() || !file.isFile()) {// Vérifier si le fichier existe et est un fichier pour pouvoir l'envoyer
@@ -165,6 +1682,7 @@ public class Client {
 
             // Attendre la confirmation du serveur
             String confirmation = in.readLine();
+            receiveMessage();// Consommer la suite de la réponse jusqu'à END_OF_RESPONSE pour ne pas décaler les réponses suivantes
             if (confirmation.startsWith(RESULT_PREFIX)) {// Si la confirmation commence par RESULT_PREFIX, cela signifie que le fichier a été téléchargé avec succès donc on retourne le nom du fichier
                 return confirmation.substring(RESULT_PREFIX.length());
             } else {// Sinon, cela signifie qu'il y a eu une erreur lors de l'envoi du fichier, donc on retourne un message d'erreur
@@ -177,9 +1695,8 @@ public class Client {
     }
 
     
-    // permet de  Télécharger un fichier depuis le serveur (download)
-     
-    public String downloadFile(String fileName, String destinationPath) {
+    //Télécharge un fichier depuis le serveur en protocole texte
+    private String downloadTextFile(String fileName, String destinationPath) {
         try {
             // Envoyer la commande DOWNLOAD
             sendMessage(COMMAND_PREFIX + DOWNLOAD_COMMAND + " " + fileName);// Envoyer la commande DOWNLOAD au serveur avec le nom du fichier à télécharger 
@@ -266,9 +1783,42 @@ public class Client {
                         } else {// Si le nom du fichier et le chemin de destination ne sont pas spécifiés
                             System.out.println("Usage: DOWNLOAD <nom_du_fichier> <chemin_de_destination>");// Afficher un message d'erreur avec l'utilisation correcte
                         }
+                    } else if (input.startsWith(BATCH_COMMAND + " ")) {// Lot de commandes: une commande par ligne du fichier
+                        String[] parts = input.trim().split("\\s+");
+                        String usage = "Usage: BATCH <fichier_de_commandes> [parallélisme] [délai_en_secondes]";
+                        try {
+                            if (parts.length < 2 || parts.length > 4) {
+                                throw new IllegalArgumentException(usage);
+                            }
+                            int parallelism = parts.length >= 3 ? Integer.parseInt(parts[2]) : 4;
+                            long timeoutMillis = parts.length == 4 ? Long.parseLong(parts[3]) * 1000 : 0;
+                            List<String> commands = new ArrayList<>();
+                            for (String line : Files.readAllLines(new File(parts[1]).toPath(), StandardCharsets.UTF_8)) {
+                                if (!line.isBlank() && !line.trim().startsWith("#")) {// Lignes vides et commentaires ignorés
+                                    commands.add(line.trim());
+                                }
+                            }
+                            int[] failures = {0};
+                            long start = System.nanoTime();
+                            client.executeBatchAsync(commands, parallelism, timeoutMillis, result -> {// Résultats affichés dès la fin de chaque commande
+                                if (result.isTimedOut() || result.isFailed() || result.getExitCode() > 0) {
+                                    failures[0]++;
+                                }
+                                System.out.print(result);
+                                System.out.flush();
+                            }).join();
+                            System.out.println(commands.size() + " commandes, " + failures[0] + " en erreur, en " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                        } catch (NumberFormatException e) {
+                            System.out.println(usage);
+                        } catch (IllegalArgumentException e) {
+                            System.out.println(e.getMessage());
+                        } catch (IOException e) {
+                            System.out.println("Erreur de lecture du fichier de commandes: " + e.getMessage());
+                        }
                     } else {// Si la commande n'est pas un transfert de fichier
-                        String result = client.executeCommand(input);// Exécuter la commande sur le serveur 
-                        System.out.println(result);
+                        // Exécuter la commande sur le serveur en affichant sa sortie dès sa réception
+                        client.executeCommand(input, (text, error) -> (error ? System.err : System.out).print(text));
+                        System.out.flush();
                     }
                 }
             } else {
@@ -4,6 +4,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.border.EmptyBorder;
 
@@ -23,6 +25,7 @@ public class ClientGUI extends JFrame {
     private DefaultListModel<String> historyModel;  // Modèle pour l'historique
     private JButton uploadButton;   // Bouton pour l'upload
     private JButton downloadButton; // Bouton pour le download
+    private JButton batchButton; // Bouton pour exécuter un lot de commandes
 
     
     public ClientGUI() {
@@ -62,13 +65,16 @@ public class ClientGUI extends JFrame {
         connectButton = new JButton("Connecter");
         uploadButton = new JButton("Upload");
         downloadButton = new JButton("Download");
+        batchButton = new JButton("Lot de commandes");
         uploadButton.setEnabled(false); // Désactivé par défaut
         downloadButton.setEnabled(false); // Désactivé par défaut
+        batchButton.setEnabled(false); // Désactivé par défaut
     
         // Ajout des boutons au panneau de boutons
         buttonPanel.add(connectButton);
         buttonPanel.add(uploadButton);
         buttonPanel.add(downloadButton);
+        buttonPanel.add(batchButton);
     
         // Ajout des panneaux de connexion et de boutons au panneau principal
         JPanel topPanel = new JPanel(new BorderLayout()); // Panneau pour regrouper connexion et boutons
@@ -142,6 +148,7 @@ public class ClientGUI extends JFrame {
     
         uploadButton.addActionListener(e -> uploadFile());//Lorsque le bouton "Upload" est cliqué, la méthode uploadFile() est appelée pour gérer l'upload d'un fichier.
         downloadButton.addActionListener(e -> downloadFile());// Lorsque le bouton "Download" est cliqué, la méthode downloadFile() est appelée pour gérer le download d'un fichier.
+        batchButton.addActionListener(e -> sendBatch());// Lorsque le bouton "Lot de commandes" est cliqué, la méthode sendBatch() demande les commandes à exécuter.
     
         // Gestion de la fermeture
         addWindowListener(new WindowAdapter() {// Lorsque la fenêtre est fermée, la connexion est fermée si elle est ouverte.
@@ -175,6 +182,7 @@ public class ClientGUI extends JFrame {
                 sendButton.setEnabled(true);
                 uploadButton.setEnabled(true);
                 downloadButton.setEnabled(true);
+                batchButton.setEnabled(true);
                 resultArea.append("Connecté au serveur " + serverAddress + ":" + serverPort + "\n");
                 commandField.requestFocus();//Le focus est donné au champ de texte pour permettre à l'utilisateur de saisir une commande.
             } else {//Si la connexion échoue ou si l'authentification est invalide, le client est défini sur null et un message d'erreur est affiché.
@@ -197,6 +205,7 @@ public class ClientGUI extends JFrame {
             sendButton.setEnabled(false);
             uploadButton.setEnabled(false);
             downloadButton.setEnabled(false);
+            batchButton.setEnabled(false);
             resultArea.append("Déconnecté du serveur\n");
         }
     }
@@ -214,33 +223,84 @@ public class ClientGUI extends JFrame {
                     historyModel.addElement(command);
                 }
 
-                // Exécution de la commande dans un thread séparé pour ne pas bloquer l'interface
-                new Thread(() -> {//La commande est exécutée dans un thread séparé pour ne pas bloquer l'interface.
-                    String result = client.executeCommand(command);//La méthode executeCommand() est appelée pour exécuter la commande et récupérer le résultat.
-                    SwingUtilities.invokeLater(() -> {//Le résultat est affiché dans la zone de résultat en utilisant SwingUtilities.invokeLater() pour garantir que l'interface est mise à jour dans le thread de l'interface.
-                        resultArea.append(result + "\n");//Le résultat est ajouté à la zone de résultat.
-                    });
-                }).start();//Le thread est démarré pour exécuter la commande.
+                // La commande est envoyée sans attendre sa réponse pour ne pas bloquer l'interface:
+                // plusieurs commandes peuvent être en cours sur la même session.
+                boolean[] endsWithNewline = {true};//indique si le dernier fragment affiché se termine par un retour à la ligne
+                client.executeCommandAsync(command, (text, error) -> {//Chaque fragment de la sortie est affiché dès sa réception, sans attendre la fin de la commande.
+                    endsWithNewline[0] = text.endsWith("\n");
+                    SwingUtilities.invokeLater(() -> resultArea.append(text));//La zone de résultat est mise à jour dans le thread de l'interface.
+                }).whenComplete((exitCode, e) -> SwingUtilities.invokeLater(() -> {
+                    if (e != null) {
+                        resultArea.append("Erreur de communication: " + e.getMessage() + "\n");
+                    } else if (!endsWithNewline[0]) {
+                        resultArea.append("\n");
+                    }
+                }));
 
                 commandField.setText("");//Le champ de texte est vidé après l'envoi de la commande.
             }
         }
     }
 
+    /**
+     * Exécute un lot de commandes indépendantes
+     */
+    private void sendBatch() {//La méthode sendBatch() demande une liste de commandes (une par ligne) et les fait exécuter en parallèle par le serveur.
+        JTextArea commandsArea = new JTextArea(10, 40);
+        JTextField parallelismField = new JTextField("4", 4);
+        JTextField timeoutField = new JTextField("0", 4);
+        JPanel optionsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        optionsPanel.add(new JLabel("Parallélisme:"));
+        optionsPanel.add(parallelismField);
+        optionsPanel.add(new JLabel("Délai par commande (s, 0 = délai du serveur):"));
+        optionsPanel.add(timeoutField);
+        JPanel batchPanel = new JPanel(new BorderLayout(0, 5));
+        batchPanel.add(new JLabel("Commandes (une par ligne):"), BorderLayout.NORTH);
+        batchPanel.add(new JScrollPane(commandsArea), BorderLayout.CENTER);
+        batchPanel.add(optionsPanel, BorderLayout.SOUTH);
+        if (JOptionPane.showConfirmDialog(this, batchPanel, "Lot de commandes", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        List<String> commands = new ArrayList<>();
+        for (String line : commandsArea.getText().split("\n")) {//Les lignes vides sont ignorées.
+            if (!line.isBlank()) {
+                commands.add(line.trim());
+            }
+        }
+        int parallelism;
+        long timeoutMillis;
+        try {
+            parallelism = Integer.parseInt(parallelismField.getText().trim());
+            timeoutMillis = Long.parseLong(timeoutField.getText().trim()) * 1000;
+        } catch (NumberFormatException e) {
+            resultArea.append("Parallélisme ou délai invalide\n");
+            return;
+        }
+        if (commands.isEmpty() || parallelism < 1 || timeoutMillis < 0) {
+            resultArea.append("Lot de commandes invalide\n");
+            return;
+        }
+        resultArea.append("> Lot de " + commands.size() + " commandes (parallélisme " + parallelism + ")\n");
+        client.executeBatchAsync(commands, parallelism, timeoutMillis, result -> {//Chaque résultat est affiché dès la fin de sa commande, sans attendre le reste du lot.
+            SwingUtilities.invokeLater(() -> resultArea.append(result.toString()));
+        }).thenAccept(results -> SwingUtilities.invokeLater(() -> {
+            long failed = results.stream().filter(result -> result.isTimedOut() || result.isFailed() || result.getExitCode() > 0).count();
+            resultArea.append("Lot terminé: " + results.size() + " commandes, " + failed + " en erreur\n");
+        }));
+    }
+
     /**
      * Gère l'upload d'un fichier
      */
     private void uploadFile() {//La méthode uploadFile() est appelée pour gérer l'upload d'un fichier.
         JFileChooser fileChooser = new JFileChooser();//Un sélecteur de fichiers est créé pour permettre à l'utilisateur de choisir un fichier à uploader.
         int returnValue = fileChooser.showOpenDialog(this);//Le sélecteur de fichiers est affiché et l'utilisateur peut choisir un fichier.
-        if (returnValue == JFileChooser.APPROVE_OPTION) {//Si l'utilisateur a choisi un fichier, un thread est démarré pour gérer l'upload du fichier.
+        if (returnValue == JFileChooser.APPROVE_OPTION) {//Si l'utilisateur a choisi un fichier, le fichier est envoyé au serveur.
             File selectedFile = fileChooser.getSelectedFile();//Le fichier sélectionné est récupéré.
-            new Thread(() -> {//Un thread est démarré pour gérer l'upload du fichier.
-                String result = client.uploadFile(selectedFile.getAbsolutePath());//La méthode uploadFile() est appelée pour uploader le fichier et récupérer le résultat.
-                SwingUtilities.invokeLater(() -> {//Le résultat est affiché dans la zone de résultat en utilisant SwingUtilities.invokeLater() pour garantir que l'interface est mise à jour dans le thread de l'interface.
-                    resultArea.append(result + "\n");
-                });
-            }).start();
+            client.uploadFileAsync(selectedFile.getAbsolutePath())//Le fichier est envoyé sans bloquer l'interface ni les autres requêtes en cours.
+                    .thenAccept(result -> SwingUtilities.invokeLater(() -> {//Le résultat est affiché dans la zone de résultat en utilisant SwingUtilities.invokeLater() pour garantir que l'interface est mise à jour dans le thread de l'interface.
+                        resultArea.append(result + "\n");
+                    }));
         }
     }
 
@@ -251,13 +311,11 @@ public class ClientGUI extends JFrame {
         String fileName = JOptionPane.showInputDialog(this, "Entrez le nom du fichier à télécharger:");//Une boîte de dialogue est affichée pour demander le nom du fichier à télécharger.
         if (fileName != null && !fileName.isEmpty()) {//Si un nom de fichier est saisi, une autre boîte de dialogue est affichée pour demander le chemin de destination.
             String destinationPath = JOptionPane.showInputDialog(this, "Entrez le chemin de destination:");//
-            if (destinationPath != null && !destinationPath.isEmpty()) {//Si un chemin de destination est saisi, un thread est démarré pour gérer le download du fichier.
-                new Thread(() -> {//Un thread est démarré pour gérer le download du fichier.
-                    String result = client.downloadFile(fileName, destinationPath);
-                    SwingUtilities.invokeLater(() -> {
-                        resultArea.append(result + "\n");
-                    });
-                }).start();
+            if (destinationPath != null && !destinationPath.isEmpty()) {//Si un chemin de destination est saisi, le fichier est demandé au serveur.
+                client.downloadFileAsync(fileName, destinationPath)//Le fichier est téléchargé sans bloquer l'interface ni les autres requêtes en cours.
+                        .thenAccept(result -> SwingUtilities.invokeLater(() -> {
+                            resultArea.append(result + "\n");
+                        }));
             } else {
                 resultArea.append("Chemin de destination invalide\n");
             }
@@ -0,0 +1,495 @@
+package client;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+//Cette classe pilote une flotte de serveurs depuis un seul client: inventaire des hôtes, une connexion authentifiée (Client)
+//par hôte, ouverte à la première opération et gardée pour les suivantes, et diffusion d'une commande ou d'un fichier à tous les hôtes.
+//Au plus getConcurrency() hôtes sont traités à la fois. Chaque hôte dispose de getTimeoutMillis() pour se connecter et terminer
+//l'opération: au-delà, sa connexion est fermée (le serveur arrête alors la commande) et l'hôte est compté en échec.
+//Les résultats sont transmis à un FleetListener dès que chaque hôte a terminé, puis résumés (Summary).
+//Inventaire: une ligne par hôte "[nom=]adresse[:port]" (port 9999 par défaut), lignes vides et commentaires (#) ignorés;
+//"adresse:premier-dernier" désigne une plage de ports, par exemple les serveurs locaux démarrés par "serveur.Server 10000-10099".
+public class Fleet implements Closeable {
+    public static final int DEFAULT_PORT = 9999;
+    private static final int SLOWEST_HOSTS = 5;// Hôtes les plus lents cités dans le résumé
+
+    private final List<Host> hosts;
+    private final String login;
+    private final String password;
+    private final Map<Host, Client> connections = new ConcurrentHashMap<>();// Connexions authentifiées, par hôte
+    private int concurrency = 32;// Hôtes traités simultanément
+    private long timeoutMillis = 60000;// Délai par hôte, connexion comprise (0: illimité)
+    private int connectTimeoutMillis = 10000;// Attente maximale de chaque étape de la connexion (TCP, TLS, authentification)
+
+    public Fleet(List<Host> hosts, String login, String password) {
+        this.hosts = Collections.unmodifiableList(new ArrayList<>(hosts));
+        this.login = login;
+        this.password = password;
+    }
+
+    public List<Host> getHosts() {
+        return hosts;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Le nombre d'hôtes traités simultanément doit être positif");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = Math.max(0, connectTimeoutMillis);
+    }
+
+    public int getConnectedCount() {//hôtes dont la connexion est ouverte
+        return connections.size();
+    }
+
+    // Ouvre les connexions qui ne le sont pas encore (sans attendre la première opération); les hôtes déjà connectés réussissent aussitôt
+    public Summary connect(FleetListener listener) {
+        return fanOut((host, client, start, deadline) -> new FleetResult(host, true, -1, "Connecté\n", "", elapsedMillis(start)), listener);
+    }
+
+    // Exécute command sur tous les hôtes; un hôte réussit si la commande se termine avec le code 0
+    // (en protocole texte, le code est inconnu: si elle n'a rien écrit sur sa sortie d'erreur)
+    public Summary execute(String command, FleetListener listener) {
+        return fanOut((host, client, start, deadline) -> {
+            StringBuilder output = new StringBuilder();
+            StringBuilder errors = new StringBuilder();
+            int exitCode = client.executeCommandAsync(command, (text, error) -> (error ? errors : output).append(text))
+                    .get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+            boolean success = client.isBinaryProtocol() ? exitCode == 0 : errors.length() == 0;
+            return new FleetResult(host, success, exitCode, output.toString(), errors.toString(), elapsedMillis(start));
+        }, listener);
+    }
+
+    // Envoie le fichier filePath à tous les hôtes (Client.uploadFile: reprise, déduplication et envoi différentiel compris)
+    public Summary push(String filePath, FleetListener listener) {
+        if (!new File(filePath).isFile()) {
+            throw new IllegalArgumentException("Fichier introuvable: " + filePath);
+        }
+        return fanOut((host, client, start, deadline) -> {
+            String response = client.uploadFileAsync(filePath).get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+            if (response.startsWith("Erreur de communication")) {// Connexion perdue: elle sera rouverte à la prochaine opération
+                drop(host, client);
+            }
+            boolean success = !response.startsWith("Erreur");
+            return new FleetResult(host, success, -1, success ? response : "", success ? "" : response, elapsedMillis(start));
+        }, listener);
+    }
+
+    @Override
+    public void close() {//Ferme toutes les connexions
+        for (Host host : hosts) {
+            Client client = connections.remove(host);
+            if (client != null) {
+                client.disconnect();
+            }
+        }
+    }
+
+    // Opération sur un hôte connecté; deadline est l'instant (System.nanoTime) où le délai de l'hôte expire, 0 s'il est illimité
+    private interface HostOperation {
+        FleetResult run(Host host, Client client, long start, long deadline) throws Exception;
+    }
+
+    // Applique operation à tous les hôtes, au plus concurrency à la fois, et attend qu'ils aient tous terminé
+    private Summary fanOut(HostOperation operation, FleetListener listener) {
+        long start = System.nanoTime();
+        List<FleetResult> results = Collections.synchronizedList(new ArrayList<>());
+        if (hosts.isEmpty()) {
+            return new Summary(results, 0);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(concurrency, hosts.size()), runnable -> {
+            Thread thread = new Thread(runnable, "flotte");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CountDownLatch finished = new CountDownLatch(hosts.size());
+        try {
+            for (Host host : hosts) {
+                workers.execute(() -> {
+                    try {
+                        FleetResult result = runOn(host, operation);
+                        results.add(result);
+                        deliver(listener, result);
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+            finished.await();
+        } catch (InterruptedException e) {// Les hôtes en cours sont abandonnés; le résumé porte sur ceux qui ont terminé
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdownNow();
+        }
+        return new Summary(new ArrayList<>(results), elapsedMillis(start));
+    }
+
+    private FleetResult runOn(Host host, HostOperation operation) {
+        long start = System.nanoTime();
+        long deadline = timeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        Client client = connections.get(host);
+        try {
+            if (client == null) {
+                client = open(host, deadline);
+                if (client == null) {
+                    return failure(host, start, "Échec de la connexion ou de l'authentification");
+                }
+            }
+            return operation.run(host, client, start, deadline);
+        } catch (TimeoutException e) {// La connexion est fermée: le serveur arrête la commande ou abandonne l'envoi
+            drop(host, client);
+            return failure(host, start, "Délai dépassé après " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            drop(host, client);
+            return failure(host, start, "Erreur de communication: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop(host, client);
+            return failure(host, start, "Opération interrompue");
+        } catch (Exception e) {
+            return failure(host, start, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Client open(Host host, long deadline) {// Connexion authentifiée, gardée pour les opérations suivantes; null en cas d'échec
+        Client client = new Client(host.getAddress(), host.getPort(), login, password);
+        long remaining = remainingMillis(deadline);
+        client.setConnectTimeout((int) Math.min(remaining, connectTimeoutMillis > 0 ? connectTimeoutMillis : Integer.MAX_VALUE));
+        if (!client.connect()) {
+            return null;
+        }
+        connections.put(host, client);
+        return client;
+    }
+
+    private void drop(Host host, Client client) {// Ferme une connexion perdue ou dont l'opération a dépassé le délai
+        if (client != null) {
+            connections.remove(host, client);
+            client.abort();// Sans attendre la fin de la commande: le serveur l'arrête
+        }
+    }
+
+    private static FleetResult failure(Host host, long start, String message) {
+        return new FleetResult(host, false, -1, "", message + "\n", elapsedMillis(start));
+    }
+
+    private static void deliver(FleetListener listener, FleetResult result) {// Un seul appel à la fois: les sorties ne s'entremêlent pas
+        if (listener == null) {
+            return;
+        }
+        synchronized (listener) {
+            try {
+                listener.onResult(result);
+            } catch (RuntimeException e) {
+                Logger.getLogger(Fleet.class.getName()).warning("Erreur dans le traitement du résultat de " + result.getHost() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static long remainingMillis(long deadline) {
+        return deadline == 0 ? Long.MAX_VALUE : Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    // Lit un inventaire: une ligne par hôte ou plage de ports (voir l'en-tête de la classe)
+    public static List<Host> readInventory(File file) throws IOException {
+        List<Host> hosts = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                hosts.addAll(parseHosts(line));
+            }
+        }
+        return hosts;
+    }
+
+    // Décode "[nom=]adresse[:port]" ou "adresse:premier-dernier"; plusieurs hôtes peuvent être séparés par des virgules
+    public static List<Host> parseHosts(String text) {
+        List<Host> hosts = new ArrayList<>();
+        for (String entry : text.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String name = null;
+            int equals = entry.indexOf('=');
+            if (equals >= 0) {
+                name = entry.substring(0, equals).trim();
+                entry = entry.substring(equals + 1).trim();
+            }
+            int colon = entry.lastIndexOf(':');
+            String address = colon >= 0 ? entry.substring(0, colon) : entry;
+            int first = DEFAULT_PORT;
+            int last = DEFAULT_PORT;
+            try {
+                if (colon >= 0) {
+                    String[] range = entry.substring(colon + 1).split("-", 2);
+                    first = Integer.parseInt(range[0].trim());
+                    last = range.length == 2 ? Integer.parseInt(range[1].trim()) : first;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Port invalide: " + entry);
+            }
+            if (address.isEmpty() || first < 1 || last > 65535 || last < first) {
+                throw new IllegalArgumentException("Hôte invalide: " + entry);
+            }
+            for (int port = first; port <= last; port++) {
+                hosts.add(new Host(name != null && first == last ? name : null, address, port));
+            }
+        }
+        return hosts;
+    }
+
+    //Hôte de l'inventaire
+    public static final class Host {
+        private final String name;// null: l'hôte est désigné par son adresse et son port
+        private final String address;
+        private final int port;
+
+        public Host(String name, String address, int port) {
+            this.name = name;
+            this.address = address;
+            this.port = port;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Host)) {
+                return false;
+            }
+            Host host = (Host) other;
+            return address.equals(host.address) && port == host.port && String.valueOf(name).equals(String.valueOf(host.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return address.hashCode() * 31 + port;
+        }
+
+        @Override
+        public String toString() {
+            return name != null ? name : address + ":" + port;
+        }
+    }
+
+    //Résumé d'une opération sur la flotte
+    public static final class Summary {
+        private final List<FleetResult> results;// Dans l'ordre de fin
+        private final long elapsedMillis;
+
+        private Summary(List<FleetResult> results, long elapsedMillis) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<FleetResult> getResults() {
+            return results;
+        }
+
+        public List<FleetResult> getSucceeded() {
+            List<FleetResult> succeeded = new ArrayList<>();
+            for (FleetResult result : results) {
+                if (result.isSuccess()) {
+                    succeeded.add(result);
+                }
+            }
+            return succeeded;
+        }
+
+        public List<FleetResult> getFailed() {
+            List<FleetResult> failed = new ArrayList<>(results);
+            failed.removeAll(getSucceeded());
+            return failed;
+        }
+
+        public List<FleetResult> getSlowest(int count) {//les count hôtes les plus lents, du plus lent au moins lent
+            List<FleetResult> sorted = new ArrayList<>(results);
+            sorted.sort(Comparator.comparingLong(FleetResult::getDurationMillis).reversed());
+            return sorted.subList(0, Math.min(count, sorted.size()));
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            List<FleetResult> failed = getFailed();
+            text.append(results.size()).append(" hôtes: ").append(results.size() - failed.size()).append(" réussis, ")
+                    .append(failed.size()).append(" en échec, en ").append(elapsedMillis).append(" ms\n");
+            if (!failed.isEmpty()) {
+                text.append("Échecs:");
+                for (FleetResult result : failed) {
+                    String error = result.getErrorOutput().trim();
+                    int newline = error.indexOf('\n');
+                    text.append("\n  ").append(result.getHost()).append(": ")
+                            .append(newline >= 0 ? error.substring(0, newline) : error.isEmpty() ? "code " + result.getExitCode() : error);
+                }
+                text.append('\n');
+            }
+            text.append("Plus lents:");
+            for (FleetResult result : getSlowest(SLOWEST_HOSTS)) {
+                text.append(' ').append(result.getHost()).append(" (").append(result.getDurationMillis()).append(" ms)");
+            }
+            return text.append('\n').toString();
+        }
+    }
+
+    // java client.Fleet (--inventaire fichier | --hotes h1:9999,h2:10000-10009) [--login l] [--mot-de-passe p]
+    //                   [--parallelisme 32] [--delai secondes] [--commande "cmd" | --envoi fichier]
+    // Sans --commande ni --envoi, les lignes lues sur la console sont diffusées à la flotte ("UPLOAD fichier" pour un envoi).
+    public static void main(String[] args) {
+        List<Host> hosts = new ArrayList<>();
+        String login = null;
+        String password = null;
+        String command = null;
+        String push = null;
+        int concurrency = 32;
+        long timeoutMillis = 60000;
+        BufferedReader consoleReader = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Valeur manquante pour " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--inventaire":
+                        hosts.addAll(readInventory(new File(value)));
+                        break;
+                    case "--hotes":
+                        hosts.addAll(parseHosts(value));
+                        break;
+                    case "--login":
+                        login = value;
+                        break;
+                    case "--mot-de-passe":
+                        password = value;
+                        break;
+                    case "--parallelisme":
+                        concurrency = Integer.parseInt(value);
+                        break;
+                    case "--delai":
+                        timeoutMillis = Long.parseLong(value) * 1000;
+                        break;
+                    case "--commande":
+                        command = value;
+                        break;
+                    case "--envoi":
+                        push = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Option inconnue: " + option);
+                }
+            }
+            if (hosts.isEmpty()) {
+                throw new IllegalArgumentException("Usage: java client.Fleet (--inventaire fichier | --hotes h1:9999,h2:10000-10009) [--login l] [--mot-de-passe p]"
+                        + " [--parallelisme 32] [--delai secondes] [--commande \"cmd\" | --envoi fichier]");
+            }
+
+            // Configuration du contexte SSL
+            System.setProperty("javax.net.ssl.trustStore", "client-truststore.jks");
+            System.setProperty("javax.net.ssl.trustStorePassword", "hamid123");
+            Logger.getLogger(Client.class.getName()).setLevel(Level.OFF);// Une ligne par hôte et par connexion noierait les résultats, qui portent les erreurs
+
+            if (login == null) {
+                System.out.print("Login: ");
+                login = consoleReader.readLine();
+            }
+            if (password == null) {
+                System.out.print("Mot de passe: ");
+                password = consoleReader.readLine();
+            }
+            try (Fleet fleet = new Fleet(hosts, login, password)) {
+                fleet.setConcurrency(concurrency);
+                fleet.setTimeoutMillis(timeoutMillis);
+                FleetListener printer = result -> {
+                    System.out.print(result);
+                    System.out.flush();
+                };
+                System.out.print("Connexion: " + fleet.connect(result -> {
+                    if (!result.isSuccess()) {
+                        printer.onResult(result);
+                    }
+                }));
+                if (command != null) {
+                    System.out.print(fleet.execute(command, printer));
+                } else if (push != null) {
+                    System.out.print(fleet.push(push, printer));
+                } else {
+                    System.out.println("Flotte de " + hosts.size() + " hôtes. Tapez 'exit' pour quitter.");
+                    while (true) {
+                        System.out.print("flotte> ");
+                        String input = consoleReader.readLine();
+                        if (input == null || input.equalsIgnoreCase("exit")) {
+                            break;
+                        }
+                        if (input.isBlank()) {
+                            continue;
+                        }
+                        String[] parts = input.trim().split(" ", 2);
+                        try {
+                            if (parts[0].equals(Client.UPLOAD_COMMAND)) {
+                                System.out.print(parts.length == 2 ? fleet.push(parts[1], printer) : "Usage: UPLOAD <chemin_du_fichier>\n");
+                            } else {
+                                System.out.print(fleet.execute(input, printer));
+                            }
+                        } catch (IllegalArgumentException e) {
+                            System.out.println(e.getMessage());
+                        }
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Valeur numérique invalide: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Erreur de lecture: " + e.getMessage());
+        }
+    }
+}
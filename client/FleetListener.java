@@ -0,0 +1,7 @@
+package client;
+
+//Cette interface reçoit le résultat de chaque hôte d'une flotte dès qu'il a terminé (voir Fleet).
+//Elle est appelée par un seul thread à la fois, depuis les threads de la flotte: une interface graphique doit repasser par son propre thread.
+public interface FleetListener {
+    void onResult(FleetResult result);//résultat d'un hôte, dans l'ordre de fin
+}
@@ -0,0 +1,62 @@
+package client;
+
+//Cette classe représente le résultat d'une opération (connexion, commande ou envoi de fichier) sur un hôte d'une flotte (voir Fleet).
+public final class FleetResult {
+    private final Fleet.Host host;
+    private final boolean success;
+    private final int exitCode;
+    private final String output;
+    private final String errorOutput;
+    private final long durationMillis;
+
+    FleetResult(Fleet.Host host, boolean success, int exitCode, String output, String errorOutput, long durationMillis) {
+        this.host = host;
+        this.success = success;
+        this.exitCode = exitCode;
+        this.output = output;
+        this.errorOutput = errorOutput;
+        this.durationMillis = durationMillis;
+    }
+
+    public Fleet.Host getHost() {
+        return host;
+    }
+
+    public boolean isSuccess() {//connexion établie, commande terminée avec le code 0 ou fichier reçu par le serveur
+        return success;
+    }
+
+    public int getExitCode() {//code de sortie d'une commande, -1 s'il est inconnu (protocole texte, échec, autre opération)
+        return exitCode;
+    }
+
+    public String getOutput() {//sortie standard d'une commande, ou réponse du serveur à un envoi de fichier
+        return output;
+    }
+
+    public String getErrorOutput() {//sortie d'erreur d'une commande, ou message d'erreur (connexion, délai dépassé, communication)
+        return errorOutput;
+    }
+
+    public long getDurationMillis() {//durée de l'opération sur cet hôte, connexion comprise
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {//Ligne d'état, puis la sortie comme Client.executeCommand(String)
+        StringBuilder text = new StringBuilder("[").append(host).append("] ").append(success ? "ok" : "échec");
+        if (exitCode >= 0) {
+            text.append(", code ").append(exitCode);
+        }
+        text.append(", ").append(durationMillis).append(" ms\n").append(output);
+        if (!output.isEmpty() && !output.endsWith("\n")) {
+            text.append('\n');
+        }
+        for (String line : errorOutput.split("\n")) {
+            if (!line.isEmpty()) {
+                text.append("ERROR: ").append(line).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
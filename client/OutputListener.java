@@ -0,0 +1,7 @@
+package client;
+
+//Cette interface reçoit la sortie d'une commande au fur et à mesure de sa réception (voir Client.executeCommand(String, OutputListener)).
+//Elle est appelée sur le thread qui exécute la commande: une interface graphique doit repasser par son propre thread pour s'afficher.
+public interface OutputListener {
+    void onOutput(String text, boolean error);//fragment de la sortie standard (error = false) ou de la sortie d'erreur / d'un message d'erreur (error = true)
+}
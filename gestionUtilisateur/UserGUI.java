@@ -6,6 +6,8 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import javax.swing.table.DefaultTableModel;
+import java.io.IOException;
+import serveur.AuthCache;
 
 public class UserGUI extends JFrame {
     // Composants de l'interface
@@ -261,6 +263,7 @@ public class UserGUI extends JFrame {
             int result = ps.executeUpdate();
             
             if (result > 0) {
+                invalidateServerCache(login); // Le serveur a peut-être retenu que ce login était inconnu
                 JOptionPane.showMessageDialog(this, "Utilisateur ajouté avec succès");
                 clearFields();
                 loadUserData();
@@ -282,6 +285,7 @@ public class UserGUI extends JFrame {
         }
         
         int id = Integer.parseInt(tableModel.getValueAt(selectedRow, 0).toString());
+        String oldLogin = tableModel.getValueAt(selectedRow, 1).toString();
         String login = loginField.getText();
         String password = passwordField.getText();
         
@@ -319,6 +323,7 @@ public class UserGUI extends JFrame {
             int result = ps.executeUpdate();
             
             if (result > 0) {
+                invalidateServerCache(oldLogin, login); // Ancien login et nouveau login
                 JOptionPane.showMessageDialog(this, "Utilisateur modifié avec succès");
                 clearFields();
                 loadUserData();
@@ -341,6 +346,7 @@ public class UserGUI extends JFrame {
             }
             
             int id = Integer.parseInt(tableModel.getValueAt(selectedRow, 0).toString());
+            String login = tableModel.getValueAt(selectedRow, 1).toString();
             
             int confirm = JOptionPane.showConfirmDialog(this, 
                     "Êtes-vous sûr de vouloir supprimer cet utilisateur ?", 
@@ -354,6 +360,7 @@ public class UserGUI extends JFrame {
                     int result = ps.executeUpdate();
                     
                     if (result > 0) {
+                        invalidateServerCache(login);
                         JOptionPane.showMessageDialog(this, "Utilisateur supprimé avec succès");
                         clearFields();
                         loadUserData();
@@ -366,6 +373,17 @@ public class UserGUI extends JFrame {
             }
         }
         
+        // Méthode pour signaler au serveur de ne plus utiliser les mots de passe qu'il a gardés en cache pour ces logins
+        private void invalidateServerCache(String... logins) {
+            try {
+                AuthCache.publishInvalidation(logins);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "Le serveur pourra accepter l'ancien mot de passe jusqu'à l'expiration de son cache: " + e.getMessage(),
+                        "Avertissement", JOptionPane.WARNING_MESSAGE);
+                e.printStackTrace();
+            }
+        }
+        
         // Méthode pour effacer les champs de formulaire
         private void clearFields() {
             loginField.setText("");
@@ -0,0 +1,478 @@
+package client;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import serveur.ClientCommandLogger;
+import serveur.MemoryUserStore;
+import serveur.Server;
+import serveur.ServerConfig;
+//Ce programme mesure le serveur sous charge: N sessions Client authentifiées en parallèle, chacune sur son propre thread,
+//exécutent un mélange de commandes, d'uploads et de downloads au débit demandé. Exemple:
+//  java -jar loadtest/target/charge.jar --local nio --sessions 50 --debit 500 --duree 60 --melange commande=8,upload=1,download=1
+//Avec --local threads|nio|virtual, un serveur est démarré dans la même JVM avec des utilisateurs en mémoire (MemoryUserStore):
+//ni MySQL ni serveur distant ne sont nécessaires. Sinon, --hote et --port désignent un serveur lancé à part.
+//Les durées sont mesurées depuis l'instant où l'opération aurait dû partir selon le débit demandé, et non depuis son envoi:
+//quand le serveur prend du retard, l'attente des opérations suivantes est comptée (pas d'omission coordonnée).
+//Le rapport donne, par opération, le nombre, le débit, le taux d'erreurs et les centiles, puis la distribution HdrHistogram
+//(--hgrm rep écrit aussi un fichier .hgrm par opération, lisible par HistogramLogAnalyzer ou le traceur en ligne d'HdrHistogram).
+public class LoadGenerator {
+    enum Operation {
+        COMMANDE, UPLOAD, DOWNLOAD;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final long REPORT_INTERVAL_MS = 5000;//intervalle des lignes de progression
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final String REMOTE_DIRECTORY = "server_storage/";//download lit les fichiers relativement au répertoire courant du serveur
+
+    // Options
+    private String host = "localhost";
+    private int port = 9999;
+    private int sessions = 10;
+    private double rate;//opérations par seconde pour toutes les sessions, 0 pour enchaîner les opérations sans attente
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private String login = "charge";
+    private String password = "charge";
+    private final int[] weights = {8, 1, 1};//poids de chaque opération dans le mélange
+    private String command = "echo bonjour";
+    private int fileSize = 64 * 1024;
+    private String localMode;//mode du serveur démarré dans la JVM, null pour un serveur distant
+    private File hgrmDirectory;
+
+    // Mesures: les sessions enregistrent sans verrou (Recorder), le thread principal cumule les intervalles dans totals
+    private final Recorder[] recorders = new Recorder[Operation.values().length];
+    private final Histogram[] totals = new Histogram[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[Operation.values().length];
+    private final LongAdder failedSessions = new LongAdder();
+    private volatile long endNanos;
+    private double measuredSeconds;//durée de la mesure, hors échauffement
+    private File workDirectory;//fichiers envoyés et reçus par les sessions
+
+    private LoadGenerator() {
+        for (Operation operation : Operation.values()) {
+            recorders[operation.ordinal()] = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+            totals[operation.ordinal()] = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+            errors[operation.ordinal()] = new LongAdder();
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Valeur manquante pour " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--hote":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--sessions":
+                    sessions = positive(option, Integer.parseInt(value));
+                    break;
+                case "--debit":
+                    rate = Double.parseDouble(value);
+                    if (rate < 0) {
+                        throw new IllegalArgumentException("--debit doit être positif ou nul");
+                    }
+                    break;
+                case "--duree":
+                    durationSeconds = positive(option, Integer.parseInt(value));
+                    break;
+                case "--echauffement":
+                    warmupSeconds = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--login":
+                    login = value;
+                    break;
+                case "--mot-de-passe":
+                    password = value;
+                    break;
+                case "--melange":
+                    parseMix(value);
+                    break;
+                case "--commande":
+                    command = value;
+                    break;
+                case "--taille":
+                    fileSize = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--local":
+                    ServerConfig.parseMode(value, null);//mode inconnu: IllegalArgumentException
+                    localMode = value;
+                    break;
+                case "--hgrm":
+                    hgrmDirectory = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue: " + option);
+            }
+        }
+    }
+
+    private static int positive(String option, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(option + " doit être strictement positif");
+        }
+        return value;
+    }
+
+    private void parseMix(String value) {//commande=8,upload=1,download=1; une opération absente a un poids nul
+        int[] mix = new int[weights.length];
+        for (String part : value.split(",")) {
+            String[] entry = part.trim().split("=");
+            if (entry.length != 2) {
+                throw new IllegalArgumentException("Mélange invalide: " + value + " (ex. commande=8,upload=1,download=1)");
+            }
+            Operation operation;
+            try {
+                operation = Operation.valueOf(entry[0].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Opération inconnue: " + entry[0]);
+            }
+            mix[operation.ordinal()] = Math.max(0, Integer.parseInt(entry[1].trim()));
+        }
+        int total = 0;
+        for (int weight : mix) {
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Le mélange ne contient aucune opération");
+        }
+        System.arraycopy(mix, 0, weights, 0, weights.length);
+    }
+
+    private void run() throws Exception {
+        Server server = localMode != null ? startLocalServer() : null;
+        workDirectory = Files.createTempDirectory("charge").toFile();
+        try {
+            runSessions();
+        } finally {
+            if (server != null) {
+                server.stop();
+                for (int i = 0; i < sessions; i++) {
+                    server.deleteFile(fileName(i));
+                }
+            }
+            deleteRecursively(workDirectory);
+        }
+        report();
+    }
+
+    private Server startLocalServer() throws IOException {//serveur dans la même JVM, utilisateurs en mémoire
+        if (System.getProperty("javax.net.ssl.keyStore") == null) {
+            System.setProperty("javax.net.ssl.keyStore", "keystore.jks");
+            System.setProperty("javax.net.ssl.keyStorePassword", "hamid123");
+        }
+        for (Handler handler : Logger.getLogger(ClientCommandLogger.class.getName()).getHandlers()) {
+            if (handler instanceof ConsoleHandler) {//une ligne par commande noierait la progression
+                handler.setLevel(Level.WARNING);
+            }
+        }
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        config.setMode(ServerConfig.parseMode(localMode, config.getMode()));
+        if (System.getProperty("serveur.metriques.port") == null) {
+            config.setMetricsPort(0);
+        }
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        host = "localhost";
+        Server server = new Server(port, config, new MemoryUserStore().add(login, password));
+        Thread serverThread = new Thread(server::start, "serveur-charge");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        awaitServer();
+        return server;
+    }
+
+    private void awaitServer() throws IOException {//le serveur local met un moment à démarrer: les échecs de connexion sont attendus
+        Logger clientLogger = Logger.getLogger(Client.class.getName());
+        Level level = clientLogger.getLevel();
+        clientLogger.setLevel(Level.OFF);
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            Client probe = new Client(host, port, login, password);
+            while (!probe.connect()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Le serveur local ne répond pas sur le port " + port);
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Démarrage du serveur local interrompu");
+                }
+            }
+            probe.disconnect();
+        } finally {
+            clientLogger.setLevel(level);
+        }
+    }
+
+    private void runSessions() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(sessions);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] startNanos = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> runSession(index, ready, go, startNanos), "charge-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        int connected = sessions - failedSessions.intValue();
+        if (connected == 0) {
+            go.countDown();
+            throw new IllegalStateException("Aucune session n'a pu se connecter à " + host + ":" + port);
+        }
+        System.out.printf(Locale.ROOT, "%d sessions connectées à %s:%d, débit %s, échauffement %d s, mesure %d s%n",
+                connected, host, port, rate > 0 ? rate + " op/s" : "maximal", warmupSeconds, durationSeconds);
+
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        startNanos[0] = start;
+        endNanos = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        go.countDown();
+
+        sleepUntil(warmupEnd);
+        for (Operation operation : Operation.values()) {//les mesures de l'échauffement sont écartées
+            recorders[operation.ordinal()].reset();
+            errors[operation.ordinal()].reset();
+        }
+        long measureStart = System.nanoTime();
+        long next = measureStart;
+        while ((next += TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MS)) < endNanos) {
+            sleepUntil(next);
+            progress(measureStart);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        collect();
+        measuredSeconds = (System.nanoTime() - measureStart) / 1e9;
+    }
+
+    private void runSession(int index, CountDownLatch ready, CountDownLatch go, long[] startNanos) {
+        Client client = new Client(host, port, login, password);
+        File file = new File(workDirectory, fileName(index));
+        File downloads = new File(workDirectory, "session-" + index);
+        try {
+            try {
+                if (!client.connect()) {
+                    System.err.println("Session " + index + ": échec de la connexion ou de l'authentification");
+                    failedSessions.increment();
+                    return;
+                }
+                byte[] data = new byte[fileSize];
+                new Random(index).nextBytes(data);
+                Files.write(file.toPath(), data);
+                new File(downloads, REMOTE_DIRECTORY).mkdirs();
+                String response = client.uploadFile(file.getPath());//le fichier doit exister sur le serveur avant le premier download
+                if (failed(response)) {
+                    System.err.println("Session " + index + ": " + response);
+                    failedSessions.increment();
+                    client.disconnect();
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Session " + index + ": " + e.getMessage());
+                failedSessions.increment();
+                return;
+            } finally {
+                ready.countDown();
+            }
+            go.await();
+
+            long interval = rate > 0 ? (long) (sessions * 1e9 / rate) : 0;
+            long intended = startNanos[0] + interval * index / sessions;//départs décalés pour ne pas envoyer toutes les sessions à la fois
+            long end = endNanos;
+            while (intended < end) {
+                if (interval > 0) {
+                    sleepUntil(intended);
+                } else {
+                    intended = System.nanoTime();
+                }
+                Operation operation = pick();
+                boolean success;
+                try {
+                    success = execute(client, operation, file, downloads);
+                } catch (RuntimeException e) {
+                    success = false;
+                }
+                recorders[operation.ordinal()].recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (System.nanoTime() - intended) / 1000));
+                if (!success) {
+                    errors[operation.ordinal()].increment();
+                }
+                intended += interval;
+            }
+            client.disconnect();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Operation pick() {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int draw = ThreadLocalRandom.current().nextInt(total);
+        for (Operation operation : Operation.values()) {
+            draw -= weights[operation.ordinal()];
+            if (draw < 0) {
+                return operation;
+            }
+        }
+        return Operation.COMMANDE;
+    }
+
+    private boolean execute(Client client, Operation operation, File file, File downloads) {
+        switch (operation) {
+            case COMMANDE:
+                if (client.isBinaryProtocol()) {//le code de sortie n'est connu qu'en protocole binaire
+                    return client.executeCommand(command, (text, error) -> { }) == 0;
+                }
+                return !failed(client.executeCommand(command));
+            case UPLOAD:
+                return !failed(client.uploadFile(file.getPath()));
+            case DOWNLOAD:
+                return !failed(client.downloadFile(REMOTE_DIRECTORY + file.getName(), downloads.getPath()));
+            default:
+                throw new IllegalStateException("Opération inconnue: " + operation);
+        }
+    }
+
+    private static boolean failed(String response) {
+        return response.startsWith("Erreur") || response.startsWith(Client.ERROR_PREFIX);
+    }
+
+    private static String fileName(int index) {
+        return "charge-" + index + ".bin";
+    }
+
+    private void collect() {//cumule les mesures enregistrées depuis le dernier appel
+        for (Operation operation : Operation.values()) {
+            totals[operation.ordinal()].add(recorders[operation.ordinal()].getIntervalHistogram());
+        }
+    }
+
+    private void progress(long measureStart) {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "[%4.0f s]", (System.nanoTime() - measureStart) / 1e9));
+        for (Operation operation : Operation.values()) {
+            Histogram interval = recorders[operation.ordinal()].getIntervalHistogram();
+            totals[operation.ordinal()].add(interval);
+            if (weights[operation.ordinal()] > 0) {
+                line.append(String.format(Locale.ROOT, "  %s %.1f op/s p99 %.2f ms", operation.label(),
+                        interval.getTotalCount() * 1000.0 / REPORT_INTERVAL_MS, interval.getValueAtPercentile(99) / 1000.0));
+            }
+        }
+        System.out.println(line);
+    }
+
+    private void report() throws IOException {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-10s %10s %10s %9s %10s %10s %10s %10s%n",
+                "opération", "nombre", "op/s", "erreurs", "p50 ms", "p99 ms", "p99,9 ms", "max ms");
+        long count = 0;
+        long errorCount = 0;
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = totals[operation.ordinal()];
+            long operations = histogram.getTotalCount();
+            long failures = errors[operation.ordinal()].sum();
+            count += operations;
+            errorCount += failures;
+            if (operations == 0) {
+                continue;
+            }
+            System.out.printf(Locale.ROOT, "%-10s %10d %10.1f %8.2f%% %10.2f %10.2f %10.2f %10.2f%n",
+                    operation.label(), operations, operations / measuredSeconds, 100.0 * failures / operations,
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+        }
+        System.out.printf(Locale.ROOT, "%-10s %10d %10.1f %8.2f%%%n", "total", count, count / measuredSeconds,
+                count == 0 ? 0.0 : 100.0 * errorCount / count);
+        if (failedSessions.sum() > 0) {
+            System.out.println(failedSessions.sum() + " sessions n'ont pas pu démarrer");
+        }
+
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = totals[operation.ordinal()];
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            System.out.println();
+            System.out.println("Distribution des durées (ms): " + operation.label());
+            histogram.outputPercentileDistribution(System.out, 1000.0);
+            if (hgrmDirectory != null) {
+                hgrmDirectory.mkdirs();
+                try (PrintStream out = new PrintStream(new FileOutputStream(new File(hgrmDirectory, operation.label() + ".hgrm")), false, "UTF-8")) {
+                    histogram.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java -jar charge.jar [--local threads|nio|virtual | --hote h --port p] [--sessions n] [--debit op/s]"
+                    + " [--duree s] [--echauffement s] [--login l] [--mot-de-passe m] [--melange commande=8,upload=1,download=1]"
+                    + " [--commande c] [--taille octets] [--hgrm rep]");
+            System.exit(2);
+            return;
+        }
+        if (System.getProperty("javax.net.ssl.trustStore") == null) {// Même fichier de confiance que Client.main
+            System.setProperty("javax.net.ssl.trustStore", "client-truststore.jks");
+            System.setProperty("javax.net.ssl.trustStorePassword", "hamid123");
+        }
+        generator.run();
+        System.exit(0);//les threads du serveur local et des clients ne doivent pas retenir la JVM
+    }
+}
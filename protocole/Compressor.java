@@ -0,0 +1,186 @@
+package protocole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+//Cette classe compresse et décompresse les charges utiles des trames marquées Frame.FLAG_COMPRESSED.
+//Algorithme: Deflate du JDK au niveau le plus rapide, sans en-tête zlib; chaque trame est compressée séparément,
+//ce qui laisse les trames de plusieurs requêtes s'entremêler. Charge utile compressée: taille décompressée (4 octets)
+//puis les données Deflate.
+//Seules les données qui y gagnent sont compressées, les autres sont envoyées telles quelles (compress() retourne -1):
+//  - les blocs de moins de MIN_SIZE octets (l'en-tête et le temps de calcul coûteraient plus que le gain)
+//  - les données dont l'entropie estimée sur un échantillon dépasse MAX_ENTROPY bits par octet: fichiers déjà compressés
+//    ou chiffrés (archives, images, vidéos), écartés sans les compresser
+//  - les blocs qui gagnent moins d'un seizième de leur taille
+//Une instance est partagée par les threads d'un serveur ou d'un client: les Deflater et Inflater (mémoire native) sont
+//réutilisés d'un appel à l'autre, et les compteurs (octets avant et après, octets écartés, temps de calcul) alimentent
+//les mesures du serveur.
+public final class Compressor {
+    public static final String DEFLATE = "deflate";//nom de l'algorithme dans la négociation (voir Protocole)
+    public static final int HEADER_SIZE = 4;//taille décompressée en tête d'une charge utile compressée
+    static final int MIN_SIZE = 512;//taille en dessous de laquelle un bloc est envoyé tel quel
+    static final int SAMPLE_SIZE = 4096;//octets examinés pour estimer l'entropie d'un bloc
+    static final double MAX_ENTROPY = 7.5;//entropie (bits par octet) au-delà de laquelle un bloc est jugé incompressible
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final LongAdder compressedInput = new LongAdder();//octets compressés, avant compression
+    private final LongAdder compressedOutput = new LongAdder();//octets compressés, après compression (en-têtes compris)
+    private final LongAdder skipped = new LongAdder();//octets envoyés tels quels (blocs trop petits, incompressibles ou sans gain)
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressedInput = new LongAdder();//octets reçus compressés
+    private final LongAdder decompressedOutput = new LongAdder();//octets obtenus après décompression
+    private final LongAdder decompressionNanos = new LongAdder();
+
+    //Compresse data[offset, offset + length) dans out à partir de outOffset (au moins length octets disponibles);
+    //retourne la taille de la charge utile compressée, ou -1 si le bloc doit être envoyé tel quel
+    public int compress(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        return compress(ByteBuffer.wrap(data, offset, length), out, outOffset);
+    }
+
+    //Compresse les octets restants de data (un fichier projeté en mémoire, par exemple) sans les recopier;
+    //la position de data n'est pas modifiée
+    public int compress(ByteBuffer data, byte[] out, int outOffset) {
+        int length = data.remaining();
+        if (length < MIN_SIZE || !looksCompressible(data)) {
+            skipped.add(length);
+            return -1;
+        }
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        int limit = length - length / 16 - HEADER_SIZE;//taille compressée maximale pour que la compression vaille la peine
+        int produced = 0;
+        boolean finished;
+        try {
+            deflater.setInput(data.duplicate());
+            deflater.finish();
+            while (!deflater.finished() && produced < limit) {
+                produced += deflater.deflate(out, outOffset + HEADER_SIZE + produced, limit - produced);
+            }
+            finished = deflater.finished();
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+            compressionNanos.add(System.nanoTime() - start);
+        }
+        if (!finished) {
+            skipped.add(length);
+            return -1;
+        }
+        out[outOffset] = (byte) (length >>> 24);
+        out[outOffset + 1] = (byte) (length >>> 16);
+        out[outOffset + 2] = (byte) (length >>> 8);
+        out[outOffset + 3] = (byte) length;
+        compressedInput.add(length);
+        compressedOutput.add(HEADER_SIZE + produced);
+        return HEADER_SIZE + produced;
+    }
+
+    //Taille décompressée annoncée en tête de la charge utile compressée data[offset, offset + length)
+    public static int uncompressedLength(byte[] data, int offset, int length) throws IOException {
+        if (length < HEADER_SIZE) {
+            throw new IOException("Charge utile compressée invalide");
+        }
+        int size = ByteBuffer.wrap(data, offset, HEADER_SIZE).getInt();
+        if (size < 0 || size > Frame.MAX_PAYLOAD) {
+            throw new IOException("Taille décompressée invalide: " + size);
+        }
+        return size;
+    }
+
+    //Décompresse la charge utile compressée data[offset, offset + length) dans out à partir de outOffset;
+    //retourne la taille décompressée
+    public int decompress(byte[] data, int offset, int length, byte[] out, int outOffset) throws IOException {
+        int size = uncompressedLength(data, offset, length);
+        if (size > out.length - outOffset) {
+            throw new IOException("Bloc compressé trop grand: " + size + " octets");
+        }
+        long start = System.nanoTime();
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        int produced = 0;
+        try {
+            inflater.setInput(data, offset + HEADER_SIZE, length - HEADER_SIZE);
+            while (produced < size) {
+                int inflated = inflater.inflate(out, outOffset + produced, size - produced);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                produced += inflated;
+            }
+            if (produced != size) {
+                throw new IOException("Données compressées corrompues");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Données compressées corrompues: " + e.getMessage(), e);
+        } finally {
+            inflater.reset();
+            inflaters.offer(inflater);
+            decompressionNanos.add(System.nanoTime() - start);
+        }
+        decompressedInput.add(length);
+        decompressedOutput.add(size);
+        return size;
+    }
+
+    //Estime l'entropie de Shannon d'un échantillon réparti sur le bloc (quatre tranches de SAMPLE_SIZE / 4 octets)
+    static boolean looksCompressible(ByteBuffer data) {
+        int[] counts = new int[256];
+        int length = data.remaining();
+        int slice = Math.min(length, SAMPLE_SIZE) / 4;
+        int sampled = 0;
+        for (int part = 0; part < 4; part++) {
+            int from = data.position() + (int) ((long) (length - slice) * part / 3);
+            for (int i = from; i < from + slice; i++) {
+                counts[data.get(i) & 0xFF]++;
+            }
+            sampled += slice;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / sampled;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2) <= MAX_ENTROPY;
+    }
+
+    public long getCompressedInputBytes() {
+        return compressedInput.sum();
+    }
+
+    public long getCompressedOutputBytes() {
+        return compressedOutput.sum();
+    }
+
+    public long getSkippedBytes() {
+        return skipped.sum();
+    }
+
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    public long getDecompressedInputBytes() {
+        return decompressedInput.sum();
+    }
+
+    public long getDecompressedOutputBytes() {
+        return decompressedOutput.sum();
+    }
+
+    public long getDecompressionNanos() {
+        return decompressionNanos.sum();
+    }
+}
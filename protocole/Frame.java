@@ -0,0 +1,135 @@
+package protocole;
+
+import java.nio.charset.StandardCharsets;
+//Cette classe représente une trame du protocole binaire.
+//Format d'une trame (entiers en big-endian):
+//  - version   : 1 octet  (Protocole.VERSION)
+//  - type      : 1 octet  (CMD, RESULT, ERROR, END, UPLOAD, DATA, EOF, DOWNLOAD, DISCONNECT, STDERR, RESUME, OFFSET, CHUNK, HAVE,
+//                          SIGNATURE, DELTA, COPY, BATCH)
+//  - drapeaux  : 1 octet  (FLAG_RANGE, FLAG_COMPRESSED, 0 sinon)
+//  - requête   : 4 octets (identifiant choisi par le client, repris dans toutes les trames de la réponse)
+//  - longueur  : 4 octets (taille de la charge utile)
+//  - charge utile : "longueur" octets, jamais interprétée pour les trames DATA
+//La longueur étant connue à l'avance, aucune sentinelle n'est recherchée dans les données.
+//La réponse à une commande est diffusée au fil de l'exécution: trames RESULT (sortie standard) et STDERR (sortie d'erreur)
+//contenant les octets bruts produits par le processus, puis une trame END dont la charge utile est le code de sortie (4 octets).
+//Un upload par blocs peut reprendre après une coupure: le client envoie RESUME (taille et date de modification du fichier, nom),
+//le serveur répond OFFSET (octets déjà reçus et vérifiés), le client envoie la suite en trames CHUNK (position, CRC32C du bloc,
+//données) puis EOF; le serveur répond RESULT ou ERROR puis END, comme pour UPLOAD.
+//Avec le drapeau FLAG_RANGE, les trames RESUME et DOWNLOAD commencent par une plage d'octets [début, fin) (2 × 8 octets):
+//un gros fichier est alors transféré en plusieurs plages sur des connexions parallèles. La réponse à un DOWNLOAD par plage
+//commence par une trame OFFSET portant la taille totale du fichier (une plage vide ne demande que la taille).
+//Si la compression a été négociée (voir Protocole), les trames RESULT, STDERR, DATA et CHUNK peuvent porter FLAG_COMPRESSED:
+//leur charge utile (pour CHUNK, les données qui suivent position et CRC32C) est compressée par Compressor. Le CRC32C d'un bloc
+//porte sur les données décompressées, qui ne dépassent pas DATA_CHUNK_SIZE octets.
+//Le serveur stocke les fichiers par contenu, en blocs de BLOCK_SIZE octets identifiés par leur SHA-256. Avant un upload, le client
+//envoie HAVE (taille, date de modification, SHA-256 de chaque bloc, nom): si le serveur a déjà tous les blocs, il enregistre le
+//fichier sans données et répond RESULT puis END; sinon il répond une trame HAVE (un bit par bloc, 1 si le bloc est connu, bit de
+//poids fort en premier) puis END, et le client n'envoie que les plages des blocs inconnus (RESUME avec FLAG_RANGE).
+//Envoi différentiel d'une nouvelle version d'un fichier déjà stocké (à la manière de rsync): le client envoie SIGNATURE (nom),
+//le serveur répond des trames SIGNATURE dont les charges utiles mises bout à bout forment l'en-tête (version de référence, taille,
+//taille des blocs, voir SIGNATURE_HEADER_SIZE) puis, pour chaque bloc de l'ancienne version, sa somme glissante (RollingChecksum)
+//et son empreinte MD5, puis END (END seul si le fichier n'a pas de version stockée). Le client envoie ensuite DELTA (version de référence,
+//taille et date de modification du nouveau contenu, nom), puis dans l'ordre du fichier des trames COPY (suites de blocs de
+//l'ancienne version à reprendre: indice et nombre, 4 octets chacun) et DATA (octets nouveaux), puis EOF portant le SHA-256 du
+//nouveau contenu; le serveur reconstruit le fichier, vérifie l'empreinte et répond RESULT ou ERROR puis END, comme pour UPLOAD.
+//Lot de commandes indépendantes: le client envoie BATCH (parallélisme, délai par commande en millisecondes, 0 pour le délai du
+//serveur, nombre de commandes, puis chaque commande précédée de sa longueur, 4 octets chacun); le serveur exécute les commandes
+//sur au plus "parallélisme" processus et répond une trame BATCH par commande terminée, dans l'ordre de fin: indice de la commande,
+//état (BATCH_EXITED, BATCH_TIMEOUT ou BATCH_FAILED, plus BATCH_TRUNCATED), code de sortie, longueur de la sortie standard (4 + 1 +
+//4 + 4 octets), sortie standard puis sortie d'erreur (ou message d'erreur); puis END. Ces trames peuvent porter FLAG_COMPRESSED.
+public final class Frame {
+    public static final int HEADER_SIZE = 11;//taille de l'en-tête en octets
+    public static final int MAX_PAYLOAD = 16 * 1024 * 1024;//taille maximale acceptée pour une charge utile
+    public static final int DATA_CHUNK_SIZE = 64 * 1024;//taille des blocs de fichier envoyés dans les trames DATA
+    public static final int RESUME_HEADER_SIZE = 16;//taille (8 octets) et date de modification (8 octets) en tête d'une trame RESUME
+    public static final int CHUNK_HEADER_SIZE = 12;//position (8 octets) et CRC32C (4 octets) en tête d'une trame CHUNK
+    public static final int RANGE_SIZE = 16;//début et fin (8 octets chacun) d'une plage en tête d'une trame avec FLAG_RANGE
+    public static final int BLOCK_SIZE = 4 * 1024 * 1024;//taille des blocs du stockage par contenu (le dernier bloc d'un fichier peut être plus court)
+    public static final int HASH_SIZE = 32;//taille d'une empreinte SHA-256 dans une trame HAVE
+    public static final int MAX_BLOCKS = 32 * 1024;//nombre maximal de blocs dans une trame HAVE (fichiers de 128 Go)
+    public static final int STRONG_HASH_SIZE = 16;//empreinte MD5 d'un bloc dans les signatures d'un envoi différentiel
+    public static final int SIGNATURE_SIZE = 4 + STRONG_HASH_SIZE;//somme glissante puis empreinte MD5 d'un bloc
+    public static final int SIGNATURE_HEADER_SIZE = HASH_SIZE + 8 + 4;//version de référence, taille du fichier, taille des blocs
+    public static final int MAX_SIGNATURES = 1024 * 1024;//nombre maximal de blocs de signature (fichiers de 64 Go)
+    public static final int COPY_RUN_SIZE = 8;//indice du premier bloc et nombre de blocs d'une suite dans une trame COPY
+    public static final int MAX_BATCH_LENGTH = 1024 * 1024;//taille maximale d'une trame BATCH envoyée par le client
+    public static final int MAX_BATCH_COMMANDS = 10000;//nombre maximal de commandes dans un lot
+    public static final int MAX_BATCH_OUTPUT = 1024 * 1024;//sortie gardée par commande d'un lot (sorties standard et d'erreur), le reste est ignoré
+    public static final int BATCH_RESULT_HEADER_SIZE = 13;//indice, état, code de sortie et longueur de la sortie standard d'une trame BATCH de réponse
+
+    // États d'une commande dans une trame BATCH de réponse
+    public static final byte BATCH_EXITED = 0;//commande terminée, le code de sortie est celui du processus
+    public static final byte BATCH_TIMEOUT = 1;//processus arrêté après le délai du lot
+    public static final byte BATCH_FAILED = 2;//commande non exécutée, la sortie d'erreur porte le message d'erreur
+    public static final byte BATCH_TRUNCATED = 0x10;//ajouté à l'état: la sortie a dépassé MAX_BATCH_OUTPUT octets
+
+    // Drapeaux
+    public static final byte FLAG_RANGE = 1;//la charge utile d'une trame RESUME ou DOWNLOAD commence par une plage d'octets
+    public static final byte FLAG_COMPRESSED = 2;//la charge utile est compressée (voir Compressor)
+
+    // Types de trame
+    public static final byte CMD = 1;//commande système (charge utile: texte de la commande)
+    public static final byte RESULT = 2;//résultat ou message d'information (texte)
+    public static final byte ERROR = 3;//message d'erreur (texte)
+    public static final byte END = 4;//fin de la réponse à une requête
+    public static final byte UPLOAD = 5;//début d'un upload (charge utile: nom du fichier)
+    public static final byte DATA = 6;//bloc de données d'un fichier (octets bruts)
+    public static final byte EOF = 7;//fin des données d'un fichier
+    public static final byte DOWNLOAD = 8;//demande de download (charge utile: nom du fichier)
+    public static final byte DISCONNECT = 9;//déconnexion
+    public static final byte STDERR = 10;//bloc de la sortie d'erreur d'une commande (octets bruts)
+    public static final byte RESUME = 11;//début ou reprise d'un upload par blocs (taille, date de modification, nom du fichier)
+    public static final byte OFFSET = 12;//position à partir de laquelle envoyer les blocs (8 octets)
+    public static final byte CHUNK = 13;//bloc d'un upload par blocs (position, CRC32C, données)
+    public static final byte HAVE = 14;//blocs d'un fichier à envoyer (SHA-256) ou, en réponse, blocs déjà connus du serveur
+    public static final byte SIGNATURE = 15;//demande (nom du fichier) ou réponse (signatures des blocs) d'un envoi différentiel
+    public static final byte DELTA = 16;//début d'un envoi différentiel (version de référence, taille, date de modification, nom)
+    public static final byte COPY = 17;//suites de blocs de la version de référence à reprendre dans un envoi différentiel
+    public static final byte BATCH = 18;//lot de commandes (demande) ou résultat d'une commande du lot (réponse)
+
+    //Écrit l'en-tête d'une trame à la position courante de buffer (utilisé par les sessions NIO qui n'ont pas de flux)
+    public static void putHeader(java.nio.ByteBuffer buffer, byte type, int requestId, int length) {
+        putHeader(buffer, type, (byte) 0, requestId, length);
+    }
+
+    public static void putHeader(java.nio.ByteBuffer buffer, byte type, byte flags, int requestId, int length) {
+        buffer.put((byte) Protocole.VERSION);
+        buffer.put(type);
+        buffer.put(flags);
+        buffer.putInt(requestId);
+        buffer.putInt(length);
+    }
+
+    private final byte type;
+    private final byte flags;
+    private final int requestId;
+    private final byte[] payload;
+
+    public Frame(byte type, byte flags, int requestId, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.requestId = requestId;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getText() {//charge utile décodée en UTF-8 (trames de texte uniquement)
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package protocole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+//Cette classe lit les trames du protocole binaire sur un flux d'entrée.
+//L'en-tête est lu d'abord avec nextHeader(); la charge utile est ensuite soit lue en texte (readText),
+//soit recopiée telle quelle vers une destination (transferPayload) sans conversion en chaîne, soit ignorée.
+//Une instance n'est pas thread-safe: un seul thread lit les trames d'une connexion.
+public class FrameReader {
+    private final DataInputStream in;
+    private byte type;//type de la trame courante
+    private byte flags;//drapeaux de la trame courante
+    private int requestId;//identifiant de requête de la trame courante
+    private int remaining;//octets de charge utile restant à lire pour la trame courante
+
+    public FrameReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, Frame.DATA_CHUNK_SIZE + Frame.HEADER_SIZE));
+    }
+
+    //Lit l'en-tête de la trame suivante. La charge utile de la trame précédente doit avoir été consommée.
+    //Retourne false si le flux est terminé proprement entre deux trames.
+    public boolean nextHeader() throws IOException {
+        if (remaining > 0) {
+            skipPayload();
+        }
+        int version = in.read();
+        if (version < 0) {
+            return false;
+        }
+        if (version != Protocole.VERSION) {
+            throw new IOException("Version de trame non supportée: " + version);
+        }
+        type = in.readByte();
+        flags = in.readByte();
+        requestId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > Frame.MAX_PAYLOAD) {
+            throw new IOException("Taille de trame invalide: " + length);
+        }
+        remaining = length;
+        return true;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public int getPayloadLength() {
+        return remaining;
+    }
+
+    public byte[] readPayload() throws IOException {//lit la charge utile de la trame courante dans un nouveau tableau
+        byte[] payload = new byte[remaining];
+        in.readFully(payload);
+        remaining = 0;
+        return payload;
+    }
+
+    //Lit les length octets suivants de la charge utile dans buffer (lecture d'une charge utile par morceaux)
+    public void readPayload(byte[] buffer, int offset, int length) throws IOException {
+        if (length > remaining) {
+            throw new IOException("Lecture au-delà de la charge utile: " + length + " octets demandés, " + remaining + " restants");
+        }
+        in.readFully(buffer, offset, length);
+        remaining -= length;
+    }
+
+    public String readText() throws IOException {//lit la charge utile de la trame courante comme du texte UTF-8
+        return new String(readPayload(), StandardCharsets.UTF_8);
+    }
+
+    //Recopie la charge utile de la trame courante vers out en passant par buffer (réutilisé d'une trame à l'autre)
+    //Si l'écriture dans out échoue, le reste de la charge utile peut encore être ignoré avec skipPayload()
+    public void transferPayload(OutputStream out, byte[] buffer) throws IOException {
+        while (remaining > 0) {
+            int bytesRead = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (bytesRead < 0) {
+                throw new EOFException("Trame tronquée");
+            }
+            remaining -= bytesRead;
+            out.write(buffer, 0, bytesRead);
+        }
+    }
+
+    public void skipPayload() throws IOException {//ignore la charge utile de la trame courante
+        while (remaining > 0) {
+            int skipped = (int) in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Trame tronquée");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    public Frame readFrame() throws IOException {//lit une trame complète, ou retourne null en fin de flux
+        if (!nextHeader()) {
+            return null;
+        }
+        return new Frame(type, flags, requestId, readPayload());
+    }
+}
@@ -0,0 +1,117 @@
+package protocole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+//Cette classe écrit les trames du protocole binaire sur un flux de sortie.
+//Chaque trame est écrite d'un seul bloc sous verrou: plusieurs threads peuvent partager un FrameWriter
+//sans que leurs trames ne s'entremêlent. Les trames sont mises en tampon jusqu'à l'appel de flush().
+//Le verrou est un ReentrantLock et non un moniteur (synchronized): un thread virtuel qui attend l'écriture sur la socket
+//sous un moniteur bloquerait son thread porteur (Java 21 à 23).
+//Si la compression a été négociée (setCompressor()), writeCompressible() et writeChunk() compressent les données avant de
+//prendre le verrou: les threads qui partagent le FrameWriter compressent en parallèle.
+public class FrameWriter {
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    private final DataOutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Compressor compressor;//null si la compression n'a pas été négociée
+
+    public FrameWriter(OutputStream out) {
+        // Tampon de deux trames DATA: un en-tête et sa charge utile partent dans la même écriture (et le même enregistrement TLS)
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 2 * (Frame.DATA_CHUNK_SIZE + Frame.HEADER_SIZE)));
+    }
+
+    public void write(byte type, int requestId, byte[] payload, int offset, int length) throws IOException {
+        write(type, (byte) 0, requestId, payload, offset, length);
+    }
+
+    public void write(byte type, byte flags, int requestId, byte[] payload, int offset, int length) throws IOException {
+        lock.lock();
+        try {
+            out.writeByte(Protocole.VERSION);
+            out.writeByte(type);
+            out.writeByte(flags);
+            out.writeInt(requestId);
+            out.writeInt(length);
+            out.write(payload, offset, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    //Trame RESULT, STDERR, DATA ou BATCH compressée si la compression a été négociée et que les données y gagnent;
+    //scratch reçoit la charge utile compressée et doit contenir au moins length octets (null: pas de compression)
+    public void writeCompressible(byte type, int requestId, byte[] data, int offset, int length, byte[] scratch) throws IOException {
+        Compressor compressor = this.compressor;
+        int compressed = compressor != null && scratch != null ? compressor.compress(data, offset, length, scratch, 0) : -1;
+        if (compressed < 0) {
+            write(type, requestId, data, offset, length);
+        } else {
+            write(type, Frame.FLAG_COMPRESSED, requestId, scratch, 0, compressed);
+        }
+    }
+
+    public void write(byte type, int requestId) throws IOException {//trame sans charge utile (END, EOF, DISCONNECT)
+        write(type, requestId, NO_PAYLOAD, 0, 0);
+    }
+
+    public void writeText(byte type, int requestId, String text) throws IOException {//trame dont la charge utile est un texte UTF-8
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        write(type, requestId, payload, 0, payload.length);
+    }
+
+    public void writeInt(byte type, int requestId, int value) throws IOException {//trame dont la charge utile est un entier (code de sortie d'une trame END)
+        byte[] payload = {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        write(type, requestId, payload, 0, payload.length);
+    }
+
+    public void writeLong(byte type, int requestId, long value) throws IOException {//trame dont la charge utile est un entier long (position d'une trame OFFSET)
+        byte[] payload = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            payload[i] = (byte) (value >>> (56 - 8 * i));
+        }
+        write(type, requestId, payload, 0, payload.length);
+    }
+
+    //Trame CHUNK: position du bloc dans le fichier et CRC32C des données, suivis des données elles-mêmes,
+    //compressées comme par writeCompressible() (scratch peut être null si la compression n'est pas souhaitée)
+    public void writeChunk(int requestId, long position, int checksum, byte[] data, int offset, int length, byte[] scratch) throws IOException {
+        Compressor compressor = this.compressor;
+        int compressed = compressor != null && scratch != null ? compressor.compress(data, offset, length, scratch, 0) : -1;
+        if (compressed < 0) {
+            writeChunkFrame((byte) 0, requestId, position, checksum, data, offset, length);
+        } else {
+            writeChunkFrame(Frame.FLAG_COMPRESSED, requestId, position, checksum, scratch, 0, compressed);
+        }
+    }
+
+    private void writeChunkFrame(byte flags, int requestId, long position, int checksum, byte[] data, int offset, int length) throws IOException {
+        lock.lock();
+        try {
+            out.writeByte(Protocole.VERSION);
+            out.writeByte(Frame.CHUNK);
+            out.writeByte(flags);
+            out.writeInt(requestId);
+            out.writeInt(Frame.CHUNK_HEADER_SIZE + length);
+            out.writeLong(position);
+            out.writeInt(checksum);
+            out.write(data, offset, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
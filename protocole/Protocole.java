@@ -0,0 +1,100 @@
+package protocole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//Cette classe regroupe les constantes du protocole binaire partagé par le client et le serveur.
+//Après "AUTH:" et AUTH_SUCCESS, le client peut proposer le protocole binaire avec la ligne "PROTO:<versions>".
+//  - Le serveur répond "PROTO_OK:<version>" puis les deux côtés n'échangent plus que des trames (voir Frame).
+//  - Le serveur répond "PROTO_NO" s'il ne connaît aucune des versions: la session reste en protocole texte.
+//Un serveur trop ancien ignore la ligne: le client attend la réponse au plus NEGOTIATION_TIMEOUT_MS puis reste en texte.
+//La proposition peut aussi nommer un algorithme de compression ("PROTO:1,deflate"): le serveur qui l'accepte le reprend
+//dans sa réponse ("PROTO_OK:1,deflate") et les deux côtés peuvent alors compresser leurs trames (Frame.FLAG_COMPRESSED).
+//Un serveur plus ancien ignore cet élément, qui n'est pas un numéro de version, et répond "PROTO_OK:1".
+//De la même façon, le client nomme les types de trame facultatifs qu'il sait utiliser (CAPABILITIES: "PROTO:1,deflate,resume,have,
+//delta,batch"): le serveur reprend dans sa réponse ceux qu'il traite ("PROTO_OK:1,deflate,resume,have,delta,batch"), et le
+//client n'envoie jamais une trame que le serveur n'a pas annoncée. Un serveur qui n'en reprend aucun ne reçoit que les trames
+//de base (CMD, UPLOAD, DOWNLOAD, DISCONNECT).
+public final class Protocole {
+    public static final int VERSION = 1;//version du format de trame implémentée
+    public static final String NEGOTIATION_PREFIX = "PROTO:";//proposition du client
+    public static final String NEGOTIATION_OK = "PROTO_OK:";//acceptation du serveur suivie de la version retenue
+    public static final String NEGOTIATION_REFUSED = "PROTO_NO";//refus du serveur
+    public static final int NEGOTIATION_TIMEOUT_MS = 2000;//délai d'attente de la réponse du serveur
+
+    // Types de trame facultatifs annoncés dans la négociation
+    public static final String RESUME = "resume";//uploads par blocs avec reprise (RESUME, OFFSET, CHUNK, plages FLAG_RANGE)
+    public static final String HAVE = "have";//stockage par contenu: blocs déjà connus du serveur (HAVE)
+    public static final String DELTA = "delta";//envoi différentiel (SIGNATURE, DELTA, COPY)
+    public static final String BATCH = "batch";//lots de commandes (BATCH)
+    public static final List<String> CAPABILITIES = Collections.unmodifiableList(Arrays.asList(RESUME, HAVE, DELTA, BATCH));
+
+    private Protocole() {
+    }
+
+    //Retourne Compressor.DEFLATE si la proposition le nomme, null sinon
+    public static String selectCompression(String proposal) {
+        if (proposal == null || !proposal.startsWith(NEGOTIATION_PREFIX)) {
+            return null;
+        }
+        for (String token : proposal.substring(NEGOTIATION_PREFIX.length()).split(",")) {
+            if (token.trim().equals(Compressor.DEFLATE)) {
+                return Compressor.DEFLATE;
+            }
+        }
+        return null;
+    }
+
+    //Retourne les types de trame facultatifs (CAPABILITIES) nommés par la proposition "PROTO:..." ou la réponse "PROTO_OK:...",
+    //dans l'ordre de CAPABILITIES; les éléments inconnus sont ignorés
+    public static List<String> selectCapabilities(String negotiation) {
+        List<String> selected = new ArrayList<>();
+        if (negotiation == null) {
+            return selected;
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : negotiation.substring(negotiation.indexOf(':') + 1).split(",")) {
+            tokens.add(token.trim());
+        }
+        for (String capability : CAPABILITIES) {
+            if (tokens.contains(capability)) {
+                selected.add(capability);
+            }
+        }
+        return selected;
+    }
+
+    //Réponse du serveur qui accepte la proposition: version retenue, compression si elle est accordée, puis les types de trame
+    //facultatifs proposés par le client (le serveur les traite tous)
+    public static String accept(int version, boolean compression, String proposal) {
+        StringBuilder response = new StringBuilder(NEGOTIATION_OK).append(version);
+        if (compression) {
+            response.append(',').append(Compressor.DEFLATE);
+        }
+        for (String capability : selectCapabilities(proposal)) {
+            response.append(',').append(capability);
+        }
+        return response.toString();
+    }
+
+    //Choisit la plus haute version proposée que l'on sait parler ("PROTO:1,2" -> 1), ou -1 si aucune
+    public static int selectVersion(String proposal) {
+        if (proposal == null || !proposal.startsWith(NEGOTIATION_PREFIX)) {
+            return -1;
+        }
+        int selected = -1;
+        for (String token : proposal.substring(NEGOTIATION_PREFIX.length()).split(",")) {
+            try {
+                int version = Integer.parseInt(token.trim());
+                if (version == VERSION && version > selected) {
+                    selected = version;
+                }
+            } catch (NumberFormatException e) {
+                // Version illisible: ignorée
+            }
+        }
+        return selected;
+    }
+}
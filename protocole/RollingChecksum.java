@@ -0,0 +1,52 @@
+package protocole;
+
+//Cette classe calcule la somme de contrôle glissante des envois différentiels (voir Frame): somme faible de rsync sur une
+//fenêtre de longueur fixe, mise à jour en temps constant quand la fenêtre avance d'un octet.
+//  a = somme des octets, b = somme des octets pondérés par leur distance à la fin de la fenêtre (modulo 2^16 chacune)
+//La somme faible ne sert qu'à trouver des candidats: une correspondance est confirmée par l'empreinte forte (MD5) du bloc.
+public final class RollingChecksum {
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;//taille minimale des blocs de signature
+    public static final int MAX_BLOCK_SIZE = Frame.DATA_CHUNK_SIZE;//taille maximale des blocs de signature
+    public static final String STRONG_ALGORITHM = "MD5";//empreinte forte d'un bloc (Frame.STRONG_HASH_SIZE octets)
+
+    private int a;
+    private int b;
+    private int length;//longueur de la fenêtre
+
+    //Taille des blocs de signature d'un fichier de size octets: racine carrée de la taille (comme rsync), arrondie au Kio
+    //supérieur et bornée, ce qui équilibre le volume des signatures et celui des données renvoyées autour d'une modification
+    public static int blockSize(long size) {
+        long root = (long) Math.ceil(Math.sqrt((double) size));
+        long rounded = (root + 1023) / 1024 * 1024;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, rounded));
+    }
+
+    //Calcule la somme de la fenêtre data[offset, offset + length)
+    public void reset(byte[] data, int offset, int length) {
+        int sumA = 0;
+        int sumB = 0;
+        for (int i = 0; i < length; i++) {
+            sumA += data[offset + i] & 0xFF;
+            sumB += (length - i) * (data[offset + i] & 0xFF);
+        }
+        this.a = sumA & 0xFFFF;
+        this.b = sumB & 0xFFFF;
+        this.length = length;
+    }
+
+    //Fait avancer la fenêtre d'un octet: out en sort, in y entre
+    public void roll(byte out, byte in) {
+        a = (a - (out & 0xFF) + (in & 0xFF)) & 0xFFFF;
+        b = (b - length * (out & 0xFF) + a) & 0xFFFF;
+    }
+
+    public int value() {
+        return (b << 16) | a;
+    }
+
+    public static int of(byte[] data, int offset, int length) {//somme faible d'un bloc
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.value();
+    }
+}
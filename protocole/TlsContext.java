@@ -0,0 +1,179 @@
+package protocole;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.*;
+//Cette classe construit le contexte TLS utilisé par le client et par le serveur, une seule fois pour toutes les connexions.
+//Contrairement aux fabriques par défaut (SSLSocketFactory.getDefault()), elle:
+//  - garde en cache les sessions TLS, pour qu'un client qui se reconnecte reprenne sa session (poignée de main abrégée,
+//    sans échange de certificat ni calcul RSA) au lieu d'en négocier une nouvelle
+//  - active les tickets de session (TLS 1.3 et 1.2), qui évitent au serveur de garder l'état des sessions à reprendre
+//  - limite les protocoles à TLS 1.3 et 1.2 et les suites de chiffrement à AES-GCM et ChaCha20-Poly1305
+//  - compte les poignées de main complètes et reprises (voir recordHandshake())
+//Les fichiers de clés et de confiance restent ceux des propriétés javax.net.ssl.* définies par les programmes principaux.
+public final class TlsContext {
+    public static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    public static final String[] CIPHER_SUITES = {//par ordre de préférence
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"
+    };
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 10000;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3600;
+
+    private final SSLContext context;
+    private final SSLParameters parameters;//protocoles et suites retenus, appliqués à chaque socket et SSLEngine
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+
+    private TlsContext(SSLContext context, SSLSessionContext sessions, int sessionCacheSize, int sessionTimeoutSeconds) {
+        this.context = context;
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        this.parameters = context.getDefaultSSLParameters();
+        SSLParameters supported = context.getSupportedSSLParameters();
+        parameters.setProtocols(retain(PROTOCOLS, supported.getProtocols()));
+        parameters.setCipherSuites(retain(CIPHER_SUITES, supported.getCipherSuites()));
+        parameters.setUseCipherSuitesOrder(true);//le serveur impose son ordre de préférence
+    }
+
+    //Crée le contexte du serveur à partir du fichier de clés javax.net.ssl.keyStore
+    public static TlsContext forServer(int sessionCacheSize, int sessionTimeoutSeconds) throws IOException, GeneralSecurityException {
+        enableSessionTickets("jdk.tls.server.enableSessionTicketExtension");
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        char[] password = passwordProperty("javax.net.ssl.keyStorePassword");
+        keyManagers.init(loadKeyStore("javax.net.ssl.keyStore", "javax.net.ssl.keyStoreType", password), password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return new TlsContext(context, context.getServerSessionContext(), sessionCacheSize, sessionTimeoutSeconds);
+    }
+
+    //Crée le contexte du client à partir du fichier de confiance javax.net.ssl.trustStore (ou des autorités du JDK s'il n'est pas défini)
+    public static TlsContext forClient(int sessionCacheSize, int sessionTimeoutSeconds) throws IOException, GeneralSecurityException {
+        enableSessionTickets("jdk.tls.client.enableSessionTicketExtension");
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(loadKeyStore("javax.net.ssl.trustStore", "javax.net.ssl.trustStoreType", passwordProperty("javax.net.ssl.trustStorePassword")));
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return new TlsContext(context, context.getClientSessionContext(), sessionCacheSize, sessionTimeoutSeconds);
+    }
+
+    public SSLServerSocket createServerSocket(int port) throws IOException {
+        SSLServerSocket socket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(port);
+        socket.setSSLParameters(parameters);
+        return socket;
+    }
+
+    //Le client retrouve la session à reprendre par l'adresse et le port du serveur: ils doivent être connus dès la création du socket
+    public SSLSocket createSocket(String host, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port);
+        socket.setSSLParameters(parameters);
+        return socket;
+    }
+
+    //Même socket, dont l'établissement de la connexion TCP est abandonné après timeoutMillis (0 = attente illimitée)
+    public SSLSocket createSocket(String host, int port, int timeoutMillis) throws IOException {
+        Socket plain = new Socket();
+        try {
+            plain.connect(new InetSocketAddress(host, port), timeoutMillis);
+            SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(plain, host, port, true);
+            socket.setSSLParameters(parameters);
+            return socket;
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+    }
+
+    public SSLEngine createServerEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    //Fait la poignée de main d'un socket et la comptabilise
+    public void handshake(SSLSocket socket) throws IOException {
+        long start = System.currentTimeMillis();
+        socket.startHandshake();
+        recordHandshake(socket.getSession(), start);
+    }
+
+    //Comptabilise une poignée de main terminée, commencée à startMillis.
+    //Une session reprise garde la date de création de la session d'origine; une nouvelle session est créée pendant la poignée de main.
+    public void recordHandshake(SSLSession session, long startMillis) {
+        if (session.getCreationTime() < startMillis) {
+            resumedHandshakes.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+    }
+
+    public SSLContext getSSLContext() {
+        return context;
+    }
+
+    public long getFullHandshakeCount() {
+        return fullHandshakes.sum();
+    }
+
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.sum();
+    }
+
+    public String getStatistics() {//résumé pour le journal
+        long full = getFullHandshakeCount();
+        long resumed = getResumedHandshakeCount();
+        return String.format("poignées de main TLS: %d complètes, %d reprises (%.1f %%); protocoles %s; suites %s",
+                full, resumed, full + resumed == 0 ? 0 : resumed * 100.0 / (full + resumed),
+                String.join(", ", parameters.getProtocols()), String.join(", ", parameters.getCipherSuites()));
+    }
+
+    private static String[] retain(String[] wanted, String[] supported) {//garde les valeurs souhaitées prises en charge par le JDK, dans l'ordre souhaité
+        List<String> available = Arrays.asList(supported);
+        List<String> retained = new ArrayList<>();
+        for (String value : wanted) {
+            if (available.contains(value)) {
+                retained.add(value);
+            }
+        }
+        if (retained.isEmpty()) {
+            throw new IllegalStateException("Aucun de ces paramètres TLS n'est pris en charge: " + String.join(", ", wanted));
+        }
+        return retained.toArray(new String[0]);
+    }
+
+    private static void enableSessionTickets(String property) {//sans effet si la propriété est déjà définie ou si le JDK a déjà été initialisé
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, "true");
+        }
+    }
+
+    private static char[] passwordProperty(String property) {
+        String password = System.getProperty(property);
+        return password == null ? null : password.toCharArray();
+    }
+
+    private static KeyStore loadKeyStore(String pathProperty, String typeProperty, char[] password) throws IOException, GeneralSecurityException {
+        String path = System.getProperty(pathProperty);
+        if (path == null || path.isEmpty()) {
+            return null;//les gestionnaires par défaut utilisent alors les fichiers du JDK
+        }
+        KeyStore keyStore = KeyStore.getInstance(System.getProperty(typeProperty, KeyStore.getDefaultType()));
+        try (InputStream in = new FileInputStream(path)) {
+            keyStore.load(in, password);
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,433 @@
+package serveur;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+//Cette classe écrit le journal d'audit structuré: un événement par ligne au format JSON (JSONL), par exemple
+//  {"date":1760716800000,"type":"COMMANDE","client":"10.0.0.5","login":"alice","commande":"ls -l","duree_ms":12,"code":0}
+//Champs: date (ms depuis 1970), type, client, login, commande, duree_ms, octets, code (code de sortie), erreur.
+//Les champs inconnus pour un événement sont omis.
+//Le journal est découpé en segments (audit-AAAAMMJJ-HHMMSS-mmm.jsonl) qui changent quand ils dépassent une taille
+//ou une durée. À la fermeture d'un segment, un petit index (même nom, extension .idx) résume son contenu:
+//  {"debut":...,"fin":...,"evenements":...,"logins":[...],"clients":[...]}
+//Les listes valent null quand le segment contient trop de valeurs différentes pour les retenir.
+//AuditQuery lit ces index pour ne parcourir que les segments qui peuvent contenir les événements recherchés.
+//Les méthodes s'exécutent sous un verrou (ReentrantLock: une session virtuelle qui l'attend libère son thread porteur);
+//en mode asynchrone, seul le thread d'écriture du journal les appelle.
+public class AuditJournal implements Closeable {
+    public static final String SEGMENT_PREFIX = "audit-";
+    public static final String SEGMENT_EXTENSION = ".jsonl";
+    public static final String INDEX_EXTENSION = ".idx";
+    static final int MAX_INDEXED_VALUES = 256;//au-delà, l'index ne retient plus les logins (ou clients) du segment
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final StringBuilder line;//tampon de formatage réutilisé pour chaque événement
+    private final ReentrantLock lock = new ReentrantLock();
+    private Writer out;
+    private File segment;//segment en cours d'écriture (null avant le premier événement)
+    private long segmentBytes;
+    private long segmentStart;
+    private SegmentIndex index;
+
+    public AuditJournal(File directory, long maxSegmentBytes, long maxSegmentMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire du journal d'audit: " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = Math.max(1, maxSegmentBytes);
+        this.maxSegmentMillis = Math.max(1, maxSegmentMillis);
+        this.line = new StringBuilder(256);
+        repairIndexes();
+    }
+
+    //Ajoute un événement; les valeurs négatives (duree, octets) et null sont omises
+    public void append(long time, String type, String client, String login, String command,
+                       long durationMillis, long bytes, Integer exitCode, String error) throws IOException {
+        lock.lock();
+        try {
+            if (out == null || segmentBytes >= maxSegmentBytes || time - segmentStart >= maxSegmentMillis) {
+                rotate(time);
+            }
+            line.setLength(0);
+            line.append("{\"date\":").append(time);
+            appendField("type", type);
+            appendField("client", client);
+            appendField("login", login);
+            appendField("commande", command);
+            if (durationMillis >= 0) {
+                line.append(",\"duree_ms\":").append(durationMillis);
+            }
+            if (bytes >= 0) {
+                line.append(",\"octets\":").append(bytes);
+            }
+            if (exitCode != null) {
+                line.append(",\"code\":").append(exitCode.intValue());
+            }
+            appendField("erreur", error);
+            line.append("}\n");
+            out.append(line);
+            segmentBytes += line.length();//approximation en caractères, suffisante pour la rotation
+            index.add(time, login, client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {//ferme le segment en cours et écrit son index
+        lock.lock();
+        try {
+            closeSegment();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private void appendField(String name, String value) {
+        if (value != null) {
+            line.append(",\"").append(name).append("\":");
+            appendString(line, value);
+        }
+    }
+
+    private void rotate(long time) throws IOException {
+        closeSegment();
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+        String name = SEGMENT_PREFIX + format.format(new Date(time));
+        File file = new File(directory, name + SEGMENT_EXTENSION);
+        for (int i = 1; file.exists(); i++) {//deux segments ouverts dans la même milliseconde
+            file = new File(directory, name + "-" + i + SEGMENT_EXTENSION);
+        }
+        segment = file;
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+        segmentBytes = 0;
+        segmentStart = time;
+        index = new SegmentIndex();
+    }
+
+    private void closeSegment() throws IOException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } finally {
+            out = null;
+            index.write(indexFile(segment));
+        }
+    }
+
+    //Reconstruit l'index des segments laissés sans index par un arrêt brutal du serveur
+    private void repairIndexes() throws IOException {
+        File[] segments = listSegments(directory);
+        for (File file : segments) {
+            if (!indexFile(file).exists()) {
+                SegmentIndex rebuilt = new SegmentIndex();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                    String text;
+                    while ((text = reader.readLine()) != null) {
+                        Map<String, Object> record;
+                        try {
+                            record = parseObject(text);
+                        } catch (IllegalArgumentException e) {//ligne tronquée par l'arrêt
+                            continue;
+                        }
+                        if (record.get("date") instanceof Long) {
+                            rebuilt.add((Long) record.get("date"), (String) record.get("login"), (String) record.get("client"));
+                        }
+                    }
+                }
+                rebuilt.write(indexFile(file));
+            }
+        }
+    }
+
+    //Segments du répertoire, du plus ancien au plus récent
+    static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION));
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    static File indexFile(File segment) {
+        String name = segment.getName();
+        return new File(segment.getParentFile(), name.substring(0, name.length() - SEGMENT_EXTENSION.length()) + INDEX_EXTENSION);
+    }
+
+    //Résumé d'un segment: intervalle de dates, nombre d'événements, logins et clients rencontrés
+    static final class SegmentIndex {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long count;
+        Set<String> logins = new TreeSet<>();//null: trop de valeurs, le segment peut contenir n'importe quel login
+        Set<String> clients = new TreeSet<>();
+
+        void add(long time, String login, String client) {
+            first = Math.min(first, time);
+            last = Math.max(last, time);
+            count++;
+            logins = addValue(logins, login);
+            clients = addValue(clients, client);
+        }
+
+        private static Set<String> addValue(Set<String> values, String value) {
+            if (values != null && value != null && values.add(value) && values.size() > MAX_INDEXED_VALUES) {
+                return null;
+            }
+            return values;
+        }
+
+        boolean mayContain(long from, long to, String login, String client) {//false si le segment ne peut contenir aucun événement recherché
+            if (count == 0 || last < from || first > to) {
+                return false;
+            }
+            return (login == null || logins == null || logins.contains(login)) && (client == null || clients == null || clients.contains(client));
+        }
+
+        void write(File file) throws IOException {
+            StringBuilder text = new StringBuilder();
+            text.append("{\"debut\":").append(count == 0 ? 0 : first)
+                    .append(",\"fin\":").append(count == 0 ? 0 : last)
+                    .append(",\"evenements\":").append(count)
+                    .append(",\"logins\":");
+            appendList(text, logins);
+            text.append(",\"clients\":");
+            appendList(text, clients);
+            text.append("}\n");
+            File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+                writer.write(text.toString());
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Impossible d'écrire l'index " + file.getAbsolutePath());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        static SegmentIndex read(File file) throws IOException {
+            Map<String, Object> values;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                values = parseObject(reader.readLine());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Index invalide " + file.getAbsolutePath() + ": " + e.getMessage());
+            }
+            SegmentIndex index = new SegmentIndex();
+            index.count = (Long) values.get("evenements");
+            index.first = (Long) values.get("debut");
+            index.last = (Long) values.get("fin");
+            index.logins = values.get("logins") == null ? null : new TreeSet<>((List<String>) values.get("logins"));
+            index.clients = values.get("clients") == null ? null : new TreeSet<>((List<String>) values.get("clients"));
+            return index;
+        }
+
+        private static void appendList(StringBuilder text, Set<String> values) {
+            if (values == null) {
+                text.append("null");
+                return;
+            }
+            text.append('[');
+            boolean first = true;
+            for (String value : values) {
+                if (!first) {
+                    text.append(',');
+                }
+                appendString(text, value);
+                first = false;
+            }
+            text.append(']');
+        }
+    }
+
+    static void appendString(StringBuilder text, String value) {//chaîne JSON échappée
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    text.append("\\\"");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        text.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        text.append(c);
+                    }
+                    break;
+            }
+        }
+        text.append('"');
+    }
+
+    //Lit un objet JSON du journal ou d'un index: chaînes, entiers (Long), null, et listes de chaînes.
+    //Lance IllegalArgumentException si la ligne n'a pas ce format.
+    static Map<String, Object> parseObject(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("ligne vide");
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        int[] position = {skipSpaces(text, 0)};
+        expect(text, position, '{');
+        if (peek(text, position) == '}') {
+            position[0]++;
+            return values;
+        }
+        while (true) {
+            String name = parseString(text, position);
+            expect(text, position, ':');
+            values.put(name, parseValue(text, position));
+            char next = peek(text, position);
+            position[0]++;
+            if (next == '}') {
+                return values;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("',' ou '}' attendu en position " + (position[0] - 1));
+            }
+        }
+    }
+
+    private static Object parseValue(String text, int[] position) {
+        char c = peek(text, position);
+        if (c == '"') {
+            return parseString(text, position);
+        }
+        if (c == '[') {
+            position[0]++;
+            List<String> list = new ArrayList<>();
+            if (peek(text, position) == ']') {
+                position[0]++;
+                return list;
+            }
+            while (true) {
+                list.add(parseString(text, position));
+                char next = peek(text, position);
+                position[0]++;
+                if (next == ']') {
+                    return list;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("',' ou ']' attendu en position " + (position[0] - 1));
+                }
+            }
+        }
+        if (text.startsWith("null", position[0])) {
+            position[0] += 4;
+            return null;
+        }
+        int start = position[0];
+        int end = start;
+        if (end < text.length() && text.charAt(end) == '-') {
+            end++;
+        }
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        if (end == start) {
+            throw new IllegalArgumentException("valeur attendue en position " + start);
+        }
+        position[0] = end;
+        return Long.parseLong(text.substring(start, end));
+    }
+
+    private static String parseString(String text, int[] position) {
+        expect(text, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (true) {
+            if (i >= text.length()) {
+                throw new IllegalArgumentException("chaîne non terminée");
+            }
+            char c = text.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c == '\\') {
+                if (i >= text.length()) {
+                    throw new IllegalArgumentException("chaîne non terminée");
+                }
+                char escaped = text.charAt(i++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (i + 4 > text.length()) {
+                            throw new IllegalArgumentException("séquence \\u incomplète");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                        break;
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        position[0] = i;
+        return value.toString();
+    }
+
+    private static void expect(String text, int[] position, char expected) {
+        if (peek(text, position) != expected) {
+            throw new IllegalArgumentException("'" + expected + "' attendu en position " + position[0]);
+        }
+        position[0]++;
+    }
+
+    private static char peek(String text, int[] position) {//prochain caractère significatif
+        position[0] = skipSpaces(text, position[0]);
+        if (position[0] >= text.length()) {
+            throw new IllegalArgumentException("fin de ligne inattendue");
+        }
+        return text.charAt(position[0]);
+    }
+
+    private static int skipSpaces(String text, int position) {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+}
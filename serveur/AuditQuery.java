@@ -0,0 +1,261 @@
+package serveur;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Map;
+//Cet outil recherche des événements dans le journal d'audit (voir AuditJournal) et les affiche au format JSONL.
+//Les index des segments permettent d'ignorer sans les lire les segments hors de l'intervalle de dates
+//ou qui ne contiennent pas le login ou le client recherché. Exemple:
+//  java serveur.AuditQuery --login alice --client 10.0.0.5 --depuis 2025-03-10 --jusqua 2025-03-17T12:00
+//Options: --dossier (répertoire du journal, journal_audit par défaut), --depuis, --jusqua (date ou date et heure locales,
+//--jusqua AAAA-MM-JJ inclut toute la journée), --login, --client, --type (COMMANDE, TRANSFERT, AUTH, ...), --max (nombre d'événements).
+//Le résumé (segments lus et ignorés, durée) est écrit sur la sortie d'erreur.
+public class AuditQuery {
+    private final File directory;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private String login;
+    private String client;
+    private String type;
+    private long limit = Long.MAX_VALUE;
+    private byte[] data = new byte[0];//contenu du segment en cours de lecture
+
+    // Statistiques de la dernière recherche
+    private int segmentsRead;
+    private int segmentsSkipped;
+    private long matches;
+
+    public AuditQuery(File directory) {
+        this.directory = directory;
+    }
+
+    public AuditQuery between(long from, long to) {//intervalle de dates en ms, bornes incluses
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public AuditQuery login(String login) {
+        this.login = login;
+        return this;
+    }
+
+    public AuditQuery client(String client) {
+        this.client = client;
+        return this;
+    }
+
+    public AuditQuery type(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public AuditQuery limit(long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    //Écrit les événements trouvés dans out, du plus ancien au plus récent; retourne leur nombre
+    public long run(Writer out) throws IOException {
+        segmentsRead = 0;
+        segmentsSkipped = 0;
+        matches = 0;
+        for (File segment : AuditJournal.listSegments(directory)) {
+            if (matches >= limit) {
+                break;
+            }
+            File indexFile = AuditJournal.indexFile(segment);
+            if (indexFile.exists()) {//sans index (segment en cours d'écriture), le segment est lu entièrement
+                AuditJournal.SegmentIndex index = AuditJournal.SegmentIndex.read(indexFile);
+                if (!index.mayContain(from, to, login, client)) {
+                    segmentsSkipped++;
+                    continue;
+                }
+            }
+            segmentsRead++;
+            scan(segment, out);
+        }
+        out.flush();
+        return matches;
+    }
+
+    //Parcourt un segment chargé en mémoire. Quand un login, un client ou un type est recherché, seules les lignes qui
+    //contiennent le texte exact du champ sont décodées: la recherche saute directement d'une occurrence à la suivante.
+    private void scan(File segment, Writer out) throws IOException {
+        String filter = login != null ? field("login", login) : client != null ? field("client", client) : type != null ? field("type", type) : null;
+        byte[] pattern = filter == null ? null : filter.getBytes(StandardCharsets.UTF_8);
+        int[] skip = pattern == null ? null : skipTable(pattern);
+        int length = load(segment);
+        int position = 0;
+        while (position < length && matches < limit) {
+            int lineStart = position;
+            if (pattern != null) {
+                int found = indexOf(data, length, pattern, skip, position);
+                if (found < 0) {
+                    break;
+                }
+                lineStart = found;
+                while (lineStart > 0 && data[lineStart - 1] != '\n') {
+                    lineStart--;
+                }
+            }
+            int lineEnd = lineStart;
+            while (lineEnd < length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            position = lineEnd + 1;
+            String line = new String(data, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+            if (accept(line)) {
+                out.write(line);
+                out.write('\n');
+                matches++;
+            }
+        }
+    }
+
+    private int load(File segment) throws IOException {//lit le segment dans data (réutilisé d'un segment à l'autre); retourne sa taille
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Segment trop volumineux: " + segment.getName());
+            }
+            if (data.length < size) {
+                data = new byte[(int) size];
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, (int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // lecture jusqu'à la fin du fichier (il peut grandir pendant la lecture: la suite est ignorée)
+            }
+            return buffer.position();
+        }
+    }
+
+    private boolean accept(String line) {//vérifie tous les critères sur l'événement décodé
+        Map<String, Object> record;
+        try {
+            record = AuditJournal.parseObject(line);
+        } catch (IllegalArgumentException e) {//ligne tronquée par un arrêt brutal
+            return false;
+        }
+        Object date = record.get("date");
+        return date instanceof Long && (Long) date >= from && (Long) date <= to
+                && (login == null || login.equals(record.get("login")))
+                && (client == null || client.equals(record.get("client")))
+                && (type == null || type.equals(record.get("type")));
+    }
+
+    //Position du motif dans data[from, length) ou -1 (Boyer-Moore-Horspool: les lignes du journal commencent toutes par les mêmes
+    //caractères, la table de sauts permet d'avancer de la longueur du motif sur la plupart des positions)
+    private static int indexOf(byte[] data, int length, byte[] pattern, int[] skip, int from) {
+        int last = pattern.length - 1;
+        for (int i = from + last; i < length; i += skip[data[i] & 0xff]) {
+            int j = 0;
+            while (j <= last && data[i - last + j] == pattern[j]) {
+                j++;
+            }
+            if (j > last) {
+                return i - last;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] skipTable(byte[] pattern) {//décalage pour chaque valeur du dernier octet comparé
+        int[] skip = new int[256];
+        Arrays.fill(skip, pattern.length);
+        for (int j = 0; j < pattern.length - 1; j++) {
+            skip[pattern[j] & 0xff] = pattern.length - 1 - j;
+        }
+        return skip;
+    }
+
+    private static String field(String name, String value) {//texte exact du champ dans une ligne du journal
+        StringBuilder text = new StringBuilder("\"").append(name).append("\":");
+        AuditJournal.appendString(text, value);
+        return text.toString();
+    }
+
+    public int getSegmentsRead() {
+        return segmentsRead;
+    }
+
+    public int getSegmentsSkipped() {
+        return segmentsSkipped;
+    }
+
+    static long parseDate(String value, boolean endOfDay) {//date locale AAAA-MM-JJ ou AAAA-MM-JJTHH:MM[:SS] en ms
+        try {
+            if (value.length() == 10) {
+                LocalDate date = LocalDate.parse(value);
+                LocalDateTime time = endOfDay ? date.plusDays(1).atStartOfDay().minusNanos(1_000_000) : date.atStartOfDay();
+                return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Date invalide: " + value + " (AAAA-MM-JJ ou AAAA-MM-JJTHH:MM)");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String directory = System.getProperty("serveur.audit.dossier", "journal_audit");
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        String login = null;
+        String client = null;
+        String type = null;
+        long limit = Long.MAX_VALUE;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Valeur manquante pour " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--dossier":
+                        directory = value;
+                        break;
+                    case "--depuis":
+                        from = parseDate(value, false);
+                        break;
+                    case "--jusqua":
+                        to = parseDate(value, true);
+                        break;
+                    case "--login":
+                        login = value;
+                        break;
+                    case "--client":
+                        client = value;
+                        break;
+                    case "--type":
+                        type = value.toUpperCase();
+                        break;
+                    case "--max":
+                        limit = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Option inconnue: " + option);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java serveur.AuditQuery [--dossier rep] [--depuis date] [--jusqua date] [--login l] [--client ip] [--type t] [--max n]");
+            System.exit(2);
+            return;
+        }
+
+        long start = System.nanoTime();
+        AuditQuery query = new AuditQuery(new File(directory)).between(from, to).login(login).client(client).type(type).limit(limit);
+        long count = query.run(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        System.err.printf("%d événements; %d segments lus, %d ignorés grâce aux index; %.1f ms%n",
+                count, query.getSegmentsRead(), query.getSegmentsSkipped(), (System.nanoTime() - start) / 1e6);
+    }
+}
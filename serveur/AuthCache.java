@@ -0,0 +1,275 @@
+package serveur;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+//Cette classe garde en mémoire, pour chaque login, le mot de passe haché lu dans la base de données.
+//Un client qui se reconnecte des centaines de fois par minute n'interroge ainsi la base qu'une fois par durée de validité (ttlMillis).
+//Le cache:
+//  - garde au plus maxEntries logins; le moins récemment utilisé est retiré en premier
+//  - retient aussi qu'un login est inconnu, pour qu'une rafale de tentatives avec un mauvais login n'atteigne pas la base
+//  - oublie un login sur demande (invalidate) ou tous les logins (invalidateAll)
+//  - lit le fichier d'invalidations alimenté par la gestion des utilisateurs (gestionUtilisateur.UserGUI, voir publishInvalidation)
+//    pour qu'un mot de passe modifié ou un utilisateur supprimé ne reste pas accepté jusqu'à l'expiration de son entrée
+//  - compte les succès, échecs, expirations et invalidations (voir getStatistics())
+//Le mot de passe fourni par le client est toujours haché et comparé: seul le résultat de la requête SQL est mis en cache.
+public class AuthCache {
+    public static final String INVALIDATION_FILE_PROPERTY = "serveur.auth.invalidations";//propriété système donnant le fichier d'invalidations
+    public static final String DEFAULT_INVALIDATION_FILE = ".serveur" + File.separator + "auth_invalidations.log";//dans le répertoire personnel
+    public static final String INVALIDATE_ALL = "*";//ligne du fichier d'invalidations qui vide tout le cache
+    private static final long INVALIDATION_CHECK_INTERVAL_MILLIS = 1000;//le fichier d'invalidations est relu au plus une fois par seconde
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final ReentrantLock lock = new ReentrantLock();//entrées et lecture du fichier d'invalidations
+    private final Map<String, Entry> entries;//ordre d'accès: le moins récemment utilisé en tête (protégé par lock)
+    private final File invalidationFile;
+    private final AtomicLong nextInvalidationCheck;
+    private final AtomicLong generation;//incrémenté à chaque invalidation, pour ne pas garder une valeur lue avant l'invalidation
+    private final Logger logger;
+    private long invalidationOffset;//position de lecture dans le fichier d'invalidations (protégé par lock)
+
+    // Statistiques
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    //Chargement du mot de passe haché d'un login depuis la base de données; retourne null si le login est inconnu
+    public interface Loader {
+        String load(String login) throws SQLException;
+    }
+
+    //Ce constructeur crée un cache vide; ttlMillis = 0 ou maxEntries = 0 désactive le cache
+    public AuthCache(int maxEntries, long ttlMillis, File invalidationFile) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMillis = Math.max(0, ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.invalidationFile = invalidationFile;
+        this.nextInvalidationCheck = new AtomicLong();
+        this.generation = new AtomicLong();
+        this.logger = Logger.getLogger(AuthCache.class.getName());
+        //les invalidations écrites avant le démarrage du serveur ne concernent pas ce cache
+        this.invalidationOffset = invalidationFile != null && invalidationFile.isFile() ? invalidationFile.length() : 0;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlMillis > 0;
+    }
+
+    //Retourne le mot de passe haché du login, depuis le cache s'il y est encore valide, sinon depuis loader (le résultat est alors mis en cache)
+    //Retourne null si le login est inconnu. Une erreur de loader n'est pas mise en cache.
+    public String get(String login, Loader loader) throws SQLException {
+        if (!isEnabled()) {
+            return loader.load(login);
+        }
+        checkInvalidations();
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Entry entry = entries.get(login);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    return entry.storedPassword;
+                }
+                entries.remove(login);
+                expirations.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+        String storedPassword = loader.load(login);//hors du verrou: les autres logins restent servis pendant la requête SQL
+        lock.lock();
+        try {
+            if (generation.get() == loadGeneration) {//sinon une invalidation est arrivée pendant la requête: la valeur lue est peut-être périmée
+                entries.put(login, new Entry(storedPassword, System.currentTimeMillis() + ttlMillis));
+                evictOverflow();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return storedPassword;
+    }
+
+    private void evictOverflow() {//retire les logins les moins récemment utilisés au-delà de maxEntries (appelée sous le verrou)
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    public void invalidate(String login) {//oublie le mot de passe mis en cache pour ce login
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            entries.remove(login);
+        } finally {
+            lock.unlock();
+        }
+        invalidations.increment();
+    }
+
+    public void invalidateAll() {//vide le cache
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+        invalidations.increment();
+    }
+
+    //Relit les logins ajoutés au fichier d'invalidations depuis la dernière lecture, au plus une fois par seconde
+    private void checkInvalidations() {
+        if (invalidationFile == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long next = nextInvalidationCheck.get();
+        if (now < next || !nextInvalidationCheck.compareAndSet(next, now + INVALIDATION_CHECK_INTERVAL_MILLIS)) {
+            return;//vérification récente ou en cours dans un autre thread
+        }
+        lock.lock();
+        try {
+            long length = invalidationFile.length();
+            if (length == invalidationOffset) {
+                return;
+            }
+            if (length < invalidationOffset) {//fichier supprimé ou tronqué: des invalidations ont pu être perdues
+                invalidationOffset = 0;
+                generation.incrementAndGet();
+                entries.clear();
+                invalidations.increment();
+                if (length == 0) {
+                    return;
+                }
+            }
+            try (RandomAccessFile file = new RandomAccessFile(invalidationFile, "r")) {
+                file.seek(invalidationOffset);
+                byte[] data = new byte[(int) Math.min(length - invalidationOffset, Integer.MAX_VALUE)];
+                file.readFully(data);
+                int end = data.length;
+                while (end > 0 && data[end - 1] != '\n') {//une ligne en cours d'écriture sera lue à la prochaine vérification
+                    end--;
+                }
+                invalidationOffset += end;
+                for (String login : new String(data, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                    login = login.trim();
+                    if (login.equals(INVALIDATE_ALL)) {
+                        invalidateAll();
+                    } else if (!login.isEmpty()) {
+                        invalidate(login);
+                    }
+                }
+            } catch (IOException e) {//par prudence, ne plus faire confiance au cache
+                logger.warning("Lecture du fichier d'invalidations impossible: " + e.getMessage());
+                invalidateAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {//proportion des authentifications servies par le cache
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public String getStatistics() {//résumé des statistiques du cache, pour le journal
+        return String.format("cache d'authentification: %d/%d logins, validité %d ms; %d succès, %d échecs (%.1f %%); "
+                        + "%d expirés, %d retirés, %d invalidations",
+                size(), maxEntries, ttlMillis, getHitCount(), getMissCount(), getHitRatio() * 100,
+                getExpirationCount(), getEvictionCount(), getInvalidationCount());
+    }
+
+    //Signale au serveur que ces logins ont été modifiés ou supprimés: ils sont ajoutés au fichier d'invalidations,
+    //que chaque serveur lit avant d'utiliser son cache. Appelée par la gestion des utilisateurs (autre processus que le serveur).
+    public static void publishInvalidation(String... logins) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (String login : logins) {
+            if (login != null && !login.isBlank()) {
+                lines.append(login.trim()).append('\n');
+            }
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+        File file = getInvalidationFile();
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Impossible de créer le répertoire " + parent.getAbsolutePath());
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {//ajout en fin de fichier, en une seule écriture
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    //Fichier d'invalidations partagé entre le serveur et la gestion des utilisateurs. Un chemin relatif part du répertoire
+    //personnel et non du répertoire courant: les deux programmes, lancés depuis des répertoires différents, lisent et écrivent
+    //le même fichier tant qu'ils tournent sous le même utilisateur (sinon, donner le même chemin absolu aux deux).
+    public static File getInvalidationFile() {
+        File file = new File(System.getProperty(INVALIDATION_FILE_PROPERTY, DEFAULT_INVALIDATION_FILE));
+        return file.isAbsolute() ? file : new File(System.getProperty("user.home"), file.getPath());
+    }
+
+    private static final class Entry {
+        private final String storedPassword;//mot de passe haché, null si le login est inconnu
+        private final long expiresAt;
+
+        private Entry(String storedPassword, long expiresAt) {
+            this.storedPassword = storedPassword;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
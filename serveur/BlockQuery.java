@@ -0,0 +1,72 @@
+package serveur;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import protocole.Frame;
+//Cette classe décrit une trame HAVE envoyée avant un upload: taille et date de modification du fichier, SHA-256 de chacun
+//de ses blocs de Frame.BLOCK_SIZE octets, puis nom du fichier. La réponse indique les blocs que le stockage a déjà.
+final class BlockQuery {
+    static final int MAX_LENGTH = Frame.RESUME_HEADER_SIZE + Frame.MAX_BLOCKS * Frame.HASH_SIZE + 4096;//taille maximale d'une trame HAVE
+
+    final long size;
+    final long modified;
+    final String[] blocks;//empreintes des blocs, en hexadécimal
+    final String fileName;
+
+    private BlockQuery(long size, long modified, String[] blocks, String fileName) {
+        this.size = size;
+        this.modified = modified;
+        this.blocks = blocks;
+        this.fileName = fileName;
+    }
+
+    static BlockQuery parse(byte[] payload) throws IOException {
+        if (payload.length < Frame.RESUME_HEADER_SIZE) {
+            throw new IOException("Trame HAVE invalide");
+        }
+        ByteBuffer header = ByteBuffer.wrap(payload);
+        long size = header.getLong();
+        long modified = header.getLong();
+        if (size < 0 || size > (long) Frame.MAX_BLOCKS * Frame.BLOCK_SIZE) {
+            throw new IOException("Taille de fichier invalide: " + size);
+        }
+        String[] blocks = new String[ContentStore.blockCount(size)];
+        int nameOffset = Frame.RESUME_HEADER_SIZE + blocks.length * Frame.HASH_SIZE;
+        if (payload.length <= nameOffset) {
+            throw new IOException("Trame HAVE invalide");
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = ContentStore.hex(payload, Frame.RESUME_HEADER_SIZE + i * Frame.HASH_SIZE, Frame.HASH_SIZE);
+        }
+        String fileName = new String(payload, nameOffset, payload.length - nameOffset, StandardCharsets.UTF_8);
+        ContentStore.checkName(fileName);
+        return new BlockQuery(size, modified, blocks, fileName);
+    }
+
+    //Enregistre directement le fichier si le stockage a tous ses blocs et retourne null; sinon retourne la réponse HAVE
+    //(un bit par bloc, bit de poids fort en premier), les blocs connus étant marqués comme reçus dans l'upload par blocs
+    byte[] resolve(ContentStore store) throws IOException {
+        boolean[] known = store.findBlocks(blocks);
+        boolean all = true;
+        boolean any = false;
+        for (boolean block : known) {
+            all &= block;
+            any |= block;
+        }
+        if (all) {
+            store.link(fileName, size, blocks);
+            return null;
+        }
+        if (any) {
+            known = ResumableUpload.declareStoredBlocks(store, this, known);
+        }
+        byte[] bitmap = new byte[(known.length + 7) / 8];
+        for (int i = 0; i < known.length; i++) {
+            if (known[i]) {
+                bitmap[i / 8] |= (byte) (0x80 >>> (i % 8));
+            }
+        }
+        return bitmap;
+    }
+}
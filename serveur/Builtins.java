@@ -0,0 +1,749 @@
+package serveur;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.*;
+//Cette classe exécute dans la JVM, sans lancer de processus, les formes courantes de quelques commandes de consultation
+//du système de fichiers, avec la sortie des outils GNU (coreutils) dans la locale du serveur:
+//  pwd
+//  ls [-a] [-A] [-1] [chemin...]       noms triés par octets (locale C ou POSIX pour le tri)
+//  cat fichier...
+//  head [-n N | -N] fichier            tail [-n N | -N] fichier
+//  wc [-l] [-w] [-c] fichier...        -w et la forme sans option: locale C ou POSIX (mots de caractères d'un octet)
+//  stat -c FORMAT fichier...           directives %n %s %F %a %A %u %g %U %G %i %h %X %Y %Z %%
+//  du -sb [chemin...]                  taille apparente en octets, liens physiques comptés une fois
+//Tout le reste (autre option, syntaxe du shell, chemin absent ou illisible, nom non représentable...) n'est pas reconnu:
+//parse() retourne null et la commande est lancée par le shell, qui produit la sortie ou le message d'erreur habituel.
+//Les chemins sont vérifiés avant la première écriture; la sortie est transmise par blocs au fil de la lecture des fichiers.
+final class Builtins {
+    private static final String SPECIAL = "|&;<>()$`\\*?[]#~{}!";//caractères dont le sens dépend du shell: commande laissée au shell
+    private static final Charset NAMES = namesCharset();//codage des noms de fichiers (celui de Java pour les chemins)
+    private static final boolean BYTE_COLLATION = isByteLocale("LC_COLLATE", true);//tri par octets (ls)
+    private static final boolean SINGLE_BYTE_CTYPE = isByteLocale("LC_CTYPE", false);//caractères d'un octet (wc -w)
+
+    //Commande reconnue, chemins déjà vérifiés
+    private interface Body {
+        void run(Output out) throws IOException;
+    }
+
+    private final Body body;
+
+    private Builtins(Body body) {
+        this.body = body;
+    }
+
+    //Reconnaît une commande interne; null si elle doit être lancée par le shell
+    static Builtins parse(String command) {
+        List<String> words = split(command);
+        if (words == null || words.isEmpty()) {
+            return null;
+        }
+        String[] args = words.subList(1, words.size()).toArray(new String[0]);
+        try {
+            Body body;
+            switch (words.get(0)) {
+                case "pwd":
+                    body = pwd(args);
+                    break;
+                case "ls":
+                    body = ls(args);
+                    break;
+                case "cat":
+                    body = cat(args);
+                    break;
+                case "head":
+                    body = head(args);
+                    break;
+                case "tail":
+                    body = tail(args);
+                    break;
+                case "wc":
+                    body = wc(args);
+                    break;
+                case "stat":
+                    body = stat(args);
+                    break;
+                case "du":
+                    body = du(args);
+                    break;
+                default:
+                    body = null;
+            }
+            return body != null ? new Builtins(body) : null;
+        } catch (IOException | RuntimeException e) {//chemin absent ou illisible, attribut indisponible...: le shell donnera le message habituel
+            return null;
+        }
+    }
+
+    //Écrit la sortie de la commande et retourne son code de sortie (0). Délai dépassé ou session fermée: arrêt entre deux blocs.
+    int run(CommandOutput output, long deadline, long timeoutMillis) throws IOException {
+        Output out = new Output(output, deadline, timeoutMillis);
+        body.run(out);
+        out.flush();
+        return 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Commandes
+    // ---------------------------------------------------------------------------------------------
+
+    private static Body pwd(String[] args) throws IOException {
+        if (args.length > 0) {
+            return null;
+        }
+        Path current = Paths.get(System.getProperty("user.dir"));
+        String logical = System.getenv("PWD");//comme le shell: le chemin hérité (liens symboliques compris) s'il désigne bien le répertoire courant
+        String directory = logical != null && logical.startsWith("/") && Files.isSameFile(Paths.get(logical), current) ? logical : current.toString();
+        checkName(directory);
+        return out -> out.line(directory);
+    }
+
+    private static Body ls(String[] args) throws IOException {
+        if (!BYTE_COLLATION) {
+            return null;
+        }
+        boolean hidden = false;//-A ou -a
+        boolean dots = false;//-a: "." et ".." en plus
+        List<String> operands = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-") && arg.length() > 1) {
+                for (char option : arg.substring(1).toCharArray()) {
+                    if (option == 'a' || option == 'A') {//la dernière des deux l'emporte
+                        hidden = true;
+                        dots = option == 'a';
+                    } else if (option != '1') {
+                        return null;
+                    }
+                }
+            } else {
+                operands.add(requireName(arg));
+            }
+        }
+        if (operands.isEmpty()) {
+            operands.add(".");
+        }
+        List<String> files = new ArrayList<>();
+        List<Map.Entry<String, List<String>>> directories = new ArrayList<>();
+        for (String operand : operands) {
+            Path path = Paths.get(operand);
+            if (Files.isDirectory(path)) {//un lien vers un répertoire donné en argument est suivi
+                directories.add(new AbstractMap.SimpleImmutableEntry<>(operand, list(path, hidden, dots)));
+            } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                files.add(operand);
+            } else {
+                return null;
+            }
+        }
+        files.sort(Builtins::compareNames);
+        directories.sort((a, b) -> compareNames(a.getKey(), b.getKey()));
+        boolean headers = operands.size() > 1;
+        return out -> {
+            for (String file : files) {
+                out.line(file);
+            }
+            boolean first = files.isEmpty();
+            for (Map.Entry<String, List<String>> directory : directories) {
+                if (!first) {
+                    out.line("");
+                }
+                first = false;
+                if (headers) {
+                    out.line(directory.getKey() + ":");
+                }
+                for (String entry : directory.getValue()) {
+                    out.line(entry);
+                }
+            }
+        };
+    }
+
+    private static List<String> list(Path directory, boolean hidden, boolean dots) throws IOException {
+        List<String> entries = new ArrayList<>();
+        if (dots) {
+            entries.add(".");
+            entries.add("..");
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                checkName(name);
+                if (hidden || !name.startsWith(".")) {
+                    entries.add(name);
+                }
+            }
+        }
+        entries.sort(Builtins::compareNames);
+        return entries;
+    }
+
+    private static Body cat(String[] args) throws IOException {
+        if (args.length == 0) {
+            return null;
+        }
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-")) {//option, ou "-" (entrée standard)
+                return null;
+            }
+            files.add(regularFile(arg));
+        }
+        return out -> {
+            for (Path file : files) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    out.copy(in, Long.MAX_VALUE);
+                }
+            }
+        };
+    }
+
+    private static Body head(String[] args) throws IOException {
+        List<String> operands = new ArrayList<>();
+        long count = lineCount(args, operands);
+        if (count < 0 || operands.size() != 1) {
+            return null;
+        }
+        Path file = regularFile(operands.get(0));
+        return out -> {
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[CommandExecutor.CHUNK_SIZE];
+                long remaining = count;
+                int read;
+                while (remaining > 0 && (read = in.read(buffer)) > 0) {
+                    int end = 0;
+                    while (end < read && remaining > 0) {
+                        if (buffer[end++] == '\n') {
+                            remaining--;
+                        }
+                    }
+                    out.write(buffer, 0, end);
+                }
+            }
+        };
+    }
+
+    private static Body tail(String[] args) throws IOException {
+        List<String> operands = new ArrayList<>();
+        long count = lineCount(args, operands);
+        if (count < 0 || operands.size() != 1) {
+            return null;
+        }
+        Path file = regularFile(operands.get(0));
+        return out -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long start = tailStart(channel, channel.size(), count);
+                channel.position(start);
+                out.copy(java.nio.channels.Channels.newInputStream(channel), channel.size() - start);
+            }
+        };
+    }
+
+    //Position du début des count dernières lignes: on remonte depuis la fin (un '\n' final termine la dernière ligne)
+    private static long tailStart(FileChannel channel, long size, long count) throws IOException {
+        if (count == 0) {
+            return size;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CommandExecutor.CHUNK_SIZE);
+        long end = size;
+        long newlines = 0;
+        boolean last = true;
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Fichier raccourci pendant sa lecture");
+                }
+            }
+            for (int i = buffer.limit() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    if (last && start + i == size - 1) {
+                        continue;
+                    }
+                    if (++newlines == count) {
+                        return start + i + 1;
+                    }
+                }
+            }
+            last = false;
+            end = start;
+        }
+        return 0;
+    }
+
+    //Nombre de lignes de head ou tail (-n N, -nN ou -N, 10 par défaut); les autres arguments vont dans operands. -1 si non reconnu.
+    private static long lineCount(String[] args, List<String> operands) {
+        long count = 10;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            String value;
+            if (arg.equals("-n")) {
+                if (++i == args.length) {
+                    return -1;
+                }
+                value = args[i];
+            } else if (arg.startsWith("-n")) {
+                value = arg.substring(2);
+            } else if (arg.startsWith("-") && arg.length() > 1) {
+                value = arg.substring(1);
+            } else {
+                operands.add(arg);
+                continue;
+            }
+            if (value.isEmpty() || value.length() > 18 || !value.chars().allMatch(c -> c >= '0' && c <= '9')) {//ni "+N", ni suffixe (K, M...)
+                return -1;
+            }
+            count = Long.parseLong(value);
+        }
+        return count;
+    }
+
+    private static Body wc(String[] args) throws IOException {
+        boolean lines = false;
+        boolean words = false;
+        boolean bytes = false;
+        List<String> names = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-") && arg.length() > 1) {
+                for (char option : arg.substring(1).toCharArray()) {
+                    if (option == 'l') {
+                        lines = true;
+                    } else if (option == 'w') {
+                        words = true;
+                    } else if (option == 'c') {
+                        bytes = true;
+                    } else {
+                        return null;
+                    }
+                }
+            } else {
+                names.add(arg);
+            }
+        }
+        if (!lines && !words && !bytes) {
+            lines = words = bytes = true;
+        }
+        if (names.isEmpty() || (words && !SINGLE_BYTE_CTYPE)) {
+            return null;
+        }
+        List<Path> files = new ArrayList<>();
+        long totalSize = 0;
+        for (String name : names) {
+            Path file = regularFile(name);
+            files.add(file);
+            totalSize += Files.size(file);
+        }
+        //largeur des nombres: celle de la taille totale, sauf pour un seul nombre d'un seul fichier (comme wc)
+        int width = names.size() == 1 && (lines ? 1 : 0) + (words ? 1 : 0) + (bytes ? 1 : 0) == 1 ? 1 : String.valueOf(totalSize).length();
+        boolean[] shown = {lines, words, bytes};
+        return out -> {
+            long[] total = new long[3];
+            for (int i = 0; i < files.size(); i++) {
+                long[] counts = count(files.get(i), shown[1]);
+                for (int j = 0; j < 3; j++) {
+                    total[j] += counts[j];
+                }
+                out.line(formatCounts(counts, shown, width) + " " + names.get(i));
+            }
+            if (files.size() > 1) {
+                out.line(formatCounts(total, shown, width) + " total");
+            }
+        };
+    }
+
+    private static long[] count(Path file, boolean words) throws IOException {//{lignes, mots, octets}
+        long[] counts = new long[3];
+        boolean inWord = false;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[CommandExecutor.CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                counts[2] += read;
+                for (int i = 0; i < read; i++) {
+                    int b = buffer[i] & 0xFF;
+                    if (b == '\n') {
+                        counts[0]++;
+                    }
+                    if (!words) {
+                        continue;
+                    }
+                    if (b == ' ' || (b >= '\t' && b <= '\r')) {//espaces de la locale C
+                        inWord = false;
+                    } else if (b > ' ' && b < 0x7F && !inWord) {//un caractère non imprimable ne commence pas de mot
+                        inWord = true;
+                        counts[1]++;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static String formatCounts(long[] counts, boolean[] shown, int width) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            if (shown[i]) {
+                String number = String.valueOf(counts[i]);
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                for (int pad = number.length(); pad < width; pad++) {
+                    text.append(' ');
+                }
+                text.append(number);
+            }
+        }
+        return text.toString();
+    }
+
+    private static Body stat(String[] args) throws IOException {
+        String format = null;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-c") && i + 1 < args.length) {
+                format = args[++i];
+            } else if (args[i].startsWith("-c") && args[i].length() > 2) {
+                format = args[i].substring(2);
+            } else if (args[i].startsWith("-")) {
+                return null;
+            } else {
+                names.add(requireName(args[i]));
+            }
+        }
+        if (format == null || names.isEmpty()) {
+            return null;
+        }
+        for (int i = format.indexOf('%'); i >= 0; i = format.indexOf('%', i + 2)) {
+            if (i + 1 == format.length() || "nsFaAugUGihXYZ%".indexOf(format.charAt(i + 1)) < 0) {
+                return null;
+            }
+        }
+        List<String> lines = new ArrayList<>();
+        for (String name : names) {
+            lines.add(formatStat(format, name, Files.readAttributes(Paths.get(name), "unix:*", LinkOption.NOFOLLOW_LINKS)));
+        }
+        return out -> {
+            for (String line : lines) {
+                out.line(line);
+            }
+        };
+    }
+
+    private static String formatStat(String format, String name, Map<String, Object> attributes) throws IOException {
+        int mode = (Integer) attributes.get("mode");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                text.append(c);
+                continue;
+            }
+            switch (format.charAt(++i)) {
+                case 'n': text.append(name); break;
+                case 's': text.append(attributes.get("size")); break;
+                case 'F': text.append(fileType(mode, (Long) attributes.get("size"))); break;
+                case 'a': text.append(Integer.toOctalString(mode & 07777)); break;
+                case 'A': text.append(modeString(mode)); break;
+                case 'u': text.append(attributes.get("uid")); break;
+                case 'g': text.append(attributes.get("gid")); break;
+                case 'U': text.append(principalName(((UserPrincipal) attributes.get("owner")).getName(), attributes.get("uid"))); break;
+                case 'G': text.append(principalName(((GroupPrincipal) attributes.get("group")).getName(), attributes.get("gid"))); break;
+                case 'i': text.append(attributes.get("ino")); break;
+                case 'h': text.append(attributes.get("nlink")); break;
+                case 'X': text.append(seconds(attributes.get("lastAccessTime"))); break;
+                case 'Y': text.append(seconds(attributes.get("lastModifiedTime"))); break;
+                case 'Z': text.append(seconds(attributes.get("ctime"))); break;
+                default: text.append('%');
+            }
+        }
+        return text.toString();
+    }
+
+    private static String principalName(String name, Object id) throws IOException {
+        if (name.equals(String.valueOf(id))) {//pas de nom pour cet identifiant: stat écrit "UNKNOWN", laissé au shell
+            throw new IOException("Identifiant sans nom: " + id);
+        }
+        return name;
+    }
+
+    private static long seconds(Object time) {
+        return ((java.nio.file.attribute.FileTime) time).to(java.util.concurrent.TimeUnit.SECONDS);
+    }
+
+    private static String fileType(int mode, long size) {
+        switch (mode & 0170000) {
+            case 0100000: return size == 0 ? "regular empty file" : "regular file";
+            case 0040000: return "directory";
+            case 0120000: return "symbolic link";
+            case 0010000: return "fifo";
+            case 0140000: return "socket";
+            case 0020000: return "character special file";
+            case 0060000: return "block special file";
+            default: return "weird file";
+        }
+    }
+
+    private static String modeString(int mode) {//"-rwxr-xr-x", bits setuid, setgid et sticky compris
+        char[] text = "?rwxrwxrwx".toCharArray();
+        switch (mode & 0170000) {
+            case 0100000: text[0] = '-'; break;
+            case 0040000: text[0] = 'd'; break;
+            case 0120000: text[0] = 'l'; break;
+            case 0010000: text[0] = 'p'; break;
+            case 0140000: text[0] = 's'; break;
+            case 0020000: text[0] = 'c'; break;
+            case 0060000: text[0] = 'b'; break;
+            default: break;
+        }
+        for (int bit = 0; bit < 9; bit++) {
+            if ((mode & (0400 >> bit)) == 0) {
+                text[bit + 1] = '-';
+            }
+        }
+        special(text, 3, (mode & 04000) != 0, 's');
+        special(text, 6, (mode & 02000) != 0, 's');
+        special(text, 9, (mode & 01000) != 0, 't');
+        return new String(text);
+    }
+
+    private static void special(char[] text, int index, boolean set, char letter) {//lettre minuscule si le bit x est aussi mis
+        if (set) {
+            text[index] = text[index] == '-' ? Character.toUpperCase(letter) : letter;
+        }
+    }
+
+    private static Body du(String[] args) throws IOException {
+        boolean summarize = false;
+        boolean apparentBytes = false;
+        List<String> operands = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-") && arg.length() > 1) {
+                for (char option : arg.substring(1).toCharArray()) {
+                    if (option == 's') {
+                        summarize = true;
+                    } else if (option == 'b') {
+                        apparentBytes = true;
+                    } else {
+                        return null;
+                    }
+                }
+            } else {
+                operands.add(requireName(arg));
+            }
+        }
+        if (!summarize || !apparentBytes) {//l'occupation disque (blocs) n'est pas accessible par java.nio.file
+            return null;
+        }
+        if (operands.isEmpty()) {
+            operands.add(".");
+        }
+        List<Path> roots = new ArrayList<>();
+        for (String operand : operands) {
+            Path root = Paths.get(operand).toAbsolutePath().normalize();
+            for (Path other : roots) {
+                if (root.startsWith(other) || other.startsWith(root)) {//arguments imbriqués: du ne compte pas deux fois, laissé au shell
+                    return null;
+                }
+            }
+            roots.add(root);
+        }
+        Set<String> linked = new HashSet<>();//fichiers à plusieurs liens physiques déjà comptés (périphérique:inode)
+        List<String> lines = new ArrayList<>();
+        for (String operand : operands) {
+            long size = apparentSize(Paths.get(operand), linked);
+            if (size >= 0) {//argument lien physique d'un fichier déjà compté: du ne l'affiche pas
+                lines.add(size + "\t" + operand);
+            }
+        }
+        return out -> {
+            for (String line : lines) {
+                out.line(line);
+            }
+        };
+    }
+
+    private static long apparentSize(Path root, Set<String> linked) throws IOException {//-1 si root est un lien déjà compté
+        long[] total = {-1};
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                total[0] = Math.max(total[0], 0) + attributes.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Map<String, Object> unix = Files.readAttributes(file, "unix:dev,ino,nlink", LinkOption.NOFOLLOW_LINKS);
+                if ((Integer) unix.get("nlink") <= 1 || linked.add(unix.get("dev") + ":" + unix.get("ino"))) {
+                    total[0] = Math.max(total[0], 0) + attributes.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Outils
+    // ---------------------------------------------------------------------------------------------
+
+    //Découpe la commande en mots; null si elle utilise la syntaxe du shell au-delà de mots simples ou entre apostrophes/guillemets
+    static List<String> split(String command) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c == ' ' || c == '\t') {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == '\'' || c == '"') {
+                int end = command.indexOf(c, i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                String quoted = command.substring(i + 1, end);
+                if (c == '"' && quoted.chars().anyMatch(q -> q == '$' || q == '`' || q == '\\' || q == '!')) {
+                    return null;
+                }
+                word.append(quoted);
+                i = end;
+            } else if (c < ' ' || SPECIAL.indexOf(c) >= 0 || (c == '=' && words.isEmpty())) {//"=" dans le premier mot: affectation
+                return null;
+            } else {
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static Path regularFile(String name) throws IOException {//fichier ordinaire lisible, sinon IOException (laissé au shell)
+        Path path = Paths.get(requireName(name));
+        if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+            throw new NoSuchFileException(name);
+        }
+        return path;
+    }
+
+    private static String requireName(String name) throws IOException {
+        if (name.isEmpty()) {
+            throw new NoSuchFileException(name);
+        }
+        checkName(name);
+        return name;
+    }
+
+    private static void checkName(String name) throws IOException {//nom que Java n'a pas pu décoder fidèlement (codage des noms)
+        if (name.indexOf('\uFFFD') >= 0 || !NAMES.newEncoder().canEncode(name)) {
+            throw new IOException("Nom non représentable: " + name);
+        }
+    }
+
+    private static int compareNames(String a, String b) {//ordre de strcmp sur les noms codés (UTF-8 ou ASCII): ordre des points de code
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                return Integer.compare(a.codePointAt(i), b.codePointAt(i));
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    private static Charset namesCharset() {
+        try {
+            return Charset.forName(System.getProperty("sun.jnu.encoding", Charset.defaultCharset().name()));
+        } catch (RuntimeException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    //La locale des commandes (LC_ALL, puis la catégorie, puis LANG) est C ou POSIX; withUtf8: "C.UTF-8" aussi (même ordre des octets)
+    private static boolean isByteLocale(String category, boolean withUtf8) {
+        String locale = null;
+        for (String variable : new String[] {"LC_ALL", category, "LANG"}) {
+            String value = System.getenv(variable);
+            if (value != null && !value.isEmpty()) {
+                locale = value;
+                break;
+            }
+        }
+        return locale == null || locale.equals("C") || locale.equals("POSIX") || (withUtf8 && locale.startsWith("C."));
+    }
+
+    //Sortie standard de la commande, transmise par blocs de CommandExecutor.CHUNK_SIZE octets
+    private static final class Output {
+        private final CommandOutput output;
+        private final long deadline;
+        private final long timeoutMillis;
+        private final byte[] buffer = new byte[CommandExecutor.CHUNK_SIZE];
+        private int length;
+
+        private Output(CommandOutput output, long deadline, long timeoutMillis) {
+            this.output = output;
+            this.deadline = deadline;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        void line(String text) throws IOException {
+            byte[] bytes = (text + "\n").getBytes(NAMES);
+            write(bytes, 0, bytes.length);
+        }
+
+        void write(byte[] data, int offset, int count) throws IOException {
+            while (count > 0) {
+                int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(data, offset, buffer, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+                if (length == buffer.length) {
+                    send();
+                }
+            }
+        }
+
+        void copy(InputStream in, long limit) throws IOException {//recopie au plus limit octets de in
+            byte[] data = new byte[CommandExecutor.CHUNK_SIZE];
+            int read;
+            while (limit > 0 && (read = in.read(data, 0, (int) Math.min(data.length, limit))) > 0) {
+                write(data, 0, read);
+                limit -= read;
+            }
+        }
+
+        void flush() throws IOException {
+            send();
+            output.flush();
+        }
+
+        private void send() throws IOException {
+            if (output.isClosed()) {
+                throw new IOException("Session fermée: commande arrêtée");
+            }
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                throw CommandExecutor.timeout(timeoutMillis);
+            }
+            if (length > 0) {
+                output.write(false, buffer, length);
+                length = 0;
+            }
+        }
+    }
+}
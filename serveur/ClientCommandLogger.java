@@ -1,12 +1,79 @@
 package serveur;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.*;
-
+//Cette classe journalise les connexions et les commandes des clients dans journal.log et dans la console.
+//En mode asynchrone (par défaut, -Dserveur.journal.async=false pour le mode historique), les threads des sessions ne font
+//que déposer l'événement dans un anneau de taille fixe, sans verrou ni allocation: un thread d'écriture le formate,
+//l'écrit par lots et ne vide le fichier qu'à la fin de chaque lot. La latence du disque ne retarde plus les commandes.
+//Quand l'anneau est plein, la politique (-Dserveur.journal.politique) décide:
+//  - BLOCK: le thread attend qu'une place se libère (aucun événement perdu)
+//  - DROP: l'événement est perdu et compté
+//  - SAMPLE: un événement sur -Dserveur.journal.echantillon attend une place, les autres sont perdus et comptés
+//Les erreurs (logConnectionError, logCommandError, ...) attendent toujours une place.
+//Server.stop() appelle flush(): tout événement déjà journalisé est alors écrit.
+//Les événements sont aussi écrits dans le journal d'audit structuré (voir AuditJournal, -Dserveur.audit=false pour le désactiver),
+//avec le login, la durée, le nombre d'octets et le code de sortie quand ils sont connus (logAuthentication, logCommandResult, logTransfer).
 public class ClientCommandLogger {
     private static final Logger logger = Logger.getLogger(ClientCommandLogger.class.getName());
 
+    //Politique appliquée quand l'anneau du mode asynchrone est plein
+    public enum Policy {
+        BLOCK,
+        DROP,
+        SAMPLE
+    }
+
+    // Types d'événements (un par méthode de journalisation)
+    private static final int COMMAND = 0;
+    private static final int CONNECTION = 1;
+    private static final int DISCONNECTION = 2;
+    private static final int CONNECTION_ERROR = 3;
+    private static final int DISCONNECTION_ERROR = 4;
+    private static final int COMMAND_ERROR = 5;
+    private static final int AUTH_SUCCESS = 6;
+    private static final int AUTH_FAILURE = 7;
+    private static final int COMMAND_RESULT = 8;
+    private static final int TRANSFER = 9;
+    private static final String[] METHODS = {"logCommand", "logConnection", "logDisconnection", "logConnectionError", "logDisconnectionError",
+            "logCommandError", "logAuthentication", "logAuthentication", "logCommandResult", "logTransfer"};
+    private static final String[] AUDIT_TYPES = {null, "CONNEXION", "DECONNEXION", "ERREUR_CONNEXION", "ERREUR_DECONNEXION",
+            "ERREUR_COMMANDE", "AUTH", "AUTH_ECHEC", "COMMANDE", "TRANSFERT"};//null: pas d'événement d'audit
+
+    private static final int BATCH_SIZE = 256;//événements écrits avant de vider les handlers
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);//attente maximale du thread d'écriture sans réveil
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);//attente d'un producteur quand l'anneau est plein
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+
+    private static final boolean async = !"false".equalsIgnoreCase(System.getProperty("serveur.journal.async"));
+    private static final Policy policy = parsePolicy(System.getProperty("serveur.journal.politique"));
+    private static final int sampleRate = Math.max(1, Integer.getInteger("serveur.journal.echantillon", 100));
+    private static final ReentrantLock SYNC_LOCK = new ReentrantLock();//mode synchrone: un événement écrit à la fois
+
+    // Anneau à plusieurs producteurs et un consommateur: l'emplacement i est libre pour la position p quand sequences[i] == p,
+    // et contient l'événement de la position p quand sequences[i] == p + 1
+    private static final Event[] ring;
+    private static final AtomicLongArray sequences;
+    private static final int mask;
+    private static final AtomicLong tail = new AtomicLong();//prochaine position à réserver par un producteur
+    private static volatile long written;//positions écrites et vidées par le thread d'écriture
+    private static volatile boolean writerParked;
+    private static Thread writer;
+    private static AuditJournal journal;//journal d'audit structuré (null s'il est désactivé)
+
+    // Statistiques
+    private static final LongAdder dropped = new LongAdder();
+    private static final AtomicLong sampleCounter = new AtomicLong();
+
     static {
         try {
             // Créer le fichier journal.log s'il n'existe pas
@@ -15,9 +82,13 @@ public class ClientCommandLogger {
                 logFile.createNewFile();
             }
 
-            // Configurer le FileHandler pour écrire dans le fichier journal.log
-            FileHandler fileHandler = new FileHandler("journal.log", true); // true pour ajouter au fichier existant
-            fileHandler.setFormatter(new SimpleFormatter()); // Format simple pour les logs
+            Handler fileHandler;
+            if (async) {// Le thread d'écriture vide le fichier à la fin de chaque lot au lieu d'après chaque événement
+                fileHandler = new StreamHandler(new FileOutputStream(logFile, true), new SimpleFormatter());
+            } else {// Configurer le FileHandler pour écrire dans le fichier journal.log
+                fileHandler = new FileHandler("journal.log", true); // true pour ajouter au fichier existant
+                fileHandler.setFormatter(new SimpleFormatter()); // Format simple pour les logs
+            }
             fileHandler.setLevel(Level.ALL); // Niveau de log
 
             // Ajouter le FileHandler au Logger
@@ -33,37 +104,345 @@ public class ClientCommandLogger {
         } catch (IOException e) {
             System.err.println("Erreur lors de la configuration du Logger : " + e.getMessage());
         }
+
+        if (!"false".equalsIgnoreCase(System.getProperty("serveur.audit"))) {
+            try {
+                journal = new AuditJournal(new File(System.getProperty("serveur.audit.dossier", "journal_audit")),
+                        Long.getLong("serveur.audit.segment.mo", 64) * 1024 * 1024,
+                        TimeUnit.MINUTES.toMillis(Long.getLong("serveur.audit.segment.min", 24 * 60)));
+            } catch (IOException e) {
+                System.err.println("Journal d'audit désactivé : " + e.getMessage());
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(64, Integer.getInteger("serveur.journal.capacite", 8192) - 1) << 1);//puissance de 2
+        ring = new Event[capacity];
+        sequences = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Event();
+            sequences.set(i, i);
+        }
+        if (async) {
+            writer = new Thread(ClientCommandLogger::drain, "journal-ecriture");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(ClientCommandLogger::close, "journal-arret"));
     }
 
    //Log une commande client.
     public static void logCommand(String clientAddress, String command) {
-        logger.info("Commande reçue de " + clientAddress + ": " + command);
+        log(COMMAND, clientAddress, null, command, null, -1, -1, null);
     }
 
     //Log la connexion d'un client.
     public static void logConnection(String clientAddress) {
-        logger.info("Client connecté: " + clientAddress);
+        log(CONNECTION, clientAddress, null, null, null, -1, -1, null);
     }
 
    //Log la déconnexion d'un client.
     public static void logDisconnection(String clientAddress) {
-        logger.info("Client déconnecté: " + clientAddress);
+        logDisconnection(clientAddress, null);
+    }
+
+    //Log la déconnexion d'un client authentifié (login null si le client ne s'est pas authentifié).
+    public static void logDisconnection(String clientAddress, String login) {
+        log(DISCONNECTION, clientAddress, login, null, null, -1, -1, null);
     }
 
     //Log une erreur de connexion.
     public static void logConnectionError(String clientAddress, String errorMessage) {
-        logger.severe("Erreur de connexion du client " + clientAddress + ": " + errorMessage);
+        log(CONNECTION_ERROR, clientAddress, null, errorMessage, null, -1, -1, null);
     }
 
     //Log une erreur de déconnexion.
     public static void logDisconnectionError(String clientAddress, String errorMessage) {
-        logger.severe("Erreur de déconnexion du client " + clientAddress + ": " + errorMessage);
+        log(DISCONNECTION_ERROR, clientAddress, null, errorMessage, null, -1, -1, null);
     }
 
-    
+
     // Log une erreur d'exécution de commande.
-    
+
     public static void logCommandError(String clientAddress, String command, String errorMessage) {
-        logger.severe("Erreur d'exécution de commande pour le client " + clientAddress + ": " + command + " -> " + errorMessage);
+        log(COMMAND_ERROR, clientAddress, null, command, errorMessage, -1, -1, null);
+    }
+
+    //Log le résultat d'une authentification.
+    public static void logAuthentication(String clientAddress, String login, boolean success) {
+        log(success ? AUTH_SUCCESS : AUTH_FAILURE, clientAddress, login, null, null, -1, -1, null);
+    }
+
+    //Log la fin d'une commande système (journal d'audit uniquement: la commande a déjà été journalisée à sa réception).
+    public static void logCommandResult(String clientAddress, String login, String command, long durationMillis, int exitCode) {
+        log(COMMAND_RESULT, clientAddress, login, command, null, durationMillis, -1, exitCode);
+    }
+
+    //Log la fin d'un transfert de fichier réussi, "UPLOAD nom" ou "DOWNLOAD nom" (journal d'audit uniquement).
+    public static void logTransfer(String clientAddress, String login, String transfer, long bytes, long durationMillis) {
+        log(TRANSFER, clientAddress, login, transfer, null, durationMillis, bytes, null);
+    }
+
+    //Attend que les événements déjà journalisés soient écrits et vidés (au plus 5 secondes)
+    public static void flush() {
+        if (!async) {
+            flushOutputs();
+            return;
+        }
+        long target = tail.get();
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while (written < target && writer.isAlive() && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static void close() {//arrêt de la JVM: écrit les derniers événements et l'index du segment d'audit en cours
+        flush();
+        if (journal != null) {
+            try {
+                journal.close();//un événement écrit ensuite ouvrirait un nouveau segment
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture du journal d'audit : " + e.getMessage());
+            }
+        }
+    }
+
+    public static AuditJournal getAuditJournal() {//journal d'audit structuré, null s'il est désactivé
+        return journal;
+    }
+
+    public static boolean isAsync() {
+        return async;
+    }
+
+    public static Policy getPolicy() {
+        return policy;
+    }
+
+    public static long getDroppedCount() {//événements perdus parce que l'anneau était plein (politiques DROP et SAMPLE)
+        return dropped.sum();
+    }
+
+    public static long getPendingCount() {//événements en attente d'écriture
+        return async ? Math.max(0, tail.get() - written) : 0;
+    }
+
+    private static void log(int type, String clientAddress, String login, String text, String detail, long duration, long bytes, Integer exitCode) {
+        if (!async) {
+            Event event = new Event();
+            event.set(type, clientAddress, login, text, detail, duration, bytes, exitCode);
+            SYNC_LOCK.lock();//un événement à la fois, dans l'ordre, comme le thread d'écriture
+            try {
+                write(event);
+                if (journal != null) {
+                    flushJournal();
+                }
+            } finally {
+                SYNC_LOCK.unlock();
+            }
+            return;
+        }
+        boolean error = type == CONNECTION_ERROR || type == DISCONNECTION_ERROR || type == COMMAND_ERROR || type == AUTH_FAILURE;
+        long position;
+        while ((position = claim()) < 0) {//anneau plein
+            if (!error && (policy == Policy.DROP || (policy == Policy.SAMPLE && sampleCounter.incrementAndGet() % sampleRate != 0))) {
+                dropped.increment();
+                return;
+            }
+            wakeWriter();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        int index = (int) position & mask;
+        ring[index].set(type, clientAddress, login, text, detail, duration, bytes, exitCode);
+        sequences.set(index, position + 1);//publication de l'événement
+        if (writerParked) {
+            wakeWriter();
+        }
+    }
+
+    private static long claim() {//réserve la prochaine position de l'anneau; retourne -1 s'il est plein
+        long position = tail.get();
+        while (true) {
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (available < 0) {//l'emplacement contient encore un événement d'un tour précédent
+                return -1;
+            } else {//un autre producteur a pris cette position
+                position = tail.get();
+            }
+        }
+    }
+
+    private static void wakeWriter() {
+        LockSupport.unpark(writer);
+    }
+
+    //Boucle du thread d'écriture: écrit les événements par lots, vide les handlers, puis attend de nouveaux événements
+    private static void drain() {
+        long head = 0;
+        long lastDropped = 0;
+        while (true) {
+            int count = 0;
+            while (count < BATCH_SIZE) {
+                int index = (int) head & mask;
+                if (sequences.get(index) != head + 1) {
+                    break;
+                }
+                Event event = ring[index];
+                try {
+                    write(event);
+                } catch (RuntimeException e) {
+                    System.err.println("Erreur d'écriture du journal : " + e.getMessage());
+                }
+                event.clear();
+                sequences.set(index, head + mask + 1);//emplacement libre pour le tour suivant
+                head++;
+                count++;
+            }
+            if (count > 0) {
+                long lost = dropped.sum();
+                if (lost != lastDropped) {
+                    logger.warning("Journal saturé: " + (lost - lastDropped) + " événements perdus (politique " + policy + ")");
+                    lastDropped = lost;
+                }
+                flushOutputs();
+                written = head;
+                continue;
+            }
+            writerParked = true;
+            if (sequences.get((int) head & mask) != head + 1) {//pas d'événement publié entre-temps
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    private static void flushOutputs() {//vide les handlers et le journal d'audit à la fin d'un lot
+        for (Handler handler : logger.getHandlers()) {
+            handler.flush();
+        }
+        if (journal != null) {
+            flushJournal();
+        }
+    }
+
+    private static void flushJournal() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            System.err.println("Erreur d'écriture du journal d'audit : " + e.getMessage());
+        }
+    }
+
+    private static void write(Event event) {//formate et publie un événement
+        String clientAddress = event.clientAddress;
+        String text = event.text;
+        if (journal != null && AUDIT_TYPES[event.type] != null) {
+            try {
+                journal.append(event.time, AUDIT_TYPES[event.type], clientAddress, event.login,
+                        event.type == COMMAND_ERROR || event.type == COMMAND_RESULT || event.type == TRANSFER ? text : null,
+                        event.duration, event.bytes, event.hasExitCode ? event.exitCode : null,
+                        event.type == COMMAND_ERROR ? event.detail : event.type == CONNECTION_ERROR || event.type == DISCONNECTION_ERROR ? text : null);
+            } catch (IOException e) {
+                System.err.println("Erreur d'écriture du journal d'audit : " + e.getMessage());
+            }
+        }
+        Level level;
+        String message;
+        switch (event.type) {
+            case COMMAND:
+                level = Level.INFO;
+                message = "Commande reçue de " + clientAddress + ": " + text;
+                break;
+            case CONNECTION:
+                level = Level.INFO;
+                message = "Client connecté: " + clientAddress;
+                break;
+            case DISCONNECTION:
+                level = Level.INFO;
+                message = "Client déconnecté: " + clientAddress;
+                break;
+            case CONNECTION_ERROR:
+                level = Level.SEVERE;
+                message = "Erreur de connexion du client " + clientAddress + ": " + text;
+                break;
+            case DISCONNECTION_ERROR:
+                level = Level.SEVERE;
+                message = "Erreur de déconnexion du client " + clientAddress + ": " + text;
+                break;
+            case COMMAND_ERROR:
+                level = Level.SEVERE;
+                message = "Erreur d'exécution de commande pour le client " + clientAddress + ": " + text + " -> " + event.detail;
+                break;
+            case AUTH_SUCCESS:
+                level = Level.INFO;
+                message = "Commande reçue de " + clientAddress + ": Client authentifié: " + clientAddress + " (Login: " + event.login + ")";
+                break;
+            case AUTH_FAILURE:
+                level = Level.SEVERE;
+                message = "Erreur de connexion du client " + clientAddress + ": Échec de l'authentification";
+                break;
+            default://fin de commande ou de transfert: journal d'audit uniquement
+                return;
+        }
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        LogRecord record = new LogRecord(level, message);
+        record.setInstant(Instant.ofEpochMilli(event.time));//date de l'événement, pas de son écriture
+        record.setLoggerName(logger.getName());
+        record.setSourceClassName(ClientCommandLogger.class.getName());
+        record.setSourceMethodName(METHODS[event.type]);
+        logger.log(record);
+    }
+
+    private static Policy parsePolicy(String value) {
+        if (value == null || value.isBlank()) {
+            return Policy.BLOCK;
+        }
+        try {
+            return Policy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Politique de journal inconnue: " + value + ", utilisation de BLOCK");
+            return Policy.BLOCK;
+        }
+    }
+
+    private static final class Event {//emplacement de l'anneau, réutilisé à chaque tour
+        private int type;
+        private long time;
+        private String clientAddress;
+        private String login;
+        private String text;
+        private String detail;
+        private long duration;//ms, -1 si inconnue
+        private long bytes;//-1 si inconnu
+        private int exitCode;
+        private boolean hasExitCode;
+
+        private void set(int type, String clientAddress, String login, String text, String detail, long duration, long bytes, Integer exitCode) {
+            this.type = type;
+            this.time = System.currentTimeMillis();
+            this.clientAddress = clientAddress;
+            this.login = login;
+            this.text = text;
+            this.detail = detail;
+            this.duration = duration;
+            this.bytes = bytes;
+            this.hasExitCode = exitCode != null;
+            this.exitCode = hasExitCode ? exitCode : 0;
+        }
+
+        private void clear() {//ne pas retenir les chaînes jusqu'au tour suivant
+            clientAddress = null;
+            login = null;
+            text = null;
+            detail = null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,25 +1,40 @@
 package serveur;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.ssl.SSLSocket;
+import protocole.Compressor;
+import protocole.Frame;
+import protocole.FrameReader;
+import protocole.FrameWriter;
+import protocole.Protocole;
 // import java.util.logging.*;
 //cette classe permet de gérer les commandes des clients et de les exécuter
 //elle implémente l'interface Runnable pour être exécutée dans un thread
 //elle contient des méthodes pour gérer l'upload et le download de fichiers
 //elle contient une méthode pour exécuter une commande système
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, ClientSession {
     private SSLSocket clientSocket;//socket du client
     private Server server;//serveur auquel le client est connecté
     private boolean running;//indique si le client est connecté ou non
     private BufferedReader in;//flux d'entrée pour lire les messages du client 
     private PrintWriter out;//flux de sortie pour envoyer des messages au client 
     private String clientAddress;//adresse IP du client 
-    private boolean authenticated;//indique si le client est authentifié ou non
+    private volatile boolean authenticated;//indique si le client est authentifié ou non
+    private Compressor compressor;//compression des trames négociée avec le client, null sinon
+    private final AtomicInteger activeRequests = new AtomicInteger();//commandes et transferts en cours (une session sans requête en cours est inactive)
     private String login;//login du client 
+    private final ShellPool.Lease shell;//shell persistant de la session (null si l'option est désactivée)
 
     // Constantes pour les commandes de transfert de fichiers
-    private static final String UPLOAD_COMMAND = "UPLOAD";//commande d'upload de fichier pour envoyer un fichier au serveur
-    private static final String DOWNLOAD_COMMAND = "DOWNLOAD";//commande de download de fichier pour télécharger un fichier du serveur
+    static final String UPLOAD_COMMAND = "UPLOAD";//commande d'upload de fichier pour envoyer un fichier au serveur
+    static final String DOWNLOAD_COMMAND = "DOWNLOAD";//commande de download de fichier pour télécharger un fichier du serveur
+    static final String BATCH_COMMAND = "BATCH";//lot de commandes (protocole binaire), dans le journal
     public static final String END_OF_FILE = "EOF";//marqueur de fin de fichier 
 
     public ClientHandler(SSLSocket clientSocket, Server server) {//Ce constructeur prend en paramètre le socket du client et le serveur et permet d'initialiser les attributs de la classe
@@ -28,19 +43,28 @@ public class ClientHandler implements Runnable {
         this.running = true;
         this.clientAddress = clientSocket.getInetAddress().getHostAddress();//récupérer l'adresse IP du client
         this.authenticated = false;
+        this.shell = server.leaseShell();
 
         // Journalisation de la connexion
         ClientCommandLogger.logConnection(clientAddress);
     }
 
+    @Override
     public String getClientAddress() {//méthode pour récupérer l'adresse IP du client
         return clientAddress;
     }
 
+    @Override
     public String getLogin() {//méthode pour récupérer le login du client
         return login;
     }
 
+    @Override
+    public boolean isIdle() {//une session qui n'est pas encore authentifiée est comptée comme active (poignée de main, authentification)
+        return authenticated && activeRequests.get() == 0;
+    }
+
+    @Override
     public void close() {//méthode pour fermer la connexion avec le client
         running = false;
         try {
@@ -52,43 +76,45 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    //décompose un message "AUTH: login motdepasse" en {login, motdepasse}, ou retourne null si le message est invalide;
+    //utilisée par les sessions bloquantes et NIO, qui acceptent ainsi exactement les mêmes messages
+    static String[] parseAuthMessage(String authMessage) {
+        if (authMessage == null || !authMessage.startsWith(Server.AUTH_PREFIX)) {
+            return null;
+        }
+        String[] parts = authMessage.split(" ");
+        return parts.length == 3 ? new String[] {parts[1], parts[2]} : null;
+    }
+
     @Override
     public void run() {//méthode run de l'interface Runnable, elle est appelée lorsqu'un thread est démarré pour exécuter le clientHandler elle gère les commandes des clients et permet de les exécuter . elle ass
         try {
+            clientSocket.setTcpNoDelay(true);//les réponses sont écrites par trames ou lignes entières: Nagle ne ferait que retarder la fin de réponse (comme NioServer)
+            long handshakeStart = System.nanoTime();
+            server.getTlsContext().handshake(clientSocket);// poignée de main SSL (complète ou reprise d'une session précédente)
+            server.getMetrics().recordTlsHandshake(System.nanoTime() - handshakeStart);
             in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));// créer un flux d'entrée pour lire les messages du client
             out = new PrintWriter(clientSocket.getOutputStream(), true);// créer un flux de sortie pour envoyer des messages au client
 
             // Étape d'authentification
             String authMessage = in.readLine();
-            if (authMessage != null && authMessage.startsWith(Server.AUTH_PREFIX)) {// vérifier si le message d'authentification est valide 
-                String[] parts = authMessage.split(" ");// décomposer le message d'authentification en deux parties : le login et le mot de passe pour les stocker dans les attributs de la classe 
-                if (parts.length == 3) {
-                    String login = parts[1];
-                    String password = parts[2];
-
-                    if (server.authenticate(login, password)) {// vérifier si le login et le mot de passe sont valides 
-                        this.login = login;
-                        out.println(Server.AUTH_SUCCESS);// envoyer un message d'authentification réussie au client
-                        authenticated = true;
-                        ClientCommandLogger.logCommand(clientAddress, "Client authentifié: " + clientAddress + " (Login: " + login + ")");//journaliser l'authentification du client
-                    } else {// si l'authentification échoue, envoyer un message d'erreur au client et fermer la connexion
-                        out.println(Server.AUTH_FAILED);
-                        ClientCommandLogger.logConnectionError(clientAddress, "Échec de l'authentification");
-                        close();
-                        return;
-                    }
-                } else {// si le message d'authentification est invalide, envoyer un message d'erreur au client et fermer la connexion
-                    ClientCommandLogger.logConnectionError(clientAddress, "Format d'authentification invalide : " + authMessage);
-                    out.println(Server.AUTH_FAILED);
-                    close();
-                    return;
-                }
-            } else {
+            String[] credentials = parseAuthMessage(authMessage);// décomposer le message d'authentification en login et mot de passe (comme NioSession)
+            if (credentials == null) {// si le message d'authentification est invalide, envoyer un message d'erreur au client et fermer la connexion
                 ClientCommandLogger.logConnectionError(clientAddress, "Message d'authentification manquant ou invalide : " + authMessage);
                 out.println(Server.AUTH_FAILED);
                 close();
                 return;
             }
+            if (!server.authenticate(credentials[0], credentials[1])) {// si l'authentification échoue, envoyer un message d'erreur au client et fermer la connexion
+                out.println(Server.AUTH_FAILED);
+                ClientCommandLogger.logAuthentication(clientAddress, credentials[0], false);
+                close();
+                return;
+            }
+            this.login = credentials[0];
+            out.println(Server.AUTH_SUCCESS);// envoyer un message d'authentification réussie au client
+            authenticated = true;
+            ClientCommandLogger.logAuthentication(clientAddress, login, true);//journaliser l'authentification du client
 
             // Boucle principale de traitement des commandes
             while (running && authenticated) {//tant que le client est connecté et authentifié, lire les commandes du client et les executer
@@ -97,23 +123,53 @@ public class ClientHandler implements Runnable {
                     break;
                 }
 
-                if (message.startsWith(Server.COMMAND_PREFIX)) {//si le message est une commande, la traiter
-                    String command = message.substring(Server.COMMAND_PREFIX.length());//extraire la commande du message
-                    ClientCommandLogger.logCommand(clientAddress, command);// journaliser la commande du client 
+                if (message.startsWith(Protocole.NEGOTIATION_PREFIX)) {//si le client propose le protocole binaire, le négocier
+                    int version = Protocole.selectVersion(message);
+                    if (version > 0) {
+                        Compressor compressor = server.negotiateCompression(message);
+                        // Le client attend cette réponse avant d'envoyer sa première trame: "in" n'a donc rien lu au-delà
+                        out.println(Protocole.accept(version, compressor != null, message));
+                        runBinaryProtocol(compressor);//le reste de la session utilise les trames binaires
+                        break;
+                    }
+                    out.println(Protocole.NEGOTIATION_REFUSED);
+                } else if (message.startsWith(Server.COMMAND_PREFIX)) {//si le message est une commande, la traiter
+                    activeRequests.incrementAndGet();
+                    try {
+                        String command = message.substring(Server.COMMAND_PREFIX.length());//extraire la commande du message
+                        ClientCommandLogger.logCommand(clientAddress, command);// journaliser la commande du client 
 
-                    if (command.startsWith(UPLOAD_COMMAND)) {//si la commande est d'upload de fichier, appeler la méthode handleFileUpload pour traiter l'upload du fichier 
-                        handleFileUpload(command);
-                    } else if (command.startsWith(DOWNLOAD_COMMAND)) {//si la commande est de download de fichier, appeler la méthode handleFileDownload pour traiter le download du fichier
-                        handleFileDownload(command);
-                    } else {//si la commande est une commande système, l'exécuter
-                        try {
-                            String result = executeCommand(command);//appeler la méthode executeCommand pour exécuter la commande
-                            out.println(Server.RESULT_PREFIX + result);//envoyer le résultat de la commande au client
-                        } catch (Exception e) {//en cas d'erreur lors de l'exécution de la commande, envoyer un message d'erreur au client
-                            ClientCommandLogger.logCommandError(clientAddress, command, e.getMessage());
-                            out.println(Server.ERROR_PREFIX + e.getMessage());
+                        if (command.startsWith(UPLOAD_COMMAND)) {//si la commande est d'upload de fichier, appeler la méthode handleFileUpload pour traiter l'upload du fichier 
+                            handleFileUpload(command);
+                        } else if (command.startsWith(DOWNLOAD_COMMAND)) {//si la commande est de download de fichier, appeler la méthode handleFileDownload pour traiter le download du fichier
+                            handleFileDownload(command);
+                        } else {//si la commande est une commande système, l'exécuter
+                            TextCommandOutput output = new TextCommandOutput() {//envoyer chaque ligne du résultat dès qu'elle est produite
+                                @Override
+                                protected void writeLine(String line) {
+                                    out.print(line);
+                                    out.print(System.lineSeparator());
+                                }
+
+                                @Override
+                                public void flush() {
+                                    out.flush();
+                                }
+                            };
+                            long start = System.nanoTime();
+                            try {
+                                int exitCode = server.getCommandExecutor().execute(login, command, output, shell());//confier la commande à l'exécuteur du serveur qui limite le nombre de processus simultanés
+                                output.finish();
+                                logCommandResult(command, start, exitCode);
+                            } catch (Exception e) {//en cas d'erreur lors de l'exécution de la commande, envoyer un message d'erreur au client
+                                server.getMetrics().recordCommandError(System.nanoTime() - start);
+                                ClientCommandLogger.logCommandError(clientAddress, command, e.getMessage());
+                                out.println(Server.ERROR_PREFIX + e.getMessage());
+                            }
+                            out.println("END_OF_RESPONSE");//envoyer un marqueur de fin de réponse
                         }
-                        out.println("END_OF_RESPONSE");//envoyer un marqueur de fin de réponse
+                    } finally {
+                        activeRequests.decrementAndGet();
                     }
                 }
             }
@@ -127,8 +183,11 @@ public class ClientHandler implements Runnable {
             } catch (IOException e) {
                 ClientCommandLogger.logDisconnectionError(clientAddress, "Erreur lors de la fermeture des ressources: " + e.getMessage());
             }
+            if (shell != null) {
+                shell.close();
+            }
             server.removeClient(this);
-            ClientCommandLogger.logDisconnection(clientAddress);
+            ClientCommandLogger.logDisconnection(clientAddress, login);
         }
     }
 
@@ -142,15 +201,18 @@ public class ClientHandler implements Runnable {
             String[] parts = command.split(" ");//découper la commande en deux parties : la commande et le nom du fichier
             if (parts.length == 2) {//vérifier si la commande est valide
                 String fileName = parts[1];
-                File file = new File("server_storage/" + fileName);//créer un fichier pour stocker le fichier reçu
+                ContentStore.checkName(fileName);
+                File file = server.getContentStore().createTemporaryFile();//fichier temporaire, enregistré dans le stockage une fois reçu
 
                 // Indiquer au client que le serveur est prêt à recevoir le fichier
                 ClientCommandLogger.logCommand(clientAddress, "Prêt à recevoir le fichier " + fileName);//journaliser la réception du fichier
                 out.println(Server.RESULT_PREFIX + "Prêt à recevoir le fichier");//envoyer un message au client pour indiquer que le serveur est prêt à recevoir le fichier
                 out.flush();//vider le flux de sortie
 
-                try (FileOutputStream fos = new FileOutputStream(file);
-                    InputStream is = clientSocket.getInputStream()) {//créer un flux d'entrée pour lire les données du fichier
+                long start = System.nanoTime();
+                long received = 0;//octets écrits dans le fichier, pour le journal d'audit
+                try (FileOutputStream fos = new FileOutputStream(file)) {
+                    InputStream is = clientSocket.getInputStream();//flux d'entrée du socket pour lire les données du fichier (il n'est pas fermé: cela fermerait la session)
                     byte[] buffer = new byte[8192];//créer un tableau de bytes pour stocker les données du fichier. ce tableau est constitué de 8192 octets et constitue un tampon pour lire les données du fichier
                     int bytesRead;
 
@@ -158,19 +220,21 @@ public class ClientHandler implements Runnable {
                     ClientCommandLogger.logCommand(clientAddress, "Début de la réception du fichier : " + fileName);
                     while ((bytesRead = is.read(buffer)) != -1) {//lire les données du fichier et les stocker dans le tableau buffer
                         // Vérifier si le marqueur de fin de fichier a été reçu
-                        String data = new String(buffer, 0, bytesRead);
-                        if (data.contains("END_OF_FILE")) {//si le marqueur de fin de fichier est reçu, sortir de la boucle
+                        if (containsEndOfFile(buffer, bytesRead)) {//si le marqueur de fin de fichier est reçu, sortir de la boucle
                             ClientCommandLogger.logCommand(clientAddress, "Marqueur de fin de fichier reçu");
                             break; // Sortir de la boucle
                         }
                         fos.write(buffer, 0, bytesRead);//écrire les données du fichier dans le fichier de destination
+                        received += bytesRead;
                     }
-
-                    // Envoyer une confirmation de réception du fichier
-                    ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + fileName);
-                    out.println(Server.RESULT_PREFIX + "Fichier reçu avec succès: " + fileName);
-                    out.flush();
                 }
+                server.getContentStore().commit(fileName, file);//enregistrer le fichier reçu (fermé) dans le stockage, à la place du fichier de même nom
+
+                // Envoyer une confirmation de réception du fichier
+                ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + fileName);
+                logTransfer(UPLOAD_COMMAND, fileName, received, start);
+                out.println(Server.RESULT_PREFIX + "Fichier reçu avec succès: " + fileName);
+                out.flush();
             } else {//si la commande est invalide, envoyer un message d'erreur au client
                 ClientCommandLogger.logCommandError(clientAddress, command, "Format de commande UPLOAD invalide");
                 out.println(Server.ERROR_PREFIX + "Format de commande UPLOAD invalide");
@@ -188,14 +252,14 @@ public class ClientHandler implements Runnable {
     //il prend en paramètre la commande de download
     //La commande doit être de la forme "DOWNLOAD nom_fichier"
     private void handleFileDownload(String command) {//méthode pour gérer le download de fichier depuis le serveur vers le client
-        FileInputStream fis = null;
+        StoredFile file = null;
         OutputStream os = null;
         try {
             String[] parts = command.split(" ");//découper la commande en deux parties : la commande et le nom du fichier
             if (parts.length == 2) {
                 String fileName = parts[1];//récupérer le nom du fichier
-                File file = new File(fileName);
-                if (file.exists() && file.isFile()) {//vérifier si le fichier existe et est un fichier simple c'est a dire pas un répertoire
+                file = server.openFile(fileName);
+                if (file != null) {//vérifier si le fichier existe (stockage du serveur ou fichier simple, pas un répertoire)
                     // Initialiser os avant de l'utiliser
                     os = clientSocket.getOutputStream();//créer un flux de sortie pour envoyer le fichier au client
 
@@ -206,15 +270,18 @@ public class ClientHandler implements Runnable {
                     os.flush();//vider le flux de sortie
 
                     // Envoyer le fichier
-                    fis = new FileInputStream(file);//créer un flux d'entrée pour lire les données du fichier et les envoyer au client
+                    long start = System.nanoTime();
                     byte[] buffer = new byte[8192];//créer un tableau de bytes pour stocker les données du fichier. ce tableau est constitué de 8192 octets et constitue un tampon pour lire les données du fichier
+                    long position = 0;
                     int bytesRead;
-                    while ((bytesRead = fis.read(buffer)) != -1) {//lire les données du fichier et les stocker dans le tableau buffer 
+                    while ((bytesRead = file.read(ByteBuffer.wrap(buffer), position)) != -1) {//lire les données du fichier et les stocker dans le tableau buffer 
                         os.write(buffer, 0, bytesRead);
+                        position += bytesRead;
                     }
 
                     // Envoyer un marqueur de fin de fichier
                     ClientCommandLogger.logCommand(clientAddress, "Fin du transfert du fichier : " + fileName);//journaliser la fin du transfert du fichier
+                    logTransfer(DOWNLOAD_COMMAND, fileName, file.size(), start);
                     String endMarker = "END_OF_FILE\n";//envoyer un marqueur de fin de fichier
                     os.write(endMarker.getBytes());//écrire le marqueur de fin de fichier dans le flux de sortie 
                     os.flush();
@@ -251,53 +318,558 @@ public class ClientHandler implements Runnable {
                 ClientCommandLogger.logCommandError(clientAddress, command, "Erreur lors de l'envoi du message d'erreur : " + ex.getMessage());
             }
         } finally {
-            // Fermer les ressources
+            // Fermer le fichier; le flux de sortie du socket reste ouvert pour que la session continue après le transfert
             try {
-                if (fis != null) fis.close();
-                if (os != null) os.close();
+                if (file != null) file.close();
             } catch (IOException e) {//en cas d'erreur lors de la fermeture des ressources, journaliser l'erreur
                 ClientCommandLogger.logCommandError(clientAddress, command, "Erreur lors de la fermeture des ressources : " + e.getMessage());
             }
         }
     }
 
-    
-     // Exécute les commandes systèmes
-     // Prend en paramètre la commande à exécuter et Retourne le résultat de la commande
-    private String executeCommand(String command) throws IOException {
-        ProcessBuilder processBuilder = new ProcessBuilder();//créer un processBuilder pour exécuter la commande système
-        if (System.getProperty("os.name").toLowerCase().contains("windows")) {//vérifier si le système d'exploitation est Windows
-            processBuilder.command("cmd.exe", "/c", command);//si c'est le cas, exécuter la commande dans un shell Windows
-        } else {//sinon, exécuter la commande dans un shell Unix (Linux, MacOs, etc.)
-            processBuilder.command("/bin/sh", "-c", command);
+    static boolean containsEndOfFile(byte[] buffer, int length) {//vérifie si un bloc reçu pendant un upload (protocole texte) contient le marqueur de fin de fichier
+        String data = new String(buffer, 0, length);
+        return data.contains("END_OF_FILE");
+    }
+
+    //Boucle de traitement du protocole binaire (voir protocole.Frame)
+    //Les trames DATA d'un upload sont rattachées au fichier ouvert par la trame UPLOAD de même identifiant de requête,
+    //les trames CHUNK d'un upload par blocs à l'upload ouvert ou repris par la trame RESUME (voir ResumableUpload),
+    //les trames COPY et DATA d'un envoi différentiel à l'envoi ouvert par la trame DELTA (voir DeltaUpload).
+    //Les commandes et les downloads sont confiés au pool de threads du serveur: plusieurs requêtes d'une même session
+    //sont traitées simultanément et leurs trames de réponse s'entremêlent (FrameWriter écrit chaque trame d'un bloc).
+    //Au-delà de getMaxRequestsPerSession() requêtes en cours, la lecture des trames attend qu'une requête se termine.
+    //Si la compression a été négociée, les sorties de commande et les downloads sont compressés quand ils y gagnent,
+    //et les blocs compressés par le client sont décompressés avant d'être vérifiés et écrits.
+    private void runBinaryProtocol(Compressor compressor) throws IOException {
+        this.compressor = compressor;
+        FrameReader reader = new FrameReader(clientSocket.getInputStream());
+        FrameWriter writer = new FrameWriter(clientSocket.getOutputStream());
+        writer.setCompressor(compressor);
+        Map<Integer, BinaryUpload> uploads = new HashMap<>();//uploads en cours, par identifiant de requête
+        Map<Integer, ResumableUpload> resumables = new HashMap<>();//uploads par blocs en cours, par identifiant de requête
+        Map<Integer, DeltaUpload> deltas = new HashMap<>();//envois différentiels en cours, par identifiant de requête
+        byte[] buffer = new byte[Frame.DATA_CHUNK_SIZE];//tampon réutilisé pour recopier les données des uploads
+        byte[] inflated = compressor != null ? new byte[Frame.DATA_CHUNK_SIZE] : null;//blocs décompressés
+        int maxRequests = server.getMaxRequestsPerSession();
+        Semaphore requestPermits = new Semaphore(maxRequests);//requêtes en cours de traitement dans le pool
+        try {
+            while (running && reader.nextHeader()) {
+                int requestId = reader.getRequestId();
+                switch (reader.getType()) {
+                    case Frame.CMD:
+                        String command = reader.readText();
+                        ClientCommandLogger.logCommand(clientAddress, command);
+                        dispatch(requestPermits, () -> executeBinaryCommand(requestId, command, writer));
+                        break;
+                    case Frame.BATCH:
+                        byte[] batch = reader.readPayload();
+                        dispatch(requestPermits, () -> executeBatch(requestId, batch, writer));
+                        break;
+                    case Frame.UPLOAD:
+                        String uploadName = reader.readText();
+                        ClientCommandLogger.logCommand(clientAddress, UPLOAD_COMMAND + " " + uploadName);
+                        if (uploads.put(requestId, openBinaryUpload(uploadName)) == null) {//un upload remplacé par un autre de même identifiant était déjà compté
+                            activeRequests.incrementAndGet();
+                        }
+                        break;
+                    case Frame.DATA:
+                        BinaryUpload upload = uploads.get(requestId);
+                        DeltaUpload literal = upload == null ? deltas.get(requestId) : null;
+                        if (literal != null) {
+                            receiveLiteral(reader, literal, buffer);
+                        } else if (upload != null && upload.output != null) {
+                            try {
+                                upload.bytes += reader.getPayloadLength();
+                                reader.transferPayload(upload.output, buffer);
+                            } catch (IOException e) {//erreur d'écriture du fichier: la réponse d'erreur est envoyée à la trame EOF
+                                upload.fail(e);
+                                reader.skipPayload();
+                            }
+                        } else {//upload inconnu ou déjà en erreur: les données sont ignorées
+                            reader.skipPayload();
+                        }
+                        break;
+                    case Frame.RESUME:
+                        ResumableUpload resumable = openResumableUpload(requestId, reader.readPayload(), (reader.getFlags() & Frame.FLAG_RANGE) != 0, writer);
+                        if (resumable != null && resumables.put(requestId, resumable) == null) {
+                            activeRequests.incrementAndGet();
+                        }
+                        break;
+                    case Frame.CHUNK:
+                        ResumableUpload chunkUpload = resumables.get(requestId);
+                        if (chunkUpload == null) {//upload inconnu ou déjà en erreur: les blocs sont ignorés
+                            reader.skipPayload();
+                            break;
+                        }
+                        try {
+                            receiveChunk(reader, chunkUpload, buffer, inflated);
+                        } catch (IOException e) {//bloc invalide ou erreur d'écriture: l'upload est suspendu, le client le reprendra
+                            resumables.remove(requestId);
+                            activeRequests.decrementAndGet();
+                            abortResumableUpload(requestId, chunkUpload, e, writer);
+                            reader.skipPayload();//une erreur de lecture (connexion rompue) est levée ici
+                        }
+                        break;
+                    case Frame.EOF:
+                        byte[] checksum = reader.readPayload();//SHA-256 du fichier pour un envoi différentiel, vide sinon
+                        DeltaUpload delta = deltas.remove(requestId);
+                        if (delta != null) {//la reconstruction relit l'ancienne version: elle est faite dans le pool
+                            activeRequests.decrementAndGet();
+                            dispatch(requestPermits, () -> finishDeltaUpload(requestId, delta, checksum, writer));
+                            break;
+                        }
+                        ResumableUpload completed = resumables.remove(requestId);
+                        if (completed != null) {//l'enregistrement dans le stockage lit tout le fichier: il est fait dans le pool
+                            activeRequests.decrementAndGet();
+                            dispatch(requestPermits, () -> finishResumableUpload(requestId, completed, writer));
+                            break;
+                        }
+                        BinaryUpload finished = uploads.remove(requestId);
+                        if (finished != null) {
+                            activeRequests.decrementAndGet();
+                        }
+                        dispatch(requestPermits, () -> finishBinaryUpload(requestId, finished, writer));
+                        break;
+                    case Frame.HAVE:
+                        byte[] query = reader.readPayload();
+                        dispatch(requestPermits, () -> answerBlockQuery(requestId, query, writer));
+                        break;
+                    case Frame.SIGNATURE:
+                        String signatureName = reader.readText();
+                        dispatch(requestPermits, () -> sendSignatures(requestId, signatureName, writer));
+                        break;
+                    case Frame.DELTA:
+                        DeltaUpload opened = openDeltaUpload(requestId, reader.readPayload(), writer);
+                        if (opened != null) {
+                            DeltaUpload replaced = deltas.put(requestId, opened);
+                            if (replaced != null) {
+                                replaced.discard();
+                            } else {
+                                activeRequests.incrementAndGet();
+                            }
+                        }
+                        break;
+                    case Frame.COPY:
+                        byte[] runs = reader.readPayload();
+                        DeltaUpload copied = deltas.get(requestId);
+                        if (copied != null) {
+                            copied.copy(runs);
+                        }
+                        break;
+                    case Frame.DOWNLOAD:
+                        byte[] request = reader.readPayload();
+                        DownloadRange range = DownloadRange.parse(request, reader.getFlags());
+                        String downloadName = new String(request, range.nameOffset, request.length - range.nameOffset, StandardCharsets.UTF_8);
+                        ClientCommandLogger.logCommand(clientAddress, DOWNLOAD_COMMAND + " " + downloadName);
+                        dispatch(requestPermits, () -> sendBinaryDownload(requestId, downloadName, range, writer, new byte[Frame.DATA_CHUNK_SIZE]));
+                        break;
+                    case Frame.DISCONNECT://laisser les requêtes en cours envoyer leur réponse avant de fermer la session
+                        requestPermits.acquireUninterruptibly(maxRequests);
+                        return;
+                    default://type inconnu: la trame est ignorée et une erreur est renvoyée
+                        reader.skipPayload();
+                        writer.writeText(Frame.ERROR, requestId, "Type de trame inconnu: " + reader.getType());
+                        writer.write(Frame.END, requestId);
+                        writer.flush();
+                        break;
+                }
+            }
+        } finally {
+            for (BinaryUpload upload : uploads.values()) {//uploads interrompus par la déconnexion
+                upload.discard();
+                activeRequests.decrementAndGet();
+            }
+            for (DeltaUpload upload : deltas.values()) {
+                upload.discard();
+                activeRequests.decrementAndGet();
+            }
+            for (ResumableUpload upload : resumables.values()) {//la position confirmée est enregistrée pour la reprise
+                upload.suspend();
+                activeRequests.decrementAndGet();
+            }
         }
+    }
+
+    //Tâche d'une requête du protocole binaire exécutée dans le pool de threads
+    private interface BinaryTask {
+        void run() throws IOException;
+    }
+
+    //Confie une requête au pool de threads du serveur, après avoir attendu qu'une place se libère parmi les requêtes de la session
+    private void dispatch(Semaphore requestPermits, BinaryTask task) throws IOException {
+        try {
+            requestPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Session interrompue: " + e.getMessage());
+        }
+        activeRequests.incrementAndGet();
+        server.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {//la connexion est rompue: la boucle de lecture le constatera et fermera la session
+                if (running) {
+                    ClientCommandLogger.logConnectionError(clientAddress, "Erreur de communication: " + e.getMessage());
+                }
+            } finally {
+                activeRequests.decrementAndGet();
+                requestPermits.release();
+            }
+        });
+    }
+
+    //Exécute une commande en envoyant sa sortie dans des trames RESULT/STDERR au fur et à mesure,
+    //puis une trame END portant le code de sortie (sans charge utile si la commande n'a pas pu être exécutée)
+    private void executeBinaryCommand(int requestId, String command, FrameWriter writer) throws IOException {
+        CommandOutput output = new CommandOutput() {
+            private byte[] scratch;//sortie compressée
 
-        Process process = processBuilder.start();//démarrer le processus pour exécuter la commande système
-        StringBuilder output = new StringBuilder();//créer un StringBuilder pour stocker la sortie de la commande
+            @Override
+            public void write(boolean error, byte[] data, int length) throws IOException {
+                if (compressor != null && (scratch == null || scratch.length < length)) {
+                    scratch = new byte[length];
+                }
+                writer.writeCompressible(error ? Frame.STDERR : Frame.RESULT, requestId, data, 0, length, scratch);
+            }
 
-        try (BufferedReader reader = new BufferedReader(//créer un BufferedReader pour lire la sortie standard de la commande afin de la stocker dans le StringBuilder pour afficher le résultat de la commande
-                new InputStreamReader(process.getInputStream()))) {//créer un flux d'entrée pour lire la sortie standard de la commande 
-            String line;
-            while ((line = reader.readLine()) != null) {//lire chaque ligne de la sortie standard de la commande et l'ajouter au StringBuilder
-                output.append(line).append("\n");
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
             }
+
+            @Override
+            public boolean isClosed() {//le thread de lecture ferme le socket quand le client se déconnecte
+                return clientSocket.isClosed();
+            }
+        };
+        long start = System.nanoTime();
+        try {
+            int exitCode = server.getCommandExecutor().execute(login, command, output, shell());
+            writer.writeInt(Frame.END, requestId, exitCode);
+            logCommandResult(command, start, exitCode);
+        } catch (IOException e) {
+            server.getMetrics().recordCommandError(System.nanoTime() - start);
+            ClientCommandLogger.logCommandError(clientAddress, command, e.getMessage());
+            writer.writeText(Frame.ERROR, requestId, String.valueOf(e.getMessage()));
+            writer.write(Frame.END, requestId);
         }
+        writer.flush();
+    }
+
+    //Exécute un lot de commandes (trame BATCH): une trame BATCH par commande terminée, dans l'ordre de fin, puis END.
+    //Le lot n'occupe qu'une place parmi les requêtes de la session, ses commandes sont exécutées en parallèle (voir CommandBatch).
+    private void executeBatch(int requestId, byte[] payload, FrameWriter writer) throws IOException {
+        CommandBatch batch;
+        try {
+            batch = CommandBatch.parse(payload, server.getMaxBatchParallelism(), server.getBatchTimeoutMillis());
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, BATCH_COMMAND, e.getMessage());
+            writer.writeText(Frame.ERROR, requestId, e.getMessage());
+            writer.write(Frame.END, requestId);
+            writer.flush();
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, BATCH_COMMAND + " " + batch.size() + " commandes (parallélisme " + batch.getParallelism() + ")");
+        batch.run(server.getCommandExecutor(), login, server::execute, clientSocket::isClosed, result -> {
+            logBatchResult(result);
+            byte[] encoded = result.encode();
+            writer.writeCompressible(Frame.BATCH, requestId, encoded, 0, encoded.length, compressor != null ? new byte[encoded.length] : null);
+            writer.flush();
+        });
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
+
+    private PersistentShell shell() {//shell persistant de la session, null s'il n'y en a pas (nouveau processus par commande)
+        return shell != null ? shell.get() : null;
+    }
+
+    private void logBatchResult(CommandBatch.Result result) {//journal d'audit et mesures: commande d'un lot terminée
+        if (result.status == Frame.BATCH_EXITED) {
+            logCommandResult(result.command, result.start, result.exitCode);
+        } else {
+            server.getMetrics().recordCommandError(System.nanoTime() - result.start);
+            ClientCommandLogger.logCommandError(clientAddress, result.command, result.error);
+        }
+    }
+
+    private void logCommandResult(String command, long start, int exitCode) {//journal d'audit et mesures: commande terminée
+        long nanos = System.nanoTime() - start;
+        server.getMetrics().recordCommand(nanos, exitCode);
+        ClientCommandLogger.logCommandResult(clientAddress, login, command, nanos / 1_000_000, exitCode);
+    }
 
-        try (BufferedReader reader = new BufferedReader( //créer un BufferedReader pour lire la sortie d'erreur de la commande afin de la stocker dans le StringBuilder pour afficher les erreurs de la commande
-                new InputStreamReader(process.getErrorStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {//lire chaque ligne de la sortie d'erreur de la commande et l'ajouter au StringBuilder
-                output.append("ERROR: ").append(line).append("\n");
+    private void logTransfer(String transfer, String fileName, long bytes, long start) {//journal d'audit et mesures: transfert terminé
+        long nanos = System.nanoTime() - start;
+        if (transfer.equals(UPLOAD_COMMAND)) {
+            server.getMetrics().recordUpload(bytes, nanos);
+        } else {
+            server.getMetrics().recordDownload(bytes, nanos);
+        }
+        ClientCommandLogger.logTransfer(clientAddress, login, transfer + " " + fileName, bytes, nanos / 1_000_000);
+    }
+
+    //Upload en cours dans le protocole binaire
+    private static class BinaryUpload {
+        private final String fileName;
+        private final long start;//début de la réception (System.nanoTime), pour le journal d'audit
+        private File file;//fichier temporaire, enregistré dans le stockage à la fin de l'upload
+        private OutputStream output;//null si le fichier n'a pas pu être ouvert ou si une écriture a échoué
+        private IOException error;
+        private long bytes;//octets reçus
+
+        private BinaryUpload(String fileName) {
+            this.fileName = fileName;
+            this.start = System.nanoTime();
+        }
+
+        private void fail(IOException e) {
+            error = e;
+            close();
+        }
+
+        private void close() {
+            try {
+                if (output != null) output.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
             }
+            output = null;
         }
 
+        private void discard() {//upload interrompu: le fichier temporaire est supprimé
+            close();
+            if (file != null) file.delete();
+        }
+    }
+
+    private BinaryUpload openBinaryUpload(String fileName) {
+        BinaryUpload upload = new BinaryUpload(fileName);
         try {
-            process.waitFor();//attendre que le processus se termine
-        } catch (InterruptedException e) {//en cas d'interruption du thread, journaliser l'erreur et lancer une IOException
-            Thread.currentThread().interrupt();
-            throw new IOException("Commande interrompue: " + e.getMessage());
+            ContentStore.checkName(fileName);
+            upload.file = server.getContentStore().createTemporaryFile();
+            upload.output = new BufferedOutputStream(new FileOutputStream(upload.file), Frame.DATA_CHUNK_SIZE);
+            ClientCommandLogger.logCommand(clientAddress, "Début de la réception du fichier : " + fileName);
+        } catch (IOException e) {
+            upload.error = e;
+        }
+        return upload;
+    }
+
+    private void finishBinaryUpload(int requestId, BinaryUpload upload, FrameWriter writer) throws IOException {
+        if (upload == null) {
+            writer.writeText(Frame.ERROR, requestId, "Aucun upload en cours pour cette requête");
+        } else {
+            upload.close();
+            if (upload.error == null) {
+                try {
+                    server.getContentStore().commit(upload.fileName, upload.file);
+                } catch (IOException e) {
+                    upload.error = e;
+                }
+            }
+            if (upload.error == null) {
+                ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.fileName);
+                logTransfer(UPLOAD_COMMAND, upload.fileName, upload.bytes, upload.start);
+                writer.writeText(Frame.RESULT, requestId, "Fichier reçu avec succès: " + upload.fileName);
+            } else {
+                ClientCommandLogger.logCommandError(clientAddress, UPLOAD_COMMAND + " " + upload.fileName, "Erreur lors de la réception du fichier : " + upload.error.getMessage());
+                writer.writeText(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + upload.error.getMessage());
+                upload.discard();
+            }
         }
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
 
-        return output.toString();//retourner le résultat de la commande
+    //Répond à une trame HAVE: le fichier est enregistré sans transfert si le stockage a tous ses blocs (RESULT),
+    //sinon la réponse HAVE indique les blocs que le client n'a pas à envoyer
+    private void answerBlockQuery(int requestId, byte[] payload, FrameWriter writer) throws IOException {
+        long start = System.nanoTime();
+        try {
+            BlockQuery query = BlockQuery.parse(payload);
+            byte[] known = query.resolve(server.getContentStore());
+            if (known == null) {
+                ClientCommandLogger.logCommand(clientAddress, "Fichier déjà présent, enregistré sans transfert : " + query.fileName);
+                logTransfer(UPLOAD_COMMAND, query.fileName, 0, start);
+                writer.writeText(Frame.RESULT, requestId, "Fichier reçu avec succès: " + query.fileName);
+            } else {
+                writer.write(Frame.HAVE, requestId, known, 0, known.length);
+            }
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, UPLOAD_COMMAND, "Erreur lors de la recherche des blocs : " + e.getMessage());
+            writer.writeText(Frame.ERROR, requestId, "Erreur lors de la recherche des blocs: " + e.getMessage());
+        }
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
+
+    //Répond à une trame SIGNATURE: signatures des blocs de la version stockée du fichier, aucune s'il n'en a pas
+    private void sendSignatures(int requestId, String fileName, FrameWriter writer) throws IOException {
+        try {
+            DeltaUpload.writeSignatures(server.getContentStore(), fileName, (payload, length) -> writer.write(Frame.SIGNATURE, requestId, payload, 0, length));
+        } catch (IOException e) {//nom invalide ou fichier illisible: le client enverra le fichier entier
+            writer.writeText(Frame.ERROR, requestId, e.getMessage());
+        }
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
+
+    private DeltaUpload openDeltaUpload(int requestId, byte[] request, FrameWriter writer) throws IOException {
+        try {
+            DeltaUpload upload = DeltaUpload.open(server.getContentStore(), request);
+            ClientCommandLogger.logCommand(clientAddress, UPLOAD_COMMAND + " " + upload.getFileName() + " (différentiel)");
+            return upload;
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, UPLOAD_COMMAND, "Erreur lors de la réception du fichier : " + e.getMessage());
+            writer.writeText(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + e.getMessage());
+            writer.write(Frame.END, requestId);
+            writer.flush();
+            return null;
+        }
+    }
+
+    private void receiveLiteral(FrameReader reader, DeltaUpload upload, byte[] buffer) throws IOException {
+        while (reader.getPayloadLength() > 0) {
+            int length = Math.min(buffer.length, reader.getPayloadLength());
+            reader.readPayload(buffer, 0, length);
+            upload.write(ByteBuffer.wrap(buffer, 0, length));
+        }
+    }
+
+    private void finishDeltaUpload(int requestId, DeltaUpload upload, byte[] checksum, FrameWriter writer) throws IOException {
+        try {
+            upload.finish(checksum);
+            ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.getFileName() + " (" + upload.getCopiedBytes() + " octets repris de la version précédente)");
+            logTransfer(UPLOAD_COMMAND, upload.getFileName(), upload.getReceivedBytes(), upload.getStart());
+            writer.writeText(Frame.RESULT, requestId, "Fichier reçu avec succès: " + upload.getFileName());
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, UPLOAD_COMMAND + " " + upload.getFileName(), "Erreur lors de la réception du fichier : " + e.getMessage());
+            writer.writeText(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + e.getMessage());
+        }
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
+
+    //Ouvre ou reprend un upload par blocs et répond OFFSET avec la position à partir de laquelle le client doit envoyer les blocs
+    private ResumableUpload openResumableUpload(int requestId, byte[] request, boolean ranged, FrameWriter writer) throws IOException {
+        ResumableUpload upload;
+        try {
+            upload = ResumableUpload.open(server.getContentStore(), request, ranged);
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, UPLOAD_COMMAND, "Erreur lors de la réception du fichier : " + e.getMessage());
+            writer.writeText(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + e.getMessage());
+            writer.write(Frame.END, requestId);
+            writer.flush();
+            return null;
+        }
+        ClientCommandLogger.logCommand(clientAddress, UPLOAD_COMMAND + " " + upload.getDescription());
+        if (upload.getResumedFrom() > 0) {
+            ClientCommandLogger.logCommand(clientAddress, "Reprise de la réception du fichier : " + upload.getDescription() + " à l'octet " + upload.getOffset());
+        } else {
+            ClientCommandLogger.logCommand(clientAddress, "Début de la réception du fichier : " + upload.getDescription());
+        }
+        writer.writeLong(Frame.OFFSET, requestId, upload.getOffset());
+        writer.flush();
+        return upload;
+    }
+
+    private void receiveChunk(FrameReader reader, ResumableUpload upload, byte[] buffer, byte[] inflated) throws IOException {
+        if (reader.getPayloadLength() < Frame.CHUNK_HEADER_SIZE) {
+            throw new IOException("Trame CHUNK invalide");
+        }
+        reader.readPayload(buffer, 0, Frame.CHUNK_HEADER_SIZE);
+        ByteBuffer header = ByteBuffer.wrap(buffer, 0, Frame.CHUNK_HEADER_SIZE);
+        long position = header.getLong();
+        int checksum = header.getInt();
+        if ((reader.getFlags() & Frame.FLAG_COMPRESSED) != 0) {//bloc compressé: décompressé en entier avant d'être écrit
+            int length = reader.getPayloadLength();
+            if (inflated == null || length > buffer.length) {
+                throw new IOException(inflated == null ? "Compression non négociée" : "Bloc compressé trop grand: " + length + " octets");
+            }
+            reader.readPayload(buffer, 0, length);
+            int size = compressor.decompress(buffer, 0, length, inflated, 0);
+            upload.beginChunk(position, checksum, size);
+            upload.write(ByteBuffer.wrap(inflated, 0, size));
+            if (upload.endChunk()) {
+                upload.checkpoint();
+            }
+            return;
+        }
+        upload.beginChunk(position, checksum, reader.getPayloadLength());
+        while (reader.getPayloadLength() > 0) {
+            int length = Math.min(buffer.length, reader.getPayloadLength());
+            reader.readPayload(buffer, 0, length);
+            upload.write(ByteBuffer.wrap(buffer, 0, length));
+        }
+        if (upload.endChunk()) {//le thread de la session peut bloquer: la position est enregistrée tout de suite
+            upload.checkpoint();
+        }
+    }
+
+    private void abortResumableUpload(int requestId, ResumableUpload upload, IOException error, FrameWriter writer) throws IOException {
+        upload.suspend();
+        ClientCommandLogger.logCommandError(clientAddress, UPLOAD_COMMAND + " " + upload.getDescription(), "Erreur lors de la réception du fichier : " + error.getMessage());
+        writer.writeText(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + error.getMessage());
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
+
+    private void finishResumableUpload(int requestId, ResumableUpload upload, FrameWriter writer) throws IOException {
+        boolean complete;
+        try {
+            complete = upload.finish();
+        } catch (IOException e) {
+            abortResumableUpload(requestId, upload, e, writer);
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.getDescription());
+        logTransfer(UPLOAD_COMMAND, upload.getDescription(), upload.getReceivedBytes(), upload.getStart());
+        writer.writeText(Frame.RESULT, requestId, complete ? "Fichier reçu avec succès: " + upload.getFileName() : "Plage reçue: " + upload.getDescription());
+        writer.write(Frame.END, requestId);
+        writer.flush();
+    }
+
+    private void sendBinaryDownload(int requestId, String fileName, DownloadRange range, FrameWriter writer, byte[] buffer) throws IOException {
+        StoredFile file;
+        try {
+            file = server.openFile(fileName);
+        } catch (IOException e) {
+            file = null;
+        }
+        if (file == null) {
+            ClientCommandLogger.logCommandError(clientAddress, DOWNLOAD_COMMAND + " " + fileName, "Fichier introuvable : " + fileName);
+            writer.writeText(Frame.ERROR, requestId, "Fichier introuvable: " + fileName);
+        } else {
+            // Le fichier est lu par FileChannel (positions sur 64 bits, fichiers de plus de 2 Go) dans le tampon de la session:
+            // aucune allocation par bloc. Un SSLSocket n'accepte que des byte[]: le mode NIO, lui, chiffre directement depuis une projection mémoire.
+            try (StoredFile input = file) {
+                long start = System.nanoTime();
+                long sent = 0;
+                long end = range.end(input.size());
+                if (range.ranged) {//taille totale, pour que le client découpe le fichier et vérifie qu'il n'a pas changé
+                    writer.writeLong(Frame.OFFSET, requestId, input.size());
+                }
+                ClientCommandLogger.logCommand(clientAddress, "Début du transfert du fichier : " + fileName);
+                writer.writeText(Frame.RESULT, requestId, "Début du transfert du fichier: " + fileName);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer);
+                byte[] scratch = compressor != null ? new byte[buffer.length] : null;//blocs compressés
+                long position = range.start;
+                int bytesRead;
+                while (position < end && (bytesRead = input.read(chunk.clear().limit((int) Math.min(buffer.length, end - position)), position)) != -1) {
+                    writer.writeCompressible(Frame.DATA, requestId, buffer, 0, bytesRead, scratch);
+                    position += bytesRead;
+                    sent += bytesRead;
+                }
+                ClientCommandLogger.logCommand(clientAddress, "Fin du transfert du fichier : " + fileName);
+                logTransfer(DOWNLOAD_COMMAND, fileName, sent, start);
+            } catch (IOException e) {//erreur de lecture du fichier: la session reste utilisable
+                ClientCommandLogger.logCommandError(clientAddress, DOWNLOAD_COMMAND + " " + fileName, "Erreur lors de l'envoi du fichier : " + e.getMessage());
+                writer.writeText(Frame.ERROR, requestId, "Erreur lors de l'envoi du fichier: " + e.getMessage());
+            }
+        }
+        writer.write(Frame.END, requestId);
+        writer.flush();
     }
-}
\ No newline at end of file
+}
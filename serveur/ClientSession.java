@@ -0,0 +1,14 @@
+package serveur;
+
+//Cette interface représente une session client vue par le serveur, quel que soit le mode d'exécution.
+//Elle est implémentée par ClientHandler (un thread par connexion) et par NioSession (boucle d'événements NIO).
+//Elle permet au serveur et à l'interface graphique de lister et de fermer les sessions sans connaître leur implémentation.
+public interface ClientSession {
+    String getClientAddress();//adresse IP du client
+
+    String getLogin();//login du client (null tant que le client n'est pas authentifié)
+
+    boolean isIdle();//true si la session attend une requête du client (aucune commande ni aucun transfert en cours)
+
+    void close();//fermer la connexion avec le client
+}
@@ -0,0 +1,197 @@
+package serveur;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import protocole.Frame;
+//Cette classe exécute un lot de commandes indépendantes reçu dans une trame BATCH (voir protocole.Frame).
+//Les commandes sont réparties entre "parallélisme" exécutants qui prennent chacun la prochaine commande du lot dès qu'ils sont
+//libres: le thread de la requête est l'un d'eux, les autres sont confiés au pool du serveur. Le nombre total de processus reste
+//borné par CommandExecutor. La sortie de chaque commande est gardée en mémoire (au plus Frame.MAX_BATCH_OUTPUT octets) et
+//transmise d'un bloc dès la fin de la commande, avec son indice dans le lot: les résultats arrivent dans l'ordre de fin.
+final class CommandBatch {
+    //Destinataire des résultats, appelé par les exécutants (plusieurs threads à la fois)
+    interface ResultHandler {
+        void onResult(Result result) throws IOException;
+    }
+
+    private final String[] commands;
+    private final int parallelism;
+    private final long timeoutMillis;//délai par commande (0 = illimité)
+
+    private CommandBatch(String[] commands, int parallelism, long timeoutMillis) {
+        this.commands = commands;
+        this.parallelism = parallelism;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    //Décode une trame BATCH; le parallélisme demandé est borné par maxParallelism, le délai par maxTimeoutMillis (0 = illimité)
+    static CommandBatch parse(byte[] payload, int maxParallelism, long maxTimeoutMillis) throws IOException {
+        if (payload.length < 12 || payload.length > Frame.MAX_BATCH_LENGTH) {
+            throw new IOException("Trame BATCH invalide");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int parallelism = buffer.getInt();
+        int timeout = buffer.getInt();
+        int count = buffer.getInt();
+        if (parallelism < 1 || timeout < 0 || count < 0 || count > Frame.MAX_BATCH_COMMANDS) {
+            throw new IOException("Lot de commandes invalide: " + count + " commandes, parallélisme " + parallelism + ", délai " + timeout + " ms");
+        }
+        String[] commands = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Trame BATCH invalide");
+            }
+            commands[i] = new String(payload, buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("Trame BATCH invalide");
+        }
+        long timeoutMillis = timeout == 0 ? maxTimeoutMillis : maxTimeoutMillis == 0 ? timeout : Math.min(timeout, maxTimeoutMillis);
+        return new CommandBatch(commands, Math.min(parallelism, maxParallelism), timeoutMillis);
+    }
+
+    int size() {
+        return commands.length;
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    //Exécute toutes les commandes et retourne quand elles sont terminées. Si handler échoue (client déconnecté),
+    //les commandes pas encore commencées ne sont pas lancées et l'erreur est relancée une fois les autres terminées.
+    //Les commandes en cours sont arrêtées dès que closed indique la fermeture de la session.
+    //Les commandes sont ordonnancées comme commandes de lot du login (voir CommandScheduler).
+    void run(CommandExecutor executor, String login, Executor pool, BooleanSupplier closed, ResultHandler handler) throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        int helpers = Math.min(parallelism, commands.length) - 1;//exécutants en plus du thread courant
+        CountDownLatch finished = new CountDownLatch(Math.max(0, helpers));
+        for (int i = 0; i < helpers; i++) {
+            pool.execute(() -> {
+                try {
+                    work(executor, login, next, closed, handler, failure);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        work(executor, login, next, closed, handler, failure);
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lot de commandes interrompu: " + e.getMessage());
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private void work(CommandExecutor executor, String login, AtomicInteger next, BooleanSupplier closed, ResultHandler handler, AtomicReference<IOException> failure) {
+        int index;
+        while (failure.get() == null && (index = next.getAndIncrement()) < commands.length) {
+            Result result = execute(executor, login, index, closed);
+            try {
+                handler.onResult(result);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private Result execute(CommandExecutor executor, String login, int index, BooleanSupplier closed) {
+        BoundedOutput output = new BoundedOutput(closed);
+        long start = System.nanoTime();
+        try {
+            int exitCode = executor.execute(login, commands[index], output, timeoutMillis, true);
+            return new Result(index, commands[index], Frame.BATCH_EXITED, exitCode, start, output, null);
+        } catch (InterruptedIOException e) {//délai dépassé: la sortie produite jusque-là est transmise
+            return new Result(index, commands[index], Frame.BATCH_TIMEOUT, -1, start, output, e.getMessage());
+        } catch (IOException e) {
+            return new Result(index, commands[index], Frame.BATCH_FAILED, -1, start, output, String.valueOf(e.getMessage()));
+        }
+    }
+
+    //Résultat d'une commande du lot
+    static final class Result {
+        final int index;
+        final String command;
+        final byte status;//Frame.BATCH_EXITED, BATCH_TIMEOUT ou BATCH_FAILED
+        final int exitCode;//-1 si la commande ne s'est pas terminée d'elle-même
+        final long start;//lancement de la commande (System.nanoTime), pour le journal d'audit
+        final String error;//message d'erreur (délai dépassé ou échec), null sinon
+        private final BoundedOutput output;
+
+        private Result(int index, String command, byte status, int exitCode, long start, BoundedOutput output, String error) {
+            this.index = index;
+            this.command = command;
+            this.status = status;
+            this.exitCode = exitCode;
+            this.start = start;
+            this.output = output;
+            this.error = error;
+            if (error != null) {
+                output.write(true, (error + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        byte[] encode() {//charge utile de la trame BATCH de réponse
+            byte flags = output.truncated ? Frame.BATCH_TRUNCATED : 0;
+            ByteBuffer payload = ByteBuffer.allocate(Frame.BATCH_RESULT_HEADER_SIZE + output.stdout.size() + output.stderr.size());
+            payload.putInt(index).put((byte) (status | flags)).putInt(exitCode).putInt(output.stdout.size());
+            payload.put(output.stdout.toByteArray()).put(output.stderr.toByteArray());
+            return payload.array();
+        }
+    }
+
+    //Sortie d'une commande gardée en mémoire, au plus Frame.MAX_BATCH_OUTPUT octets pour les deux sorties
+    private static final class BoundedOutput implements CommandOutput {
+        private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        private final BooleanSupplier closed;
+        private boolean truncated;
+
+        private BoundedOutput(BooleanSupplier closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public void write(boolean error, byte[] data, int length) {
+            int kept = Math.min(length, Frame.MAX_BATCH_OUTPUT - stdout.size() - stderr.size());
+            if (kept < length) {//la commande continue: le reste de sa sortie est ignoré
+                truncated = true;
+            }
+            if (kept > 0) {
+                (error ? stderr : stdout).write(data, 0, kept);
+            }
+        }
+
+        private void write(boolean error, byte[] data) {//message d'erreur: toujours gardé
+            (error ? stderr : stdout).write(data, 0, data.length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed.getAsBoolean();
+        }
+    }
+}
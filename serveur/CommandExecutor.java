@@ -0,0 +1,334 @@
+package serveur;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+//Cette classe exécute les commandes système envoyées par les clients.
+//Elle est partagée par toutes les sessions d'un serveur (ClientHandler et NioSession).
+//Elle limite le nombre de processus lancés simultanément: au-delà, les sessions attendent leur tour
+//au lieu de saturer la machine lors d'un afflux de connexions. L'ordre de passage et le débit de chaque login sont décidés
+//par CommandScheduler, pour qu'un utilisateur qui enchaîne les commandes ne prive pas les autres.
+//La sortie standard et la sortie d'erreur sont lues en parallèle et transmises par blocs dès leur production (voir CommandOutput).
+//Les formes courantes de quelques commandes de consultation (ls, cat, wc...) peuvent être exécutées dans la JVM, sans processus
+//(voir Builtins); les autres sont lancées par le shell. Une commande interne passe par CommandScheduler comme les autres:
+//elle consomme un jeton du débit de son login et occupe une place pendant son exécution.
+//Le résultat des commandes admises par le cache (voir ResultCache) est repris d'une exécution récente du même login.
+public class CommandExecutor {
+    static final int CHUNK_SIZE = 8192;//taille maximale d'un bloc de sortie
+    static final int PENDING_CHUNKS = 16;//blocs lus mais pas encore transmis: au-delà, la lecture des sorties attend le client
+    static final OutputChunk END_OF_STREAM = new OutputChunk(false, new byte[0], -1);//marqueur de fin d'une des deux sorties
+    private static final String ANONYMOUS = "";//login des commandes exécutées hors session
+    private static final long CLOSED_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);//intervalle de vérification de la session pendant qu'une commande ne produit rien
+
+    private final CommandScheduler scheduler;//décide quand une commande peut lancer son processus (places, débit, équité)
+    private final ExecutorService readers;//Threads de lecture des sorties des processus
+    private final boolean builtins;//commandes reconnues par Builtins exécutées dans la JVM
+    private final AtomicLong builtinCount = new AtomicLong();//commandes exécutées dans la JVM (mesures du serveur)
+    private final ResultCache cache;//résultats des commandes de consultation (null si pas de cache)
+
+    public CommandExecutor(int maxProcesses) {//maxProcesses <= 0 signifie aucune limite
+        this(maxProcesses, false);
+    }
+
+    public CommandExecutor(int maxProcesses, boolean builtins) {
+        this(maxProcesses, builtins, null);
+    }
+
+    CommandExecutor(int maxProcesses, boolean builtins, ResultCache cache) {
+        this(new CommandScheduler(maxProcesses, 0, 0, 1, Collections.emptyMap()), builtins, cache);
+    }
+
+    CommandExecutor(CommandScheduler scheduler, boolean builtins, ResultCache cache) {
+        this.scheduler = scheduler;
+        this.cache = cache;
+        this.builtins = builtins && !System.getProperty("os.name").toLowerCase().contains("windows");
+        this.readers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "lecture-sortie-commande");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Exécute les commandes systèmes
+    // Prend en paramètre la commande à exécuter et Retourne le résultat de la commande
+    // (sortie standard, puis lignes de la sortie d'erreur précédées de "ERROR: ")
+    public String execute(String command) throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        execute(command, new CommandOutput() {
+            @Override
+            public void write(boolean error, byte[] data, int length) {
+                (error ? stderr : stdout).write(data, 0, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+
+        StringBuilder output = new StringBuilder();//créer un StringBuilder pour stocker la sortie de la commande
+        appendLines(output, stdout.toString(), "");
+        appendLines(output, stderr.toString(), "ERROR: ");
+        return output.toString();//retourner le résultat de la commande
+    }
+
+    // Exécute une commande système en transmettant sa sortie au fur et à mesure
+    // Retourne le code de sortie du processus
+    // Si output lance une IOException ou se déclare fermée (client déconnecté), le processus est arrêté et une IOException est lancée
+    public int execute(String command, CommandOutput output) throws IOException {
+        return execute(command, output, 0);
+    }
+
+    // Même exécution, arrêtée (avec les processus qu'elle a lancés) si elle dure plus de timeoutMillis (0 = sans limite):
+    // une InterruptedIOException est alors lancée. L'attente d'une place de processus ne compte pas dans le délai.
+    public int execute(String command, CommandOutput output, long timeoutMillis) throws IOException {
+        return execute(ANONYMOUS, command, output, timeoutMillis, false);
+    }
+
+    // Même exécution pour une commande de login, interactive ou d'un lot (batch): voir CommandScheduler
+    int execute(String login, String command, CommandOutput output, long timeoutMillis, boolean batch) throws IOException {
+        Builtins builtin = builtins ? Builtins.parse(command) : null;
+        if (builtin == null) {
+            return spawn(login, batch, command, output, timeoutMillis);
+        }
+        scheduler.acquire(login, batch, output::isClosed);
+        try {
+            builtinCount.incrementAndGet();
+            return builtin.run(output, deadline(timeoutMillis), timeoutMillis);
+        } finally {
+            scheduler.release(batch);
+        }
+    }
+
+    private int spawn(String login, boolean batch, String command, CommandOutput output, long timeoutMillis) throws IOException {
+        scheduler.acquire(login, batch, output::isClosed);
+        try {
+            return run(command, output, timeoutMillis);
+        } finally {
+            scheduler.release(batch);
+        }
+    }
+
+    // Exécute une commande interactive d'une session de login, dans le shell persistant de la session (voir PersistentShell):
+    // le répertoire courant et les variables des commandes précédentes sont conservés. Si la session n'a pas de shell ou s'il
+    // exécute déjà une autre de ses commandes, la commande est lancée dans un nouveau processus. Dans les deux cas elle compte
+    // parmi les processus en cours. Les commandes internes (Builtins) ne sont utilisées que sans shell: celui-ci a pu changer
+    // de répertoire (cd).
+    // Sans shell, le résultat est pris dans le cache (ou attendu d'une exécution en cours de la même commande) si la commande
+    // y est admise (voir ResultCache). Avec un shell, le résultat d'une commande dépend des précédentes: pas de cache.
+    int execute(String login, String command, CommandOutput output, PersistentShell shell) throws IOException {
+        if (shell == null) {
+            if (cache == null) {
+                return execute(login, command, output, 0, false);
+            }
+            return cache.execute(login, command, output, recorder -> execute(login, command, recorder, 0, false));
+        }
+        if (!shell.tryAcquire()) {
+            return spawn(login, false, command, output, 0);
+        }
+        try {
+            scheduler.acquire(login, false, output::isClosed);
+            try {
+                return shell.execute(command, output, 0);
+            } finally {
+                scheduler.release(false);
+            }
+        } finally {
+            shell.release();
+        }
+    }
+
+    ResultCache getResultCache() {//null si pas de cache
+        return cache;
+    }
+
+    public int getAvailablePermits() {//nombre de processus pouvant encore être lancés (-1 si illimité)
+        return scheduler.getAvailablePermits();
+    }
+
+    public int getQueueLength() {//nombre de commandes qui attendent une place de processus
+        return scheduler.getQueueLength();
+    }
+
+    public int getRunningCount() {//nombre de processus en cours
+        return scheduler.getRunningCount();
+    }
+
+    public long getBuiltinCount() {//nombre de commandes exécutées dans la JVM (voir Builtins)
+        return builtinCount.get();
+    }
+
+    CommandScheduler getScheduler() {
+        return scheduler;
+    }
+
+    private int run(String command, CommandOutput output, long timeoutMillis) throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder();//créer un processBuilder pour exécuter la commande système
+        if (System.getProperty("os.name").toLowerCase().contains("windows")) {//vérifier si le système d'exploitation est Windows
+            processBuilder.command("cmd.exe", "/c", command);//si c'est le cas, exécuter la commande dans un shell Windows
+        } else {//sinon, exécuter la commande dans un shell Unix (Linux, MacOs, etc.)
+            processBuilder.command("/bin/sh", "-c", command);
+        }
+
+        Process process = processBuilder.start();//démarrer le processus pour exécuter la commande système
+        process.getOutputStream().close();//la commande ne reçoit rien sur son entrée standard
+
+        // Les deux sorties sont lues en parallèle: une commande qui remplit le tube de sa sortie d'erreur
+        // pendant qu'on lit sa sortie standard ne peut plus se bloquer.
+        // La file est bornée: si le client lit lentement, les lecteurs attendent, les tubes se remplissent et le processus ralentit.
+        BlockingQueue<OutputChunk> chunks = new ArrayBlockingQueue<>(PENDING_CHUNKS);
+        StreamReader stdout = new StreamReader(process.getInputStream(), false, chunks);
+        StreamReader stderr = new StreamReader(process.getErrorStream(), true, chunks);
+        readers.execute(stdout);
+        readers.execute(stderr);
+
+        long deadline = deadline(timeoutMillis);
+        boolean completed = false;
+        try {
+            transfer(chunks, output, deadline, timeoutMillis);
+            boolean exited;//attendre que le processus se termine (ses sorties peuvent être fermées avant)
+            do {
+                exited = process.waitFor(wait(output, deadline, timeoutMillis), TimeUnit.NANOSECONDS);
+            } while (!exited);
+            completed = true;
+            return process.exitValue();
+        } catch (InterruptedException e) {//en cas d'interruption du thread, lancer une IOException
+            Thread.currentThread().interrupt();
+            throw new IOException("Commande interrompue: " + e.getMessage());
+        } finally {
+            if (!completed) {//client déconnecté, délai dépassé ou interruption: arrêter le processus et libérer les lecteurs
+                stdout.cancel();
+                stderr.cancel();
+                process.descendants().forEach(ProcessHandle::destroyForcibly);//sinon un sous-processus garderait les sorties ouvertes
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    static long deadline(long timeoutMillis) {//instant (System.nanoTime) où une commande est arrêtée, 0 si elle est sans limite
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    //Transmet à output les blocs déposés dans chunks jusqu'à la fin des deux sorties (deux END_OF_STREAM).
+    //Partagée avec PersistentShell, dont les lecteurs déposent END_OF_STREAM à la fin de chaque commande.
+    static void transfer(BlockingQueue<OutputChunk> chunks, CommandOutput output, long deadline, long timeoutMillis) throws IOException, InterruptedException {
+        int openStreams = 2;
+        while (openStreams > 0) {
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                throw timeout(timeoutMillis);
+            }
+            OutputChunk chunk = chunks.poll();
+            if (chunk == null) {//rien en attente: envoyer ce qui a été mis en tampon avant d'attendre la suite
+                output.flush();
+                do {//commande silencieuse: le délai et la session sont vérifiés à chaque attente
+                    chunk = chunks.poll(wait(output, deadline, timeoutMillis), TimeUnit.NANOSECONDS);
+                } while (chunk == null);
+            }
+            if (chunk == END_OF_STREAM) {
+                openStreams--;
+            } else {
+                output.write(chunk.error, chunk.data, chunk.length);
+            }
+        }
+        output.flush();
+    }
+
+    //Durée de la prochaine attente de la sortie ou du processus; exception si le délai est dépassé ou si la session est fermée
+    private static long wait(CommandOutput output, long deadline, long timeoutMillis) throws IOException {
+        if (output.isClosed()) {
+            throw new IOException("Session fermée: commande arrêtée");
+        }
+        if (deadline == 0) {
+            return CLOSED_CHECK_NANOS;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw timeout(timeoutMillis);
+        }
+        return Math.min(remaining, CLOSED_CHECK_NANOS);
+    }
+
+    static InterruptedIOException timeout(long timeoutMillis) {
+        return new InterruptedIOException("Commande arrêtée après " + timeoutMillis + " ms");
+    }
+
+    private static void appendLines(StringBuilder output, String text, String prefix) {
+        if (text.isEmpty()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(prefix).append(line).append("\n");
+            }
+        } catch (IOException e) {
+            // Impossible avec un StringReader
+        }
+    }
+
+    //Bloc de sortie lu par un StreamReader (ou par les lecteurs d'un PersistentShell)
+    static final class OutputChunk {
+        private final boolean error;
+        private final byte[] data;
+        private final int length;
+
+        OutputChunk(boolean error, byte[] data, int length) {
+            this.error = error;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    //Lit une des sorties d'un processus et dépose ses blocs dans la file de l'exécution
+    private static class StreamReader implements Runnable {
+        private final InputStream input;
+        private final boolean error;
+        private final BlockingQueue<OutputChunk> chunks;
+        private volatile boolean cancelled;
+
+        private StreamReader(InputStream input, boolean error, BlockingQueue<OutputChunk> chunks) {
+            this.input = input;
+            this.error = error;
+            this.chunks = chunks;
+        }
+
+        private void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public void run() {
+            try (InputStream in = input) {
+                byte[] data = new byte[CHUNK_SIZE];
+                int bytesRead;
+                while (!cancelled && (bytesRead = in.read(data)) != -1) {
+                    if (bytesRead > 0 && offer(new OutputChunk(error, data, bytesRead))) {
+                        data = new byte[CHUNK_SIZE];//le bloc déposé appartient désormais à la file
+                    }
+                }
+            } catch (IOException e) {
+                // Processus arrêté: la sortie est terminée
+            } finally {
+                offer(END_OF_STREAM);
+            }
+        }
+
+        private boolean offer(OutputChunk chunk) {//attend une place dans la file, sauf si l'exécution a été abandonnée
+            try {
+                while (!cancelled) {
+                    if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+}
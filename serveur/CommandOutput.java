@@ -0,0 +1,16 @@
+package serveur;
+
+import java.io.IOException;
+
+//Cette interface reçoit la sortie d'une commande au fur et à mesure de sa production (voir CommandExecutor).
+//Les blocs de la sortie standard et de la sortie d'erreur arrivent entrelacés, dans l'ordre où ils ont été lus.
+//Une implémentation qui bloque (client lent) ralentit la lecture des sorties, puis le processus lui-même.
+public interface CommandOutput {
+    void write(boolean error, byte[] data, int length) throws IOException;//bloc de la sortie standard (error = false) ou d'erreur (error = true)
+
+    void flush() throws IOException;//appelée quand aucune sortie n'est en attente: le moment d'envoyer ce qui a été mis en tampon
+
+    default boolean isClosed() {//la session qui attend la sortie est fermée: la commande est arrêtée sans attendre qu'elle écrive
+        return false;
+    }
+}
@@ -0,0 +1,288 @@
+package serveur;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+//Cette classe décide quand une commande peut lancer son processus (voir CommandExecutor), pour qu'un utilisateur qui lance
+//des commandes en boucle ne prive pas les autres sessions de la machine:
+//  - débit par login (seau à jetons): au plus ratePerSecond lancements par seconde en moyenne, avec des rafales de burst
+//    lancements; au-delà la commande attend son jeton (0 = pas de limite)
+//  - au plus maxProcesses processus simultanés (0 = pas de limite ni de file); une place libérée est donnée au login qui a le
+//    moins reçu au regard de son poids (file équitable pondérée: étiquettes de début de service, start-time fair queuing),
+//    et dans un login aux commandes interactives avant celles des lots
+//  - interactiveReserve places sont réservées aux commandes interactives (une commande envoyée seule): les lots n'en
+//    occupent jamais plus de maxProcesses - interactiveReserve, une commande interactive n'attend donc pas la fin des lots
+//  - mesure le temps passé dans la file et le nombre de commandes retardées par leur débit (voir ServerMetrics)
+//Une commande dont la session se ferme pendant son attente n'est pas lancée.
+//L'état est protégé par un ReentrantLock: une commande qui attend sa place sous un moniteur (wait) bloquerait le thread
+//porteur de sa session en mode VIRTUAL (Java 21 à 23).
+final class CommandScheduler {
+    private static final long CLOSED_CHECK_MILLIS = 1000;//intervalle de vérification de la session pendant l'attente
+
+    private final int maxProcesses;
+    private final int batchLimit;//places utilisables par les commandes des lots
+    private final double ratePerSecond;
+    private final double burst;
+    private final Map<String, Integer> weights;//poids des logins (1 par défaut)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dispatched = lock.newCondition();//des places ont été données
+    private final Map<String, User> users = new HashMap<>();//logins qui ont une commande en attente ou un seau entamé (lock)
+    private double virtualTime;//étiquette de la dernière commande lancée (lock)
+    private int running;//processus en cours (lock)
+    private int runningBatch;//dont commandes de lots (lock)
+    private int waiting;//commandes dans la file (lock)
+
+    // Statistiques
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+    private final LongAdder throttled = new LongAdder();
+
+    CommandScheduler(int maxProcesses, int interactiveReserve, double ratePerSecond, int burst, Map<String, Integer> weights) {
+        this.maxProcesses = Math.max(0, maxProcesses);
+        this.batchLimit = Math.max(1, this.maxProcesses - Math.max(0, interactiveReserve));
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        this.burst = Math.max(1, burst);
+        this.weights = new HashMap<>(weights);
+    }
+
+    //Attend que la commande puisse lancer son processus; release(batch) doit suivre la fin du processus.
+    //IOException si la session est fermée (closed) ou le thread interrompu pendant l'attente.
+    void acquire(String login, boolean batch, BooleanSupplier closed) throws IOException {
+        long start = System.nanoTime();
+        long delayNanos;
+        lock.lock();
+        try {
+            delayNanos = user(login).takeToken(start);
+        } finally {
+            lock.unlock();
+        }
+        if (delayNanos > 0) {//débit du login dépassé: le jeton est réservé, la commande attend qu'il soit disponible
+            throttled.increment();
+            sleep(delayNanos, closed);
+        }
+        if (maxProcesses > 0) {
+            waitForPlace(enqueue(login, batch), closed);
+        } else {
+            lock.lock();
+            try {
+                running++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        queueTime.recordNanos(System.nanoTime() - start);
+    }
+
+    void release(boolean batch) {
+        lock.lock();
+        try {
+            running--;
+            if (batch) {
+                runningBatch--;
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Waiter enqueue(String login, boolean batch) {//nouvelle commande dans la file du login
+        lock.lock();
+        try {
+            User user = user(login);
+            Waiter waiter = new Waiter(batch, Math.max(virtualTime, user.lastTag) + 1.0 / user.weight);
+            user.lastTag = waiter.tag;
+            (batch ? user.batch : user.interactive).add(waiter);
+            waiting++;
+            dispatch();
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void waitForPlace(Waiter waiter, BooleanSupplier closed) throws IOException {
+        lock.lock();
+        try {
+            while (!waiter.granted) {
+                if (closed.getAsBoolean()) {
+                    throw new IOException("Session fermée: commande arrêtée");
+                }
+                dispatched.await(CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cancel(waiter, new IOException("Commande interrompue: " + e.getMessage()));
+        } catch (IOException e) {
+            throw cancel(waiter, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private IOException cancel(Waiter waiter, IOException e) {//appelé sous le verrou: retire la commande de la file
+        if (waiter.granted) {//place donnée entre-temps: la rendre
+            release(waiter.batch);
+        } else {
+            for (User user : users.values()) {
+                if ((waiter.batch ? user.batch : user.interactive).remove(waiter)) {
+                    waiting--;
+                    break;
+                }
+            }
+        }
+        return e;
+    }
+
+    //Donne les places libres aux commandes en attente: étiquette la plus petite d'abord (appelé sous le verrou)
+    private void dispatch() {
+        boolean granted = false;
+        while (running < maxProcesses && waiting > 0) {
+            User next = null;
+            Waiter head = null;
+            for (User user : users.values()) {
+                Waiter candidate = user.interactive.peek();
+                if (candidate == null && runningBatch < batchLimit) {
+                    candidate = user.batch.peek();
+                }
+                if (candidate != null && (head == null || candidate.tag < head.tag)) {
+                    next = user;
+                    head = candidate;
+                }
+            }
+            if (head == null) {//seulement des lots en attente, et ils occupent toutes leurs places
+                break;
+            }
+            (head.batch ? next.batch : next.interactive).poll();
+            waiting--;
+            running++;
+            if (head.batch) {
+                runningBatch++;
+            }
+            virtualTime = Math.max(virtualTime, head.tag);
+            head.granted = true;
+            granted = true;
+        }
+        if (granted) {
+            dispatched.signalAll();
+        }
+        if (users.size() > 1000) {//oublier les logins inactifs dont le seau est plein
+            long now = System.nanoTime();
+            users.values().removeIf(user -> user.isIdle(now));
+        }
+    }
+
+    private User user(String login) {//appelé sous le verrou
+        User user = users.get(login);
+        if (user == null) {
+            user = new User(weights.getOrDefault(login, 1));
+            users.put(login, user);
+        }
+        return user;
+    }
+
+    private static void sleep(long nanos, BooleanSupplier closed) throws IOException {
+        long deadline = System.nanoTime() + nanos;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (closed.getAsBoolean()) {
+                    throw new IOException("Session fermée: commande arrêtée");
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(CLOSED_CHECK_MILLIS)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Commande interrompue: " + e.getMessage());
+        }
+    }
+
+    int getQueueLength() {//commandes qui attendent une place de processus
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getAvailablePermits() {//-1 si illimité
+        lock.lock();
+        try {
+            return maxProcesses > 0 ? Math.max(0, maxProcesses - running) : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    LatencyHistogram getQueueTime() {//attente du jeton et de la place de processus, en microsecondes
+        return queueTime;
+    }
+
+    long getThrottledCount() {//commandes retardées par le débit de leur login
+        return throttled.sum();
+    }
+
+    //Commande en attente d'une place de processus
+    private static final class Waiter {
+        private final boolean batch;
+        private final double tag;//étiquette de début de service
+        private boolean granted;
+
+        private Waiter(boolean batch, double tag) {
+            this.batch = batch;
+            this.tag = tag;
+        }
+    }
+
+    //État d'un login: seau à jetons et files de ses commandes
+    private final class User {
+        private final int weight;
+        private final Deque<Waiter> interactive = new ArrayDeque<>();
+        private final Deque<Waiter> batch = new ArrayDeque<>();
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+        private double lastTag;//étiquette de la dernière commande du login
+
+        private User(int weight) {
+            this.weight = Math.max(1, weight);
+        }
+
+        //Prend un jeton (le solde peut devenir négatif: jeton réservé); retourne l'attente avant qu'il soit disponible
+        private long takeToken(long now) {
+            if (ratePerSecond == 0) {
+                return 0;
+            }
+            refill(now);
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+        }
+
+        private boolean isIdle(long now) {
+            if (!interactive.isEmpty() || !batch.isEmpty()) {
+                return false;
+            }
+            if (ratePerSecond > 0) {
+                refill(now);
+            }
+            return ratePerSecond == 0 || tokens >= burst;
+        }
+    }
+}
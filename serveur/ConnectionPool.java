@@ -0,0 +1,338 @@
+package serveur;
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+//Cette classe gère un pool de connexions JDBC partagé par toutes les sessions du serveur.
+//Au lieu d'une seule connexion sur laquelle toutes les authentifications se suivent, chaque thread emprunte une connexion
+//(acquire), l'utilise puis la rend au pool (close). Le pool:
+//  - ouvre minSize connexions au démarrage et n'en ouvre jamais plus de maxSize
+//  - fait attendre au plus acquireTimeoutMillis quand toutes les connexions sont empruntées
+//  - vérifie une connexion restée inutilisée avant de la prêter, et remplace celles qui ne répondent plus
+//  - garde en cache les PreparedStatement de chaque connexion
+//  - compte les emprunts, attentes, expirations et connexions créées (voir getStatistics())
+//Si la base de données redevient accessible après une coupure, les connexions mortes sont remplacées à la demande.
+public class ConnectionPool implements AutoCloseable {
+    private static final long VALIDATION_INTERVAL_MILLIS = 5000;//une connexion inutilisée depuis plus longtemps est vérifiée avant d'être prêtée
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;//délai de vérification d'une connexion
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 30;//période de vérification des connexions inutilisées
+    private static final int STATEMENT_CACHE_SIZE = 16;//nombre de PreparedStatement gardés par connexion
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final Semaphore permits;//une autorisation par connexion pouvant être empruntée
+    private final BlockingDeque<PooledConnection> idle;//connexions disponibles, la plus récemment rendue en tête
+    private final AtomicInteger openConnections;//connexions ouvertes (empruntées ou disponibles)
+    private final ScheduledExecutorService maintenance;
+    private final Logger logger;
+    private volatile boolean closed;
+
+    // Statistiques
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    //Ce constructeur ouvre les minSize premières connexions; il échoue si la base de données est inaccessible
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize, long acquireTimeoutMillis) throws SQLException {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Taille de pool invalide: min " + minSize + ", max " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new LinkedBlockingDeque<>();
+        this.openConnections = new AtomicInteger();
+        this.logger = Logger.getLogger(ConnectionPool.class.getName());
+
+        try {
+            for (int i = 0; i < minSize; i++) {
+                idle.offerFirst(open());
+            }
+        } catch (SQLException e) {//ne pas laisser ouvertes les connexions déjà créées
+            for (PooledConnection connection : idle) {
+                connection.closeQuietly();
+            }
+            throw e;
+        }
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-connexions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    //Emprunte une connexion; elle est rendue au pool par close() (try-with-resources)
+    //Lance SQLTransientConnectionException si aucune connexion ne se libère avant acquireTimeoutMillis
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Pool de connexions fermé");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("Aucune connexion disponible après " + acquireTimeoutMillis + " ms (" + maxSize + " connexions empruntées)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente d'une connexion interrompue", e);
+        }
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (isUsable(connection)) {
+                    break;
+                }
+                discard(connection);
+            }
+            if (connection == null) {
+                connection = open();
+            }
+            connection.borrowed = true;
+            acquired.increment();
+            waitNanos.add(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection connection) {//vérifie une connexion restée inutilisée trop longtemps
+        if (System.currentTimeMillis() - connection.lastUsed < VALIDATION_INTERVAL_MILLIS) {
+            return true;
+        }
+        try {
+            if (connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            // La connexion est considérée comme morte
+        }
+        validationFailures.increment();
+        return false;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, user, password);
+        openConnections.incrementAndGet();
+        created.increment();
+        return new PooledConnection(connection);
+    }
+
+    private void discard(PooledConnection connection) {
+        openConnections.decrementAndGet();
+        discarded.increment();
+        connection.closeQuietly();
+    }
+
+    private void release(PooledConnection connection) {//appelée par PooledConnection.close()
+        connection.borrowed = false;
+        connection.lastUsed = System.currentTimeMillis();
+        if (connection.broken || closed) {
+            discard(connection);
+        } else {
+            idle.offerFirst(connection);
+        }
+        permits.release();
+    }
+
+    //Tâche périodique: retire les connexions inutilisées qui ne répondent plus et rouvre des connexions jusqu'à minSize
+    private void maintain() {
+        for (int i = idle.size(); i > 0 && !closed && permits.tryAcquire(); i--) {//chaque connexion vérifiée est retirée du pool le temps de la vérification
+            try {
+                PooledConnection connection = idle.pollLast();
+                if (connection == null) {
+                    break;
+                }
+                if (isUsable(connection)) {
+                    idle.offerFirst(connection);
+                } else {
+                    discard(connection);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+        try {
+            while (!closed && openConnections.get() < minSize && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(open());
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (SQLException e) {
+            logger.warning("Impossible de rouvrir une connexion à la base de données: " + e.getMessage());
+        }
+    }
+
+    public int getActiveCount() {//connexions actuellement empruntées
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {//connexions ouvertes et disponibles
+        return idle.size();
+    }
+
+    public int getOpenCount() {//connexions ouvertes
+        return openConnections.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getWaitingCount() {//threads qui attendent une connexion
+        return permits.getQueueLength();
+    }
+
+    public long getAcquiredCount() {
+        return acquired.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.sum();
+    }
+
+    public double getAverageWaitMillis() {//temps moyen pour obtenir une connexion
+        long count = acquired.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1e6 / count;
+    }
+
+    public long getStatementCacheHits() {
+        return statementHits.sum();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementMisses.sum();
+    }
+
+    public String getStatistics() {//résumé des statistiques du pool, pour le journal
+        return String.format("connexions: %d empruntées, %d disponibles, %d/%d ouvertes, %d en attente; "
+                        + "emprunts: %d (attente moyenne %.2f ms), %d expirés; créées: %d, invalides: %d, fermées: %d; "
+                        + "cache de requêtes: %d succès, %d échecs",
+                getActiveCount(), getIdleCount(), getOpenCount(), maxSize, getWaitingCount(),
+                getAcquiredCount(), getAverageWaitMillis(), getTimeoutCount(), getCreatedCount(), getValidationFailureCount(), discarded.sum(),
+                getStatementCacheHits(), getStatementCacheMisses());
+    }
+
+    @Override
+    public void close() {//ferme les connexions disponibles; les connexions empruntées sont fermées quand elles sont rendues
+        closed = true;
+        maintenance.shutdownNow();
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    //Connexion empruntée au pool. Un seul thread l'utilise à la fois: elle n'est pas thread-safe.
+    public final class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;//cache des requêtes préparées, le moins récemment utilisé est fermé en premier
+        private volatile long lastUsed;
+        private boolean borrowed;
+        private boolean broken;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+            this.statements = new LinkedHashMap<>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        //Retourne la requête préparée pour sql, depuis le cache si elle a déjà été préparée sur cette connexion
+        //Elle ne doit pas être fermée par l'appelant; ses paramètres sont effacés
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            checkBorrowed();
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null && !statement.isClosed()) {
+                statementHits.increment();
+                statement.clearParameters();
+                return statement;
+            }
+            statementMisses.increment();
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+            return statement;
+        }
+
+        public Connection getConnection() {//connexion JDBC sous-jacente, pour les usages que le pool ne couvre pas (ne pas la fermer)
+            checkBorrowed();
+            return connection;
+        }
+
+        public void invalidate() {//signale une erreur de connexion: elle sera fermée au lieu d'être rendue au pool
+            broken = true;
+        }
+
+        @Override
+        public void close() {//rend la connexion au pool
+            if (borrowed) {
+                release(this);
+            }
+        }
+
+        private void checkBorrowed() {
+            if (!borrowed) {
+                throw new IllegalStateException("Connexion déjà rendue au pool");
+            }
+        }
+
+        private void closeQuietly() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // La connexion est peut-être déjà rompue
+            }
+        }
+
+        private void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Requête déjà fermée avec sa connexion
+            }
+        }
+    }
+}
@@ -0,0 +1,610 @@
+package serveur;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import protocole.Frame;
+//Cette classe stocke les fichiers reçus par contenu, dans le répertoire de stockage du serveur:
+//  - chaque fichier reçu est un fichier ordinaire du répertoire, seul exemplaire de ses données: les commandes
+//    (sh server_storage/script.sh) le lisent directement
+//  - l'index associe chaque nom de fichier à son manifeste (taille, SHA-256 de chacun de ses blocs de Frame.BLOCK_SIZE
+//    octets, date de modification du fichier ordinaire), enregistré dans .index; chaque empreinte de bloc y est retrouvée
+//    dans les fichiers ordinaires qui la contiennent, avec sa position
+//Un fichier reçu est d'abord écrit dans un fichier temporaire (ou dans le fichier partiel d'un upload par blocs), puis enregistré
+//par commit(): ses blocs sont hachés, le fichier est renommé dans le répertoire et le manifeste est écrit puis renommé.
+//Un fichier dont le client connaît déjà tous les blocs (trame HAVE, voir BlockQuery) est enregistré sans données par link():
+//un lien dur vers le fichier stocké de même contenu, seuls le nom et le manifeste sont écrits. Les noms liés partagent leurs
+//données: une commande qui modifie l'un en place modifie les autres.
+//Un bloc n'est repris d'un fichier ordinaire que si le fichier correspond encore à son manifeste et que l'empreinte du bloc
+//lu est la bonne; un fichier modifié ou créé par une commande est lu tel quel par les downloads.
+//Les fichiers ordinaires sans manifeste (stockage à plat des versions précédentes) ne sont importés que sur demande
+//(serveur.stockage.import), sans être modifiés.
+final class ContentStore {
+    static final String OBJECTS_DIRECTORY = ".objets";//blocs des versions précédentes du stockage, repris puis supprimés au démarrage
+    static final String INDEX_DIRECTORY = ".index";//manifestes, par nom de fichier
+    static final String TEMPORARY_DIRECTORY = ".tmp";//fichiers en cours de réception ou d'écriture, vidé au démarrage
+    private static final String MANIFEST_SUFFIX = ".manifeste";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final Path directoryPath;//chemin absolu normalisé, pour reconnaître les downloads du stockage
+    private final File index;
+    private final File temporary;
+    private final Logger logger;
+    private final ReentrantLock lock = new ReentrantLock();//index et renommages; pas de moniteur, tenu pendant l'écriture forcée des manifestes
+    private final Map<String, Manifest> manifests = new ConcurrentHashMap<>();//fichiers stockés, par nom
+    private final Map<String, Map<String, Integer>> locations = new HashMap<>();//fichiers stockés contenant chaque bloc, avec l'indice du bloc
+    private final Map<Object, Integer> links = new HashMap<>();//noms stockés par fichier physique (liens durs)
+    private long logicalBytes;//taille cumulée des fichiers stockés
+    private long storedBytes;//taille des fichiers physiques (place réellement occupée)
+
+    //Ouvre le stockage du répertoire: relit l'index (les manifestes dont le fichier ordinaire a changé sont supprimés) et,
+    //si importFlatFiles, enregistre les fichiers ordinaires qui n'ont pas de manifeste
+    ContentStore(File directory, boolean importFlatFiles) throws IOException {
+        this.directory = directory;
+        this.directoryPath = directory.toPath().toAbsolutePath().normalize();
+        this.index = new File(directory, INDEX_DIRECTORY);
+        this.temporary = new File(directory, TEMPORARY_DIRECTORY);
+        this.logger = Logger.getLogger(ContentStore.class.getName());
+        for (File subdirectory : new File[] {index, temporary}) {
+            if (!subdirectory.isDirectory() && !subdirectory.mkdirs()) {
+                throw new IOException("Impossible de créer le répertoire " + subdirectory.getAbsolutePath());
+            }
+        }
+        deleteFiles(temporary);//écritures interrompues par un arrêt du serveur
+        loadIndex();
+        if (importFlatFiles) {
+            importFlatFiles();
+        }
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    boolean contains(String name) {//fichier stocké ou fichier ordinaire du répertoire
+        Manifest manifest = manifests.get(name);
+        return (manifest != null && manifest.matches(new File(directory, name))) || isPlainFile(name);
+    }
+
+    int getFileCount() {
+        return manifests.size();
+    }
+
+    long getLogicalBytes() {
+        lock.lock();
+        try {
+            return logicalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBlockBytes() {
+        lock.lock();
+        try {
+            return storedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Fichier temporaire où écrire un fichier reçu avant de l'enregistrer par commit()
+    File createTemporaryFile() throws IOException {
+        return File.createTempFile("reception", null, temporary);
+    }
+
+    //Nom de fichier accepté dans le stockage: un nom simple, sans répertoire
+    static void checkName(String name) throws IOException {
+        if (name.isEmpty() || name.equals(".") || name.equals("..") || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0) {
+            throw new IOException("Nom de fichier invalide: " + name);
+        }
+    }
+
+    static int blockCount(long size) {//nombre de blocs d'un fichier de size octets
+        return (int) ((size + Frame.BLOCK_SIZE - 1) / Frame.BLOCK_SIZE);
+    }
+
+    static int blockLength(long size, int block) {//taille du bloc d'indice block (le dernier peut être plus court)
+        return (int) Math.min(Frame.BLOCK_SIZE, size - (long) block * Frame.BLOCK_SIZE);
+    }
+
+    //Enregistre le contenu de source sous le nom name, à la place du fichier précédent de même nom; source devient le fichier
+    //ordinaire name du répertoire
+    void commit(String name, File source) throws IOException {
+        commit(name, source, null);
+    }
+
+    //Comme commit(name, source); known[i], s'il n'est pas null, est l'empreinte du bloc i, que le client n'a pas envoyé: il est
+    //recopié dans source depuis un fichier stocké qui le contient, et une erreur est levée si aucun ne le contient plus
+    void commit(String name, File source, String[] known) throws IOException {
+        checkName(name);
+        long size = source.length();
+        String[] blocks = new String[blockCount(size)];
+        if (known != null && known.length != blocks.length) {
+            throw new IOException("Nombre de blocs incohérent pour " + name);
+        }
+        try (FileChannel channel = known != null ? FileChannel.open(source.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                                                 : FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(blocks.length > 0 ? blockLength(size, 0) : 0);//un petit fichier n'occupe pas un bloc entier de mémoire
+            MessageDigest digest = newDigest();
+            for (int i = 0; i < blocks.length; i++) {
+                long position = (long) i * Frame.BLOCK_SIZE;
+                if (known != null && known[i] != null) {
+                    blocks[i] = known[i];
+                    copyBlock(known[i], blockLength(size, i), channel, position, buffer, digest);
+                    continue;
+                }
+                buffer.clear().limit(blockLength(size, i));
+                if (!readFully(channel, buffer, position)) {
+                    throw new IOException("Fichier raccourci pendant son enregistrement: " + name);
+                }
+                buffer.flip();
+                digest.update(buffer);
+                blocks[i] = hex(digest.digest(), 0, Frame.HASH_SIZE);
+            }
+            if (known != null) {
+                channel.force(true);
+            }
+        }
+        install(name, size, blocks, source);
+    }
+
+    //Enregistre sous name un fichier de size octets dont tous les blocs sont déjà dans le stockage (aucune donnée reçue).
+    //Seuls le nom et le manifeste sont écrits quand un fichier stocké a ce contenu; le fichier n'est reconstitué à partir des
+    //blocs que s'ils viennent de plusieurs fichiers stockés, ou si le système de fichiers n'a pas de liens durs.
+    void link(String name, long size, String[] blocks) throws IOException {
+        checkName(name);
+        if (blocks.length != blockCount(size)) {
+            throw new IOException("Nombre de blocs incohérent pour " + name);
+        }
+        if (linkIdentical(name, size, blocks)) {
+            return;
+        }
+        boolean installed = false;
+        File written = createTemporaryFile();
+        try {
+            try (FileChannel channel = FileChannel.open(written.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(blocks.length > 0 ? blockLength(size, 0) : 0);
+                MessageDigest digest = newDigest();
+                for (int i = 0; i < blocks.length; i++) {
+                    copyBlock(blocks[i], blockLength(size, i), channel, (long) i * Frame.BLOCK_SIZE, buffer, digest);
+                }
+                channel.force(true);
+            }
+            install(name, size, blocks.clone(), written);
+            installed = true;
+        } finally {
+            if (!installed) {
+                Files.deleteIfExists(written.toPath());
+            }
+        }
+    }
+
+    //Enregistre name comme lien dur vers un fichier stocké intact de même contenu (rien à faire si c'est déjà name);
+    //retourne false s'il n'y en a pas ou si le lien ne peut pas être créé. Sous le verrou: le fichier lié ne peut pas être
+    //remplacé entre sa vérification et la création du lien.
+    private boolean linkIdentical(String name, long size, String[] blocks) throws IOException {
+        lock.lock();
+        try {
+            if (blocks.length == 0) {
+                return false;//fichier vide: rien à copier
+            }
+            Manifest current = manifests.get(name);
+            if (current != null && current.size == size && Arrays.equals(current.blocks, blocks) && current.matches(new File(directory, name))) {
+                return true;
+            }
+            Map<String, Integer> names = locations.get(blocks[0]);
+            for (String candidate : names != null ? names.keySet() : Collections.<String>emptySet()) {
+                Manifest manifest = manifests.get(candidate);
+                File file = new File(directory, candidate);
+                if (manifest.size != size || !Arrays.equals(manifest.blocks, blocks) || !manifest.matches(file)) {
+                    continue;
+                }
+                File linked = File.createTempFile("lien", null, temporary);
+                try {
+                    Files.delete(linked.toPath());//le lien est créé à la place de ce nom réservé
+                    Files.createLink(linked.toPath(), file.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    logger.fine("Lien dur impossible vers " + file.getAbsolutePath() + ": " + e);
+                    return false;
+                }
+                try {
+                    install(name, size, blocks.clone(), linked);
+                } finally {
+                    Files.deleteIfExists(linked.toPath());
+                }
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Indique pour chaque empreinte si un fichier stocké intact contient le bloc
+    boolean[] findBlocks(String[] blocks) {
+        lock.lock();
+        try {
+            boolean[] found = new boolean[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                found[i] = !locate(blocks[i]).isEmpty();
+            }
+            return found;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Supprime le fichier name du stockage et du répertoire; retourne false s'il n'existe pas
+    boolean delete(String name) throws IOException {
+        lock.lock();
+        try {
+            checkName(name);
+            boolean deleted = Files.deleteIfExists(new File(directory, name).toPath());
+            Manifest manifest = manifests.get(name);
+            if (manifest == null) {
+                return deleted;
+            }
+            Files.deleteIfExists(manifestFile(name).toPath());
+            unindex(manifest);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Ouvre le fichier désigné par le chemin d'un download: un fichier du répertoire de stockage est lu avec son manifeste tant
+    //que le fichier ordinaire lui correspond, tout autre fichier est lu tel quel. Retourne null si le fichier n'existe pas.
+    StoredFile open(String path) throws IOException {
+        Path file = new File(path).toPath().toAbsolutePath().normalize();
+        if (directoryPath.equals(file.getParent())) {
+            StoredFile stored = openStored(file.getFileName().toString());
+            if (stored != null) {
+                return stored;
+            }
+        }
+        return Files.isRegularFile(file) ? new StoredFile(file.toFile()) : null;
+    }
+
+    //Ouvre un fichier du stockage. Le fichier ordinaire est ouvert tout de suite: la lecture continue sur cette version même si
+    //le fichier est remplacé ou supprimé avant la fermeture du StoredFile. Retourne null si le fichier n'a pas de manifeste,
+    //ou si le fichier ordinaire a été modifié depuis son enregistrement
+    StoredFile openStored(String name) throws IOException {
+        lock.lock();
+        try {
+            Manifest manifest = manifests.get(name);
+            File file = new File(directory, name);
+            if (manifest == null || !manifest.matches(file)) {
+                return null;
+            }
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            return new StoredFile(name, manifest.size, manifest.blocks, channel);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Fichiers stockés intacts qui contiennent un bloc, avec la position du bloc; appelé sous le verrou
+    private List<Location> locate(String block) {
+        Map<String, Integer> names = locations.get(block);
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        List<Location> found = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : names.entrySet()) {
+            File file = new File(directory, entry.getKey());
+            if (manifests.get(entry.getKey()).matches(file)) {
+                found.add(new Location(file, (long) entry.getValue() * Frame.BLOCK_SIZE));
+            }
+        }
+        return found;
+    }
+
+    //Copie dans channel, à la position position, le bloc block de length octets lu dans un fichier stocké qui le contient;
+    //le bloc lu n'est copié que si son empreinte est la bonne (le fichier a pu être remplacé ou modifié depuis)
+    private void copyBlock(String block, int length, FileChannel channel, long position, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        List<Location> found;
+        lock.lock();
+        try {
+            found = locate(block);
+        } finally {
+            lock.unlock();
+        }
+        for (Location location : found) {
+            buffer.clear().limit(length);
+            try (FileChannel input = FileChannel.open(location.file.toPath(), StandardOpenOption.READ)) {
+                if (!readFully(input, buffer, location.position)) {
+                    continue;
+                }
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            buffer.flip();
+            digest.update(buffer.duplicate());
+            if (!block.equals(hex(digest.digest(), 0, Frame.HASH_SIZE))) {
+                continue;
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            return;
+        }
+        throw new IOException("Bloc absent du stockage: " + block);
+    }
+
+    //Lit buffer en entier à partir de position; retourne false si le fichier est trop court
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Renomme source en fichier ordinaire name (sauf s'il l'est déjà: import), puis écrit le manifeste avant de remplacer
+    //l'ancien dans l'index. Sous le verrou, pour que le fichier ordinaire et le manifeste d'un même nom restent appariés
+    //quand deux enregistrements se croisent.
+    private void install(String name, long size, String[] blocks, File source) throws IOException {
+        lock.lock();
+        try {
+            File target = new File(directory, name);
+            if (!source.getAbsoluteFile().equals(target.getAbsoluteFile())) {
+                move(source, target);
+            }
+            Manifest manifest = new Manifest(name, size, blocks, target.lastModified(), fileKey(target));
+            saveManifest(manifest);
+            Manifest previous = manifests.get(name);
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(manifest);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void index(Manifest manifest) {//appelé sous le verrou (ou au démarrage)
+        manifests.put(manifest.name, manifest);
+        logicalBytes += manifest.size;
+        if (links.merge(manifest.key, 1, Integer::sum) == 1) {
+            storedBytes += manifest.size;
+        }
+        for (int i = 0; i < manifest.blocks.length; i++) {
+            locations.computeIfAbsent(manifest.blocks[i], block -> new HashMap<>()).putIfAbsent(manifest.name, i);
+        }
+    }
+
+    private void unindex(Manifest manifest) {//appelé sous le verrou
+        manifests.remove(manifest.name);
+        logicalBytes -= manifest.size;
+        if (links.merge(manifest.key, -1, Integer::sum) == 0) {
+            links.remove(manifest.key);
+            storedBytes -= manifest.size;
+        }
+        for (String block : manifest.blocks) {
+            Map<String, Integer> names = locations.get(block);
+            if (names != null && names.remove(manifest.name) != null && names.isEmpty()) {
+                locations.remove(block);
+            }
+        }
+    }
+
+    private void saveManifest(Manifest manifest) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("nom", manifest.name);
+        properties.setProperty("taille", Long.toString(manifest.size));
+        properties.setProperty("blocs", String.join(",", manifest.blocks));
+        properties.setProperty("modifie", Long.toString(manifest.modified));
+        File written = File.createTempFile("manifeste", null, temporary);
+        try (FileOutputStream output = new FileOutputStream(written);
+             Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+            writer.flush();
+            output.getFD().sync();
+        }
+        move(written, manifestFile(manifest.name));
+    }
+
+    private void loadIndex() throws IOException {
+        File objects = new File(directory, OBJECTS_DIRECTORY);
+        File[] files = index.listFiles((dir, name) -> name.endsWith(MANIFEST_SUFFIX));
+        for (File file : files != null ? files : new File[0]) {
+            Manifest manifest;
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                Properties properties = new Properties();
+                properties.load(reader);
+                String blocks = properties.getProperty("blocs", "");
+                String name = properties.getProperty("nom");
+                manifest = new Manifest(name, Long.parseLong(properties.getProperty("taille")), blocks.isEmpty() ? new String[0] : blocks.split(","),
+                        Long.parseLong(properties.getProperty("modifie", "0")), fileKey(new File(directory, name)));
+                if (manifest.name == null || manifest.blocks.length != blockCount(manifest.size)) {
+                    throw new IOException("manifeste incomplet");
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.severe("Manifeste ignoré " + file.getName() + ": " + e.getMessage());
+                continue;
+            }
+            File plain = new File(directory, manifest.name);
+            if (!plain.exists() && manifest.modified == 0 && objects.isDirectory()) {
+                manifest = restore(manifest, objects);
+            }
+            if (manifest == null || !manifest.matches(plain)) {//fichier modifié ou supprimé par une commande: lu tel quel
+                file.delete();
+                logger.info("Manifeste supprimé, fichier ordinaire modifié ou absent : " + file.getName());
+                continue;
+            }
+            index(manifest);
+        }
+        if (objects.isDirectory()) {
+            try (Stream<Path> paths = Files.walk(objects.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            logger.info("Blocs " + OBJECTS_DIRECTORY + " des versions précédentes du stockage supprimés");
+        }
+    }
+
+    //Reconstitue le fichier ordinaire d'un manifeste enregistré sans fichier ordinaire par une version précédente du stockage,
+    //à partir de ses blocs .objets; retourne null si un bloc manque
+    private Manifest restore(Manifest manifest, File objects) {
+        File written = null;
+        try {
+            written = createTemporaryFile();
+            try (FileChannel channel = FileChannel.open(written.toPath(), StandardOpenOption.WRITE)) {
+                for (int i = 0; i < manifest.blocks.length; i++) {
+                    File block = new File(objects, manifest.blocks[i].substring(0, 2) + File.separator + manifest.blocks[i].substring(2));
+                    try (FileChannel input = FileChannel.open(block.toPath(), StandardOpenOption.READ)) {
+                        long length = input.size();
+                        for (long copied = 0; copied < length; ) {
+                            copied += input.transferTo(copied, length - copied, channel.position((long) i * Frame.BLOCK_SIZE + copied));
+                        }
+                    }
+                }
+                channel.force(true);
+            }
+            File target = new File(directory, manifest.name);
+            move(written, target);
+            Manifest restored = new Manifest(manifest.name, manifest.size, manifest.blocks, target.lastModified(), fileKey(target));
+            saveManifest(restored);
+            return restored;
+        } catch (IOException e) {
+            logger.severe("Impossible de reconstituer " + manifest.name + ": " + e.getMessage());
+            if (written != null) {
+                written.delete();
+            }
+            return null;
+        }
+    }
+
+    private void importFlatFiles() throws IOException {//fichiers stockés à plat par les versions précédentes du serveur, laissés en place
+        File[] files = directory.listFiles(file -> file.isFile() && !file.getName().startsWith(".") && !ResumableUpload.isWorkFile(file.getName())
+                && !manifests.containsKey(file.getName()));
+        for (File file : files != null ? files : new File[0]) {
+            commit(file.getName(), file);
+            logger.info("Fichier importé dans le stockage par contenu : " + file.getName());
+        }
+    }
+
+    private boolean isPlainFile(String name) {
+        try {
+            checkName(name);
+        } catch (IOException e) {
+            return false;
+        }
+        return !name.startsWith(".") && !ResumableUpload.isWorkFile(name) && new File(directory, name).isFile();
+    }
+
+    private File manifestFile(String name) {
+        try {
+            return new File(index, URLEncoder.encode(name, "UTF-8").replace("*", "%2A") + MANIFEST_SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);//UTF-8 est toujours disponible
+        }
+    }
+
+    //Identifie le fichier physique (inode): les noms liés par un lien dur ont la même clé
+    private static Object fileKey(File file) {
+        try {
+            Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            return key != null ? key : file.getAbsoluteFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static void deleteFiles(File directory) {
+        File[] files = directory.listFiles(File::isFile);
+        for (File file : files != null ? files : new File[0]) {
+            file.delete();
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);//SHA-256 fait partie des algorithmes exigés de toute JVM
+        }
+    }
+
+    static String hex(byte[] data, int offset, int length) {
+        char[] text = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            text[2 * i] = HEX[(data[offset + i] >> 4) & 0xF];
+            text[2 * i + 1] = HEX[data[offset + i] & 0xF];
+        }
+        return new String(text);
+    }
+
+    //Position d'un bloc dans un fichier stocké
+    private static final class Location {
+        private final File file;
+        private final long position;
+
+        private Location(File file, long position) {
+            this.file = file;
+            this.position = position;
+        }
+    }
+
+    //Fichier stocké: nom, taille, empreinte de chacun de ses blocs dans l'ordre, date de modification et fichier physique
+    //du fichier ordinaire
+    private static final class Manifest {
+        private final String name;
+        private final long size;
+        private final String[] blocks;
+        private final long modified;//0: enregistré sans fichier ordinaire (version précédente du stockage, reconstitué au démarrage)
+        private final Object key;
+
+        private Manifest(String name, long size, String[] blocks, long modified, Object key) {
+            this.name = name;
+            this.size = size;
+            this.blocks = blocks;
+            this.modified = modified;
+            this.key = key;
+        }
+
+        //Le fichier ordinaire, seul exemplaire des données, est encore celui que le manifeste décrit
+        private boolean matches(File file) {
+            return file.isFile() && file.length() == size && file.lastModified() == modified;
+        }
+    }
+}
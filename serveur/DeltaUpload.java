@@ -0,0 +1,281 @@
+package serveur;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import protocole.Frame;
+import protocole.RollingChecksum;
+//Cette classe implémente le côté serveur des envois différentiels (voir protocole.Frame): signatures de la version stockée
+//d'un fichier, puis reconstruction de la nouvelle version à partir des blocs de l'ancienne et des octets nouveaux reçus.
+//Pendant la réception, les trames COPY et DATA sont seulement notées (suites de blocs dans une liste d'instructions,
+//octets nouveaux dans un fichier temporaire): le thread de lecture n'attend pas le disque. La reconstruction (lecture de
+//l'ancienne version, écriture du nouveau fichier, vérification du SHA-256) est faite par finish() dans le pool de threads,
+//puis ContentStore.commit() remplace l'ancienne version d'un coup.
+//L'ancienne version est retenue (StoredFile) du début à la fin de l'envoi: la remplacer entre-temps ne fausse pas la reconstruction.
+final class DeltaUpload {
+    private static final int COPY = 0;//instruction: octets de l'ancienne version
+    private static final int DATA = 1;//instruction: octets reçus, dans le fichier temporaire
+
+    //Destination des charges utiles des trames SIGNATURE
+    interface SignatureOutput {
+        void write(byte[] payload, int length) throws IOException;
+    }
+
+    private final ContentStore store;
+    private final String fileName;
+    private final long size;//taille annoncée de la nouvelle version
+    private final long start;//début de la réception (System.nanoTime), pour le journal d'audit
+    private final StoredFile basis;//version de référence
+    private final int blockSize;
+    private final long blockCount;
+    private final File literals;//octets nouveaux, dans l'ordre de réception
+    private final FileChannel literalChannel;
+    private final List<long[]> instructions = new ArrayList<>();//{COPY ou DATA, position dans la source, longueur}
+    private long declared;//taille du fichier décrite par les instructions reçues
+    private long literalBytes;
+    private long receivedBytes;//octets reçus (octets nouveaux et instructions)
+    private IOException error;//première erreur de réception, renvoyée par finish()
+    private boolean discarded;
+
+    private DeltaUpload(ContentStore store, String fileName, long size, StoredFile basis) throws IOException {
+        this.store = store;
+        this.fileName = fileName;
+        this.size = size;
+        this.start = System.nanoTime();
+        this.basis = basis;
+        this.blockSize = RollingChecksum.blockSize(basis.size());
+        this.blockCount = (basis.size() + blockSize - 1) / blockSize;
+        this.literals = store.createTemporaryFile();
+        this.literalChannel = FileChannel.open(literals.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    //Envoie l'en-tête puis la signature de chaque bloc de la version stockée de fileName (somme glissante et MD5);
+    //n'envoie rien si le fichier n'a pas de version stockée
+    static void writeSignatures(ContentStore store, String fileName, SignatureOutput output) throws IOException {
+        ContentStore.checkName(fileName);
+        StoredFile file = store.openStored(fileName);
+        if (file == null) {
+            return;
+        }
+        try (StoredFile basis = file) {
+            long size = basis.size();
+            int blockSize = RollingChecksum.blockSize(size);
+            if ((size + blockSize - 1) / blockSize > Frame.MAX_SIGNATURES) {
+                throw new IOException("Fichier trop grand pour un envoi différentiel: " + fileName);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(Frame.DATA_CHUNK_SIZE / Frame.SIGNATURE_SIZE * Frame.SIGNATURE_SIZE);
+            payload.put(basis.getVersion()).putLong(size).putInt(blockSize);
+            MessageDigest strong = newStrongDigest();
+            byte[] block = new byte[blockSize];
+            for (long position = 0; position < size; position += blockSize) {
+                int length = (int) Math.min(blockSize, size - position);
+                readFully(basis, ByteBuffer.wrap(block, 0, length), position);
+                if (payload.remaining() < Frame.SIGNATURE_SIZE) {
+                    output.write(payload.array(), payload.position());
+                    payload.clear();
+                }
+                payload.putInt(RollingChecksum.of(block, 0, length));
+                strong.update(block, 0, length);
+                payload.put(strong.digest());
+            }
+            output.write(payload.array(), payload.position());
+        }
+    }
+
+    //Ouvre un envoi différentiel (trame DELTA); erreur si le fichier n'existe plus ou a changé depuis ses signatures
+    static DeltaUpload open(ContentStore store, byte[] payload) throws IOException {
+        if (payload.length <= Frame.HASH_SIZE + Frame.RESUME_HEADER_SIZE) {
+            throw new IOException("Trame DELTA invalide");
+        }
+        ByteBuffer header = ByteBuffer.wrap(payload);
+        byte[] version = new byte[Frame.HASH_SIZE];
+        header.get(version);
+        long size = header.getLong();
+        header.getLong();//date de modification: non utilisée, le contenu est vérifié par son SHA-256
+        String fileName = new String(payload, header.position(), header.remaining(), StandardCharsets.UTF_8);
+        ContentStore.checkName(fileName);
+        if (size < 0) {
+            throw new IOException("Taille de fichier invalide: " + size);
+        }
+        StoredFile basis = store.openStored(fileName);
+        if (basis == null) {
+            throw new IOException("Aucune version précédente du fichier: " + fileName);
+        }
+        try {
+            if (!Arrays.equals(version, basis.getVersion())) {
+                throw new IOException("Le fichier " + fileName + " a changé depuis l'envoi de ses signatures");
+            }
+            return new DeltaUpload(store, fileName, size, basis);
+        } catch (IOException e) {
+            basis.close();
+            throw e;
+        }
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    long getCopiedBytes() {//octets repris de l'ancienne version
+        return declared - literalBytes;
+    }
+
+    //Note les suites de blocs d'une trame COPY; une erreur est renvoyée par finish()
+    void copy(byte[] payload) {
+        receivedBytes += payload.length;
+        if (error != null) {
+            return;
+        }
+        try {
+            if (payload.length % Frame.COPY_RUN_SIZE != 0) {
+                throw new IOException("Trame COPY invalide");
+            }
+            ByteBuffer runs = ByteBuffer.wrap(payload);
+            while (runs.hasRemaining()) {
+                int first = runs.getInt();
+                int count = runs.getInt();
+                if (first < 0 || count <= 0 || first > blockCount - count) {
+                    throw new IOException("Suite de blocs invalide: " + first + " (" + count + " blocs)");
+                }
+                long position = (long) first * blockSize;
+                add(COPY, position, Math.min((long) count * blockSize, basis.size() - position));
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    //Écrit les octets nouveaux d'une trame DATA; en cas d'erreur, les données suivantes sont ignorées
+    void write(ByteBuffer data) {
+        int length = data.remaining();
+        receivedBytes += length;
+        if (error != null) {
+            data.position(data.limit());
+            return;
+        }
+        try {
+            add(DATA, literalBytes, length);
+            while (data.hasRemaining()) {
+                literalChannel.write(data, literalBytes + length - data.remaining());
+            }
+            literalBytes += length;
+        } catch (IOException e) {
+            data.position(data.limit());
+            error = e;
+        }
+    }
+
+    private void add(int source, long position, long length) throws IOException {
+        if (length > size - declared) {
+            throw new IOException("Données au-delà de la taille annoncée (" + size + " octets)");
+        }
+        declared += length;
+        long[] last = instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+        if (last != null && last[0] == source && last[1] + last[2] == position) {//suite contiguë de la même source
+            last[2] += length;
+        } else {
+            instructions.add(new long[] {source, position, length});
+        }
+    }
+
+    //Reconstruit le fichier, vérifie son SHA-256 (trame EOF) et l'enregistre dans le stockage (thread du pool).
+    //L'envoi est terminé dans tous les cas: en cas d'erreur, le client renvoie le fichier autrement.
+    void finish(byte[] checksum) throws IOException {
+        File target = null;
+        try {
+            if (error != null) {
+                throw error;
+            }
+            if (checksum.length != Frame.HASH_SIZE) {
+                throw new IOException("Trame EOF invalide");
+            }
+            if (declared != size) {
+                throw new IOException("Fichier incomplet: " + declared + " octets reçus sur " + size);
+            }
+            target = store.createTemporaryFile();
+            MessageDigest digest = ContentStore.newDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(Frame.DATA_CHUNK_SIZE);
+            try (FileChannel output = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+                for (long[] instruction : instructions) {
+                    long position = instruction[1];
+                    long end = position + instruction[2];
+                    while (position < end) {
+                        buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                        int read = instruction[0] == COPY ? basis.read(buffer, position) : literalChannel.read(buffer, position);
+                        if (read <= 0) {
+                            throw new IOException("Données manquantes pour reconstruire " + fileName);
+                        }
+                        buffer.flip();
+                        digest.update(buffer.duplicate());
+                        while (buffer.hasRemaining()) {
+                            output.write(buffer);
+                        }
+                        position += read;
+                    }
+                }
+            }
+            if (!MessageDigest.isEqual(checksum, digest.digest())) {
+                throw new IOException("Empreinte du fichier reconstruit incorrecte: " + fileName);
+            }
+            store.commit(fileName, target);
+            target = null;
+        } finally {
+            discard();
+            if (target != null) {
+                Files.deleteIfExists(target.toPath());
+            }
+        }
+    }
+
+    //Abandonne l'envoi (déconnexion ou fin): fichier temporaire supprimé, ancienne version libérée
+    void discard() {
+        if (discarded) {
+            return;
+        }
+        discarded = true;
+        try {
+            literalChannel.close();
+        } catch (IOException e) {
+            //sans conséquence: le fichier temporaire est supprimé ci-dessous
+        }
+        try {
+            basis.close();
+        } catch (IOException e) {
+            //sans conséquence: la lecture de l'ancienne version est terminée
+        }
+        literals.delete();
+    }
+
+    private static void readFully(StoredFile file, ByteBuffer buffer, long position) throws IOException {//buffer commence à 0
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Fichier raccourci pendant sa lecture: " + file.getName());
+            }
+        }
+    }
+
+    private static MessageDigest newStrongDigest() {
+        try {
+            return MessageDigest.getInstance(RollingChecksum.STRONG_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);//MD5 fait partie des algorithmes exigés de toute JVM
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package serveur;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import protocole.Frame;
+//Cette classe décrit la plage d'octets demandée par une trame DOWNLOAD (drapeau Frame.FLAG_RANGE, téléchargement parallèle).
+//Sans le drapeau, tout le fichier est envoyé; avec, la réponse commence par la taille du fichier (trame OFFSET)
+//et ne contient que les octets [start, end), limités à la taille du fichier.
+final class DownloadRange {
+    static final DownloadRange WHOLE_FILE = new DownloadRange(false, 0, Long.MAX_VALUE, 0);
+
+    final boolean ranged;
+    final long start;
+    private final long end;
+    final int nameOffset;//position du nom du fichier dans la charge utile
+
+    private DownloadRange(boolean ranged, long start, long end, int nameOffset) {
+        this.ranged = ranged;
+        this.start = start;
+        this.end = end;
+        this.nameOffset = nameOffset;
+    }
+
+    static DownloadRange parse(byte[] payload, byte flags) {
+        if ((flags & Frame.FLAG_RANGE) == 0) {
+            return WHOLE_FILE;
+        }
+        if (payload.length < Frame.RANGE_SIZE) {//plage tronquée: refusée à l'envoi (voir end())
+            return new DownloadRange(true, -1, -1, payload.length);
+        }
+        ByteBuffer range = ByteBuffer.wrap(payload);
+        return new DownloadRange(true, range.getLong(), range.getLong(), Frame.RANGE_SIZE);
+    }
+
+    long end(long size) throws IOException {//fin de la plage dans un fichier de size octets
+        if (start < 0 || start > end || start > size) {
+            throw new IOException("Plage invalide: " + start + "-" + end + " (taille: " + size + " octets)");
+        }
+        return Math.min(end, size);
+    }
+}
@@ -0,0 +1,45 @@
+package serveur;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+//Cette classe lit les utilisateurs dans la table "user" de la base de données, par le pool de connexions du serveur.
+public class JdbcUserStore implements UserStore {
+    private static final String QUERY = "SELECT password FROM user WHERE login = ?";//Requête SQL pour obtenir le mot de passe de l'utilisateur avec le login spécifié
+
+    private final ConnectionPool connectionPool;
+
+    public JdbcUserStore(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public String findPasswordHash(String login) throws SQLException {
+        try (ConnectionPool.PooledConnection connection = connectionPool.acquire()) {//Emprunt d'une connexion au pool, rendue à la fin du bloc
+            try {
+                PreparedStatement statement = connection.prepareStatement(QUERY);//Requête préparée gardée en cache par la connexion
+                statement.setString(1, login);
+                try (ResultSet resultSet = statement.executeQuery()) {// Exécution de la requête SQL pour obtenir le mot de passe de l'utilisateur
+                    return resultSet.next() ? resultSet.getString("password") : null;
+                }
+            } catch (SQLException e) {//La connexion est peut-être rompue: elle ne sera pas rendue au pool
+                connection.invalidate();
+                throw e;
+            }
+        }
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    public String getStatistics() {
+        return "Pool de connexions: " + connectionPool.getStatistics();
+    }
+
+    @Override
+    public void close() {
+        connectionPool.close();
+    }
+}
@@ -0,0 +1,52 @@
+package serveur;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+//Cette classe garde les utilisateurs en mémoire, à la place de la base de données:
+//  - pour lancer un serveur sans MySQL (-Dserveur.utilisateurs=fichier:utilisateurs.properties)
+//  - pour les tests de charge et les bancs d'essai, qui ajoutent leurs utilisateurs avec add()
+//Le fichier contient une ligne login=mot de passe haché par utilisateur (même format que la colonne password de la table user).
+public class MemoryUserStore implements UserStore {
+    private final Map<String, String> passwordHashes = new ConcurrentHashMap<>();
+
+    public MemoryUserStore() {
+    }
+
+    public static MemoryUserStore load(File file) throws IOException {//lit les utilisateurs d'un fichier login=mot de passe haché
+        MemoryUserStore store = new MemoryUserStore();
+        Properties users = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            users.load(reader);
+        }
+        for (String login : users.stringPropertyNames()) {
+            store.passwordHashes.put(login, users.getProperty(login).trim());
+        }
+        return store;
+    }
+
+    public MemoryUserStore add(String login, String password) {//ajoute ou remplace un utilisateur; le mot de passe est haché comme dans la base
+        passwordHashes.put(login, Server.hashPassword(password));
+        return this;
+    }
+
+    public void remove(String login) {
+        passwordHashes.remove(login);
+    }
+
+    @Override
+    public String findPasswordHash(String login) {
+        return passwordHashes.get(login);
+    }
+
+    @Override
+    public String getStatistics() {
+        return "Utilisateurs en mémoire: " + passwordHashes.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,57 @@
+package serveur;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+//Cette classe publie les mesures du serveur (ServerMetrics.toText()) en HTTP, au format texte de Prometheus:
+//  curl http://127.0.0.1:9998/metrics
+//Elle n'écoute que sur l'interface locale: les mesures ne sont pas chiffrées et ne demandent pas d'authentification.
+//Un seul thread sert les requêtes, qui ne font que lire des compteurs.
+public class MetricsEndpoint implements Closeable {
+    public static final String PATH = "/metrics";
+
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    public MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mesures-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.createContext(PATH, exchange -> respond(exchange, metrics));
+        httpServer.setExecutor(executor);
+        httpServer.start();
+    }
+
+    private static void respond(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+}
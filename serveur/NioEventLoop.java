@@ -0,0 +1,98 @@
+package serveur;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+//Cette classe représente une boucle d'événements NIO.
+//Un seul thread attend sur un Selector les événements de lecture/écriture de toutes les sessions qui lui sont attribuées.
+//Les autres threads (accepteur, pool de commandes) lui confient du travail avec execute(), qui réveille le Selector.
+//Toutes les opérations sur les SSLEngine et les SocketChannel d'une session ont donc lieu sur ce seul thread.
+class NioEventLoop implements Runnable {
+    private final Selector selector;//Sélecteur partagé par toutes les sessions de la boucle
+    private final Queue<Runnable> tasks;//Tâches à exécuter sur le thread de la boucle
+    private final Logger logger;
+    private volatile boolean running;//Indique si la boucle est en cours d'exécution
+
+    NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.logger = Logger.getLogger(NioEventLoop.class.getName());
+        this.running = true;
+    }
+
+    void execute(Runnable task) {//Cette méthode confie une tâche au thread de la boucle et réveille le sélecteur
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void register(NioSession session) {//Cette méthode enregistre une nouvelle session auprès du sélecteur de la boucle
+        execute(() -> {
+            try {
+                SelectionKey key = session.getChannel().register(selector, SelectionKey.OP_READ, session);
+                session.attach(key);
+            } catch (IOException e) {
+                session.fail(e);
+            }
+        });
+    }
+
+    @Override
+    public void run() {//Boucle principale: attendre les événements, exécuter les tâches en attente puis servir les sessions prêtes
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.severe("Erreur du sélecteur NIO: " + e.getMessage());
+                break;
+            }
+            runTasks();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioSession session = (NioSession) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        session.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.onWritable();
+                    }
+                } catch (IOException | RuntimeException e) {//une erreur sur une session ne doit jamais arrêter la boucle
+                    session.fail(e);
+                }
+            }
+        }
+
+        // Fermeture des sessions restantes à l'arrêt de la boucle
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            ((NioSession) key.attachment()).closeNow();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warning("Erreur lors de la fermeture du sélecteur NIO: " + e.getMessage());
+        }
+    }
+
+    private void runTasks() {//Cette méthode exécute les tâches confiées par les autres threads
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.severe("Erreur dans une tâche de la boucle NIO: " + e.getMessage());
+            }
+        }
+    }
+
+    void shutdown() {//Cette méthode demande l'arrêt de la boucle
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,111 @@
+package serveur;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLEngine;
+import protocole.TlsContext;
+//Cette classe implémente le mode NIO du serveur.
+//Un thread accepteur reçoit les connexions et les répartit à tour de rôle entre quelques boucles d'événements (NioEventLoop).
+//Chaque connexion devient une NioSession qui chiffre et déchiffre ses données avec un SSLEngine sans bloquer de thread.
+//Une session inactive ne consomme donc aucun thread, ce qui permet de maintenir des dizaines de milliers de sessions.
+class NioServer {
+    private final Server server;//Serveur propriétaire (authentification, pool de commandes, liste des clients)
+    private final int port;//Port d'écoute
+    private final TlsContext tlsContext;//Contexte SSL utilisé pour créer un SSLEngine par connexion
+    private final NioEventLoop[] loops;//Boucles d'événements
+    private final Logger logger;
+    private ServerSocketChannel serverChannel;//Canal d'écoute des connexions entrantes
+    private volatile boolean running;
+
+    NioServer(Server server, int port, TlsContext tlsContext, int loopCount) {
+        this.server = server;
+        this.port = port;
+        this.tlsContext = tlsContext;
+        this.loops = new NioEventLoop[loopCount];
+        this.logger = Logger.getLogger(NioServer.class.getName());
+    }
+
+    //Cette méthode ouvre le port, démarre les boucles d'événements puis accepte les connexions jusqu'à l'arrêt du serveur.
+    //Elle est bloquante, comme la boucle d'acceptation du mode historique.
+    void run() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop();
+            Thread thread = new Thread(loops[i], "nio-boucle-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        running = true;
+
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!running || !serverChannel.isOpen()) {
+                    throw e;
+                }
+                logger.warning("Erreur lors de l'acceptation d'une connexion: " + e.getMessage());//trop de fichiers ouverts...
+                continue;
+            }
+            if (!server.tryAcquireSession()) {//nombre maximal de sessions atteint: refuser la connexion
+                server.rejectConnection(address(channel), channel);
+                continue;
+            }
+            NioEventLoop loop = loops[next];
+            next = (next + 1) % loops.length;//répartition à tour de rôle entre les boucles
+            accept(channel, loop);
+        }
+    }
+
+    //Cette méthode prépare une connexion acceptée et la confie à sa boucle. Une connexion que le client a déjà rompue
+    //(ou dont le SSLEngine ne peut pas être créé) est fermée et sa place de session rendue: les autres continuent d'être acceptées.
+    private void accept(SocketChannel channel, NioEventLoop loop) {
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            SSLEngine engine = tlsContext.createServerEngine();
+
+            NioSession session = new NioSession(channel, engine, loop, server, tlsContext);
+            server.addClient(session);//la session libère sa place à sa fermeture
+            loop.register(session);
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Connexion abandonnée (" + address(channel) + "): " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // La connexion est déjà fermée
+            }
+            server.releaseSession();
+        }
+    }
+
+    static String address(SocketChannel channel) {//adresse du client, même si la connexion est déjà rompue
+        InetAddress address = channel.socket().getInetAddress();
+        return address != null ? address.getHostAddress() : "adresse inconnue";
+    }
+
+    void close() {//Cette méthode arrête l'acceptation des connexions et les boucles d'événements
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Le canal est déjà fermé
+        }
+        for (NioEventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+}
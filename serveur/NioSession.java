@@ -0,0 +1,1461 @@
+package serveur;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import protocole.Compressor;
+import protocole.Frame;
+import protocole.Protocole;
+import protocole.TlsContext;
+//Cette classe représente une session client du mode NIO.
+//Elle pilote un SSLEngine de manière non bloquante et implémente le même protocole texte que ClientHandler:
+//  - "AUTH: login motdepasse" puis AUTH_SUCCESS / AUTH_FAILED
+//  - "CMD:commande" puis RESULT:/ERROR: (lignes envoyées au fil de l'exécution) et END_OF_RESPONSE
+//  - "CMD:UPLOAD nom" et "CMD:DOWNLOAD nom" avec le marqueur END_OF_FILE
+//  - "PROTO:1" puis le protocole binaire (trames décodées directement depuis le tampon déchiffré, voir protocole.Frame)
+//Toutes les méthodes sans mention contraire s'exécutent sur le thread de la boucle d'événements de la session.
+//L'authentification et les commandes système (bloquantes) sont confiées au pool de threads du serveur.
+//En protocole binaire, plusieurs requêtes (commandes, downloads) sont traitées simultanément et leurs trames s'entremêlent;
+//la lecture n'est suspendue qu'au-delà de Server.getMaxRequestsPerSession() requêtes en cours.
+//Si la compression a été négociée, les blocs de download sont compressés directement depuis la projection du fichier
+//(sur le thread de la boucle, comme le chiffrement) et les blocs sans gain restent envoyés sans copie.
+class NioSession implements ClientSession {
+    private enum State { AUTH, COMMANDS, UPLOAD, BINARY }
+
+    private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+    private static final byte[] END_OF_FILE_MARKER = "END_OF_FILE".getBytes();
+    private static final int MAX_LINE_LENGTH = 64 * 1024;//taille maximale d'une ligne du protocole
+    private static final int DOWNLOAD_CHUNK_SIZE = 1024 * 1024;//taille des trames DATA lors d'un download
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;//taille des fenêtres de projection mémoire d'un fichier envoyé
+    private static final long MAX_PENDING_OUTPUT = 1024 * 1024;//sortie de commande en attente d'envoi au-delà de laquelle la commande est ralentie
+
+    private final SocketChannel channel;//canal de la connexion
+    private final SSLEngine engine;//moteur SSL de la connexion
+    private final NioEventLoop loop;//boucle d'événements propriétaire
+    private final Server server;
+    private final TlsContext tlsContext;//contexte SSL du serveur (statistiques des poignées de main)
+    private final long handshakeStart;//début de la poignée de main, pour distinguer une session reprise d'une nouvelle session
+    private final long handshakeStartNanos;//début de la poignée de main (System.nanoTime), pour les mesures
+    private boolean handshakeRecorded;
+    private final String clientAddress;//adresse IP du client
+    private final Queue<ByteBuffer> outbound;//données en clair en attente de chiffrement (alimentée par n'importe quel thread)
+    private final AtomicLong outboundBytes;//taille des données de outbound
+    private final Object outboundSpace;//moniteur des threads qui attendent de la place dans outbound (voir offer)
+    private final AtomicBoolean driveScheduled;//un appel à drive() est déjà programmé sur la boucle
+    private SelectionKey key;
+    private volatile String login;//login du client
+    private State state;
+    private volatile Compressor compressor;//compression des trames négociée avec le client, null sinon
+    private boolean busy;//une tâche du protocole texte (authentification, commande, download) est en cours: la lecture est suspendue
+    private int activeRequests;//requêtes du protocole binaire en cours (commandes, downloads)
+    private final int maxRequests;//au-delà de ce nombre de requêtes binaires en cours, la lecture est suspendue
+    private boolean closing;//fermer la session dès que les données en attente sont envoyées
+    private volatile boolean closed;
+    private final ShellPool.Lease shell;//shell persistant de la session (null si l'option est désactivée)
+
+    // Tampons alloués à la demande et libérés dès qu'ils sont vides, pour qu'une session inactive coûte peu de mémoire
+    private ByteBuffer netIn;//données chiffrées reçues
+    private ByteBuffer appIn;//données en clair reçues
+    private ByteBuffer netOut;//données chiffrées à envoyer
+    private ByteBuffer[] currentOut;//données en clair en cours de chiffrement
+
+    private PendingUpload textUpload;//fichier en cours de réception (protocole texte)
+    private final Map<Integer, PendingUpload> binaryUploads;//fichiers en cours de réception par identifiant de requête (protocole binaire)
+    private final Map<Integer, ResumableUpload> resumableUploads;//uploads par blocs en cours par identifiant de requête (voir ResumableUpload)
+    private final Map<Integer, DeltaUpload> deltaUploads;//envois différentiels en cours par identifiant de requête (voir DeltaUpload)
+    private final Deque<PendingDownload> downloads;//fichiers en cours d'envoi, servis à tour de rôle bloc par bloc
+    private final ByteBuffer downloadHeader;//en-tête des trames DATA, réutilisé pour chaque bloc
+    private final ByteBuffer[] downloadChunk;//{en-tête, données} en protocole binaire
+    private final ByteBuffer[] downloadTextChunk;//{données} en protocole texte
+
+    // Trame DATA ou CHUNK en cours de réception (protocole binaire): sa charge utile est écrite au fil de l'eau
+    private int dataRequestId;
+    private int dataRemaining;
+    private boolean chunkData;//la charge utile en cours est celle d'une trame CHUNK
+
+    NioSession(SocketChannel channel, SSLEngine engine, NioEventLoop loop, Server server, TlsContext tlsContext) throws IOException {
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.server = server;
+        this.tlsContext = tlsContext;
+        this.handshakeStart = System.currentTimeMillis();
+        this.handshakeStartNanos = System.nanoTime();
+        this.clientAddress = NioServer.address(channel);
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.outboundBytes = new AtomicLong();
+        this.outboundSpace = new Object();
+        this.driveScheduled = new AtomicBoolean();
+        this.state = State.AUTH;
+        this.binaryUploads = new HashMap<>();
+        this.resumableUploads = new HashMap<>();
+        this.deltaUploads = new HashMap<>();
+        this.maxRequests = server.getMaxRequestsPerSession();
+        this.downloads = new ArrayDeque<>();
+        this.downloadHeader = ByteBuffer.allocate(Frame.HEADER_SIZE);
+        this.downloadChunk = new ByteBuffer[2];
+        this.downloadTextChunk = new ByteBuffer[1];
+        engine.beginHandshake();
+        this.shell = server.leaseShell();//en dernier: rien ne peut plus échouer avant que la session soit enregistrée
+
+        // Journalisation de la connexion
+        ClientCommandLogger.logConnection(clientAddress);
+    }
+
+    @Override
+    public String getClientAddress() {
+        return clientAddress;
+    }
+
+    @Override
+    public String getLogin() {
+        return login;
+    }
+
+    //Ces champs appartiennent à la boucle d'événements: lus depuis un autre thread (mesures), ils peuvent être en retard
+    //d'une itération de la boucle, ce qui suffit pour compter les sessions inactives
+    @Override
+    public boolean isIdle() {
+        return login != null && !busy && activeRequests == 0 && textUpload == null && binaryUploads.isEmpty()
+                && resumableUploads.isEmpty() && deltaUploads.isEmpty() && downloads.isEmpty();
+    }
+
+    @Override
+    public void close() {//peut être appelée depuis n'importe quel thread
+        loop.execute(this::closeNow);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+        drive();
+    }
+
+    void onReadable() throws IOException {//des données chiffrées sont disponibles sur le canal
+        if (netIn == null) {
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        }
+        int bytesRead = channel.read(netIn);
+        if (bytesRead < 0) {//le client a fermé la connexion
+            closeNow();
+            return;
+        }
+        drive();
+    }
+
+    void onWritable() {//le canal peut de nouveau accepter des données
+        drive();
+    }
+
+    void fail(Exception e) {//erreur d'entrée/sortie sur la session: journaliser et fermer
+        if (!closed) {
+            ClientCommandLogger.logConnectionError(clientAddress, "Erreur de communication: " + e.getMessage());
+        }
+        closeNow();
+    }
+
+    //Fait progresser la session autant que possible: poignée de main TLS, déchiffrement, traitement du protocole,
+    //chiffrement des réponses et envoi. S'arrête quand plus rien ne peut avancer sans nouvel événement.
+    private void drive() {
+        if (closed) {
+            return;
+        }
+        try {
+            boolean progress = true;
+            while (progress && !closed) {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                switch (status) {
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        progress = true;
+                        break;
+                    case NEED_WRAP:
+                        progress = wrap(EMPTY);
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                        progress = unwrap();
+                        break;
+                    default://poignée de main terminée: échange de données applicatives
+                        progress = false;
+                        if (!readSuspended()) {
+                            progress |= unwrap();
+                            progress |= processPlaintext();
+                        }
+                        ByteBuffer[] next = nextOutbound();
+                        if (next != null) {
+                            progress |= wrap(next);
+                        }
+                        break;
+                }
+            }
+            if (closed) {
+                return;
+            }
+            flush();
+            if (closing && !hasPendingOutput() && activeRequests == 0) {//les requêtes en cours répondent avant la fermeture
+                closeNow();
+                return;
+            }
+            releaseEmptyBuffers();
+            updateInterest();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private boolean unwrap() throws SSLException {//déchiffre les données reçues; retourne true si quelque chose a progressé
+        if (netIn == null || netIn.position() == 0) {
+            return false;
+        }
+        if (appIn == null) {
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+        netIn.flip();
+        SSLEngineResult result = engine.unwrap(netIn, appIn);
+        netIn.compact();
+        recordHandshake(result);
+        switch (result.getStatus()) {
+            case OK:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            case BUFFER_UNDERFLOW://enregistrement TLS incomplet: agrandir le tampon s'il est plein
+                if (!netIn.hasRemaining()) {
+                    netIn = enlarge(netIn, netIn.capacity() + engine.getSession().getPacketBufferSize());
+                }
+                return false;
+            case BUFFER_OVERFLOW://tampon en clair trop petit
+                appIn = enlarge(appIn, appIn.capacity() + engine.getSession().getApplicationBufferSize());
+                return true;
+            default://CLOSED: le client a envoyé close_notify
+                closeNow();
+                return false;
+        }
+    }
+
+    private boolean wrap(ByteBuffer[] source) throws IOException {//chiffre des données en clair; retourne true si quelque chose a progressé
+        if (netOut == null) {
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        }
+        SSLEngineResult result = engine.wrap(source, netOut);
+        recordHandshake(result);
+        switch (result.getStatus()) {
+            case OK:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            case BUFFER_OVERFLOW://tampon chiffré plein: l'envoyer d'abord
+                return flush();
+            default:
+                closeNow();
+                return false;
+        }
+    }
+
+    private void recordHandshake(SSLEngineResult result) {//comptabilise la première poignée de main de la session
+        if (result.getHandshakeStatus() == HandshakeStatus.FINISHED && !handshakeRecorded) {
+            handshakeRecorded = true;
+            tlsContext.recordHandshake(engine.getSession(), handshakeStart);
+            server.getMetrics().recordTlsHandshake(System.nanoTime() - handshakeStartNanos);
+        }
+    }
+
+    private boolean flush() throws IOException {//envoie les données chiffrées; retourne true si des octets ont été écrits
+        if (netOut == null || netOut.position() == 0) {
+            return false;
+        }
+        netOut.flip();
+        int written = channel.write(netOut);
+        netOut.compact();
+        return written > 0;
+    }
+
+    private ByteBuffer[] nextOutbound() throws IOException {//retourne les prochaines données en clair à chiffrer, ou null
+        if (hasRemaining(currentOut)) {
+            return currentOut;
+        }
+        ByteBuffer next = outbound.poll();
+        if (next != null) {
+            long remaining = outboundBytes.addAndGet(-next.remaining());
+            if (remaining <= MAX_PENDING_OUTPUT && remaining + next.remaining() > MAX_PENDING_OUTPUT) {//retour sous le seuil
+                synchronized (outboundSpace) {
+                    outboundSpace.notifyAll();
+                }
+            }
+            currentOut = new ByteBuffer[] {next};
+        } else {
+            currentOut = !downloads.isEmpty() ? nextDownloadChunk() : null;
+        }
+        return currentOut;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        if (buffers == null) {
+            return false;
+        }
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPendingOutput() {
+        return (netOut != null && netOut.position() > 0)
+                || hasRemaining(currentOut)
+                || !outbound.isEmpty()
+                || !downloads.isEmpty();
+    }
+
+    private boolean readSuspended() {//la lecture des requêtes attend la fin d'une tâche en cours
+        return busy || activeRequests >= maxRequests;
+    }
+
+    private void updateInterest() {//lecture suspendue pendant une tâche, écriture demandée tant qu'il reste des données
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        boolean handshaking = engine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING;
+        int ops = 0;
+        if (!readSuspended() || handshaking) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (hasPendingOutput()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void releaseEmptyBuffers() {
+        if (netIn != null && netIn.position() == 0) {
+            netIn = null;
+        }
+        if (appIn != null && appIn.position() == 0) {
+            appIn = null;
+        }
+        if (netOut != null && netOut.position() == 0) {
+            netOut = null;
+        }
+        if (!hasRemaining(currentOut)) {
+            currentOut = null;
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Protocole texte
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean processPlaintext() throws IOException {//traite les données en clair reçues; retourne true si des octets ont été consommés
+        if (appIn == null || appIn.position() == 0) {
+            return false;
+        }
+        boolean consumed = false;
+        appIn.flip();
+        try {
+            while (!readSuspended() && !closing && appIn.hasRemaining()) {
+                if (state == State.UPLOAD) {
+                    if (!receiveUploadData()) {
+                        break;
+                    }
+                    consumed = true;
+                    continue;
+                }
+                if (state == State.BINARY) {
+                    if (!processFrame()) {
+                        break;
+                    }
+                    consumed = true;
+                    continue;
+                }
+                String line = readLine();
+                if (line == null) {
+                    if (appIn.remaining() >= MAX_LINE_LENGTH) {
+                        ClientCommandLogger.logConnectionError(clientAddress, "Ligne du protocole trop longue");
+                        closeNow();
+                    }
+                    break;
+                }
+                consumed = true;
+                handleLine(line);
+            }
+        } finally {
+            if (!closed) {
+                appIn.compact();
+            }
+        }
+        return consumed;
+    }
+
+    private String readLine() {//extrait une ligne terminée par '\n' de appIn, ou null si elle est incomplète
+        int start = appIn.position();
+        for (int i = start; i < appIn.limit(); i++) {
+            if (appIn.get(i) == '\n') {
+                int end = i;
+                if (end > start && appIn.get(end - 1) == '\r') {
+                    end--;
+                }
+                byte[] bytes = new byte[end - start];
+                appIn.get(bytes);
+                appIn.position(i + 1);
+                return new String(bytes);
+            }
+        }
+        return null;
+    }
+
+    private void handleLine(String line) throws IOException {
+        if (state == State.AUTH) {
+            authenticate(line);
+            return;
+        }
+        if (line.equals(Server.DISCONNECT_MESSAGE)) {
+            closing = true;
+            return;
+        }
+        if (line.startsWith(Protocole.NEGOTIATION_PREFIX)) {//le client propose le protocole binaire
+            int version = Protocole.selectVersion(line);
+            if (version > 0) {
+                compressor = server.negotiateCompression(line);
+                sendLine(Protocole.accept(version, compressor != null, line));
+                state = State.BINARY;
+            } else {
+                sendLine(Protocole.NEGOTIATION_REFUSED);
+            }
+            return;
+        }
+        if (!line.startsWith(Server.COMMAND_PREFIX)) {//les lignes hors protocole sont ignorées, comme dans ClientHandler
+            return;
+        }
+        String command = line.substring(Server.COMMAND_PREFIX.length());
+        ClientCommandLogger.logCommand(clientAddress, command);
+        if (command.startsWith(ClientHandler.UPLOAD_COMMAND)) {
+            startUpload(command);
+        } else if (command.startsWith(ClientHandler.DOWNLOAD_COMMAND)) {
+            startDownload(command);
+        } else {
+            executeCommand(command);
+        }
+    }
+
+    private void authenticate(String authMessage) {//vérifie les identifiants dans le pool de threads (accès à la base de données)
+        String[] credentials = ClientHandler.parseAuthMessage(authMessage);
+        if (credentials == null) {
+            ClientCommandLogger.logConnectionError(clientAddress, "Message d'authentification manquant ou invalide : " + authMessage);
+            sendLine(Server.AUTH_FAILED);
+            closing = true;
+            return;
+        }
+        busy = true;
+        server.execute(() -> {
+            boolean success = server.authenticate(credentials[0], credentials[1]);
+            loop.execute(() -> onAuthenticated(credentials[0], success));
+        });
+    }
+
+    private void onAuthenticated(String login, boolean success) {
+        busy = false;
+        if (success) {
+            this.login = login;
+            state = State.COMMANDS;
+            sendLine(Server.AUTH_SUCCESS);
+            ClientCommandLogger.logAuthentication(clientAddress, login, true);
+        } else {
+            sendLine(Server.AUTH_FAILED);
+            ClientCommandLogger.logAuthentication(clientAddress, login, false);
+            closing = true;
+        }
+        drive();
+    }
+
+    private void executeCommand(String command) {//exécute une commande système dans le pool de threads (protocole texte)
+        executeCommand(command, -1);
+    }
+
+    //Exécute une commande système dans le pool de threads; la réponse est en trames si requestId >= 0, en texte sinon.
+    //La sortie est transmise au fur et à mesure (trames RESULT/STDERR ou lignes du protocole texte);
+    //si le client lit moins vite que la commande n'écrit, offer() bloque le thread du pool et donc la commande.
+    private void executeCommand(String command, int requestId) {
+        if (requestId >= 0) {
+            activeRequests++;
+        } else {
+            busy = true;
+        }
+        server.execute(() -> {
+            CommandExecutor executor = server.getCommandExecutor();
+            long start = System.nanoTime();
+            try {
+                if (requestId >= 0) {
+                    int exitCode = executor.execute(login, command, new CommandOutput() {
+                        @Override
+                        public void write(boolean error, byte[] data, int length) throws IOException {
+                            offer(compressibleFrame(error ? Frame.STDERR : Frame.RESULT, requestId, data, length));
+                        }
+
+                        @Override
+                        public void flush() {
+                            scheduleDrive();
+                        }
+
+                        @Override
+                        public boolean isClosed() {
+                            return closed;
+                        }
+                    }, shell());
+                    enqueue(frame(Frame.END, requestId, ByteBuffer.allocate(4).putInt(exitCode).array(), 4));
+                    logCommandResult(command, start, exitCode);
+                } else {
+                    TextCommandOutput output = new TextCommandOutput() {//les lignes sont regroupées pour ne pas chiffrer un enregistrement TLS par ligne
+                        private final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+
+                        @Override
+                        protected void writeLine(String line) throws IOException {
+                            lines.write((line + System.lineSeparator()).getBytes());
+                            if (lines.size() >= Frame.DATA_CHUNK_SIZE) {
+                                flush();
+                            }
+                        }
+
+                        @Override
+                        public void flush() throws IOException {
+                            if (lines.size() > 0) {
+                                offer(ByteBuffer.wrap(lines.toByteArray()));
+                                lines.reset();
+                            }
+                            scheduleDrive();
+                        }
+
+                        @Override
+                        public boolean isClosed() {
+                            return closed;
+                        }
+                    };
+                    int exitCode = executor.execute(login, command, output, shell());
+                    output.finish();
+                    logCommandResult(command, start, exitCode);
+                }
+            } catch (Exception e) {
+                server.getMetrics().recordCommandError(System.nanoTime() - start);
+                ClientCommandLogger.logCommandError(clientAddress, command, e.getMessage());
+                String error = String.valueOf(e.getMessage());
+                if (requestId >= 0) {
+                    sendFrame(Frame.ERROR, requestId, error);
+                    sendFrame(Frame.END, requestId, null);
+                } else {
+                    sendLine(Server.ERROR_PREFIX + error);
+                }
+            }
+            if (requestId < 0) {
+                sendLine("END_OF_RESPONSE");
+            }
+            loop.execute(() -> {
+                if (requestId >= 0) {
+                    activeRequests--;
+                } else {
+                    busy = false;
+                }
+                drive();
+            });
+        });
+    }
+
+    private void enqueue(ByteBuffer data) {//ajoute des données à envoyer (n'importe quel thread)
+        outboundBytes.addAndGet(data.remaining());
+        outbound.add(data);
+    }
+
+    //Ajoute des données à envoyer depuis un thread du pool, en attendant d'abord que outbound redescende sous MAX_PENDING_OUTPUT
+    private void offer(ByteBuffer data) throws IOException {
+        synchronized (outboundSpace) {
+            while (outboundBytes.get() > MAX_PENDING_OUTPUT && !closed) {
+                scheduleDrive();
+                try {
+                    outboundSpace.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Commande interrompue: " + e.getMessage());
+                }
+            }
+        }
+        if (closed) {
+            throw new IOException("Session fermée");
+        }
+        enqueue(data);
+    }
+
+    private void scheduleDrive() {//demande à la boucle d'envoyer les données en attente (un seul appel programmé à la fois)
+        if (driveScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                driveScheduled.set(false);
+                drive();
+            });
+        }
+    }
+
+    //Fichier en cours de réception
+    private static class PendingUpload {
+        private final String fileName;
+        private final long start;//début de la réception (System.nanoTime), pour le journal d'audit
+        private File file;//fichier temporaire, enregistré dans le stockage à la fin de l'upload
+        private FileChannel channel;//null si le fichier n'a pas pu être ouvert ou si une écriture a échoué
+        private IOException error;
+        private long bytes;//octets écrits dans le fichier
+
+        private PendingUpload(ContentStore store, String fileName) {
+            this.fileName = fileName;
+            this.start = System.nanoTime();
+            try {
+                ContentStore.checkName(fileName);
+                this.file = store.createTemporaryFile();
+                this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                this.error = e;
+            }
+        }
+
+        private void write(ByteBuffer data) {//écrit les données; en cas d'erreur, les données suivantes sont ignorées
+            if (channel == null) {
+                data.position(data.limit());
+                return;
+            }
+            try {
+                while (data.hasRemaining()) {
+                    bytes += channel.write(data);
+                }
+            } catch (IOException e) {
+                error = e;
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+            channel = null;
+        }
+
+        //Enregistre le fichier reçu dans le stockage (thread du pool: tout le fichier est relu); false en cas d'erreur
+        private boolean commit(ContentStore store) {
+            close();
+            if (error == null) {
+                try {
+                    store.commit(fileName, file);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                discard();
+            }
+            return error == null;
+        }
+
+        private void discard() {//upload interrompu: le fichier temporaire est supprimé
+            close();
+            if (file != null) file.delete();
+        }
+    }
+
+    //Exécute une tâche bloquante (enregistrement d'un fichier reçu, recherche de blocs) dans le pool de threads;
+    //comme une commande, elle compte parmi les requêtes en cours, ou suspend le protocole texte si requestId < 0
+    private void executeBlocking(int requestId, Runnable task) {
+        if (requestId >= 0) {
+            activeRequests++;
+        } else {
+            busy = true;
+        }
+        server.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                loop.execute(() -> {
+                    if (requestId >= 0) {
+                        activeRequests--;
+                    } else {
+                        busy = false;
+                    }
+                    drive();
+                });
+            }
+        });
+    }
+
+    private void startUpload(String command) {
+        String[] parts = command.split(" ");
+        if (parts.length != 2) {
+            ClientCommandLogger.logCommandError(clientAddress, command, "Format de commande UPLOAD invalide");
+            sendLine(Server.ERROR_PREFIX + "Format de commande UPLOAD invalide");
+            sendLine("END_OF_RESPONSE");
+            return;
+        }
+        PendingUpload upload = new PendingUpload(server.getContentStore(), parts[1]);
+        if (upload.error != null) {
+            ClientCommandLogger.logCommandError(clientAddress, command, "Erreur lors de la réception du fichier : " + upload.error.getMessage());
+            sendLine(Server.ERROR_PREFIX + "Erreur lors de la réception du fichier: " + upload.error.getMessage());
+            sendLine("END_OF_RESPONSE");
+            return;
+        }
+        textUpload = upload;
+        state = State.UPLOAD;
+        ClientCommandLogger.logCommand(clientAddress, "Prêt à recevoir le fichier " + upload.fileName);
+        sendLine(Server.RESULT_PREFIX + "Prêt à recevoir le fichier");
+        ClientCommandLogger.logCommand(clientAddress, "Début de la réception du fichier : " + upload.fileName);
+    }
+
+    //Écrit dans le fichier les données reçues jusqu'au marqueur END_OF_FILE.
+    //Le marqueur est recherché sur l'ensemble des données en attente: il peut donc être réparti sur plusieurs lectures.
+    //Retourne false s'il faut attendre d'autres données.
+    private boolean receiveUploadData() {
+        int start = appIn.position();
+        int markerIndex = indexOf(appIn, END_OF_FILE_MARKER);
+        int end = markerIndex >= 0 ? markerIndex : Math.max(start, appIn.limit() - (END_OF_FILE_MARKER.length - 1));
+        if (end == start && markerIndex < 0) {
+            return false;//seul un début possible de marqueur est disponible
+        }
+
+        ByteBuffer data = appIn.duplicate();
+        data.limit(end);
+        textUpload.write(data);
+        appIn.position(end);
+
+        if (markerIndex >= 0) {
+            appIn.position(markerIndex + END_OF_FILE_MARKER.length);
+            ClientCommandLogger.logCommand(clientAddress, "Marqueur de fin de fichier reçu");
+            PendingUpload upload = textUpload;
+            textUpload = null;
+            state = State.COMMANDS;
+            executeBlocking(-1, () -> {
+                if (upload.commit(server.getContentStore())) {
+                    ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.fileName);
+                    logTransfer(ClientHandler.UPLOAD_COMMAND, upload.fileName, upload.bytes, upload.start);
+                    sendLine(Server.RESULT_PREFIX + "Fichier reçu avec succès: " + upload.fileName);
+                } else {
+                    ClientCommandLogger.logCommandError(clientAddress, "UPLOAD " + upload.fileName, "Erreur lors de la réception du fichier : " + upload.error.getMessage());
+                    sendLine(Server.ERROR_PREFIX + "Erreur lors de la réception du fichier: " + upload.error.getMessage());
+                }
+                sendLine("END_OF_RESPONSE");
+            });
+        }
+        return true;
+    }
+
+    private void logCommandResult(String command, long start, int exitCode) {//journal d'audit et mesures: commande terminée
+        long nanos = System.nanoTime() - start;
+        server.getMetrics().recordCommand(nanos, exitCode);
+        ClientCommandLogger.logCommandResult(clientAddress, login, command, nanos / 1_000_000, exitCode);
+    }
+
+    private void logTransfer(String transfer, String fileName, long bytes, long start) {//journal d'audit et mesures: transfert terminé
+        long nanos = System.nanoTime() - start;
+        if (transfer.equals(ClientHandler.UPLOAD_COMMAND)) {
+            server.getMetrics().recordUpload(bytes, nanos);
+        } else {
+            server.getMetrics().recordDownload(bytes, nanos);
+        }
+        ClientCommandLogger.logTransfer(clientAddress, login, transfer + " " + fileName, bytes, nanos / 1_000_000);
+    }
+
+    static int indexOf(ByteBuffer buffer, byte[] pattern) {//position du motif dans [position, limit) ou -1
+        int last = buffer.limit() - pattern.length;
+        outer:
+        for (int i = buffer.position(); i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void startDownload(String command) {
+        String[] parts = command.split(" ");
+        if (parts.length != 2) {
+            ClientCommandLogger.logCommandError(clientAddress, command, "Format de commande DOWNLOAD invalide");
+            sendLine(Server.ERROR_PREFIX + "Format de commande DOWNLOAD invalide");
+            return;
+        }
+        String fileName = parts[1];
+        try {
+            StoredFile file = server.openFile(fileName);
+            if (file == null) {
+                ClientCommandLogger.logCommandError(clientAddress, command, "Fichier introuvable : " + fileName);
+                sendLine(Server.ERROR_PREFIX + "Fichier introuvable: " + fileName);
+                return;
+            }
+            openDownload(file, -1, DownloadRange.WHOLE_FILE);
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, command, "Erreur lors de l'envoi du fichier : " + e.getMessage());
+            sendLine(Server.ERROR_PREFIX + "Erreur lors de l'envoi du fichier: " + e.getMessage());
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, "Début du transfert du fichier : " + fileName);
+        sendLine(Server.RESULT_PREFIX + "Début du transfert du fichier: " + fileName);
+    }
+
+    //Fichier en cours d'envoi
+    private static class PendingDownload {
+        private final String fileName;
+        private final StoredFile file;//blocs du stockage ou fichier ordinaire, fermé à la fin du transfert
+        private final long size;//taille du fichier
+        private final long from;//début de la plage envoyée (0 sans FLAG_RANGE)
+        private final long end;//fin de la plage envoyée (taille du fichier sans FLAG_RANGE)
+        private final int requestId;//identifiant de requête (protocole binaire), -1 en protocole texte
+        private final long start;//début du transfert (System.nanoTime), pour le journal d'audit
+        private MappedByteBuffer window;//fenêtre du fichier projetée en mémoire, chiffrée directement par le SSLEngine
+        private byte[] compressed;//bloc compressé en cours d'envoi (compression négociée uniquement)
+        private long position;//position dans le fichier du début du prochain bloc
+
+        private PendingDownload(StoredFile file, int requestId, DownloadRange range) throws IOException {
+            this.fileName = file.getName();
+            this.file = file;
+            this.size = file.size();
+            try {
+                this.end = range.end(size);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            this.from = range.start;
+            this.position = range.start;
+            this.requestId = requestId;
+            this.start = System.nanoTime();
+        }
+    }
+
+    //Ouvre un fichier à envoyer; requestId < 0 pour le protocole texte
+    private PendingDownload openDownload(StoredFile file, int requestId, DownloadRange range) throws IOException {
+        PendingDownload download = new PendingDownload(file, requestId, range);
+        downloads.add(download);
+        if (requestId >= 0) {
+            activeRequests++;
+        } else {
+            busy = true;//protocole texte: aucune autre requête n'est traitée pendant le transfert
+        }
+        return download;
+    }
+
+    //Retourne le prochain bloc à envoyer, sans copie: chaque fichier est projeté en mémoire par fenêtres
+    //(MAP_WINDOW_SIZE) et le SSLEngine chiffre directement depuis la projection. Un bloc n'est préparé que lorsque le
+    //précédent a été chiffré: un client lent ralentit la lecture au lieu de remplir la mémoire.
+    //Les downloads simultanés sont servis à tour de rôle, un bloc chacun.
+    //Les positions sont des long: les fichiers de plus de 2 Go sont envoyés fenêtre par fenêtre.
+    private ByteBuffer[] nextDownloadChunk() throws IOException {
+        PendingDownload download = downloads.poll();
+        boolean binary = download.requestId >= 0;
+        if (download.position >= download.end) {
+            finishDownload(download);
+            ClientCommandLogger.logCommand(clientAddress, "Fin du transfert du fichier : " + download.fileName);
+            logTransfer(ClientHandler.DOWNLOAD_COMMAND, download.fileName, download.end - download.from, download.start);
+            if (binary) {
+                return new ByteBuffer[] {frame(Frame.END, download.requestId, null)};
+            }
+            return new ByteBuffer[] {ByteBuffer.wrap("END_OF_FILE\n".getBytes())};
+        }
+        if (download.window == null || download.window.position() == download.window.capacity()) {
+            long windowSize = Math.min(MAP_WINDOW_SIZE, download.end - download.position);
+            download.window = download.file.map(download.position, windowSize);//fenêtre limitée à la fin du fichier
+        }
+        MappedByteBuffer window = download.window;
+        int chunkSize = Math.min(DOWNLOAD_CHUNK_SIZE, window.capacity() - window.position());
+        window.limit(window.position() + chunkSize);
+        download.position += chunkSize;
+        downloads.add(download);//au tour du download suivant
+        if (!binary) {
+            downloadTextChunk[0] = window;
+            return downloadTextChunk;
+        }
+        downloadHeader.clear();
+        downloadChunk[0] = downloadHeader;
+        downloadChunk[1] = window;
+        Compressor compressor = this.compressor;
+        if (compressor != null) {//le bloc n'est copié que s'il gagne à être compressé
+            if (download.compressed == null) {
+                download.compressed = new byte[DOWNLOAD_CHUNK_SIZE];
+            }
+            int length = compressor.compress(window, download.compressed, 0);
+            if (length >= 0) {
+                window.position(window.limit());
+                Frame.putHeader(downloadHeader, Frame.DATA, Frame.FLAG_COMPRESSED, download.requestId, length);
+                downloadChunk[1] = ByteBuffer.wrap(download.compressed, 0, length);
+            }
+        }
+        if (downloadHeader.position() == 0) {
+            Frame.putHeader(downloadHeader, Frame.DATA, download.requestId, chunkSize);
+        }
+        downloadHeader.flip();
+        return downloadChunk;
+    }
+
+    private void finishDownload(PendingDownload download) throws IOException {
+        download.file.close();
+        download.window = null;//la projection est libérée par le ramasse-miettes
+        if (download.requestId >= 0) {
+            activeRequests--;
+        } else {
+            busy = false;
+        }
+    }
+
+    private void sendLine(String line) {
+        enqueue(ByteBuffer.wrap((line + System.lineSeparator()).getBytes()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Protocole binaire
+    // ---------------------------------------------------------------------------------------------
+
+    //Traite la trame suivante de appIn; retourne false s'il faut attendre d'autres données.
+    //La charge utile d'une trame DATA ou CHUNK est écrite dans le fichier au fur et à mesure de sa réception;
+    //les autres trames ne sont traitées qu'une fois complètes.
+    private boolean processFrame() throws IOException {
+        if (dataRemaining > 0) {
+            int length = Math.min(dataRemaining, appIn.remaining());
+            ByteBuffer data = appIn.duplicate();
+            data.limit(appIn.position() + length);
+            if (chunkData) {
+                writeChunk(data);
+            } else {
+                PendingUpload upload = binaryUploads.get(dataRequestId);
+                DeltaUpload delta = upload == null ? deltaUploads.get(dataRequestId) : null;
+                if (upload != null) {
+                    upload.write(data);
+                } else if (delta != null) {//octets nouveaux d'un envoi différentiel
+                    delta.write(data);
+                }
+            }
+            appIn.position(appIn.position() + length);
+            dataRemaining -= length;
+            if (dataRemaining == 0 && chunkData) {
+                endChunk();
+            }
+            return true;
+        }
+        if (appIn.remaining() < Frame.HEADER_SIZE) {
+            return false;
+        }
+        int start = appIn.position();
+        int version = appIn.get(start);
+        byte type = appIn.get(start + 1);
+        byte flags = appIn.get(start + 2);
+        int requestId = appIn.getInt(start + 3);
+        int length = appIn.getInt(start + 7);
+        if (version != Protocole.VERSION || length < 0 || length > Frame.MAX_PAYLOAD) {
+            ClientCommandLogger.logConnectionError(clientAddress, "Trame invalide (version " + version + ", taille " + length + ")");
+            closeNow();
+            return false;
+        }
+        if (type == Frame.DATA) {
+            appIn.position(start + Frame.HEADER_SIZE);
+            dataRequestId = requestId;
+            dataRemaining = length;
+            chunkData = false;
+            return true;
+        }
+        if (type == Frame.CHUNK && length >= Frame.CHUNK_HEADER_SIZE && (flags & Frame.FLAG_COMPRESSED) == 0) {
+            if (appIn.remaining() < Frame.HEADER_SIZE + Frame.CHUNK_HEADER_SIZE) {
+                return false;
+            }
+            long position = appIn.getLong(start + Frame.HEADER_SIZE);
+            int checksum = appIn.getInt(start + Frame.HEADER_SIZE + 8);
+            appIn.position(start + Frame.HEADER_SIZE + Frame.CHUNK_HEADER_SIZE);
+            dataRequestId = requestId;
+            dataRemaining = length - Frame.CHUNK_HEADER_SIZE;
+            chunkData = true;
+            beginChunk(position, checksum);
+            if (dataRemaining == 0) {
+                endChunk();
+            }
+            return true;
+        }
+        if (length > maxControlLength(type)) {
+            ClientCommandLogger.logConnectionError(clientAddress, "Trame de contrôle trop longue: " + length);
+            closeNow();
+            return false;
+        }
+        if (appIn.remaining() < Frame.HEADER_SIZE + length) {
+            return false;//trame incomplète: unwrap() agrandit le tampon si nécessaire
+        }
+        byte[] payload = new byte[length];
+        appIn.position(start + Frame.HEADER_SIZE);
+        appIn.get(payload);
+        if (type == Frame.RESUME) {
+            openResumableUpload(requestId, payload, (flags & Frame.FLAG_RANGE) != 0);
+        } else if (type == Frame.CHUNK) {
+            receiveCompressedChunk(requestId, payload);
+        } else if (type == Frame.HAVE) {
+            executeBlocking(requestId, () -> answerBlockQuery(requestId, payload));
+        } else if (type == Frame.SIGNATURE) {
+            String fileName = new String(payload, StandardCharsets.UTF_8);
+            executeBlocking(requestId, () -> sendSignatures(requestId, fileName));
+        } else if (type == Frame.BATCH) {
+            startBatch(requestId, payload);
+        } else if (type == Frame.DELTA) {
+            openDeltaUpload(requestId, payload);
+        } else if (type == Frame.COPY) {
+            DeltaUpload delta = deltaUploads.get(requestId);
+            if (delta != null) {
+                delta.copy(payload);
+            }
+        } else if (type == Frame.EOF && deltaUploads.containsKey(requestId)) {//la charge utile est le SHA-256 du fichier
+            DeltaUpload delta = deltaUploads.remove(requestId);
+            executeBlocking(requestId, () -> finishDeltaUpload(requestId, delta, payload));
+        } else if (type == Frame.DOWNLOAD) {
+            DownloadRange range = DownloadRange.parse(payload, flags);
+            String fileName = new String(payload, range.nameOffset, payload.length - range.nameOffset, StandardCharsets.UTF_8);
+            ClientCommandLogger.logCommand(clientAddress, ClientHandler.DOWNLOAD_COMMAND + " " + fileName);
+            startBinaryDownload(requestId, fileName, range);
+        } else {
+            handleFrame(type, requestId, new String(payload, StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    private static int maxControlLength(byte type) {//une trame HAVE porte une empreinte par bloc, une trame BATCH toutes les commandes du lot
+        return type == Frame.HAVE ? BlockQuery.MAX_LENGTH : type == Frame.BATCH ? Frame.MAX_BATCH_LENGTH : MAX_LINE_LENGTH;
+    }
+
+    private void handleFrame(byte type, int requestId, String text) {
+        switch (type) {
+            case Frame.CMD:
+                ClientCommandLogger.logCommand(clientAddress, text);
+                executeCommand(text, requestId);
+                break;
+            case Frame.UPLOAD:
+                ClientCommandLogger.logCommand(clientAddress, ClientHandler.UPLOAD_COMMAND + " " + text);
+                PendingUpload upload = new PendingUpload(server.getContentStore(), text);
+                if (upload.error == null) {
+                    ClientCommandLogger.logCommand(clientAddress, "Début de la réception du fichier : " + text);
+                }
+                binaryUploads.put(requestId, upload);
+                break;
+            case Frame.EOF:
+                ResumableUpload resumable = resumableUploads.remove(requestId);
+                PendingUpload finished = binaryUploads.remove(requestId);
+                if (resumable != null) {//l'enregistrement dans le stockage relit tout le fichier: il est fait dans le pool
+                    executeBlocking(requestId, () -> finishResumableUpload(requestId, resumable));
+                } else {
+                    executeBlocking(requestId, () -> finishBinaryUpload(requestId, finished));
+                }
+                break;
+            case Frame.DISCONNECT:
+                closing = true;
+                break;
+            default:
+                sendFrame(Frame.ERROR, requestId, "Type de trame inconnu: " + type);
+                sendFrame(Frame.END, requestId, null);
+                break;
+        }
+    }
+
+    private void finishBinaryUpload(int requestId, PendingUpload upload) {
+        if (upload == null) {
+            sendFrame(Frame.ERROR, requestId, "Aucun upload en cours pour cette requête");
+        } else {
+            if (upload.commit(server.getContentStore())) {
+                ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.fileName);
+                logTransfer(ClientHandler.UPLOAD_COMMAND, upload.fileName, upload.bytes, upload.start);
+                sendFrame(Frame.RESULT, requestId, "Fichier reçu avec succès: " + upload.fileName);
+            } else {
+                ClientCommandLogger.logCommandError(clientAddress, ClientHandler.UPLOAD_COMMAND + " " + upload.fileName, "Erreur lors de la réception du fichier : " + upload.error.getMessage());
+                sendFrame(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + upload.error.getMessage());
+            }
+        }
+        sendFrame(Frame.END, requestId, null);
+    }
+
+    //Exécute un lot de commandes (trame BATCH) dans le pool de threads: une trame BATCH par commande terminée, puis END
+    private void startBatch(int requestId, byte[] payload) {
+        CommandBatch batch;
+        try {
+            batch = CommandBatch.parse(payload, server.getMaxBatchParallelism(), server.getBatchTimeoutMillis());
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, ClientHandler.BATCH_COMMAND, e.getMessage());
+            sendFrame(Frame.ERROR, requestId, e.getMessage());
+            sendFrame(Frame.END, requestId, null);
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, ClientHandler.BATCH_COMMAND + " " + batch.size() + " commandes (parallélisme " + batch.getParallelism() + ")");
+        executeBlocking(requestId, () -> {
+            try {
+                batch.run(server.getCommandExecutor(), login, server::execute, () -> closed, result -> {
+                    logBatchResult(result);
+                    byte[] encoded = result.encode();
+                    offer(compressibleFrame(Frame.BATCH, requestId, encoded, encoded.length));
+                    scheduleDrive();
+                });
+            } catch (IOException e) {//session fermée: les commandes restantes n'ont pas été lancées
+                return;
+            }
+            sendFrame(Frame.END, requestId, null);
+        });
+    }
+
+    private PersistentShell shell() {//shell persistant de la session, null s'il n'y en a pas (nouveau processus par commande)
+        return shell != null ? shell.get() : null;
+    }
+
+    private void logBatchResult(CommandBatch.Result result) {//journal d'audit et mesures: commande d'un lot terminée
+        if (result.status == Frame.BATCH_EXITED) {
+            logCommandResult(result.command, result.start, result.exitCode);
+        } else {
+            server.getMetrics().recordCommandError(System.nanoTime() - result.start);
+            ClientCommandLogger.logCommandError(clientAddress, result.command, result.error);
+        }
+    }
+
+    //Répond à une trame HAVE (thread du pool): le fichier est enregistré sans transfert si le stockage a tous ses blocs (RESULT),
+    //sinon la réponse HAVE indique les blocs que le client n'a pas à envoyer
+    private void answerBlockQuery(int requestId, byte[] payload) {
+        long start = System.nanoTime();
+        try {
+            BlockQuery query = BlockQuery.parse(payload);
+            byte[] known = query.resolve(server.getContentStore());
+            if (known == null) {
+                ClientCommandLogger.logCommand(clientAddress, "Fichier déjà présent, enregistré sans transfert : " + query.fileName);
+                logTransfer(ClientHandler.UPLOAD_COMMAND, query.fileName, 0, start);
+                sendFrame(Frame.RESULT, requestId, "Fichier reçu avec succès: " + query.fileName);
+            } else {
+                enqueue(frame(Frame.HAVE, requestId, known, known.length));
+            }
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, ClientHandler.UPLOAD_COMMAND, "Erreur lors de la recherche des blocs : " + e.getMessage());
+            sendFrame(Frame.ERROR, requestId, "Erreur lors de la recherche des blocs: " + e.getMessage());
+        }
+        sendFrame(Frame.END, requestId, null);
+    }
+
+    //Répond à une trame SIGNATURE (thread du pool): signatures des blocs de la version stockée du fichier, aucune s'il n'en a pas
+    private void sendSignatures(int requestId, String fileName) {
+        try {
+            DeltaUpload.writeSignatures(server.getContentStore(), fileName, (payload, length) -> offer(frame(Frame.SIGNATURE, requestId, payload, length)));
+        } catch (IOException e) {//nom invalide ou fichier illisible: le client enverra le fichier entier
+            sendFrame(Frame.ERROR, requestId, e.getMessage());
+        }
+        sendFrame(Frame.END, requestId, null);
+    }
+
+    private void openDeltaUpload(int requestId, byte[] request) {
+        DeltaUpload upload;
+        try {
+            upload = DeltaUpload.open(server.getContentStore(), request);
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, ClientHandler.UPLOAD_COMMAND, "Erreur lors de la réception du fichier : " + e.getMessage());
+            sendFrame(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + e.getMessage());
+            sendFrame(Frame.END, requestId, null);
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, ClientHandler.UPLOAD_COMMAND + " " + upload.getFileName() + " (différentiel)");
+        DeltaUpload previous = deltaUploads.put(requestId, upload);
+        if (previous != null) {
+            previous.discard();
+        }
+    }
+
+    private void finishDeltaUpload(int requestId, DeltaUpload upload, byte[] checksum) {//thread du pool
+        try {
+            upload.finish(checksum);
+            ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.getFileName() + " (" + upload.getCopiedBytes() + " octets repris de la version précédente)");
+            logTransfer(ClientHandler.UPLOAD_COMMAND, upload.getFileName(), upload.getReceivedBytes(), upload.getStart());
+            sendFrame(Frame.RESULT, requestId, "Fichier reçu avec succès: " + upload.getFileName());
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, ClientHandler.UPLOAD_COMMAND + " " + upload.getFileName(), "Erreur lors de la réception du fichier : " + e.getMessage());
+            sendFrame(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + e.getMessage());
+        }
+        sendFrame(Frame.END, requestId, null);
+    }
+
+    //Ouvre ou reprend un upload par blocs et répond OFFSET avec la position à partir de laquelle le client doit envoyer les blocs.
+    //L'ouverture lit et réécrit l'état enregistré: elle est faite dans le pool, l'upload est ensuite confié à la boucle.
+    private void openResumableUpload(int requestId, byte[] request, boolean ranged) {
+        executeBlocking(requestId, () -> {
+            ResumableUpload upload;
+            try {
+                upload = ResumableUpload.open(server.getContentStore(), request, ranged);
+            } catch (IOException e) {
+                ClientCommandLogger.logCommandError(clientAddress, ClientHandler.UPLOAD_COMMAND, "Erreur lors de la réception du fichier : " + e.getMessage());
+                sendFrame(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + e.getMessage());
+                sendFrame(Frame.END, requestId, null);
+                return;
+            }
+            ClientCommandLogger.logCommand(clientAddress, ClientHandler.UPLOAD_COMMAND + " " + upload.getDescription());
+            if (upload.getResumedFrom() > 0) {
+                ClientCommandLogger.logCommand(clientAddress, "Reprise de la réception du fichier : " + upload.getDescription() + " à l'octet " + upload.getOffset());
+            } else {
+                ClientCommandLogger.logCommand(clientAddress, "Début de la réception du fichier : " + upload.getDescription());
+            }
+            loop.execute(() -> startResumableUpload(requestId, upload));
+        });
+    }
+
+    private void startResumableUpload(int requestId, ResumableUpload upload) {
+        if (closed) {//session fermée pendant l'ouverture
+            suspendInBackground(upload);
+            return;
+        }
+        ResumableUpload previous = resumableUploads.put(requestId, upload);
+        if (previous != null) {
+            suspendInBackground(previous);
+        }
+        byte[] offset = ByteBuffer.allocate(8).putLong(upload.getOffset()).array();
+        enqueue(frame(Frame.OFFSET, requestId, offset, offset.length));
+    }
+
+    //Suspend un upload par blocs dans le pool (la position confirmée est forcée sur disque), ou tout de suite si le pool est arrêté
+    private void suspendInBackground(ResumableUpload upload) {
+        try {
+            server.execute(upload::suspend);
+        } catch (RejectedExecutionException e) {
+            upload.suspend();
+        }
+    }
+
+    //Fin d'un bloc; le point d'enregistrement éventuel (données forcées, état réécrit) est fait dans le pool
+    private void endChunk(int requestId, ResumableUpload upload) throws IOException {
+        if (upload.endChunk()) {
+            executeBlocking(requestId, () -> {
+                try {
+                    upload.checkpoint();
+                } catch (IOException e) {
+                    loop.execute(() -> {
+                        if (resumableUploads.remove(requestId, upload)) {
+                            abortResumableUpload(requestId, upload, e);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    //Bloc compressé (trame complète): décompressé puis vérifié et écrit comme un bloc reçu au fil de l'eau
+    private void receiveCompressedChunk(int requestId, byte[] payload) {
+        ResumableUpload upload = resumableUploads.get(requestId);
+        if (upload == null) {
+            return;
+        }
+        try {
+            if (compressor == null || payload.length < Frame.CHUNK_HEADER_SIZE) {
+                throw new IOException(compressor == null ? "Compression non négociée" : "Trame CHUNK invalide");
+            }
+            ByteBuffer header = ByteBuffer.wrap(payload, 0, Frame.CHUNK_HEADER_SIZE);
+            long position = header.getLong();
+            int checksum = header.getInt();
+            byte[] inflated = new byte[Frame.DATA_CHUNK_SIZE];
+            int size = compressor.decompress(payload, Frame.CHUNK_HEADER_SIZE, payload.length - Frame.CHUNK_HEADER_SIZE, inflated, 0);
+            upload.beginChunk(position, checksum, size);
+            upload.write(ByteBuffer.wrap(inflated, 0, size));
+            endChunk(requestId, upload);
+        } catch (IOException e) {
+            resumableUploads.remove(requestId);
+            abortResumableUpload(requestId, upload, e);
+        }
+    }
+
+    private void beginChunk(long position, int checksum) {//les blocs d'un upload inconnu ou déjà en erreur sont ignorés
+        ResumableUpload upload = resumableUploads.get(dataRequestId);
+        if (upload != null) {
+            try {
+                upload.beginChunk(position, checksum, dataRemaining);
+            } catch (IOException e) {
+                resumableUploads.remove(dataRequestId);
+                abortResumableUpload(dataRequestId, upload, e);
+            }
+        }
+    }
+
+    private void writeChunk(ByteBuffer data) {
+        ResumableUpload upload = resumableUploads.get(dataRequestId);
+        if (upload != null) {
+            try {
+                upload.write(data);
+            } catch (IOException e) {
+                resumableUploads.remove(dataRequestId);
+                abortResumableUpload(dataRequestId, upload, e);
+            }
+        }
+    }
+
+    private void endChunk() {
+        chunkData = false;
+        ResumableUpload upload = resumableUploads.get(dataRequestId);
+        if (upload != null) {
+            try {
+                endChunk(dataRequestId, upload);
+            } catch (IOException e) {
+                resumableUploads.remove(dataRequestId);
+                abortResumableUpload(dataRequestId, upload, e);
+            }
+        }
+    }
+
+    //Bloc invalide ou erreur d'écriture: l'upload est suspendu à sa position confirmée, le client le reprendra
+    private void abortResumableUpload(int requestId, ResumableUpload upload, IOException error) {
+        suspendInBackground(upload);
+        ClientCommandLogger.logCommandError(clientAddress, ClientHandler.UPLOAD_COMMAND + " " + upload.getDescription(), "Erreur lors de la réception du fichier : " + error.getMessage());
+        sendFrame(Frame.ERROR, requestId, "Erreur lors de la réception du fichier: " + error.getMessage());
+        sendFrame(Frame.END, requestId, null);
+    }
+
+    private void finishResumableUpload(int requestId, ResumableUpload upload) {
+        boolean complete;
+        try {
+            complete = upload.finish();
+        } catch (IOException e) {
+            abortResumableUpload(requestId, upload, e);
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, "Fin de la réception du fichier : " + upload.getDescription());
+        logTransfer(ClientHandler.UPLOAD_COMMAND, upload.getDescription(), upload.getReceivedBytes(), upload.getStart());
+        sendFrame(Frame.RESULT, requestId, complete ? "Fichier reçu avec succès: " + upload.getFileName() : "Plage reçue: " + upload.getDescription());
+        sendFrame(Frame.END, requestId, null);
+    }
+
+    private void startBinaryDownload(int requestId, String fileName, DownloadRange range) {
+        try {
+            StoredFile file = server.openFile(fileName);
+            if (file == null) {
+                throw new IOException("Fichier introuvable: " + fileName);
+            }
+            PendingDownload download = openDownload(file, requestId, range);
+            if (range.ranged) {//taille totale, pour que le client découpe le fichier et vérifie qu'il n'a pas changé
+                byte[] size = ByteBuffer.allocate(8).putLong(download.size).array();
+                enqueue(frame(Frame.OFFSET, requestId, size, size.length));
+            }
+        } catch (IOException e) {
+            ClientCommandLogger.logCommandError(clientAddress, ClientHandler.DOWNLOAD_COMMAND + " " + fileName, e.getMessage());
+            sendFrame(Frame.ERROR, requestId, e.getMessage());
+            sendFrame(Frame.END, requestId, null);
+            return;
+        }
+        ClientCommandLogger.logCommand(clientAddress, "Début du transfert du fichier : " + fileName);
+        sendFrame(Frame.RESULT, requestId, "Début du transfert du fichier: " + fileName);
+    }
+
+    private static ByteBuffer frame(byte type, int requestId, String text) {//encode une trame de texte (ou sans charge utile si text est null)
+        byte[] payload = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return frame(type, requestId, payload, payload.length);
+    }
+
+    private static ByteBuffer frame(byte type, int requestId, byte[] payload, int length) {//encode une trame dont la charge utile est payload[0..length)
+        ByteBuffer buffer = ByteBuffer.allocate(Frame.HEADER_SIZE + length);
+        Frame.putHeader(buffer, type, requestId, length);
+        buffer.put(payload, 0, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    //Encode une trame RESULT ou STDERR, compressée si la compression a été négociée et que les données y gagnent
+    private ByteBuffer compressibleFrame(byte type, int requestId, byte[] data, int length) {
+        Compressor compressor = this.compressor;
+        if (compressor != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(Frame.HEADER_SIZE + length);
+            int compressed = compressor.compress(data, 0, length, buffer.array(), Frame.HEADER_SIZE);
+            if (compressed >= 0) {
+                Frame.putHeader(buffer, type, Frame.FLAG_COMPRESSED, requestId, compressed);
+                buffer.limit(Frame.HEADER_SIZE + compressed);
+                buffer.position(0);
+                return buffer;
+            }
+        }
+        return frame(type, requestId, data, length);
+    }
+
+    private void sendFrame(byte type, int requestId, String text) {
+        enqueue(frame(type, requestId, text));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Fermeture
+    // ---------------------------------------------------------------------------------------------
+
+    private void release(Closeable resource) {//libère une ressource de la session fermée; une erreur est journalisée
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            ClientCommandLogger.logDisconnectionError(clientAddress, "Erreur lors de la fermeture des ressources: " + e.getMessage());
+        }
+    }
+
+    void closeNow() {//ferme la session (thread de la boucle uniquement)
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            engine.closeOutbound();
+            if (netOut == null) {
+                netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            }
+            engine.wrap(EMPTY, netOut);//close_notify, envoyé au mieux
+            netOut.flip();
+            channel.write(netOut);
+        } catch (IOException e) {
+            // La connexion est peut-être déjà rompue
+        }
+        try {//chaque ressource est libérée même si la précédente a échoué, et le canal est toujours fermé
+            if (textUpload != null) {
+                release(textUpload::discard);
+            }
+            for (PendingUpload upload : binaryUploads.values()) {
+                release(upload::discard);
+            }
+            for (ResumableUpload upload : resumableUploads.values()) {//la position confirmée est enregistrée pour la reprise
+                release(() -> suspendInBackground(upload));
+            }
+            for (DeltaUpload upload : deltaUploads.values()) {
+                release(upload::discard);
+            }
+            for (PendingDownload download : downloads) {//rend les blocs retenus dans le stockage
+                release(download.file);
+            }
+        } finally {
+            release(channel);
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        synchronized (outboundSpace) {//réveiller une commande qui attend de la place pour sa sortie
+            outboundSpace.notifyAll();
+        }
+        if (shell != null) {
+            release(shell::close);
+        }
+        server.removeClient(this);
+        ClientCommandLogger.logDisconnection(clientAddress, login);
+    }
+}
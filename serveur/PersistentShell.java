@@ -0,0 +1,213 @@
+package serveur;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+//Cette classe garde un shell (/bin/sh) ouvert pour toute une session: chaque commande est écrite sur son entrée standard
+//au lieu de lancer un nouveau processus, ce qui économise le fork/exec et conserve le répertoire courant (cd) et les
+//variables (export) d'une commande à l'autre.
+//La commande est passée à eval entre apostrophes, entrée standard vide (</dev/null): elle ne peut pas lire les commandes
+//suivantes. Elle est suivie de l'écriture d'un marqueur propre au shell (tiré au hasard) sur chacune des deux sorties,
+//avec le code de sortie sur la sortie standard: les lecteurs découpent les sorties sur ces marqueurs.
+//Une commande qui termine le shell (exit, exec, erreur de syntaxe) a pour code celui du shell, comme avec "sh -c";
+//le shell est remplacé à la commande suivante (voir ShellPool). Délai dépassé ou session fermée: le shell est arrêté.
+//La sortie d'une tâche de fond (commande &) produite entre deux commandes est attribuée à la commande suivante.
+final class PersistentShell implements Closeable {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int MARKER_RANDOM_BYTES = 16;
+
+    private final Process process;
+    private final Writer input;
+    private final String marker;//"#fin-" suivi de 32 chiffres hexadécimaux: '#' n'apparaît qu'au début
+    private final BlockingQueue<CommandExecutor.OutputChunk> chunks = new ArrayBlockingQueue<>(CommandExecutor.PENDING_CHUNKS);
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile int exitCode;//code de la commande en cours, lu après son marqueur (-1 avant)
+    private volatile boolean ended;//une des sorties est fermée: le shell s'est terminé
+    private volatile boolean closed;
+
+    private PersistentShell(Process process) {
+        this.process = process;
+        this.input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+        StringBuilder text = new StringBuilder("#fin-");
+        byte[] random = new byte[MARKER_RANDOM_BYTES];
+        RANDOM.nextBytes(random);
+        for (byte b : random) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        this.marker = text.toString();
+        startReader(process.getInputStream(), false);
+        startReader(process.getErrorStream(), true);
+    }
+
+    static boolean isSupported() {//le shell persistant suppose un shell Unix
+        return !System.getProperty("os.name").toLowerCase().contains("windows");
+    }
+
+    static PersistentShell start() throws IOException {
+        return new PersistentShell(new ProcessBuilder("/bin/sh").start());
+    }
+
+    boolean isAlive() {
+        return !closed && !ended && process.isAlive();
+    }
+
+    boolean tryAcquire() {//réserve le shell pour une commande; false s'il en exécute déjà une
+        return busy.compareAndSet(false, true);
+    }
+
+    void release() {
+        busy.set(false);
+    }
+
+    //Exécute command et transmet sa sortie comme CommandExecutor (même délai, même arrêt si la session est fermée).
+    //Retourne le code de sortie de la commande, ou celui du shell si elle l'a terminé.
+    int execute(String command, CommandOutput output, long timeoutMillis) throws IOException {
+        if (!isAlive()) {
+            throw new IOException("Shell persistant arrêté");
+        }
+        long deadline = CommandExecutor.deadline(timeoutMillis);
+        exitCode = -1;
+        boolean completed = false;
+        try {
+            input.write("eval '" + command.replace("'", "'\\''") + "' </dev/null\n");
+            input.write("printf '%s%d\\n' '" + marker + "' \"$?\"; printf '%s' '" + marker + "' >&2\n");
+            input.flush();
+            CommandExecutor.transfer(chunks, output, deadline, timeoutMillis);
+            completed = true;
+            if (exitCode >= 0) {
+                return exitCode;
+            }
+            return process.waitFor();//la commande a terminé le shell: ses sorties sont fermées
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Commande interrompue: " + e.getMessage());
+        } finally {
+            if (!completed) {//délai dépassé, session fermée ou shell inutilisable: la commande et le shell sont arrêtés
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private void startReader(InputStream stream, boolean error) {
+        Thread thread = new Thread(new MarkerReader(stream, error), "lecture-shell");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Lit une des sorties du shell pendant toute sa vie et dépose ses blocs dans la file, puis END_OF_STREAM à chaque marqueur
+    private final class MarkerReader implements Runnable {
+        private final InputStream stream;
+        private final boolean error;
+        private final byte[] pattern = marker.getBytes(StandardCharsets.US_ASCII);
+        private byte[] pending = new byte[CommandExecutor.CHUNK_SIZE];//octets lus pas encore déposés
+        private int pendingLength;
+        private int matched;//octets du marqueur reconnus (retenus en attendant de savoir si le marqueur est complet)
+        private int code = -1;//code de sortie en cours de lecture après le marqueur (sortie standard), -1 sinon
+
+        private MarkerReader(InputStream stream, boolean error) {
+            this.stream = stream;
+            this.error = error;
+        }
+
+        @Override
+        public void run() {
+            try (InputStream in = stream) {
+                byte[] data = new byte[CommandExecutor.CHUNK_SIZE];
+                int bytesRead;
+                while (!closed && (bytesRead = in.read(data)) != -1) {
+                    for (int i = 0; i < bytesRead; i++) {
+                        accept(data[i]);
+                    }
+                    flushPending();
+                }
+            } catch (IOException e) {
+                // Shell arrêté: la sortie est terminée
+            } finally {
+                appendMatched();
+                flushPending();
+                ended = true;
+                offer(CommandExecutor.END_OF_STREAM);
+            }
+        }
+
+        private void accept(byte b) {
+            if (code >= 0) {//chiffres du code de sortie, jusqu'à la fin de ligne
+                if (b == '\n') {
+                    flushPending();
+                    exitCode = code;
+                    code = -1;
+                    offer(CommandExecutor.END_OF_STREAM);
+                } else if (b >= '0' && b <= '9') {
+                    code = code * 10 + (b - '0');
+                }
+                return;
+            }
+            if (b == pattern[matched]) {
+                if (++matched == pattern.length) {
+                    matched = 0;
+                    if (error) {
+                        flushPending();
+                        offer(CommandExecutor.END_OF_STREAM);
+                    } else {
+                        code = 0;
+                    }
+                }
+                return;
+            }
+            appendMatched();//début du marqueur seulement: ces octets font partie de la sortie
+            if (b == pattern[0]) {
+                matched = 1;
+            } else {
+                append(b);
+            }
+        }
+
+        private void appendMatched() {
+            for (int i = 0; i < matched; i++) {
+                append(pattern[i]);
+            }
+            matched = 0;
+        }
+
+        private void append(byte b) {
+            if (pendingLength == pending.length) {
+                flushPending();
+            }
+            pending[pendingLength++] = b;
+        }
+
+        private void flushPending() {
+            if (pendingLength > 0 && offer(new CommandExecutor.OutputChunk(error, pending, pendingLength))) {
+                pending = new byte[CommandExecutor.CHUNK_SIZE];//le bloc déposé appartient désormais à la file
+            }
+            pendingLength = 0;
+        }
+
+        private boolean offer(CommandExecutor.OutputChunk chunk) {//attend une place dans la file, sauf si le shell est arrêté
+            try {
+                while (!closed) {
+                    if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package serveur;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+//Cette classe garde en mémoire le résultat (sorties et code de sortie) des commandes de consultation que des tableaux de bord
+//relancent toutes les quelques secondes depuis de nombreuses sessions (df -h, uptime, ls /var/log...).
+//Seules les commandes admises par une règle du fichier de règles (ServerConfig.getCommandCacheRules()) sont mises en cache,
+//une ligne par règle: "<durée de validité en ms> <commande>", où '*' remplace n'importe quelle suite de caractères, par exemple
+//  5000 df -h
+//  10000 ls /var/log*
+//Le cache:
+//  - est partagé par les sessions d'un même login (deux logins ne voient jamais le résultat l'un de l'autre)
+//  - regroupe les exécutions simultanées d'une même commande: une seule est lancée, les autres attendent et reçoivent son résultat
+//  - oublie le résultat d'une commande dès qu'un fichier ou répertoire existant nommé dans ses arguments change (WatchService
+//    sur le répertoire, ou sur le répertoire parent d'un fichier): seuls les changements directs sont vus, pas ceux des
+//    sous-répertoires, dont la durée de validité borne le retard
+//  - garde au plus maxBytes octets de sorties; les résultats les moins récemment utilisés sont retirés en premier
+//  - compte les résultats trouvés, regroupés et exécutés (voir getStatistics() et ServerMetrics)
+//Une commande en erreur (session fermée, délai dépassé) ou dont la sortie dépasse MAX_RESULT_BYTES n'est pas mise en cache.
+final class ResultCache implements Closeable {
+    static final int MAX_RESULT_BYTES = 1024 * 1024;//sortie maximale d'un résultat mis en cache
+    private static final long WAIT_CHECK_MILLIS = 1000;//intervalle de vérification de la session pendant l'attente d'une exécution en cours
+
+    private final List<Rule> rules;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();//l'enregistrement d'un répertoire attend le service de surveillance
+    private final Map<String, Result> entries = new LinkedHashMap<>(16, 0.75f, true);//ordre d'accès (protégé par lock)
+    private final Map<Path, Set<String>> watchedKeys = new HashMap<>();//clés des résultats liés à chaque répertoire surveillé (lock)
+    private final Map<String, CompletableFuture<Result>> flights = new ConcurrentHashMap<>();//exécutions en cours, par clé
+    private final Map<Path, Long> versions = new HashMap<>();//changements vus dans chaque répertoire surveillé (lock)
+    private final Logger logger = Logger.getLogger(ResultCache.class.getName());
+    private WatchService watcher;//créé à la première commande liée à un chemin (lock)
+    private long bytes;//taille des sorties gardées (lock)
+    private volatile boolean closed;
+
+    // Statistiques
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    //Exécution réelle de la commande, quand son résultat n'est pas dans le cache
+    interface Execution {
+        int run(CommandOutput output) throws IOException;
+    }
+
+    ResultCache(List<Rule> rules, long maxBytes) {
+        this.rules = new ArrayList<>(rules);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    //Lit les règles du fichier: lignes "<durée en ms> <commande>", lignes vides et commentaires (#) ignorés
+    static List<Rule> readRules(File file) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 2);
+            try {
+                rules.add(new Rule(parts.length == 2 ? parts[1] : "", Long.parseLong(parts[0])));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Règle invalide ligne " + number + " de " + file + ": " + line);
+            }
+        }
+        return rules;
+    }
+
+    //Exécute command pour login: résultat repris du cache s'il y est encore valide, sinon exécution par execution (ou attente
+    //de l'exécution déjà en cours de la même commande) et mise en cache. Une commande sans règle est simplement exécutée.
+    int execute(String login, String command, CommandOutput output, Execution execution) throws IOException {
+        Rule rule = match(command);
+        if (rule == null) {
+            return execution.run(output);
+        }
+        String key = login + '\0' + command;
+        Result cached = get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached.replay(output);
+        }
+        CompletableFuture<Result> flight = new CompletableFuture<>();
+        CompletableFuture<Result> running = flights.putIfAbsent(key, flight);
+        if (running != null) {//même commande en cours pour ce login: attendre son résultat
+            Result result = await(running, output);
+            if (result != null) {
+                coalesced.increment();
+                return result.replay(output);
+            }
+            misses.increment();//exécution en erreur ou résultat trop grand: la commande est exécutée pour cette session
+            return execution.run(output);
+        }
+        misses.increment();
+        Result result = null;
+        try {
+            Map<Path, Long> watched = watch(key, command);
+            Recorder recorder = new Recorder(output);
+            int exitCode = execution.run(recorder);
+            result = recorder.result(exitCode, System.currentTimeMillis() + rule.ttlMillis);
+            if (result != null) {
+                put(key, result, watched);
+            }
+            return exitCode;
+        } finally {
+            flights.remove(key, flight);
+            flight.complete(result);
+        }
+    }
+
+    private Rule match(String command) {
+        String text = command.trim();
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(text).matches()) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private Result await(CompletableFuture<Result> flight, CommandOutput output) throws IOException {
+        while (true) {
+            if (output.isClosed()) {
+                throw new IOException("Session fermée: commande arrêtée");
+            }
+            try {
+                return flight.get(WAIT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Exécution toujours en cours
+            } catch (ExecutionException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Commande interrompue: " + e.getMessage());
+            }
+        }
+    }
+
+    private Result get(String key) {
+        lock.lock();
+        try {
+            Result result = entries.get(key);
+            if (result == null) {
+                return null;
+            }
+            if (result.expiresAt > System.currentTimeMillis()) {
+                return result;
+            }
+            remove(key);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //watched: version de chaque répertoire de la commande avant son exécution; le résultat n'est pas gardé si l'un d'eux a changé
+    //pendant l'exécution (les changements des autres répertoires ne le concernent pas)
+    private void put(String key, Result result, Map<Path, Long> watched) {
+        lock.lock();
+        try {
+            if (closed || result.size > maxBytes) {
+                return;
+            }
+            for (Map.Entry<Path, Long> entry : watched.entrySet()) {
+                if (!versions.get(entry.getKey()).equals(entry.getValue())) {
+                    return;
+                }
+            }
+            remove(key);
+            entries.put(key, result);
+            bytes += result.size;
+            Iterator<Result> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {//retirer les résultats les moins récemment utilisés
+                bytes -= eldest.next().size;
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key) {//appelé sous le verrou
+        Result result = entries.remove(key);
+        if (result != null) {
+            bytes -= result.size;
+        }
+    }
+
+    //Surveille les répertoires des chemins existants nommés dans la commande et y associe key; retourne leurs versions
+    private Map<Path, Long> watch(String key, String command) {
+        List<Path> directories = new ArrayList<>();
+        for (String word : command.split("[\\s|;&<>()]+")) {
+            word = word.replace("'", "").replace("\"", "");
+            if (word.isEmpty() || word.startsWith("-")) {
+                continue;
+            }
+            try {
+                Path path = Paths.get(word).toAbsolutePath().normalize();
+                Path directory = Files.isDirectory(path) ? path : Files.exists(path, LinkOption.NOFOLLOW_LINKS) ? path.getParent() : null;
+                if (directory != null && !directories.contains(directory)) {
+                    directories.add(directory);
+                }
+            } catch (InvalidPathException e) {
+                // Mot qui n'est pas un chemin
+            }
+        }
+        return directories.isEmpty() ? Collections.emptyMap() : register(key, directories);
+    }
+
+    private Map<Path, Long> register(String key, List<Path> directories) {
+        lock.lock();
+        try {
+            Map<Path, Long> watched = new HashMap<>();
+            for (Path directory : directories) {
+                watched.put(directory, versions.computeIfAbsent(directory, d -> 0L));
+            }
+            if (closed) {
+                return watched;
+            }
+            try {
+                if (watcher == null) {
+                    watcher = FileSystems.getDefault().newWatchService();
+                    Thread thread = new Thread(this::watchLoop, "surveillance-cache-commandes");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                for (Path directory : directories) {
+                    Set<String> keys = watchedKeys.get(directory);
+                    if (keys == null) {
+                        directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                        keys = new HashSet<>();
+                        watchedKeys.put(directory, keys);
+                    }
+                    keys.add(key);
+                }
+            } catch (IOException e) {//surveillance impossible (limite du système...): le résultat reste valide jusqu'à l'expiration de sa durée
+                logger.warning("Impossible de surveiller " + directories + ": " + e.getMessage());
+            }
+            return watched;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Thread de surveillance: oublie les résultats liés à un répertoire dès qu'un de ses fichiers est créé, modifié ou supprimé
+    private void watchLoop() {
+        WatchService service;
+        lock.lock();
+        try {
+            service = watcher;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            while (!closed) {
+                WatchKey watchKey = service.take();
+                watchKey.pollEvents();
+                Path directory = (Path) watchKey.watchable();
+                lock.lock();
+                try {
+                    versions.merge(directory, 1L, Long::sum);//gardé même si le répertoire n'est plus surveillé
+                    Set<String> keys = watchedKeys.get(directory);
+                    if (keys != null) {
+                        for (String key : keys) {
+                            if (entries.containsKey(key)) {
+                                invalidations.increment();
+                                remove(key);
+                            }
+                        }
+                        keys.clear();
+                    }
+                    if (!watchKey.reset()) {//répertoire supprimé: il ne sera surveillé à nouveau que s'il est recréé et nommé par une commande
+                        watchedKeys.remove(directory);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Cache fermé
+        }
+    }
+
+    long getHitCount() {//résultats repris du cache
+        return hits.sum();
+    }
+
+    long getCoalescedCount() {//exécutions évitées en attendant celle déjà en cours de la même commande
+        return coalesced.sum();
+    }
+
+    long getMissCount() {//commandes admises exécutées
+        return misses.sum();
+    }
+
+    double getHitRatio() {//part des commandes admises servies sans exécution (0 tant qu'aucune n'a été reçue)
+        long served = getHitCount() + getCoalescedCount();
+        long total = served + getMissCount();
+        return total > 0 ? (double) served / total : 0;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String getStatistics() {
+        return "Cache des commandes: " + getHitCount() + " trouvées, " + getCoalescedCount() + " regroupées, " + getMissCount()
+                + " exécutées, " + invalidations.sum() + " invalidées, " + size() + " résultats gardés (" + getBytes() + " octets)";
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            entries.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // Déjà fermé
+            }
+        }
+    }
+
+    //Règle du fichier de règles: commandes admises et durée de validité de leur résultat
+    static final class Rule {
+        private final Pattern pattern;
+        private final long ttlMillis;
+
+        Rule(String command, long ttlMillis) {
+            if (command.isBlank() || ttlMillis <= 0) {
+                throw new IllegalArgumentException("Règle de cache invalide: " + ttlMillis + " " + command);
+            }
+            StringBuilder regex = new StringBuilder();
+            for (String part : command.trim().split("\\*", -1)) {
+                if (regex.length() > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(part));
+            }
+            this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+    //Sorties (dans l'ordre de production) et code de sortie d'une exécution
+    private static final class Result {
+        private final List<byte[]> chunks;
+        private final BitSet errors;//blocs de la sortie d'erreur
+        private final int exitCode;
+        private final long expiresAt;
+        private final long size;
+
+        private Result(List<byte[]> chunks, BitSet errors, int exitCode, long expiresAt, long size) {
+            this.chunks = chunks;
+            this.errors = errors;
+            this.exitCode = exitCode;
+            this.expiresAt = expiresAt;
+            this.size = size;
+        }
+
+        private int replay(CommandOutput output) throws IOException {
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] chunk = chunks.get(i);
+                output.write(errors.get(i), chunk, chunk.length);
+            }
+            output.flush();
+            return exitCode;
+        }
+    }
+
+    //Transmet la sortie de l'exécution à la session et en garde une copie (jusqu'à MAX_RESULT_BYTES)
+    private static final class Recorder implements CommandOutput {
+        private final CommandOutput output;
+        private final List<byte[]> chunks = new ArrayList<>();
+        private final BitSet errors = new BitSet();
+        private long size;
+        private boolean overflow;
+
+        private Recorder(CommandOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(boolean error, byte[] data, int length) throws IOException {
+            output.write(error, data, length);
+            if (overflow) {
+                return;
+            }
+            size += length;
+            if (size > MAX_RESULT_BYTES) {
+                overflow = true;
+                chunks.clear();
+                return;
+            }
+            errors.set(chunks.size(), error);
+            chunks.add(Arrays.copyOf(data, length));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return output.isClosed();
+        }
+
+        private Result result(int exitCode, long expiresAt) {//null si la sortie était trop grande pour être gardée
+            return overflow ? null : new Result(chunks, errors, exitCode, expiresAt, size);
+        }
+    }
+}
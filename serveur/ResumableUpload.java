@@ -0,0 +1,677 @@
+package serveur;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import protocole.Frame;
+//Cette classe reçoit un fichier par blocs (trames RESUME, CHUNK et EOF, voir protocole.Frame) et permet de reprendre un upload
+//interrompu au lieu de tout renvoyer:
+//  - les données sont écrites dans <nom>.partiel; le fichier de destination n'est remplacé qu'à la fin, d'un seul renommage
+//  - la position confirmée (octets reçus dont la somme de contrôle est vérifiée) est enregistrée dans <nom>.partiel.etat,
+//    avec la taille et la date de modification annoncées par le client: un autre fichier de même nom repart de zéro
+//  - chaque bloc porte sa position et son CRC32C: un bloc corrompu ou hors séquence n'avance pas la position confirmée
+//La position est écrite sur disque (données forcées puis état) tous les CHECKPOINT_BYTES et quand l'upload est suspendu
+//(déconnexion, erreur): après un arrêt brutal du serveur, la reprise repart du dernier point enregistré. endChunk() signale
+//le point d'enregistrement sans l'écrire: l'appelant appelle checkpoint(), dans le pool de threads en mode NIO.
+//Un gros fichier peut être envoyé en plusieurs plages d'octets sur des connexions parallèles (drapeau Frame.FLAG_RANGE):
+//chaque instance reçoit une plage, les plages d'un même fichier partagent le fichier partiel (PartialFile) où elles sont
+//écrites par positions, et chacune a sa propre position confirmée. Le fichier n'est renommé que lorsque les plages terminées
+//couvrent toute la taille annoncée; un upload sans plage est une plage unique [0, taille).
+//Une seule session reçoit une plage donnée: une session qui reprend une plage la retire à la session précédente,
+//dont la connexion coupée n'a peut-être pas encore été détectée.
+//Le fichier complet est enregistré dans le stockage par contenu (ContentStore.commit). Les blocs que le serveur avait déjà
+//(trame HAVE, voir BlockQuery) forment des plages terminées d'avance, sans données dans le fichier partiel: ils sont repris
+//du stockage à l'enregistrement, et leurs empreintes sont conservées dans l'état ("blocs").
+//Les verrous sont des ReentrantLock et non des moniteurs: les écritures et les fsync faits sous verrou ne bloquent pas le
+//thread porteur d'une session virtuelle (voir protocole.FrameWriter).
+final class ResumableUpload {
+    static final long CHECKPOINT_BYTES = 8L * 1024 * 1024;//intervalle d'enregistrement des positions confirmées
+    private static final String PARTIAL_SUFFIX = ".partiel";
+    private static final String STATE_SUFFIX = ".partiel.etat";
+    private static final String TEMPORARY_SUFFIX = STATE_SUFFIX + ".tmp";//état en cours d'écriture
+    private static final Map<File, PartialFile> OPEN = new ConcurrentHashMap<>();//fichiers partiels ouverts, par fichier de destination
+    private static final ReentrantLock OPEN_LOCK = new ReentrantLock();//création des fichiers partiels
+
+    private final PartialFile file;
+    private final Range range;
+    private final boolean ranged;//plage demandée explicitement (upload parallèle)
+    private final long start;//début de la réception (System.nanoTime), pour le journal d'audit
+    private final long resumedFrom;//position confirmée à l'ouverture
+    private final CRC32C checksum = new CRC32C();
+    private final ReentrantLock lock = new ReentrantLock();//bloc en cours
+    private long chunkPosition;//position du bloc en cours
+    private long chunkLength;//taille du bloc en cours
+    private long chunkWritten;//octets du bloc en cours déjà écrits
+    private int chunkChecksum;//CRC32C annoncé pour le bloc en cours
+
+    private ResumableUpload(PartialFile file, Range range, boolean ranged) {
+        this.file = file;
+        this.range = range;
+        this.ranged = ranged;
+        this.start = System.nanoTime();
+        this.resumedFrom = range.confirmed;
+    }
+
+    //Ouvre ou reprend l'upload décrit par la charge utile d'une trame RESUME; ranged indique le drapeau Frame.FLAG_RANGE
+    static ResumableUpload open(ContentStore store, byte[] request, boolean ranged) throws IOException {
+        int headerSize = Frame.RESUME_HEADER_SIZE + (ranged ? Frame.RANGE_SIZE : 0);
+        if (request.length <= headerSize) {
+            throw new IOException("Trame RESUME invalide");
+        }
+        ByteBuffer header = ByteBuffer.wrap(request);
+        long rangeStart = ranged ? header.getLong() : 0;
+        long rangeEnd = ranged ? header.getLong() : 0;
+        long size = header.getLong();
+        long modified = header.getLong();
+        String fileName = new String(request, headerSize, request.length - headerSize, StandardCharsets.UTF_8);
+        if (size < 0) {
+            throw new IOException("Taille de fichier invalide: " + size);
+        }
+        if (!ranged) {
+            rangeEnd = size;
+        } else if (rangeStart < 0 || rangeStart > rangeEnd || rangeEnd > size) {
+            throw new IOException("Plage invalide: " + rangeStart + "-" + rangeEnd + " (taille: " + size + " octets)");
+        }
+        ContentStore.checkName(fileName);
+        File target = new File(store.getDirectory(), fileName).getAbsoluteFile();
+        OPEN_LOCK.lock();//un seul fichier partiel est créé par destination
+        try {
+            PartialFile file = OPEN.get(target);
+            if (file != null) {
+                ResumableUpload upload = file.matches(size, modified) ? file.attach(rangeStart, rangeEnd, ranged) : null;
+                if (upload != null) {
+                    return upload;
+                }
+                file.close();//autre version du fichier, ou fichier fermé entre-temps: les plages en cours sont suspendues
+                OPEN.remove(target, file);
+            }
+            file = new PartialFile(store, fileName, target, size, modified);
+            file.recover();
+            OPEN.put(target, file);
+            return file.attach(rangeStart, rangeEnd, ranged);
+        } finally {
+            OPEN_LOCK.unlock();
+        }
+    }
+
+    //Marque comme reçus les blocs du fichier que le stockage a déjà (known[i] pour le bloc i); retourne les blocs effectivement
+    //marqués: un bloc dont la plage est en cours de réception par une autre session reste à envoyer
+    static boolean[] declareStoredBlocks(ContentStore store, BlockQuery query, boolean[] known) throws IOException {
+        File target = new File(store.getDirectory(), query.fileName).getAbsoluteFile();
+        OPEN_LOCK.lock();
+        try {
+            PartialFile file = OPEN.get(target);
+            if (file != null) {
+                boolean[] declared = file.matches(query.size, query.modified) ? file.declare(query.blocks, known) : null;
+                if (declared != null) {
+                    return declared;
+                }
+                file.close();
+                OPEN.remove(target, file);
+            }
+            file = new PartialFile(store, query.fileName, target, query.size, query.modified);
+            file.recover();
+            OPEN.put(target, file);
+            return file.declare(query.blocks, known);
+        } finally {
+            OPEN_LOCK.unlock();
+        }
+    }
+
+    //Fichiers de travail des uploads par blocs, à ne pas confondre avec les fichiers reçus
+    static boolean isWorkFile(String name) {
+        return name.endsWith(PARTIAL_SUFFIX) || name.endsWith(STATE_SUFFIX) || name.endsWith(TEMPORARY_SUFFIX);
+    }
+
+    String getFileName() {
+        return file.fileName;
+    }
+
+    String getDescription() {//nom du fichier, suivi de la plage pour un upload parallèle
+        return ranged ? file.fileName + " (octets " + range.start + "-" + range.end + ")" : file.fileName;
+    }
+
+    long getOffset() {//position à partir de laquelle le client doit envoyer les blocs
+        return resumedFrom;
+    }
+
+    long getResumedFrom() {
+        return resumedFrom - range.start;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getReceivedBytes() {//octets confirmés depuis l'ouverture (la reprise ne compte pas les octets reçus avant)
+        file.lock.lock();
+        try {
+            return range.confirmed - resumedFrom;
+        } finally {
+            file.lock.unlock();
+        }
+    }
+
+    //Début d'un bloc: il doit suivre immédiatement la position confirmée et ne pas dépasser la fin de la plage
+    void beginChunk(long position, int expectedChecksum, long length) throws IOException {
+        lock.lock();
+        try {
+            long confirmed = file.confirmed(range, this);
+            if (position != confirmed) {
+                throw new IOException("Bloc inattendu à la position " + position + " (position confirmée: " + confirmed + ")");
+            }
+            if (length > range.end - confirmed) {
+                throw new IOException(ranged ? "Bloc au-delà de la plage annoncée (octets " + range.start + "-" + range.end + ")"
+                        : "Bloc au-delà de la taille annoncée (" + range.end + " octets)");
+            }
+            chunkPosition = position;
+            chunkLength = length;
+            chunkWritten = 0;
+            chunkChecksum = expectedChecksum;
+            checksum.reset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Écrit une partie des données du bloc en cours (le bloc peut arriver en plusieurs lectures)
+    void write(ByteBuffer data) throws IOException {
+        lock.lock();
+        try {
+            FileChannel channel = file.channel(range, this);
+            if (data.remaining() > chunkLength - chunkWritten) {
+                throw new IOException("Données au-delà du bloc annoncé");
+            }
+            checksum.update(data.duplicate());
+            while (data.hasRemaining()) {//écriture positionnelle: les plages des autres sessions sont écrites en même temps
+                chunkWritten += channel.write(data, chunkPosition + chunkWritten);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Fin d'un bloc: la position confirmée n'avance que si la somme de contrôle est correcte.
+    //Retourne true quand CHECKPOINT_BYTES ont été confirmés depuis le dernier enregistrement: l'appelant doit appeler checkpoint()
+    boolean endChunk() throws IOException {
+        lock.lock();
+        try {
+            if (chunkWritten != chunkLength || (int) checksum.getValue() != chunkChecksum) {
+                file.channel(range, this);//une plage reprise par une autre session est signalée comme telle
+                throw new IOException("Somme de contrôle invalide pour le bloc à la position " + chunkPosition);
+            }
+            return file.confirm(range, this, chunkLength);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Force les données reçues sur disque puis enregistre les positions confirmées avant l'appel (écritures bloquantes)
+    void checkpoint() throws IOException {
+        file.flush();
+    }
+
+    //Termine la plage; retourne true si le fichier est complet et a été enregistré dans le stockage à la place du fichier
+    //de même nom, false si d'autres plages restent à recevoir
+    boolean finish() throws IOException {
+        return file.finish(range, this);
+    }
+
+    //Enregistre la position confirmée et libère la plage: le client pourra reprendre l'upload plus tard
+    void suspend() {
+        file.detach(range, this);
+    }
+
+    //Plage d'octets [start, end) du fichier et position confirmée de sa réception
+    private static final class Range {
+        private final long start;
+        private final long end;
+        private final String[] blocks;//empreintes des blocs repris du stockage, null pour une plage reçue
+        private long confirmed;
+        private ResumableUpload owner;//session qui reçoit la plage, null si la plage est suspendue ou terminée
+
+        private Range(long start, long end, long confirmed) {
+            this(start, end, confirmed, null);
+        }
+
+        private Range(long start, long end, long confirmed, String[] blocks) {
+            this.start = start;
+            this.end = end;
+            this.confirmed = confirmed;
+            this.blocks = blocks;
+        }
+    }
+
+    //Fichier partiel partagé par les plages d'un même fichier de destination; toutes ses méthodes s'exécutent sous son verrou,
+    //sauf les écritures de données, positionnelles et donc indépendantes d'une plage à l'autre
+    private static final class PartialFile {
+        private final ContentStore store;
+        private final String fileName;
+        private final File target;//fichier de destination
+        private final File partial;//données reçues
+        private final File state;//positions confirmées
+        private final long size;//taille annoncée par le client
+        private final long modified;//date de modification annoncée par le client
+        private final TreeMap<Long, Range> ranges = new TreeMap<>();//plages connues, par début
+        private final ReentrantLock lock = new ReentrantLock();
+        private FileChannel channel;//null quand le fichier est fermé (plages suspendues) ou renommé
+        private long unsaved;//octets confirmés depuis le dernier enregistrement
+        private boolean flushRequested;//checkpoint() demandé par endChunk() et pas encore commencé
+
+        private PartialFile(ContentStore store, String fileName, File target, long size, long modified) {
+            File directory = store.getDirectory();
+            this.store = store;
+            this.fileName = fileName;
+            this.target = target;
+            this.partial = new File(directory, fileName + PARTIAL_SUFFIX);
+            this.state = new File(directory, fileName + STATE_SUFFIX);
+            this.size = size;
+            this.modified = modified;
+        }
+
+        private boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+
+        private void recover() throws IOException {//reprend aux positions enregistrées si elles concernent le même fichier
+            lock.lock();
+            try {
+                if (state.exists() && partial.exists()) {
+                    Properties properties = new Properties();
+                    try (Reader reader = new InputStreamReader(new FileInputStream(state), StandardCharsets.UTF_8)) {
+                        properties.load(reader);
+                        if (Long.parseLong(properties.getProperty("taille")) == size && Long.parseLong(properties.getProperty("modification")) == modified) {
+                            readRanges(properties, partial.length());
+                            readStoredBlocks(properties);
+                        }
+                    } catch (NumberFormatException e) {
+                        // État illisible (arrêt pendant son écriture): l'upload repart de zéro
+                        ranges.clear();
+                    }
+                }
+                channel = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (ranges.isEmpty()) {
+                    channel.truncate(0);
+                }
+                saveState();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //Lit les plages enregistrées ("plages": début-fin:confirmé, séparées par des virgules; "recu": ancien format sans plage)
+        private void readRanges(Properties properties, long length) {
+            String saved = properties.getProperty("plages");
+            if (saved == null) {
+                saved = "0-" + size + ":" + properties.getProperty("recu");
+            }
+            for (String entry : saved.split(",")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int dash = entry.indexOf('-');
+                int colon = entry.indexOf(':');
+                long start = Long.parseLong(entry.substring(0, dash));
+                long end = Long.parseLong(entry.substring(dash + 1, colon));
+                long confirmed = Long.parseLong(entry.substring(colon + 1));
+                if (start < 0 || end > size || start > end || confirmed < start || confirmed > end) {
+                    throw new NumberFormatException("Plage enregistrée invalide: " + entry);
+                }
+                confirmed = Math.max(start, Math.min(confirmed, length));//la fin des données peut ne pas avoir été forcée sur disque
+                ranges.put(start, new Range(start, end, confirmed));
+            }
+        }
+
+        //Lit les blocs repris du stockage ("blocs": indice=empreinte, séparés par des virgules), regroupés en plages terminées
+        private void readStoredBlocks(Properties properties) {
+            String saved = properties.getProperty("blocs", "");
+            TreeMap<Integer, String> blocks = new TreeMap<>();
+            for (String entry : saved.split(",")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int equals = entry.indexOf('=');
+                if (equals < 0) {
+                    throw new NumberFormatException("Bloc enregistré invalide: " + entry);
+                }
+                int block = Integer.parseInt(entry.substring(0, equals));
+                if (block < 0 || block >= ContentStore.blockCount(size) || entry.length() - equals - 1 != 2 * Frame.HASH_SIZE) {
+                    throw new NumberFormatException("Bloc enregistré invalide: " + entry);
+                }
+                blocks.put(block, entry.substring(equals + 1));
+            }
+            while (!blocks.isEmpty()) {
+                int first = blocks.firstKey();
+                int last = first;
+                while (blocks.containsKey(last + 1)) {
+                    last++;
+                }
+                String[] run = blocks.subMap(first, true, last, true).values().toArray(new String[0]);
+                blocks.subMap(first, true, last, true).clear();
+                long start = (long) first * Frame.BLOCK_SIZE;
+                long end = Math.min((long) (last + 1) * Frame.BLOCK_SIZE, size);
+                if (ranges.floorKey(end - 1) != null && ranges.floorEntry(end - 1).getValue().end > start) {
+                    throw new NumberFormatException("Blocs enregistrés dans une plage reçue");
+                }
+                ranges.put(start, new Range(start, end, end, run));
+            }
+        }
+
+        //Marque comme terminées les plages des blocs connus du stockage (un bloc de BLOCK_SIZE octets par indice) et abandonne
+        //les plages suspendues qui les chevauchent; retourne les blocs marqués, ou null si le fichier a été fermé entre-temps
+        private boolean[] declare(String[] blocks, boolean[] known) throws IOException {
+            lock.lock();
+            try {
+                if (channel == null) {
+                    return null;
+                }
+                boolean[] declared = new boolean[known.length];
+                int first = 0;
+                while (first < known.length) {
+                    if (!known[first]) {
+                        first++;
+                        continue;
+                    }
+                    int last = first;
+                    while (last + 1 < known.length && known[last + 1]) {
+                        last++;
+                    }
+                    long start = (long) first * Frame.BLOCK_SIZE;
+                    long end = Math.min((long) (last + 1) * Frame.BLOCK_SIZE, size);
+                    boolean busy = false;
+                    for (Range other : ranges.values()) {
+                        busy |= other.owner != null && other.start < end && other.end > start;
+                    }
+                    if (!busy) {
+                        ranges.values().removeIf(other -> other.start < end && other.end > start);
+                        ranges.put(start, new Range(start, end, end, Arrays.copyOfRange(blocks, first, last + 1)));
+                        Arrays.fill(declared, first, last + 1, true);
+                    }
+                    first = last + 1;
+                }
+                saveState();
+                closeIfUnused();
+                return declared;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //Attribue la plage [start, end) à une nouvelle session, qui la retire à la précédente; retourne null si le fichier
+        //a été fermé entre-temps. Une plage déjà connue reprend à sa position confirmée; les plages qui la chevauchent
+        //sans lui correspondre (découpage différent) sont abandonnées.
+        private ResumableUpload attach(long start, long end, boolean ranged) {
+            lock.lock();
+            try {
+                if (channel == null) {
+                    return null;
+                }
+                Range range = ranges.get(start);
+                if (range == null || range.end != end) {
+                    Iterator<Range> iterator = ranges.values().iterator();
+                    while (iterator.hasNext()) {
+                        Range other = iterator.next();
+                        if (other.start < end && other.end > start || other.start == start) {
+                            other.owner = null;
+                            iterator.remove();
+                        }
+                    }
+                    range = new Range(start, end, start);
+                    ranges.put(start, range);
+                }
+                range.owner = new ResumableUpload(this, range, ranged);
+                return range.owner;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long confirmed(Range range, ResumableUpload upload) throws IOException {
+            lock.lock();
+            try {
+                ensureOwner(range, upload);
+                return range.confirmed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private FileChannel channel(Range range, ResumableUpload upload) throws IOException {
+            lock.lock();
+            try {
+                ensureOwner(range, upload);
+                return channel;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean confirm(Range range, ResumableUpload upload, long length) throws IOException {
+            lock.lock();
+            try {
+                ensureOwner(range, upload);
+                range.confirmed += length;
+                unsaved += length;
+                if (unsaved < CHECKPOINT_BYTES || flushRequested) {
+                    return false;
+                }
+                flushRequested = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //Comme checkpoint(), sans tenir le verrou pendant que les données sont forcées: les sessions qui reçoivent les autres
+        //plages continuent d'écrire. Seules les positions confirmées avant l'appel sont enregistrées.
+        private void flush() throws IOException {
+            FileChannel forced;
+            Map<Range, Long> durable = new IdentityHashMap<>();
+            lock.lock();
+            try {
+                flushRequested = false;
+                if (channel == null) {//fichier fermé ou enregistré: les positions ont été écrites à ce moment
+                    return;
+                }
+                forced = channel;
+                for (Range range : ranges.values()) {
+                    durable.put(range, range.confirmed);
+                }
+                unsaved = 0;
+            } finally {
+                lock.unlock();
+            }
+            forced.force(false);
+            lock.lock();
+            try {
+                if (channel == forced) {
+                    saveState(durable);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean finish(Range range, ResumableUpload upload) throws IOException {
+            lock.lock();
+            try {
+                ensureOwner(range, upload);
+                if (range.confirmed != range.end) {
+                    throw new IOException("Upload incomplet: " + (range.confirmed - range.start) + " octets reçus sur " + (range.end - range.start));
+                }
+                range.owner = null;
+                if (!isComplete()) {//d'autres plages restent à recevoir
+                    checkpoint();
+                    closeIfUnused();
+                    return false;
+                }
+                if (channel.size() < size) {//le dernier bloc, repris du stockage, n'a pas été écrit: le fichier doit avoir sa taille
+                    channel.write(ByteBuffer.allocate(1), size - 1);
+                }
+                channel.truncate(size);
+                channel.force(true);
+                channel.close();
+                channel = null;
+                try {
+                    store.commit(fileName, partial, storedBlocks());
+                } catch (IOException e) {
+                    // Bloc repris disparu du stockage entre-temps: ces plages devront être envoyées
+                    ranges.values().removeIf(other -> other.blocks != null);
+                    saveState();
+                    OPEN.remove(target, this);
+                    throw e;
+                }
+                Files.deleteIfExists(state.toPath());
+                OPEN.remove(target, this);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private String[] storedBlocks() {//empreinte de chaque bloc repris du stockage, null pour les blocs reçus
+            String[] blocks = new String[ContentStore.blockCount(size)];
+            for (Range range : ranges.values()) {
+                if (range.blocks != null) {
+                    System.arraycopy(range.blocks, 0, blocks, (int) (range.start / Frame.BLOCK_SIZE), range.blocks.length);
+                }
+            }
+            return blocks;
+        }
+
+        //Les plages terminées couvrent [0, taille) sans trou (les plages ne se chevauchent pas). Une plage reçue en entier dont
+        //la session n'a pas encore appelé finish() est attendue: c'est elle qui enregistrera le fichier.
+        private boolean isComplete() {
+            long covered = 0;
+            for (Range range : ranges.values()) {
+                if (range.start != covered || range.confirmed != range.end || range.owner != null) {
+                    return false;
+                }
+                covered = range.end;
+            }
+            return covered == size;
+        }
+
+        private void detach(Range range, ResumableUpload upload) {
+            lock.lock();
+            try {
+                if (range.owner != upload || channel == null) {
+                    return;
+                }
+                range.owner = null;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                // Les positions enregistrées précédemment restent valables
+            }
+            lock.lock();
+            try {
+                closeIfUnused();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void closeIfUnused() {//plus aucune plage en cours: le fichier est fermé jusqu'à la reprise
+            for (Range range : ranges.values()) {
+                if (range.owner != null) {
+                    return;
+                }
+            }
+            close();
+            OPEN.remove(target, this);
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    // Les positions enregistrées précédemment restent valables
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Fichier déjà fermé
+                }
+                channel = null;
+                for (Range range : ranges.values()) {
+                    range.owner = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void ensureOwner(Range range, ResumableUpload upload) throws IOException {
+            if (channel == null || range.owner != upload) {
+                throw new IOException("Upload suspendu (repris par une autre session ou interrompu)");
+            }
+        }
+
+        private void checkpoint() throws IOException {
+            channel.force(false);
+            unsaved = 0;
+            saveState();
+        }
+
+        private void saveState() throws IOException {
+            saveState(null);
+        }
+
+        //Écrit l'état dans un fichier temporaire puis le renomme: l'état lu est toujours complet.
+        //durable, s'il n'est pas null, limite la position enregistrée de chaque plage reçue à celle dont les données sont forcées
+        private void saveState(Map<Range, Long> durable) throws IOException {
+            StringBuilder saved = new StringBuilder();
+            StringBuilder stored = new StringBuilder();
+            for (Range range : ranges.values()) {
+                if (range.blocks != null) {
+                    for (int i = 0; i < range.blocks.length; i++) {
+                        stored.append(stored.length() > 0 ? "," : "").append(range.start / Frame.BLOCK_SIZE + i).append('=').append(range.blocks[i]);
+                    }
+                    continue;
+                }
+                if (saved.length() > 0) {
+                    saved.append(',');
+                }
+                long confirmed = durable == null ? range.confirmed : Math.min(range.confirmed, durable.getOrDefault(range, range.start));
+                saved.append(range.start).append('-').append(range.end).append(':').append(confirmed);
+            }
+            Properties properties = new Properties();
+            properties.setProperty("taille", Long.toString(size));
+            properties.setProperty("modification", Long.toString(modified));
+            properties.setProperty("plages", saved.toString());
+            properties.setProperty("blocs", stored.toString());
+            File temporary = new File(state.getPath() + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            try {
+                Files.move(temporary.toPath(), state.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
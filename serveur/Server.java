@@ -9,9 +9,13 @@ import java.util.concurrent.*;
 import java.util.logging.*;
 import javax.net.ssl.*;
 import javax.swing.JOptionPane;
+import protocole.Compressor;
+import protocole.Protocole;
+import protocole.TlsContext;
 //Cette classe représente le serveur de fichiers sécurisé.
 //Elle gère les connexions clients, les authentifications, les requêtes de fichiers et les requêtes de stockage.
 //Elle utilise un pool de threads pour gérer les connexions clients de manière asynchrone.
+//En mode NIO (ServerConfig.Mode.NIO), quelques boucles d'événements multiplexent toutes les sessions (voir NioServer).
 //Elle utilise une connexion à une base de données MySQL pour l'authentification des utilisateurs.
 //Elle utilise un répertoire de stockage pour stocker les fichiers envoyés par les clients.
 //Elle utilise le protocole de communication suivant:
@@ -29,9 +33,20 @@ public class Server {
     private boolean running;//Indique si le serveur est en cours d'exécution ou non
     private ExecutorService threadPool;//Pool de threads pour gérer les connexions clients de manière asynchrone c'est a dire en parallèle sans bloquer le serveur ni les autres clients
     private Logger logger;//Logger pour enregistrer les événements du serveur dans un fichier journal et dans la console 
-    private List<ClientHandler> clients;//Liste des clients connectés
-    private Connection connection; // Connexion à la base de données
+    private List<ClientSession> clients;//Liste des clients connectés (ClientHandler ou NioSession selon le mode)
+    private UserStore userStore; // Table des utilisateurs (base de données par défaut, voir ServerConfig.getUserSource())
+    private AuthCache authCache; // Mots de passe hachés déjà lus dans la base de données, par login
     private File storageDirectory; // Répertoire de stockage des fichiers
+    private ContentStore contentStore; // Stockage par contenu des fichiers reçus (index des blocs, liens durs entre contenus identiques)
+    private ServerConfig config; // Configuration du serveur (mode d'exécution, ...)
+    private NioServer nioServer; // Serveur NIO utilisé en mode ServerConfig.Mode.NIO
+    private Semaphore sessionPermits; // Places de session disponibles (null si le nombre de sessions est illimité)
+    private CommandExecutor commandExecutor; // Exécuteur des commandes système partagé par toutes les sessions
+    private ShellPool shellPool; // Shells persistants des sessions (null si l'option est désactivée)
+    private TlsContext tlsContext; // Contexte TLS partagé par toutes les connexions (cache de sessions, statistiques des poignées de main)
+    private ServerMetrics metrics; // Mesures du serveur (durées, octets transférés, sessions), publiées par JMX et en HTTP
+    private MetricsEndpoint metricsEndpoint; // Point d'accès HTTP local des mesures (null s'il est désactivé ou n'a pas pu démarrer)
+    private final Compressor compressor = new Compressor(); // Compression des trames, partagée par les sessions qui l'ont négociée
 
     // Constantes du protocole de communication
     public static final String COMMAND_PREFIX = "CMD:";
@@ -43,19 +58,91 @@ public class Server {
     public static final String AUTH_FAILED = "AUTH_FAILED";
 
     public Server(int port) {
+        this(port, ServerConfig.fromSystemProperties());
+    }
+
+    public Server(int port, ServerConfig config) {
+        this(port, config, null);
+    }
+
+    //userStore remplace la table des utilisateurs choisie par la configuration (tests de charge, bancs d'essai); null pour la configuration
+    public Server(int port, ServerConfig config, UserStore userStore) {
         this.port = port;
-        this.threadPool = Executors.newCachedThreadPool();
+        this.config = config;
+        this.sessionPermits = config.getMaxSessions() > 0 ? new Semaphore(config.getMaxSessions()) : null;
+        this.authCache = new AuthCache(config.getAuthCacheMaxEntries(), config.getAuthCacheTtlMillis(), AuthCache.getInvalidationFile());
         this.logger = Logger.getLogger(Server.class.getName());
+        CommandScheduler scheduler = new CommandScheduler(config.getMaxProcesses(), config.getInteractiveProcesses(),
+                config.getCommandRate(), config.getCommandBurst(), config.getUserWeights());
+        this.commandExecutor = new CommandExecutor(scheduler, config.isBuiltinCommands(), createResultCache());
+        this.metrics = new ServerMetrics(this);
+        this.threadPool = createThreadPool(config.getMode());
         this.clients = Collections.synchronizedList(new ArrayList<>());
+        if (config.isPersistentShell()) {
+            if (PersistentShell.isSupported()) {
+                this.shellPool = new ShellPool(config.getShellReserve());
+            } else {
+                logger.warning("Shell persistant indisponible sur ce système, chaque commande est lancée dans un nouveau processus");
+            }
+        }
 
-        // Initialiser la connexion à la base de données
-        initializeDatabase();
+        // Initialiser la table des utilisateurs (connexion à la base de données par défaut)
+        this.userStore = userStore != null ? userStore : createUserStore();
+        if (authCache.isEnabled()) {//la gestion des utilisateurs doit écrire ses invalidations dans ce même fichier
+            logger.info("Fichier d'invalidations du cache d'authentification : " + AuthCache.getInvalidationFile().getAbsolutePath());
+        }
 
         // Initialiser le répertoire de stockage des fichiers
         initializeStorageDirectory();
     }
 
-    private void initializeDatabase() {//Cette mmethode Initialise la connexion à la base de données MySQL pour l'authentification des utilisateurs
+    //Cette méthode crée le pool d'exécution des sessions: un thread virtuel par session en mode VIRTUAL (Java 21+),
+    //sinon un pool de threads qui crée les threads à la demande (comportement historique)
+    private ExecutorService createThreadPool(ServerConfig.Mode mode) {
+        if (mode == ServerConfig.Mode.VIRTUAL) {
+            try {
+                // Appel par réflexion pour que le code reste compilable et exécutable avec Java 11
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logger.warning("Threads virtuels indisponibles (Java 21 requis), utilisation d'un pool de threads classique");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private ResultCache createResultCache() {//Cette méthode crée le cache des résultats de commandes, null s'il n'est pas configuré
+        String rules = config.getCommandCacheRules();
+        if (rules == null) {
+            return null;
+        }
+        File file = new File(rules);
+        try {
+            List<ResultCache.Rule> cacheRules = ResultCache.readRules(file);
+            logger.info(cacheRules.size() + " règles de cache des commandes lues dans " + file.getAbsolutePath());
+            return new ResultCache(cacheRules, config.getCommandCacheMaxBytes());
+        } catch (IOException e) {
+            logger.warning("Cache des commandes désactivé, impossible de lire " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private UserStore createUserStore() {//Cette méthode crée la table des utilisateurs désignée par la configuration
+        String source = config.getUserSource();
+        if (!source.startsWith(ServerConfig.USER_FILE_PREFIX)) {
+            return initializeDatabase();
+        }
+        File file = new File(source.substring(ServerConfig.USER_FILE_PREFIX.length()));
+        try {
+            MemoryUserStore store = MemoryUserStore.load(file);
+            logger.info("Utilisateurs lus dans " + file.getAbsolutePath() + " (sans base de données)");
+            return store;
+        } catch (IOException e) {
+            logger.severe("Impossible de lire le fichier des utilisateurs " + file.getAbsolutePath() + ": " + e.getMessage());
+            throw new RuntimeException("Impossible de lire le fichier des utilisateurs", e);
+        }
+    }
+
+    private UserStore initializeDatabase() {//Cette mmethode Initialise la connexion à la base de données MySQL pour l'authentification des utilisateurs
         try {
             // Chargement du pilote JDBC
             Class.forName("com.mysql.cj.jdbc.Driver");//Chargement du pilote JDBC pour MySQL 
@@ -64,9 +151,12 @@ public class Server {
             String url = "jdbc:mysql://localhost:8889/poo?useSSL=false";//URL de connexion à la base de données
             String user = "poo";//Nom d'utilisateur
             String password = "passer";//Mot de passe
-            connection = DriverManager.getConnection(url, user, password);//Connexion à la base de données avec l'URL, le nom d'utilisateur et le mot de passe
+            //Pool de connexions: les authentifications simultanées n'attendent plus une connexion unique,
+            //et une connexion coupée est remplacée au lieu de priver le serveur d'authentification
+            ConnectionPool connectionPool = new ConnectionPool(url, user, password, config.getDbPoolMin(), config.getDbPoolMax(), config.getDbAcquireTimeoutMillis());
 
-            logger.info("Connexion à la base de données réussie");
+            logger.info("Connexion à la base de données réussie (pool de " + config.getDbPoolMin() + " à " + config.getDbPoolMax() + " connexions)");
+            return new JdbcUserStore(connectionPool);
         } catch (ClassNotFoundException e) {//Si le pilote JDBC n'est pas trouvé alors on affiche un message d'erreur et on lance une exception
             logger.severe("Erreur lors du chargement du pilote JDBC: " + e.getMessage());
             JOptionPane.showMessageDialog(null, "Erreur lors du chargement du pilote JDBC: " + e.getMessage(), "Erreur", JOptionPane.ERROR_MESSAGE);//Affichage d'un message d'erreur dans la boîte de dialogue
@@ -79,9 +169,9 @@ public class Server {
     }
 
     private void initializeStorageDirectory() {//Cette méthode initialise le répertoire de stockage des fichiers sur le serveur 
-        storageDirectory = new File("server_storage");
+        storageDirectory = new File(config.getStorageDirectory());
         if (!storageDirectory.exists()) {//Si le répertoire de stockage n'existe pas alors on le crée
-            if (storageDirectory.mkdir()) {//Si le répertoire de stockage est créé avec succès alors on affiche un message d'information
+            if (storageDirectory.mkdirs()) {//Si le répertoire de stockage est créé avec succès alors on affiche un message d'information
                 logger.info("Répertoire de stockage créé : " + storageDirectory.getAbsolutePath());
             } else {//Sinon on affiche un message d'erreur et on lance une exception
                 logger.severe("Impossible de créer le répertoire de stockage : " + storageDirectory.getAbsolutePath());
@@ -90,9 +180,17 @@ public class Server {
         } else {//Si le répertoire de stockage existe alors on affiche un message d'information
             logger.info("Répertoire de stockage trouvé : " + storageDirectory.getAbsolutePath());
         }
+        try {//Ouverture du stockage par contenu (relecture de l'index, import des fichiers stockés à plat si demandé)
+            contentStore = new ContentStore(storageDirectory, config.isStorageImport());
+            logger.info("Stockage par contenu : " + contentStore.getFileCount() + " fichier(s), " + contentStore.getLogicalBytes()
+                    + " octets (" + contentStore.getBlockBytes() + " octets sur disque)");
+        } catch (IOException e) {
+            logger.severe("Impossible d'ouvrir le stockage des fichiers : " + e.getMessage());
+            throw new RuntimeException("Impossible d'ouvrir le stockage des fichiers", e);
+        }
     }
 
-    private String hashPassword(String password) {//Cette méthode hache le mot de passe en utilisant l'algorithme de hachage SHA-256
+    static String hashPassword(String password) {//Cette méthode hache le mot de passe en utilisant l'algorithme de hachage SHA-256
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");//Création d'une instance de MessageDigest avec l'algorithme de hachage SHA-256 
             byte[] hash = md.digest(password.getBytes());
@@ -109,36 +207,46 @@ public class Server {
     }
 
     public boolean authenticate(String login, String password) {//Cette méthode authentifie un utilisateur en vérifiant le login et le mot de passe dans la base de données
-        String query = "SELECT password FROM user WHERE login = ?";//Requête SQL pour obtenir le mot de passe de l'utilisateur avec le login spécifié
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, login);
-            ResultSet resultSet = statement.executeQuery();// Exécution de la requête SQL pour obtenir le mot de passe de l'utilisateur
-
-            if (resultSet.next()) {//Si un utilisateur est trouvé avec le login spécifié alors on vérifie le mot de passe
-                String storedPassword = resultSet.getString("password");
-                String hashedPassword = hashPassword(password);
-                return storedPassword != null && storedPassword.equals(hashedPassword);//Si le mot de passe haché correspond au mot de passe stocké dans la base de données alors l'authentification est réussie (return true sinon return false)
-            } else {//Sinon on affiche un message d'erreur et on retourne false
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String storedPassword = authCache.get(login, userStore::findPasswordHash);//Le cache évite la requête SQL quand le même login se reconnecte
+            if (storedPassword == null) {//Si aucun utilisateur n'est trouvé avec le login spécifié alors on affiche un message d'erreur et on retourne false
                 logger.warning("Aucun utilisateur trouvé avec le login : " + login);
+                return false;
             }
+            String hashedPassword = hashPassword(password);
+            success = storedPassword.equals(hashedPassword);//Si le mot de passe haché correspond au mot de passe stocké dans la base de données alors l'authentification est réussie (return true sinon return false)
+            return success;
         } catch (SQLException e) {
             logger.severe("Erreur lors de l'authentification: " + e.getMessage());
+        } finally {
+            metrics.recordAuthentication(System.nanoTime() - start, success);
         }
         return false;//Retourne false si l'authentification échoue
     }
 
     public void start() {//Cette méthode démarre le serveur en écoutant les connexions entrantes sur le port spécifié et en créant un ClientHandler pour chaque connexion client 
+        if (config.getMode() == ServerConfig.Mode.NIO) {
+            startNio();
+            return;
+        }
         try {
-            // Création de la fabrique de sockets SSL
-            SSLServerSocketFactory sslServerSocketFactory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();//Création d'une fabrique de sockets SSL pour créer des SSLServerSockets
-            serverSocket = (SSLServerSocket) sslServerSocketFactory.createServerSocket(port);//Création d'un SSLServerSocket pour écouter les connexions entrantes sur le port spécifié
+            // Création du contexte SSL: les clients qui se reconnectent reprennent leur session au lieu d'en négocier une nouvelle
+            tlsContext = createTlsContext();
+            serverSocket = tlsContext.createServerSocket(port);//Création d'un SSLServerSocket pour écouter les connexions entrantes sur le port spécifié
             running = true;
             logger.info("Serveur SSL démarré sur le port " + port);
+            startMetrics();
 
             while (running) {//Boucle pour accepter les connexions clients et créer un ClientHandler pour chaque connexion client et l'exécuter dans le pool de threads
                 // Accepter une nouvelle connexion et la caster en SSLSocket
                 SSLSocket clientSocket = (SSLSocket) serverSocket.accept();//
                 logger.info("Nouvelle connexion SSL: " + clientSocket.getInetAddress().getHostAddress());//Affichage de l'adresse IP du client qui s'est connecté
+                if (!tryAcquireSession()) {//Si le nombre maximal de sessions est atteint alors on refuse la connexion au lieu de créer un thread de plus
+                    rejectConnection(clientSocket.getInetAddress().getHostAddress(), clientSocket);
+                    continue;
+                }
 
                 // Créer un ClientHandler avec le SSLSocket
                 ClientHandler handler = new ClientHandler(clientSocket, this);
@@ -154,28 +262,147 @@ public class Server {
         }
     }
 
+    private void startNio() {//Cette méthode démarre le serveur en mode NIO: quelques boucles d'événements multiplexent toutes les sessions SSL
+        try {
+            tlsContext = createTlsContext();
+            nioServer = new NioServer(this, port, tlsContext, config.getNioLoops());
+            running = true;
+            logger.info("Serveur SSL (NIO, " + config.getNioLoops() + " boucles) démarré sur le port " + port);
+            startMetrics();
+            nioServer.run();
+        } catch (IOException e) {
+            if (running) {
+                logger.severe("Erreur de démarrage du serveur SSL: " + e.getMessage());
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    private TlsContext createTlsContext() throws IOException {//Cette méthode crée le contexte SSL à partir du fichier de clés javax.net.ssl.keyStore
+        try {
+            return TlsContext.forServer(config.getTlsSessionCacheSize(), config.getTlsSessionTimeoutSeconds());
+        } catch (java.security.GeneralSecurityException | IOException e) {
+            logger.severe("Impossible de créer le contexte SSL: " + e.getMessage());
+            throw new IOException("Contexte SSL invalide", e);
+        }
+    }
+
+    private void startMetrics() {//Cette méthode publie les mesures par JMX et, si son port est configuré, par le point d'accès HTTP local
+        metrics.register(port);
+        if (config.getMetricsPort() > 0) {
+            try {
+                metricsEndpoint = new MetricsEndpoint(metrics, config.getMetricsPort());
+                logger.info("Mesures du serveur: http://127.0.0.1:" + metricsEndpoint.getPort() + MetricsEndpoint.PATH);
+            } catch (IOException e) {//port déjà utilisé (autre serveur sur la machine): le serveur fonctionne sans point d'accès HTTP
+                logger.warning("Point d'accès des mesures indisponible sur le port " + config.getMetricsPort() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public ServerMetrics getMetrics() {//Cette méthode retourne les mesures du serveur
+        return metrics;
+    }
+
+    public Compressor getCompressor() {//Cette méthode retourne le compresseur des trames (compteurs pour les mesures)
+        return compressor;
+    }
+
+    //Cette méthode retourne le compresseur à utiliser pour une session dont le client a proposé "PROTO:...",
+    //ou null si le client ne propose pas de compression ou si la configuration la désactive
+    Compressor negotiateCompression(String proposal) {
+        return config.isCompression() && Protocole.selectCompression(proposal) != null ? compressor : null;
+    }
+
+    public TlsContext getTlsContext() {//Cette méthode retourne le contexte SSL du serveur (statistiques des poignées de main), null avant le démarrage
+        return tlsContext;
+    }
+
+    public ConnectionPool getConnectionPool() {//Cette méthode retourne le pool de connexions à la base de données (statistiques), null si les utilisateurs ne sont pas dans la base
+        return userStore instanceof JdbcUserStore ? ((JdbcUserStore) userStore).getConnectionPool() : null;
+    }
+
+    public UserStore getUserStore() {//Cette méthode retourne la table des utilisateurs
+        return userStore;
+    }
+
+    public AuthCache getAuthCache() {//Cette méthode retourne le cache d'authentification (statistiques, invalidation)
+        return authCache;
+    }
+
+    int getMaxRequestsPerSession() {//Cette méthode retourne le nombre de requêtes qu'une session peut faire traiter simultanément (protocole binaire)
+        return config.getMaxRequests();
+    }
+
+    boolean tryAcquireSession() {//Cette méthode réserve une place de session; retourne false si le nombre maximal de sessions est atteint
+        return sessionPermits == null || sessionPermits.tryAcquire();
+    }
+
+    void releaseSession() {//Cette méthode rend la place réservée par tryAcquireSession pour une connexion abandonnée avant de devenir une session
+        if (sessionPermits != null) {
+            sessionPermits.release();
+        }
+    }
+
+    void rejectConnection(String address, Closeable connection) {//Cette méthode refuse une connexion en la fermant immédiatement
+        ClientCommandLogger.logConnectionError(address, "Connexion refusée: nombre maximal de sessions atteint (" + config.getMaxSessions() + ")");
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // La connexion est déjà fermée
+        }
+    }
+
     public void stop() {//Cette méthode arrête le serveur en fermant toutes les connexions clients, en arrêtant le pool de threads et en fermant le socket du serveur   
         running = false;
 
         // Fermeture de toutes les connexions clients
-        for (ClientHandler client : clients) {
-            client.close();
+        synchronized (clients) {
+            for (ClientSession client : clients) {
+                client.close();
+            }
         }
         clients.clear();
 
+        // Arrêt des boucles d'événements du mode NIO
+        if (nioServer != null) {
+            nioServer.close();
+        }
+
         // Arrêt du pool de threads
         threadPool.shutdown();
 
-        // Fermeture de la connexion à la base de données
-        if (connection != null) {
-            try {
-                connection.close();
-                logger.info("Connexion à la base de données fermée");
-            } catch (SQLException e) {
-                logger.severe("Erreur lors de la fermeture de la connexion à la base de données: " + e.getMessage());
-            }
+        // Arrêt des shells persistants de la réserve (ceux des sessions sont arrêtés avec elles)
+        if (shellPool != null) {
+            shellPool.close();
+            logger.info(shellPool.getStatistics());
         }
 
+        // Arrêt du cache des résultats de commandes
+        ResultCache resultCache = commandExecutor.getResultCache();
+        if (resultCache != null) {
+            resultCache.close();
+            logger.info(resultCache.getStatistics());
+        }
+
+        // Retrait des mesures publiées
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+            metricsEndpoint = null;
+        }
+        metrics.unregister();
+
+        logger.info(metrics.getStatistics());
+        logger.info(authCache.getStatistics());
+        if (tlsContext != null) {
+            logger.info(tlsContext.getStatistics());
+        }
+
+        // Fermeture de la table des utilisateurs (connexions à la base de données)
+        logger.info(userStore.getStatistics());
+        userStore.close();
+        logger.info("Table des utilisateurs fermée");
+
         // Fermeture du socket du serveur
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
@@ -185,35 +412,100 @@ public class Server {
             logger.severe("Erreur lors de l'arrêt du serveur SSL: " + e.getMessage());
         }
 
+        // Écriture des événements du journal des clients encore en attente
+        ClientCommandLogger.flush();
+
         logger.info("Serveur SSL arrêté");
     }
 
-    public void removeClient(ClientHandler client) {//Cette méthode supprime un ClientHandler de la liste des clients connectés
-        clients.remove(client);
+    void addClient(ClientSession client) {//Cette méthode ajoute une session à la liste des clients connectés
+        clients.add(client);
+    }
+
+    public void removeClient(ClientSession client) {//Cette méthode supprime une session de la liste des clients connectés et libère sa place
+        if (clients.remove(client) && sessionPermits != null) {
+            sessionPermits.release();
+        }
+    }
+
+    int countIdleSessions() {//Cette méthode compte les sessions qui attendent une requête de leur client
+        int idle = 0;
+        synchronized (clients) {
+            for (ClientSession client : clients) {
+                if (client.isIdle()) {
+                    idle++;
+                }
+            }
+        }
+        return idle;
     }
 
-    public List<ClientHandler> getClients() {//Cette méthode retourne la liste des clients connectés
+    public List<ClientSession> getClients() {//Cette méthode retourne la liste des clients connectés
         return Collections.unmodifiableList(clients);
     }
 
-    
-    public boolean fileExists(String fileName) {//Cette méthode vérifie si un fichier existe dans le répertoire de stockage des fichiers
-        File file = new File(storageDirectory, fileName);
-        return file.exists() && file.isFile();//Retourne true si le fichier existe et est un fichier, sinon retourne false
+    int getMaxBatchParallelism() {//Cette méthode retourne le nombre maximal de commandes d'un lot exécutées simultanément
+        return config.getMaxBatchParallelism();
+    }
+
+    long getBatchTimeoutMillis() {//Cette méthode retourne le délai maximal d'une commande d'un lot (0 = illimité)
+        return config.getBatchTimeoutMillis();
+    }
+
+    CommandExecutor getCommandExecutor() {//Cette méthode retourne l'exécuteur des commandes système partagé par toutes les sessions
+        return commandExecutor;
+    }
+
+    ShellPool.Lease leaseShell() {//shell persistant d'une nouvelle session, null si l'option est désactivée
+        return shellPool != null ? shellPool.lease() : null;
+    }
+
+    void execute(Runnable task) {//Cette méthode exécute une tâche bloquante (authentification, commande) dans le pool de threads du serveur
+        threadPool.execute(task);
     }
 
     
-    public String getFilePath(String fileName) {//Cette méthode retourne le chemin absolu d'un fichier dans le répertoire de stockage des fichiers
-        return new File(storageDirectory, fileName).getAbsolutePath();
+    public boolean fileExists(String fileName) {//Cette méthode vérifie si un fichier existe dans le stockage des fichiers
+        return contentStore.contains(fileName);
+    }
+
+    //Cette méthode retourne le chemin d'un fichier du stockage (fichier ordinaire, utilisable par les commandes et les downloads),
+    //ou null s'il n'existe pas
+    public String getFilePath(String fileName) {
+        return contentStore.contains(fileName) ? new File(storageDirectory, fileName).getAbsolutePath() : null;
+    }
+
+    public boolean deleteFile(String fileName) throws IOException {//Cette méthode supprime un fichier du stockage; retourne false s'il n'existe pas
+        return contentStore.delete(fileName);
+    }
+
+    ContentStore getContentStore() {//Cette méthode retourne le stockage par contenu des fichiers reçus
+        return contentStore;
+    }
+
+    //Cette méthode ouvre le fichier demandé par un download (fichier du stockage ou fichier ordinaire du serveur), null s'il n'existe pas
+    StoredFile openFile(String path) throws IOException {
+        return contentStore.open(path);
     }
 
-    public static void main(String[] args) {//Méthode principale pour démarrer le serveur avec un port spécifié en argument
-        int port = 9999; // Port par défaut si aucun port n'est spécifié
-        if (args.length > 0) {//Si un port est spécifié en argument alors on l'utilise
+    //Méthode principale pour démarrer le serveur avec un port spécifié en argument.
+    //Une plage de ports (ex: 10000-10099) démarre un serveur par port dans la même JVM, chacun avec son répertoire de stockage
+    //(<stockage>/<port>) et sans point d'accès des mesures sauf le premier: de quoi essayer le mode flotte du client (client.Fleet).
+    public static void main(String[] args) {
+        int firstPort = 9999; // Port par défaut si aucun port n'est spécifié
+        int lastPort = firstPort;
+        if (args.length > 0) {//Si un port ou une plage de ports est spécifié en argument alors on l'utilise
             try {
-                port = Integer.parseInt(args[0]);
+                String[] range = args[0].split("-", 2);
+                firstPort = Integer.parseInt(range[0]);
+                lastPort = range.length == 2 ? Integer.parseInt(range[1]) : firstPort;
+                if (lastPort < firstPort) {
+                    throw new NumberFormatException(args[0]);
+                }
             } catch (NumberFormatException e) {//Si le port spécifié n'est pas un entier alors on affiche un message d'erreur et on utilise le port par défaut
                 System.out.println("Port invalide, utilisation du port par défaut: 9999");
+                firstPort = 9999;
+                lastPort = firstPort;
             }
         }
 
@@ -221,7 +513,23 @@ public class Server {
         System.setProperty("javax.net.ssl.keyStore", "keystore.jks");//Définition du fichier de clés pour le serveur SSL (keystore.jks)
         System.setProperty("javax.net.ssl.keyStorePassword", "hamid123");//Définition du mot de passe du fichier de clés pour le serveur SSL
 
-        Server server = new Server(port);//Création d'une instance de serveur avec le port spécifié
-        server.start();//Démarrage du serveur pour écouter les connexions entrantes
+        for (int port = firstPort; port <= lastPort; port++) {
+            ServerConfig config = ServerConfig.fromSystemProperties();
+            if (args.length > 1) {//Si un mode est spécifié en argument (threads, nio ou virtual) alors on l'utilise
+                config.setMode(ServerConfig.parseMode(args[1], config.getMode()));
+            }
+            if (lastPort > firstPort) {//plusieurs serveurs: un stockage chacun, un seul point d'accès des mesures
+                config.setStorageDirectory(new File(config.getStorageDirectory(), String.valueOf(port)).getPath());
+                if (port > firstPort) {
+                    config.setMetricsPort(0);
+                }
+            }
+            Server server = new Server(port, config);//Création d'une instance de serveur avec le port et la configuration spécifiés
+            if (port == lastPort) {
+                server.start();//Démarrage du serveur pour écouter les connexions entrantes
+            } else {
+                new Thread(server::start, "serveur-" + port).start();
+            }
+        }
     }
 }
\ No newline at end of file
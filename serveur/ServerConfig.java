@@ -0,0 +1,400 @@
+package serveur;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import protocole.TlsContext;
+//Cette classe regroupe les paramètres de configuration du serveur.
+//Les valeurs par défaut reproduisent le comportement historique (un thread par connexion).
+//Chaque paramètre peut être surchargé par une propriété système "serveur.*" (ex: -Dserveur.mode=nio).
+public class ServerConfig {
+    public static final String USER_DATABASE = "bd";//utilisateurs lus dans la base de données MySQL
+    public static final String USER_FILE_PREFIX = "fichier:";//suivi du chemin d'un fichier login=mot de passe haché (voir MemoryUserStore)
+
+    //Modes d'exécution des sessions clients
+    public enum Mode {
+        THREADS,//un ClientHandler par connexion dans un pool de threads (mode historique)
+        NIO,//boucles d'événements NIO + SSLEngine multiplexant toutes les sessions
+        VIRTUAL//un ClientHandler par connexion sur un thread virtuel (Java 21+, sinon pool de threads)
+    }
+
+    private Mode mode;//mode d'exécution des sessions
+    private int nioLoops;//nombre de boucles d'événements en mode NIO
+    private int maxSessions;//nombre maximal de sessions simultanées (0 = illimité)
+    private int maxProcesses;//nombre maximal de processus de commande simultanés (0 = illimité)
+    private int interactiveProcesses;//places de processus réservées aux commandes interactives (-1 = un quart de maxProcesses)
+    private double commandRate;//lancements de processus par seconde et par login (0 = illimité, voir CommandScheduler)
+    private int commandBurst;//lancements d'un login au-delà de son débit, s'il n'a rien lancé depuis un moment
+    private Map<String, Integer> userWeights;//poids des logins dans la file des commandes (1 par défaut)
+    private int maxRequests;//nombre maximal de requêtes traitées simultanément pour une session (protocole binaire)
+    private int maxBatchParallelism;//nombre maximal de commandes d'un même lot exécutées simultanément
+    private long batchTimeoutMillis;//délai maximal d'une commande d'un lot, appliqué si le client n'en donne pas de plus court (0 = illimité)
+    private int dbPoolMin;//nombre de connexions à la base de données ouvertes au démarrage et maintenues
+    private int dbPoolMax;//nombre maximal de connexions à la base de données
+    private long dbAcquireTimeoutMillis;//attente maximale d'une connexion à la base de données
+    private int authCacheMaxEntries;//nombre maximal de logins gardés dans le cache d'authentification (0 = pas de cache)
+    private long authCacheTtlMillis;//durée de validité d'un login dans le cache d'authentification (0 = pas de cache)
+    private int tlsSessionCacheSize;//nombre de sessions TLS gardées pour être reprises par les clients qui se reconnectent (0 = illimité)
+    private int tlsSessionTimeoutSeconds;//durée pendant laquelle une session TLS peut être reprise
+    private int metricsPort;//port local du point d'accès HTTP des mesures (0 = pas de point d'accès)
+    private String userSource;//table des utilisateurs: USER_DATABASE ou USER_FILE_PREFIX + chemin
+    private boolean compression;//compression des trames acceptée si le client la propose (protocole binaire)
+    private String storageDirectory;//répertoire du stockage des fichiers reçus
+    private boolean storageImport;//fichiers ordinaires du répertoire de stockage importés au démarrage (voir ContentStore)
+    private boolean persistentShell;//commandes d'une session exécutées dans un même shell (voir PersistentShell)
+    private int shellReserve;//shells persistants démarrés d'avance pour les nouvelles sessions
+    private boolean builtinCommands;//formes courantes de ls, cat, wc... exécutées dans la JVM (voir Builtins)
+    private String commandCacheRules;//fichier des règles du cache des résultats de commandes (null = pas de cache, voir ResultCache)
+    private long commandCacheMaxBytes;//taille maximale des sorties gardées par le cache des résultats
+
+    public ServerConfig() {//Ce constructeur initialise la configuration avec les valeurs par défaut
+        this.mode = Mode.THREADS;
+        this.nioLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.maxSessions = 0;
+        this.maxProcesses = 0;
+        this.interactiveProcesses = -1;
+        this.commandRate = 0;
+        this.commandBurst = 20;
+        this.userWeights = Collections.emptyMap();
+        this.maxRequests = 32;
+        this.maxBatchParallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+        this.batchTimeoutMillis = 10 * 60 * 1000;
+        this.dbPoolMin = 2;
+        this.dbPoolMax = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        this.dbAcquireTimeoutMillis = 5000;
+        this.authCacheMaxEntries = 10000;
+        this.authCacheTtlMillis = 60000;
+        this.tlsSessionCacheSize = TlsContext.DEFAULT_SESSION_CACHE_SIZE;
+        this.tlsSessionTimeoutSeconds = TlsContext.DEFAULT_SESSION_TIMEOUT_SECONDS;
+        this.metricsPort = 9998;
+        this.userSource = USER_DATABASE;
+        this.compression = true;
+        this.storageDirectory = "server_storage";
+        this.storageImport = false;
+        this.persistentShell = false;
+        this.shellReserve = 2;
+        this.builtinCommands = true;
+        this.commandCacheRules = null;
+        this.commandCacheMaxBytes = 64L * 1024 * 1024;
+    }
+
+    public static ServerConfig fromSystemProperties() {//Cette méthode crée une configuration en lisant les propriétés système "serveur.*"
+        ServerConfig config = new ServerConfig();
+        config.setMode(parseMode(System.getProperty("serveur.mode"), config.getMode()));
+        config.setNioLoops(Integer.getInteger("serveur.nio.boucles", config.getNioLoops()));
+        config.setMaxSessions(Integer.getInteger("serveur.sessions.max", config.getMaxSessions()));
+        config.setMaxProcesses(Integer.getInteger("serveur.processus.max", config.getMaxProcesses()));
+        config.setInteractiveProcesses(Integer.getInteger("serveur.processus.interactifs", config.interactiveProcesses));
+        config.setCommandRate(Double.parseDouble(System.getProperty("serveur.debit.commandes", String.valueOf(config.getCommandRate()))));
+        config.setCommandBurst(Integer.getInteger("serveur.debit.rafale", config.getCommandBurst()));
+        String weights = System.getProperty("serveur.poids");
+        if (weights != null) {
+            config.setUserWeights(parseWeights(weights));
+        }
+        config.setMaxRequests(Integer.getInteger("serveur.requetes.max", config.getMaxRequests()));
+        config.setMaxBatchParallelism(Integer.getInteger("serveur.lot.parallelisme.max", config.getMaxBatchParallelism()));
+        config.setBatchTimeoutMillis(Long.getLong("serveur.lot.delai.ms", config.getBatchTimeoutMillis()));
+        config.setDbPool(Integer.getInteger("serveur.bd.min", config.getDbPoolMin()), Integer.getInteger("serveur.bd.max", config.getDbPoolMax()));
+        config.setDbAcquireTimeoutMillis(Long.getLong("serveur.bd.attente.ms", config.getDbAcquireTimeoutMillis()));
+        config.setAuthCacheMaxEntries(Integer.getInteger("serveur.auth.max", config.getAuthCacheMaxEntries()));
+        config.setAuthCacheTtlMillis(Long.getLong("serveur.auth.ttl.ms", config.getAuthCacheTtlMillis()));
+        config.setTlsSessionCacheSize(Integer.getInteger("serveur.tls.sessions", config.getTlsSessionCacheSize()));
+        config.setTlsSessionTimeoutSeconds(Integer.getInteger("serveur.tls.sessions.s", config.getTlsSessionTimeoutSeconds()));
+        config.setMetricsPort(Integer.getInteger("serveur.metriques.port", config.getMetricsPort()));
+        config.setUserSource(System.getProperty("serveur.utilisateurs", config.getUserSource()));
+        config.setCompression(Boolean.parseBoolean(System.getProperty("serveur.compression", String.valueOf(config.isCompression()))));
+        config.setStorageDirectory(System.getProperty("serveur.stockage", config.getStorageDirectory()));
+        config.setStorageImport(Boolean.parseBoolean(System.getProperty("serveur.stockage.import", String.valueOf(config.isStorageImport()))));
+        config.setPersistentShell(Boolean.parseBoolean(System.getProperty("serveur.shell.persistant", String.valueOf(config.isPersistentShell()))));
+        config.setShellReserve(Integer.getInteger("serveur.shell.reserve", config.getShellReserve()));
+        config.setBuiltinCommands(Boolean.parseBoolean(System.getProperty("serveur.commandes.internes", String.valueOf(config.isBuiltinCommands()))));
+        config.setCommandCacheRules(System.getProperty("serveur.cache.regles", config.getCommandCacheRules()));
+        config.setCommandCacheMaxBytes(Long.getLong("serveur.cache.octets.max", config.getCommandCacheMaxBytes()));
+        return config;
+    }
+
+    //Cette méthode décode les poids des logins "login=poids,login=poids" (poids entier positif)
+    public static Map<String, Integer> parseWeights(String value) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int equals = entry.lastIndexOf('=');
+            try {
+                weights.put(entry.substring(0, equals).trim(), Integer.parseInt(entry.substring(equals + 1).trim()));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Poids invalide: " + entry + " (login=poids)");
+            }
+        }
+        return weights;
+    }
+
+    public static Mode parseMode(String value, Mode defaultMode) {//Cette méthode convertit un nom de mode (insensible à la casse) en Mode, ou retourne le mode par défaut
+        if (value == null || value.isBlank()) {
+            return defaultMode;
+        }
+        try {
+            return Mode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Mode de serveur inconnu: " + value);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getNioLoops() {
+        return nioLoops;
+    }
+
+    public void setNioLoops(int nioLoops) {
+        if (nioLoops < 1) {
+            throw new IllegalArgumentException("Le nombre de boucles NIO doit être positif");
+        }
+        this.nioLoops = nioLoops;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = Math.max(0, maxSessions);
+    }
+
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    public void setMaxProcesses(int maxProcesses) {
+        this.maxProcesses = Math.max(0, maxProcesses);
+    }
+
+    public int getInteractiveProcesses() {//places réservées aux commandes interactives: les lots ne les occupent pas
+        return interactiveProcesses >= 0 ? Math.min(interactiveProcesses, maxProcesses) : (maxProcesses + 3) / 4;
+    }
+
+    public void setInteractiveProcesses(int interactiveProcesses) {//-1: un quart de maxProcesses
+        this.interactiveProcesses = Math.max(-1, interactiveProcesses);
+    }
+
+    public double getCommandRate() {
+        return commandRate;
+    }
+
+    public void setCommandRate(double commandRate) {
+        if (commandRate < 0 || Double.isNaN(commandRate) || Double.isInfinite(commandRate)) {
+            throw new IllegalArgumentException("Débit de commandes invalide: " + commandRate);
+        }
+        this.commandRate = commandRate;
+    }
+
+    public int getCommandBurst() {
+        return commandBurst;
+    }
+
+    public void setCommandBurst(int commandBurst) {
+        this.commandBurst = Math.max(1, commandBurst);
+    }
+
+    public Map<String, Integer> getUserWeights() {
+        return userWeights;
+    }
+
+    public void setUserWeights(Map<String, Integer> userWeights) {
+        for (Map.Entry<String, Integer> weight : userWeights.entrySet()) {
+            if (weight.getKey().isEmpty() || weight.getValue() == null || weight.getValue() <= 0) {
+                throw new IllegalArgumentException("Poids invalide: " + weight.getKey() + "=" + weight.getValue());
+            }
+        }
+        this.userWeights = Collections.unmodifiableMap(new HashMap<>(userWeights));
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Le nombre de requêtes simultanées par session doit être positif");
+        }
+        this.maxRequests = maxRequests;
+    }
+
+    public int getMaxBatchParallelism() {
+        return maxBatchParallelism;
+    }
+
+    public void setMaxBatchParallelism(int maxBatchParallelism) {
+        if (maxBatchParallelism < 1) {
+            throw new IllegalArgumentException("Le parallélisme maximal des lots de commandes doit être positif");
+        }
+        this.maxBatchParallelism = maxBatchParallelism;
+    }
+
+    public long getBatchTimeoutMillis() {
+        return batchTimeoutMillis;
+    }
+
+    public void setBatchTimeoutMillis(long batchTimeoutMillis) {
+        this.batchTimeoutMillis = Math.max(0, batchTimeoutMillis);
+    }
+
+    public int getDbPoolMin() {
+        return dbPoolMin;
+    }
+
+    public int getDbPoolMax() {
+        return dbPoolMax;
+    }
+
+    public void setDbPool(int min, int max) {
+        if (max < 1 || min < 0 || min > max) {
+            throw new IllegalArgumentException("Taille du pool de connexions invalide: min " + min + ", max " + max);
+        }
+        this.dbPoolMin = min;
+        this.dbPoolMax = max;
+    }
+
+    public long getDbAcquireTimeoutMillis() {
+        return dbAcquireTimeoutMillis;
+    }
+
+    public void setDbAcquireTimeoutMillis(long dbAcquireTimeoutMillis) {
+        this.dbAcquireTimeoutMillis = Math.max(0, dbAcquireTimeoutMillis);
+    }
+
+    public int getAuthCacheMaxEntries() {
+        return authCacheMaxEntries;
+    }
+
+    public void setAuthCacheMaxEntries(int authCacheMaxEntries) {
+        this.authCacheMaxEntries = Math.max(0, authCacheMaxEntries);
+    }
+
+    public long getAuthCacheTtlMillis() {
+        return authCacheTtlMillis;
+    }
+
+    public void setAuthCacheTtlMillis(long authCacheTtlMillis) {
+        this.authCacheTtlMillis = Math.max(0, authCacheTtlMillis);
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = Math.max(0, tlsSessionCacheSize);
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        if (tlsSessionTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("La durée de reprise des sessions TLS doit être positive");
+        }
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("Port des mesures invalide: " + metricsPort);
+        }
+        this.metricsPort = metricsPort;
+    }
+
+    public String getUserSource() {
+        return userSource;
+    }
+
+    public void setUserSource(String userSource) {
+        if (!userSource.equals(USER_DATABASE) && !(userSource.startsWith(USER_FILE_PREFIX) && userSource.length() > USER_FILE_PREFIX.length())) {
+            throw new IllegalArgumentException("Table des utilisateurs inconnue: " + userSource + " (" + USER_DATABASE + " ou " + USER_FILE_PREFIX + "chemin)");
+        }
+        this.userSource = userSource;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    public void setStorageDirectory(String storageDirectory) {
+        if (storageDirectory == null || storageDirectory.isBlank()) {
+            throw new IllegalArgumentException("Répertoire de stockage invalide");
+        }
+        this.storageDirectory = storageDirectory;
+    }
+
+    public boolean isStorageImport() {
+        return storageImport;
+    }
+
+    public void setStorageImport(boolean storageImport) {
+        this.storageImport = storageImport;
+    }
+
+    public boolean isPersistentShell() {
+        return persistentShell;
+    }
+
+    public void setPersistentShell(boolean persistentShell) {
+        this.persistentShell = persistentShell;
+    }
+
+    public int getShellReserve() {
+        return shellReserve;
+    }
+
+    public void setShellReserve(int shellReserve) {
+        this.shellReserve = Math.max(0, shellReserve);
+    }
+
+    public boolean isBuiltinCommands() {
+        return builtinCommands;
+    }
+
+    public void setBuiltinCommands(boolean builtinCommands) {
+        this.builtinCommands = builtinCommands;
+    }
+
+    public String getCommandCacheRules() {
+        return commandCacheRules;
+    }
+
+    public void setCommandCacheRules(String commandCacheRules) {//null ou vide: pas de cache
+        this.commandCacheRules = commandCacheRules == null || commandCacheRules.isBlank() ? null : commandCacheRules;
+    }
+
+    public long getCommandCacheMaxBytes() {
+        return commandCacheMaxBytes;
+    }
+
+    public void setCommandCacheMaxBytes(long commandCacheMaxBytes) {
+        if (commandCacheMaxBytes <= 0) {
+            throw new IllegalArgumentException("Taille du cache des commandes invalide: " + commandCacheMaxBytes);
+        }
+        this.commandCacheMaxBytes = commandCacheMaxBytes;
+    }
+}
@@ -7,6 +7,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.table.DefaultTableModel;
 //Cette classe est une interface graphique pour le serveur. Elle affiche un journal des événements du serveur, une liste des clients connectés et un bouton pour démarrer/arrêter le serveur.
 public class ServerGUI extends JFrame {
     private Server server;//Serveur de contrôle à distance
@@ -17,6 +18,8 @@ public class ServerGUI extends JFrame {
     private int port;// Port du serveur
     private boolean serverRunning;//Indique si le serveur est en cours d'exécution
     private Thread updateClientsThread; // Thread pour mettre à jour la liste des clients
+    private JLabel gaugesLabel;//Sessions, commandes en cours et en attente, débits
+    private DefaultTableModel metricsModel;//Durées mesurées par le serveur (une ligne par mesure)
 
     
     public ServerGUI() {//Constructeur de la classe , il initialise l'interface graphique du serveur et configure le logger pour rediriger les logs vers l'interface graphique
@@ -77,6 +80,9 @@ public class ServerGUI extends JFrame {
 
         mainPanel.add(clientsPanel, BorderLayout.EAST);
 
+        // Panneau des mesures du serveur, mis à jour avec la liste des clients
+        mainPanel.add(createMetricsPanel(), BorderLayout.SOUTH);
+
         // Panneau de contrôle avec un FlowLayout pour aligner les composants à gauche
         JPanel controlPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JLabel portLabel = new JLabel("Port:");
@@ -122,6 +128,68 @@ public class ServerGUI extends JFrame {
         setVisible(true);//Rendre la fenêtre visible 
     }
 
+    private JPanel createMetricsPanel() {//cette méthode crée le panneau des mesures: jauges sur une ligne, puis un tableau des durées
+        gaugesLabel = new JLabel(" ");
+        metricsModel = new DefaultTableModel(new Object[] {"Mesure", "Nombre", "p50 (ms)", "p90 (ms)", "p99 (ms)", "max (ms)"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (String name : new String[] {"Commandes", "Authentifications", "Poignées de main TLS", "Uploads", "Downloads"}) {
+            metricsModel.addRow(new Object[] {name, 0L, "", "", "", ""});
+        }
+        JTable metricsTable = new JTable(metricsModel);
+        metricsTable.setFocusable(false);
+        metricsTable.setRowSelectionAllowed(false);
+
+        JPanel metricsPanel = new JPanel(new BorderLayout(0, 5));
+        metricsPanel.add(gaugesLabel, BorderLayout.NORTH);
+        JScrollPane metricsScroll = new JScrollPane(metricsTable);
+        metricsScroll.setPreferredSize(new Dimension(0, metricsTable.getRowHeight() * 6 + 8));
+        metricsPanel.add(metricsScroll, BorderLayout.CENTER);
+        return metricsPanel;
+    }
+
+    private void updateMetricsPanel() {// cette méthode lit les mesures du serveur et met à jour le panneau des mesures
+        if (server == null || !serverRunning) {
+            return;
+        }
+        ServerMetrics metrics = server.getMetrics();
+        String gauges = String.format("Sessions: %d actives, %d inactives   Commandes: %d en cours, %d en attente   Upload: %s/s   Download: %s/s   Compression: x%.2f   Stockage: %d fichiers, x%.2f",
+                metrics.getActiveSessions(), metrics.getIdleSessions(), metrics.getRunningCommands(), metrics.getCommandQueueDepth(),
+                formatBytes(metrics.getUploadBytesPerSecond()), formatBytes(metrics.getDownloadBytesPerSecond()), metrics.getCompressionRatio(),
+                metrics.getStoredFileCount(), metrics.getDeduplicationRatio());
+        LatencyHistogram[] histograms = {metrics.getCommandLatency(), metrics.getAuthenticationLatency(), metrics.getTlsHandshakeLatency(),
+                metrics.getUploadDuration(), metrics.getDownloadDuration()};
+        LatencyHistogram.Snapshot[] snapshots = new LatencyHistogram.Snapshot[histograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            snapshots[i] = histograms[i].snapshot();
+        }
+        SwingUtilities.invokeLater(() -> {
+            gaugesLabel.setText(gauges);
+            for (int row = 0; row < snapshots.length; row++) {
+                LatencyHistogram.Snapshot snapshot = snapshots[row];
+                metricsModel.setValueAt(snapshot.getCount(), row, 1);
+                metricsModel.setValueAt(formatMillis(snapshot.getValueAtQuantile(0.5)), row, 2);
+                metricsModel.setValueAt(formatMillis(snapshot.getValueAtQuantile(0.9)), row, 3);
+                metricsModel.setValueAt(formatMillis(snapshot.getValueAtQuantile(0.99)), row, 4);
+                metricsModel.setValueAt(formatMillis(snapshot.getMax()), row, 5);
+            }
+        });
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format("%.1f", micros / 1000.0);
+    }
+
+    private static String formatBytes(double bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f Mo", bytes / (1024 * 1024));
+        }
+        return String.format("%.1f Ko", bytes / 1024);
+    }
+
    
      //Configure le logger pour rediriger les logs vers l'interface graphique
     private void configureLogger() { 
@@ -184,6 +252,7 @@ public class ServerGUI extends JFrame {
             updateClientsThread = new Thread(() -> {
                 while (serverRunning) {
                     updateClientsList();
+                    updateMetricsPanel();
                     try {
                         Thread.sleep(2000); // Mise à jour toutes les 2 secondes 
                     } catch (InterruptedException e) {
@@ -218,11 +287,11 @@ public class ServerGUI extends JFrame {
    
     private void updateClientsList() {// cette méthode met à jour la liste des clients connectés en récupérant les adresses IP des clients à partir du serveur et en les affichant dans l'interface graphique 
         if (server != null && serverRunning) {
-            List<ClientHandler> clients = server.getClients();
+            List<ClientSession> clients = server.getClients();
             Set<String> currentAddresses = new HashSet<>();
 
             // Collecte des adresses actuelles
-            for (ClientHandler client : clients) {
+            for (ClientSession client : clients) {
                 currentAddresses.add(client.getClientAddress());
             }
 
@@ -237,7 +306,7 @@ public class ServerGUI extends JFrame {
                 }
 
                 // Ajout des nouveaux clients
-                for (ClientHandler client : clients) {
+                for (ClientSession client : clients) {
                     String address = client.getClientAddress();
                     String login = client.getLogin();
                     String displayText = address + (login != null ? " (" + login + ")" : " (Non authentifié)");
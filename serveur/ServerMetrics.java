@@ -0,0 +1,446 @@
+package serveur;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import protocole.Compressor;
+import protocole.TlsContext;
+//Cette classe regroupe les mesures du serveur: durée des commandes, des authentifications, des poignées de main TLS et des transferts,
+//octets transférés, sessions actives et inactives, commandes en attente d'un processus, gain et coût de la compression.
+//Les sessions enregistrent leurs mesures sans verrou (LatencyHistogram, LongAdder); les jauges sont calculées à la lecture.
+//Les mesures sont exposées:
+//  - par JMX (voir ServerMetricsMBean et register())
+//  - au format texte de Prometheus (voir toText() et MetricsEndpoint)
+//  - dans le panneau des mesures de ServerGUI
+public class ServerMetrics implements ServerMetricsMBean {
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};//centiles publiés au format texte
+
+    private final Server server;
+    private final Logger logger;
+    private ObjectName objectName;//nom JMX, null si les mesures ne sont pas enregistrées
+
+    private final LatencyHistogram commandLatency = new LatencyHistogram();
+    private final LatencyHistogram authLatency = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshake = new LatencyHistogram();
+    private final LatencyHistogram uploadDuration = new LatencyHistogram();
+    private final LatencyHistogram downloadDuration = new LatencyHistogram();
+    private final LongAdder commandFailures = new LongAdder();
+    private final LongAdder authFailures = new LongAdder();
+    private final LongAdder uploadBytes = new LongAdder();
+    private final LongAdder downloadBytes = new LongAdder();
+    private final RateMeter uploadRate = new RateMeter();
+    private final RateMeter downloadRate = new RateMeter();
+
+    public ServerMetrics(Server server) {
+        this.server = server;
+        this.logger = Logger.getLogger(ServerMetrics.class.getName());
+    }
+
+    public void recordCommand(long nanos, int exitCode) {
+        commandLatency.recordNanos(nanos);
+        if (exitCode != 0) {
+            commandFailures.increment();
+        }
+    }
+
+    public void recordCommandError(long nanos) {//commande qui n'a pas pu être exécutée ou dont le client s'est déconnecté
+        commandLatency.recordNanos(nanos);
+        commandFailures.increment();
+    }
+
+    public void recordAuthentication(long nanos, boolean success) {
+        authLatency.recordNanos(nanos);
+        if (!success) {
+            authFailures.increment();
+        }
+    }
+
+    public void recordTlsHandshake(long nanos) {
+        tlsHandshake.recordNanos(nanos);
+    }
+
+    public void recordUpload(long bytes, long nanos) {
+        uploadDuration.recordNanos(nanos);
+        uploadBytes.add(bytes);
+        uploadRate.add(bytes);
+    }
+
+    public void recordDownload(long bytes, long nanos) {
+        downloadDuration.recordNanos(nanos);
+        downloadBytes.add(bytes);
+        downloadRate.add(bytes);
+    }
+
+    public LatencyHistogram getCommandLatency() {
+        return commandLatency;
+    }
+
+    public LatencyHistogram getAuthenticationLatency() {
+        return authLatency;
+    }
+
+    public LatencyHistogram getTlsHandshakeLatency() {
+        return tlsHandshake;
+    }
+
+    public LatencyHistogram getUploadDuration() {
+        return uploadDuration;
+    }
+
+    public LatencyHistogram getDownloadDuration() {
+        return downloadDuration;
+    }
+
+    // Jauges et compteurs (ServerMetricsMBean)
+
+    @Override
+    public int getActiveSessions() {
+        return Math.max(0, server.getClients().size() - getIdleSessions());
+    }
+
+    @Override
+    public int getIdleSessions() {
+        return server.countIdleSessions();
+    }
+
+    @Override
+    public int getCommandQueueDepth() {
+        return server.getCommandExecutor().getQueueLength();
+    }
+
+    @Override
+    public int getRunningCommands() {
+        return server.getCommandExecutor().getRunningCount();
+    }
+
+    @Override
+    public long getCommandQueueTimeP99Micros() {
+        return server.getCommandExecutor().getScheduler().getQueueTime().snapshot().getValueAtQuantile(0.99);
+    }
+
+    @Override
+    public long getThrottledCommandCount() {
+        return server.getCommandExecutor().getScheduler().getThrottledCount();
+    }
+
+    @Override
+    public long getBuiltinCommandCount() {
+        return server.getCommandExecutor().getBuiltinCount();
+    }
+
+    @Override
+    public long getCommandCacheHitCount() {
+        ResultCache cache = server.getCommandExecutor().getResultCache();
+        return cache != null ? cache.getHitCount() + cache.getCoalescedCount() : 0;
+    }
+
+    @Override
+    public long getCommandCacheMissCount() {
+        ResultCache cache = server.getCommandExecutor().getResultCache();
+        return cache != null ? cache.getMissCount() : 0;
+    }
+
+    @Override
+    public double getCommandCacheHitRatio() {
+        ResultCache cache = server.getCommandExecutor().getResultCache();
+        return cache != null ? cache.getHitRatio() : 0;
+    }
+
+    @Override
+    public long getCommandCount() {
+        return commandLatency.getCount();
+    }
+
+    @Override
+    public long getCommandFailureCount() {
+        return commandFailures.sum();
+    }
+
+    @Override
+    public long getCommandLatencyP50Micros() {
+        return commandLatency.snapshot().getValueAtQuantile(0.5);
+    }
+
+    @Override
+    public long getCommandLatencyP99Micros() {
+        return commandLatency.snapshot().getValueAtQuantile(0.99);
+    }
+
+    @Override
+    public long getCommandLatencyMaxMicros() {
+        return commandLatency.snapshot().getMax();
+    }
+
+    @Override
+    public long getAuthenticationCount() {
+        return authLatency.getCount();
+    }
+
+    @Override
+    public long getAuthenticationFailureCount() {
+        return authFailures.sum();
+    }
+
+    @Override
+    public long getAuthenticationLatencyP99Micros() {
+        return authLatency.snapshot().getValueAtQuantile(0.99);
+    }
+
+    @Override
+    public long getTlsHandshakeCount() {
+        return tlsHandshake.getCount();
+    }
+
+    @Override
+    public long getTlsHandshakeP99Micros() {
+        return tlsHandshake.snapshot().getValueAtQuantile(0.99);
+    }
+
+    @Override
+    public long getUploadCount() {
+        return uploadDuration.getCount();
+    }
+
+    @Override
+    public long getUploadBytes() {
+        return uploadBytes.sum();
+    }
+
+    @Override
+    public double getUploadBytesPerSecond() {
+        return uploadRate.perSecond();
+    }
+
+    @Override
+    public long getDownloadCount() {
+        return downloadDuration.getCount();
+    }
+
+    @Override
+    public long getDownloadBytes() {
+        return downloadBytes.sum();
+    }
+
+    @Override
+    public double getDownloadBytesPerSecond() {
+        return downloadRate.perSecond();
+    }
+
+    @Override
+    public long getCompressionInputBytes() {
+        return server.getCompressor().getCompressedInputBytes();
+    }
+
+    @Override
+    public long getCompressionOutputBytes() {
+        return server.getCompressor().getCompressedOutputBytes();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long output = getCompressionOutputBytes();
+        return output == 0 ? 1 : (double) getCompressionInputBytes() / output;
+    }
+
+    @Override
+    public long getCompressionSkippedBytes() {
+        return server.getCompressor().getSkippedBytes();
+    }
+
+    @Override
+    public long getCompressionCpuMicros() {
+        return server.getCompressor().getCompressionNanos() / 1000;
+    }
+
+    @Override
+    public long getDecompressionCpuMicros() {
+        return server.getCompressor().getDecompressionNanos() / 1000;
+    }
+
+    @Override
+    public int getStoredFileCount() {
+        ContentStore store = server.getContentStore();
+        return store != null ? store.getFileCount() : 0;
+    }
+
+    @Override
+    public long getStoredLogicalBytes() {
+        ContentStore store = server.getContentStore();
+        return store != null ? store.getLogicalBytes() : 0;
+    }
+
+    @Override
+    public long getStoredBlockBytes() {
+        ContentStore store = server.getContentStore();
+        return store != null ? store.getBlockBytes() : 0;
+    }
+
+    @Override
+    public double getDeduplicationRatio() {
+        long blocks = getStoredBlockBytes();
+        return blocks == 0 ? 1 : (double) getStoredLogicalBytes() / blocks;
+    }
+
+    //Enregistre les mesures auprès du serveur JMX de la JVM; un échec est journalisé sans empêcher le serveur de démarrer
+    public void register(int port) {
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("serveur:type=ServerMetrics,port=" + port);
+            if (mbeans.isRegistered(name)) {//serveur précédent de la même JVM (ServerGUI) mal arrêté
+                mbeans.unregisterMBean(name);
+            }
+            mbeans.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            logger.warning("Mesures du serveur non publiées par JMX: " + e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Déjà retiré
+        }
+        objectName = null;
+    }
+
+    //Retourne les mesures au format texte de Prometheus (version 0.0.4)
+    public String toText() {
+        StringBuilder text = new StringBuilder(4096);
+        gauge(text, "serveur_sessions", "Sessions ouvertes par état", null);
+        text.append("serveur_sessions{etat=\"active\"} ").append(getActiveSessions()).append('\n');
+        text.append("serveur_sessions{etat=\"inactive\"} ").append(getIdleSessions()).append('\n');
+        gauge(text, "serveur_commandes_en_attente", "Commandes en attente d'une place de processus", getCommandQueueDepth());
+        gauge(text, "serveur_commandes_en_cours", "Processus de commande en cours", getRunningCommands());
+        summary(text, "serveur_commande_attente_microsecondes", "Attente des commandes avant le lancement de leur processus (débit du login et place)",
+                server.getCommandExecutor().getScheduler().getQueueTime());
+        counter(text, "serveur_commandes_limitees_total", "Commandes retardées par le débit de leur login", getThrottledCommandCount());
+        counter(text, "serveur_commandes_internes_total", "Commandes exécutées dans la JVM, sans processus", getBuiltinCommandCount());
+        ResultCache cache = server.getCommandExecutor().getResultCache();
+        if (cache != null) {
+            text.append("# HELP serveur_cache_commandes_total Commandes admises par le cache: résultat trouvé, attendu d'une exécution en cours ou exécuté\n");
+            text.append("# TYPE serveur_cache_commandes_total counter\n");
+            text.append("serveur_cache_commandes_total{resultat=\"trouve\"} ").append(cache.getHitCount()).append('\n');
+            text.append("serveur_cache_commandes_total{resultat=\"regroupe\"} ").append(cache.getCoalescedCount()).append('\n');
+            text.append("serveur_cache_commandes_total{resultat=\"execute\"} ").append(cache.getMissCount()).append('\n');
+            text.append("# HELP serveur_cache_commandes_taux_succes Part des commandes admises servies sans exécution\n");
+            text.append("# TYPE serveur_cache_commandes_taux_succes gauge\n");
+            text.append("serveur_cache_commandes_taux_succes ").append(String.format(Locale.ROOT, "%.3f", cache.getHitRatio())).append('\n');
+            gauge(text, "serveur_cache_commandes_resultats", "Résultats gardés par le cache des commandes", cache.size());
+        }
+        summary(text, "serveur_commande_duree_microsecondes", "Durée d'exécution des commandes", commandLatency);
+        counter(text, "serveur_commande_echecs_total", "Commandes en erreur ou terminées par un code non nul", getCommandFailureCount());
+        summary(text, "serveur_authentification_duree_microsecondes", "Durée des authentifications (cache et base de données)", authLatency);
+        counter(text, "serveur_authentification_echecs_total", "Authentifications refusées", getAuthenticationFailureCount());
+        summary(text, "serveur_tls_poignee_de_main_duree_microsecondes", "Durée des poignées de main TLS", tlsHandshake);
+        TlsContext tlsContext = server.getTlsContext();
+        if (tlsContext != null) {
+            text.append("# HELP serveur_tls_poignees_de_main_total Poignées de main TLS complètes et reprises\n");
+            text.append("# TYPE serveur_tls_poignees_de_main_total counter\n");
+            text.append("serveur_tls_poignees_de_main_total{type=\"complete\"} ").append(tlsContext.getFullHandshakeCount()).append('\n');
+            text.append("serveur_tls_poignees_de_main_total{type=\"reprise\"} ").append(tlsContext.getResumedHandshakeCount()).append('\n');
+        }
+        summary(text, "serveur_upload_duree_microsecondes", "Durée des uploads", uploadDuration);
+        counter(text, "serveur_upload_octets_total", "Octets reçus par les uploads terminés", getUploadBytes());
+        summary(text, "serveur_download_duree_microsecondes", "Durée des downloads", downloadDuration);
+        counter(text, "serveur_download_octets_total", "Octets envoyés par les downloads terminés", getDownloadBytes());
+        Compressor compressor = server.getCompressor();
+        text.append("# HELP serveur_compression_octets_total Octets envoyés compressés, avant et après compression, et octets envoyés tels quels\n");
+        text.append("# TYPE serveur_compression_octets_total counter\n");
+        text.append("serveur_compression_octets_total{etat=\"avant\"} ").append(compressor.getCompressedInputBytes()).append('\n');
+        text.append("serveur_compression_octets_total{etat=\"apres\"} ").append(compressor.getCompressedOutputBytes()).append('\n');
+        text.append("serveur_compression_octets_total{etat=\"non_compresse\"} ").append(compressor.getSkippedBytes()).append('\n');
+        text.append("# HELP serveur_compression_ratio Taille avant sur taille après compression des octets compressés\n");
+        text.append("# TYPE serveur_compression_ratio gauge\n");
+        text.append("serveur_compression_ratio ").append(String.format(Locale.ROOT, "%.3f", getCompressionRatio())).append('\n');
+        text.append("# HELP serveur_compression_cpu_microsecondes_total Temps de calcul de la compression et de la décompression\n");
+        text.append("# TYPE serveur_compression_cpu_microsecondes_total counter\n");
+        text.append("serveur_compression_cpu_microsecondes_total{sens=\"compression\"} ").append(getCompressionCpuMicros()).append('\n');
+        text.append("serveur_compression_cpu_microsecondes_total{sens=\"decompression\"} ").append(getDecompressionCpuMicros()).append('\n');
+        gauge(text, "serveur_stockage_fichiers", "Fichiers du stockage", getStoredFileCount());
+        text.append("# HELP serveur_stockage_octets Taille cumulée des fichiers stockés et place qu'ils occupent (les noms liés à un même contenu ne comptent qu'une fois)\n");
+        text.append("# TYPE serveur_stockage_octets gauge\n");
+        text.append("serveur_stockage_octets{type=\"fichiers\"} ").append(getStoredLogicalBytes()).append('\n');
+        text.append("serveur_stockage_octets{type=\"blocs\"} ").append(getStoredBlockBytes()).append('\n');
+        return text.toString();
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, Integer value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" gauge\n");
+        if (value != null) {
+            text.append(name).append(' ').append(value).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, String help, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(snapshot.getValueAtQuantile(quantile)).append('\n');
+        }
+        text.append(name).append("_sum ").append(snapshot.getSum()).append('\n');
+        text.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+    }
+
+    public String getStatistics() {//résumé pour le journal
+        LatencyHistogram.Snapshot commands = commandLatency.snapshot();
+        LatencyHistogram.Snapshot auth = authLatency.snapshot();
+        return String.format(Locale.ROOT, "mesures: %d commandes (p50 %d µs, p99 %d µs, max %d µs, %d en échec); "
+                        + "%d authentifications (p99 %d µs, %d refusées); %d poignées de main TLS (p99 %d µs); "
+                        + "%d uploads (%d octets), %d downloads (%d octets); compression %d -> %d octets (x%.2f, %d µs); "
+                        + "stockage %d fichiers, %d octets dont %d octets sur disque",
+                commands.getCount(), commands.getValueAtQuantile(0.5), commands.getValueAtQuantile(0.99), commands.getMax(), getCommandFailureCount(),
+                auth.getCount(), auth.getValueAtQuantile(0.99), getAuthenticationFailureCount(),
+                getTlsHandshakeCount(), getTlsHandshakeP99Micros(),
+                getUploadCount(), getUploadBytes(), getDownloadCount(), getDownloadBytes(),
+                getCompressionInputBytes(), getCompressionOutputBytes(), getCompressionRatio(), getCompressionCpuMicros(),
+                getStoredFileCount(), getStoredLogicalBytes(), getStoredBlockBytes());
+    }
+
+    //Compte des octets par seconde sur une fenêtre glissante, sans verrou à l'enregistrement
+    private static final class RateMeter {
+        private static final int WINDOW_SECONDS = 10;//les débits sont moyennés sur les 10 dernières secondes complètes
+        private static final int SLOTS = WINDOW_SECONDS + 2;
+        private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);//seconde comptée dans chaque case
+        private final AtomicLongArray values = new AtomicLongArray(SLOTS);
+
+        private void add(long value) {
+            long second = System.currentTimeMillis() / 1000;
+            int slot = (int) (second % SLOTS);
+            long slotSecond = seconds.get(slot);
+            if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {//première valeur de cette seconde: la case est recyclée
+                values.set(slot, 0);
+            }
+            values.addAndGet(slot, value);
+        }
+
+        private double perSecond() {
+            long now = System.currentTimeMillis() / 1000;
+            long total = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                long second = seconds.get(slot);
+                if (second < now && second >= now - WINDOW_SECONDS) {
+                    total += values.get(slot);
+                }
+            }
+            return (double) total / WINDOW_SECONDS;
+        }
+    }
+}
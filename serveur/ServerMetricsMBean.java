@@ -0,0 +1,77 @@
+package serveur;
+
+//Cette interface décrit les mesures du serveur exposées par JMX (jconsole, VisualVM, ...), sous le nom
+//"serveur:type=ServerMetrics,port=<port>". Les durées sont en microsecondes et cumulées depuis le démarrage du serveur.
+public interface ServerMetricsMBean {
+    int getActiveSessions();//sessions qui traitent une requête
+
+    int getIdleSessions();//sessions qui attendent une requête du client
+
+    int getCommandQueueDepth();//commandes qui attendent une place de processus (voir ServerConfig.getMaxProcesses())
+
+    int getRunningCommands();
+
+    long getCommandQueueTimeP99Micros();//attente d'une commande avant le lancement de son processus (débit du login et place)
+
+    long getThrottledCommandCount();//commandes retardées par le débit de leur login (voir ServerConfig.getCommandRate())
+
+    long getBuiltinCommandCount();//commandes exécutées dans la JVM, sans processus (voir ServerConfig.isBuiltinCommands())
+
+    long getCommandCacheHitCount();//résultats repris du cache des commandes ou d'une exécution en cours (voir ResultCache)
+
+    long getCommandCacheMissCount();//commandes admises par le cache mais exécutées
+
+    double getCommandCacheHitRatio();//part des commandes admises servies sans exécution (0 sans cache)
+
+    long getCommandCount();
+
+    long getCommandFailureCount();//commandes terminées avec un code de sortie non nul ou en erreur
+
+    long getCommandLatencyP50Micros();
+
+    long getCommandLatencyP99Micros();
+
+    long getCommandLatencyMaxMicros();
+
+    long getAuthenticationCount();
+
+    long getAuthenticationFailureCount();
+
+    long getAuthenticationLatencyP99Micros();
+
+    long getTlsHandshakeCount();
+
+    long getTlsHandshakeP99Micros();
+
+    long getUploadCount();
+
+    long getUploadBytes();
+
+    double getUploadBytesPerSecond();//octets des uploads terminés pendant les 10 dernières secondes, par seconde
+
+    long getDownloadCount();
+
+    long getDownloadBytes();
+
+    double getDownloadBytesPerSecond();
+
+    long getCompressionInputBytes();//octets envoyés compressés, avant compression
+
+    long getCompressionOutputBytes();//octets envoyés compressés, après compression
+
+    double getCompressionRatio();//taille avant sur taille après compression (1 tant que rien n'a été compressé)
+
+    long getCompressionSkippedBytes();//octets envoyés tels quels dans les sessions compressées (incompressibles ou trop petits)
+
+    long getCompressionCpuMicros();
+
+    long getDecompressionCpuMicros();
+
+    int getStoredFileCount();//fichiers du stockage par contenu
+
+    long getStoredLogicalBytes();//taille cumulée des fichiers stockés
+
+    long getStoredBlockBytes();//place occupée par les fichiers stockés (les noms liés à un même contenu ne comptent qu'une fois)
+
+    double getDeduplicationRatio();//taille des fichiers sur taille des blocs (1 tant que rien n'est dédupliqué)
+}
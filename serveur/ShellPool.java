@@ -0,0 +1,140 @@
+package serveur;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+//Cette classe fournit les shells persistants des sessions (ServerConfig.isPersistentShell(), voir PersistentShell).
+//Elle garde quelques shells démarrés d'avance (ServerConfig.getShellReserve()): une session qui exécute sa première commande
+//en prend un sans attendre son démarrage, et la réserve est complétée en arrière-plan par un thread dédié.
+final class ShellPool implements Closeable {
+    private static final Logger logger = Logger.getLogger(ShellPool.class.getName());
+
+    private final BlockingQueue<PersistentShell> reserve;
+    private final int reserveSize;
+    private final ExecutorService starter;//démarre les shells de la réserve
+    private final AtomicLong started = new AtomicLong();//shells démarrés
+    private final AtomicLong taken = new AtomicLong();//shells remis à une session
+    private final AtomicLong warm = new AtomicLong();//dont pris dans la réserve
+    private volatile boolean closed;
+
+    ShellPool(int reserveSize) {
+        this.reserveSize = reserveSize;
+        this.reserve = new ArrayBlockingQueue<>(Math.max(1, reserveSize));
+        this.starter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reserve-shells");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refill();
+    }
+
+    Lease lease() {//shell d'une nouvelle session, pris à sa première commande
+        return new Lease();
+    }
+
+    private PersistentShell take() throws IOException {
+        PersistentShell shell;
+        while ((shell = reserve.poll()) != null && !shell.isAlive()) {//shell de la réserve terminé entre-temps
+            shell.close();
+        }
+        taken.incrementAndGet();
+        if (shell != null) {
+            warm.incrementAndGet();
+        }
+        refill();
+        return shell != null ? shell : start();
+    }
+
+    private PersistentShell start() throws IOException {
+        PersistentShell shell = PersistentShell.start();
+        started.incrementAndGet();
+        return shell;
+    }
+
+    private void refill() {
+        if (reserveSize == 0 || closed) {
+            return;
+        }
+        starter.execute(() -> {
+            while (!closed && reserve.remainingCapacity() > 0) {
+                try {
+                    PersistentShell shell = start();
+                    if (!reserve.offer(shell) || closed) {
+                        shell.close();
+                    }
+                } catch (IOException e) {
+                    logger.warning("Impossible de démarrer un shell persistant: " + e.getMessage());
+                    return;
+                }
+            }
+        });
+    }
+
+    String getStatistics() {
+        return "Shells persistants: " + started.get() + " démarrés, " + taken.get() + " remis aux sessions dont " + warm.get() + " pris dans la réserve";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        starter.shutdownNow();
+        PersistentShell shell;
+        while ((shell = reserve.poll()) != null) {
+            shell.close();
+        }
+    }
+
+    //Shell d'une session: pris à la première commande, remplacé s'il s'est terminé (exit, délai dépassé), arrêté avec la session
+    final class Lease implements Closeable {
+        private final ReentrantLock lock = new ReentrantLock();
+        private PersistentShell shell;
+        private boolean released;
+
+        private Lease() {
+        }
+
+        //null si la session est fermée ou si aucun shell n'a pu démarrer: la commande est alors lancée dans un nouveau processus
+        PersistentShell get() {
+            lock.lock();
+            try {
+                if (released || closed) {
+                    return null;
+                }
+                if (shell == null || !shell.isAlive()) {
+                    if (shell != null) {
+                        shell.close();
+                    }
+                    try {
+                        shell = take();
+                    } catch (IOException e) {
+                        logger.warning("Impossible de démarrer un shell persistant: " + e.getMessage());
+                        shell = null;
+                    }
+                }
+                return shell;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                released = true;
+                if (shell != null) {
+                    shell.close();
+                    shell = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
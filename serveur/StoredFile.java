@@ -0,0 +1,103 @@
+package serveur;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+//Cette classe lit un fichier à télécharger: un fichier du stockage par contenu (voir ContentStore) ou un fichier ordinaire
+//du serveur. Un fichier stocké est ouvert par ContentStore.openStored(): un download en cours n'est pas perturbé par le
+//remplacement ou la suppression du fichier, il continue de lire la version ouverte jusqu'à close().
+//Une instance est utilisée par un seul transfert à la fois.
+final class StoredFile implements Closeable {
+    private final String name;
+    private final long size;
+    private final String[] blocks;//empreintes des blocs (fichier stocké)
+    private final File file;//fichier ordinaire ouvert à la première lecture, null pour un fichier stocké
+    private FileChannel channel;
+    private boolean closed;
+
+    StoredFile(String name, long size, String[] blocks, FileChannel channel) {
+        this.name = name;
+        this.size = size;
+        this.blocks = blocks;
+        this.file = null;
+        this.channel = channel;
+    }
+
+    StoredFile(File file) {
+        this.name = file.getName();
+        this.size = file.length();
+        this.blocks = new String[0];
+        this.file = file;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long size() {
+        return size;
+    }
+
+    //Identifie le contenu d'un fichier stocké (SHA-256 de sa taille et de la liste de ses blocs), sans le relire:
+    //un envoi différentiel vérifie ainsi qu'il part de la version dont le client a reçu les signatures
+    byte[] getVersion() {
+        MessageDigest digest = ContentStore.newDigest();
+        digest.update(ByteBuffer.allocate(8).putLong(size).array());
+        for (String block : blocks) {
+            digest.update(block.getBytes(StandardCharsets.US_ASCII));
+        }
+        return digest.digest();
+    }
+
+    //Lit à partir de position dans dst, sans dépasser la taille du fichier; retourne le nombre d'octets lus, ou -1 à la fin
+    //du fichier
+    int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int length = (int) Math.min(dst.remaining(), size - position);
+        int limit = dst.limit();
+        dst.limit(dst.position() + length);
+        try {
+            int read = channel().read(dst, position);
+            if (read < 0) {
+                throw new IOException("Fichier raccourci pendant sa lecture: " + name);
+            }
+            return read;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    //Projette en mémoire au plus length octets à partir de position, sans dépasser la taille du fichier
+    MappedByteBuffer map(long position, long length) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, size - position));
+    }
+
+    private FileChannel channel() throws IOException {
+        if (closed) {
+            throw new IOException("Fichier fermé: " + name);
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package serveur;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+//Cette classe adapte la sortie d'une commande au protocole texte historique, ligne par ligne:
+//  - la première ligne envoyée commence par "RESULT:" (même si la commande n'a rien affiché)
+//  - les lignes de la sortie d'erreur commencent par "ERROR: "
+//Un ancien client, qui lit tout jusqu'à END_OF_RESPONSE, obtient donc le même texte qu'avant;
+//un client récent peut afficher chaque ligne dès sa réception.
+abstract class TextCommandOutput implements CommandOutput {
+    private final ByteArrayOutputStream stdoutLine = new ByteArrayOutputStream();//ligne en cours de la sortie standard
+    private final ByteArrayOutputStream stderrLine = new ByteArrayOutputStream();//ligne en cours de la sortie d'erreur
+    private boolean started;//la ligne "RESULT:" a été envoyée
+
+    protected abstract void writeLine(String line) throws IOException;//envoie une ligne du protocole (sans fin de ligne)
+
+    @Override
+    public void write(boolean error, byte[] data, int length) throws IOException {
+        ByteArrayOutputStream line = error ? stderrLine : stdoutLine;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                emit(error, line);
+            } else {
+                line.write(data[i]);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    void finish() throws IOException {//envoie les lignes incomplètes restantes, ou "RESULT:" si la commande n'a rien affiché
+        if (stdoutLine.size() > 0) {
+            emit(false, stdoutLine);
+        }
+        if (stderrLine.size() > 0) {
+            emit(true, stderrLine);
+        }
+        if (!started) {
+            writeLine(Server.RESULT_PREFIX);
+            started = true;
+        }
+        flush();
+    }
+
+    private void emit(boolean error, ByteArrayOutputStream line) throws IOException {
+        String text = line.toString();
+        line.reset();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        writeLine((started ? "" : Server.RESULT_PREFIX) + (error ? "ERROR: " : "") + text);
+        started = true;
+    }
+}
@@ -0,0 +1,15 @@
+package serveur;
+
+import java.sql.SQLException;
+//Cette interface représente la table des utilisateurs consultée par le serveur pour authentifier les clients.
+//Elle est implémentée par JdbcUserStore (base de données MySQL, comportement historique) et par MemoryUserStore
+//(utilisateurs en mémoire ou dans un fichier, pour les essais et les tests de charge sans base de données).
+//Le serveur garde les résultats dans son cache d'authentification (AuthCache).
+public interface UserStore {
+    //Retourne le mot de passe haché (SHA-256 en hexadécimal, voir Server.hashPassword) du login, ou null si le login est inconnu
+    String findPasswordHash(String login) throws SQLException;
+
+    String getStatistics();//résumé pour le journal
+
+    void close();
+}